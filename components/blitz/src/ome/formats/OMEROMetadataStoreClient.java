@@ -2329,18 +2329,24 @@ public class OMEROMetadataStoreClient
     public void resetDefaultsAndGenerateThumbnails(List<Long> plateIds,
         List<Long> pixelsIds)
     {
+        // Marks the pyramids requested by these calls as not awaited by
+        // a viewer; see ome.services.pixeldata.PixelDataThread.
+        Map<String, String> importCtx =
+            new HashMap<String, String>(iSettings.ice_getContext());
+        importCtx.put("omero.pixeldata.import", "true");
         try
         {
             if (plateIds.size() > 0)
             {
-                iSettings.resetDefaultsInSet("Plate", plateIds);
+                iSettings.resetDefaultsInSet("Plate", plateIds, importCtx);
             }
             else
             {
-                iSettings.resetDefaultsInSet("Pixels", pixelsIds);
+                iSettings.resetDefaultsInSet("Pixels", pixelsIds, importCtx);
             }
             thumbnailStore.createThumbnailsByLongestSideSet(
-                rint(DEFAULT_INSIGHT_THUMBNAIL_LONGEST_SIDE), pixelsIds);
+                rint(DEFAULT_INSIGHT_THUMBNAIL_LONGEST_SIDE), pixelsIds,
+                importCtx);
         }
         catch (ServerError e)
         {
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.importer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Observer of an {@link ImportCandidates} search which starts importing each
+ * container raised by {@link ImportCandidates.FOUND} on a background thread
+ * while the search continues, passing every event on to another observer.
+ * Once the search is complete, {@link #importContainers(List)} imports the
+ * remaining containers in turn, waiting for the imports already started
+ * rather than importing their containers again.
+ *
+ * @see ImportLibrary#importFound(ImportConfig, IObserver)
+ * @since 5.1
+ */
+public class FoundImports implements IObserver
+{
+
+    /**
+     * Imports a single container of a set.
+     */
+    public interface Importer
+    {
+        /**
+         * @param container the container to import
+         * @param index the index of the container in the set
+         * @param numDone the number of containers of the set imported so far
+         * @param total the number of containers in the set, or
+         * <code>-1</code> if the search is not yet complete
+         * @return if the container was imported without error
+         */
+        boolean importContainer(ImportContainer container, int index,
+                int numDone, int total);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(FoundImports.class);
+
+    private static final ThreadFactory importThreads = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "found-import");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private final Importer importer;
+
+    private final IObserver observer;
+
+    private final boolean contOnError;
+
+    /** The imports started, by container. Guarded by this. */
+    private final Map<ImportContainer, Future<Boolean>> started =
+            new IdentityHashMap<ImportContainer, Future<Boolean>>();
+
+    /** Imports the found containers in turn, created with the first. */
+    private ExecutorService executor;
+
+    /** Only used by {@link #executor}. */
+    private int numDone = 0;
+
+    /** Set once an import has failed and the others are not to follow. */
+    private volatile boolean failed = false;
+
+    /**
+     * @param importer imports each container
+     * @param observer the observer of the search to which the events are
+     * passed on, may be <code>null</code>
+     * @param contOnError if the other containers are to be imported after
+     * one has failed
+     */
+    public FoundImports(Importer importer, IObserver observer,
+            boolean contOnError)
+    {
+        this.importer = importer;
+        this.observer = observer;
+        this.contOnError = contOnError;
+    }
+
+    public void update(IObservable observable, ImportEvent event)
+    {
+        if (observer != null) {
+            observer.update(observable, event);
+        }
+        if (event instanceof ImportCandidates.FOUND) {
+            start(((ImportCandidates.FOUND) event).container);
+        }
+    }
+
+    /**
+     * Queues the import of a container found by the search.
+     * @param container the container found
+     */
+    private synchronized void start(final ImportContainer container)
+    {
+        if (started.containsKey(container)) {
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(importThreads);
+        }
+        final int index = started.size();
+        started.put(container, executor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                if (failed) {
+                    return false;
+                }
+                boolean imported = false;
+                boolean raised = true;
+                try {
+                    imported = importer.importContainer(container, index,
+                            numDone, -1);
+                    raised = false;
+                } finally {
+                    if (imported) {
+                        numDone++;
+                    } else if (raised || !contOnError) {
+                        failed = true;
+                    }
+                }
+                return imported;
+            }
+        }));
+    }
+
+    /**
+     * Imports the containers of a completed search in turn. The containers
+     * whose import was started during the search are not imported again,
+     * their result is waited for instead. Once this method returns no
+     * import is running and those started but not reached, as when the
+     * search was cancelled, are abandoned.
+     * @param containers the containers found by the search
+     * @return if the import did not stop because of an error
+     */
+    public boolean importContainers(List<ImportContainer> containers)
+    {
+        try {
+            int numDone = 0;
+            for (int index = 0; index < containers.size(); index++) {
+                final ImportContainer ic = containers.get(index);
+                final Future<Boolean> found;
+                synchronized (this) {
+                    found = started.get(ic);
+                }
+                final boolean imported;
+                if (found == null) {
+                    imported = importer.importContainer(ic, index, numDone,
+                            containers.size());
+                } else {
+                    imported = await(found);
+                }
+                if (imported) {
+                    numDone++;
+                } else if (!contOnError) {
+                    log.info("Exiting on error");
+                    return false;
+                } else {
+                    log.info("Continuing after error");
+                }
+            }
+            return true;
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Waits for the result of an import started during the search.
+     */
+    private boolean await(Future<Boolean> found)
+    {
+        try {
+            return found.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (CancellationException ce) {
+            return false;
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    /**
+     * Abandons the imports not yet started and waits for any running.
+     */
+    private void stop()
+    {
+        final List<Future<Boolean>> imports;
+        final ExecutorService toStop;
+        synchronized (this) {
+            imports = new ArrayList<Future<Boolean>>(started.values());
+            started.clear();
+            toStop = executor;
+            executor = null;
+        }
+        if (toStop == null) {
+            return;
+        }
+        for (final Future<Boolean> found : imports) {
+            found.cancel(false);
+        }
+        toStop.shutdown();
+        try {
+            while (!toStop.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Waiting for found import to complete");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
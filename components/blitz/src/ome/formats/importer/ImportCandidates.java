@@ -10,11 +10,28 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static omero.rtypes.rint;
 import static omero.rtypes.rstring;
@@ -30,6 +47,9 @@ import loci.formats.in.MetadataLevel;
 import ome.formats.ImageNameMetadataStore;
 import ome.formats.importer.util.ErrorHandler;
 
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+
 import org.apache.commons.io.DirectoryWalker;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.slf4j.Logger;
@@ -40,6 +60,12 @@ import org.slf4j.LoggerFactory;
  * number and members of a given import. This facility permits iterating over a
  * directory.
  *
+ * If several threads are requested, by {@link #THREADS} or by the
+ * constructor, then the directories are walked by a {@link ForkJoinPool} and the files are parsed
+ * concurrently, each worker using its own memoizing {@link OMEROWrapper}.
+ * The results are merged in the order of the directory walk so that the
+ * containers found are those of the serial search.
+ *
  * This class is NOT thread-safe.
  *
  * @since Beta4.1
@@ -98,6 +124,30 @@ public class ImportCandidates extends DirectoryWalker
         }
     }
 
+    /**
+     * Event raised during the search as soon as an {@link ImportContainer}
+     * is known to be part of the final result, i.e. once it uses at least two
+     * files other than the file from which it was found, so that it may be
+     * imported without waiting for the whole search to complete. The
+     * remaining containers are only known once the search is complete and
+     * are not raised. The container will also be returned by
+     * {@link ImportCandidates#getContainers()} unless the search is cancelled.
+     */
+    public static class FOUND extends ImportEvent
+    {
+        public final ImportContainer container;
+
+        public FOUND(ImportContainer container)
+        {
+            this.container = container;
+        }
+
+        public String toLog()
+        {
+            return super.toLog() + ": " + container.getFile();
+        }
+    }
+
     /**
      * Marker exception raised if the {@link SCANNING#cancel()} method is
      * called by an {@link IObserver} instance.
@@ -114,10 +164,40 @@ public class ImportCandidates extends DirectoryWalker
         MetadataLevel.valueOf(System.getProperty(
                 "omero.import.metadata.level","MINIMUM"));
 
+    /**
+     * Number of threads parsing the files. If one, the files are parsed in
+     * the calling thread by the {@link OMEROWrapper} given to the constructor.
+     */
+    final public static int THREADS = Integer.valueOf(
+            System.getProperty("omero.import.scan.threads","1"));
+
+    /**
+     * Minimum time in milliseconds which {@link OMEROWrapper#setId(String)}
+     * must take for the workers to save a memo file, or negative to disable
+     * memoization. Only used if several threads parse the files.
+     */
+    final public static long MEMOIZER_WAIT = Long.valueOf(
+            System.getProperty("omero.import.scan.memoizer.wait","-1"));
+
+    /**
+     * Directory in which the workers save the memo files. If not set, the
+     * memo files are saved next to the files parsed.
+     */
+    final public static String MEMOIZER_DIRECTORY =
+            System.getProperty("omero.import.scan.memoizer.directory");
+
     final private IObserver observer;
     final private OMEROWrapper reader;
-    final private Set<String> allFiles = new HashSet<String>();
+    final private Set<String> allFiles = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
     final private Map<String, List<String>> usedBy = new LinkedHashMap<String, List<String>>();
+    final private ListMultimap<String, ImportContainer> found = LinkedListMultimap.create();
+    /**
+     * Containers raised by {@link FOUND} which may already be importing and
+     * so must not be rewritten once the search is complete.
+     */
+    final private Set<ImportContainer> raised = Collections.newSetFromMap(
+            new IdentityHashMap<ImportContainer, Boolean>());
     final private List<ImportContainer> containers = new ArrayList<ImportContainer>();
     final private long start = System.currentTimeMillis();
 
@@ -192,6 +272,31 @@ public class ImportCandidates extends DirectoryWalker
      */
     public ImportCandidates(int depth, OMEROWrapper reader, String[] paths,
             IObserver observer)
+    {
+        this(depth, reader, paths, observer, THREADS);
+    }
+
+    /**
+     * Constructor which searches the paths with the given number of
+     * threads parsing the files rather than with {@link #THREADS}.
+     *
+     * @param depth
+     *            number of directory levels to search down.
+     * @param reader
+     *            instance used for parsing each of the paths. Not used once the
+     *            constructor completes.
+     * @param paths
+     *            file paths which are searched. May be directories.
+     * @param observer
+     *            {@link IObserver} which will monitor any exceptions during
+     *            {@link OMEROWrapper#setId(String)}. Otherwise no error
+     *            reporting takes place.
+     * @param threads
+     *            number of threads parsing the files. If one, the files are
+     *            parsed in the calling thread by <code>reader</code>.
+     */
+    public ImportCandidates(int depth, OMEROWrapper reader, String[] paths,
+            IObserver observer, int threads)
     {
         super(TrueFileFilter.INSTANCE, depth);
         this.reader = reader;
@@ -216,12 +321,16 @@ public class ImportCandidates extends DirectoryWalker
 
         Groups g;
         try {
-            execute(paths);
-            total = count;
-            count = 0;
-            execute(paths);
+            if (threads > 1) {
+                executeInParallel(depth, paths, threads);
+            } else {
+                execute(paths);
+                total = count;
+                count = 0;
+                execute(paths);
+            }
             g = new Groups(usedBy);
-            g.parse(containers);
+            g.parse(found, containers, raised);
             long totalElapsed = System.currentTimeMillis() - start;
             log.info(String.format("%s file(s) parsed into "
                     + "%s group(s) with %s call(s) to setId in "
@@ -231,8 +340,9 @@ public class ImportCandidates extends DirectoryWalker
         {
             log.info(String.format("Cancelling search after %sms "
                     + "with %s containers found (%sms in %s calls to setIds)",
-                    (System.currentTimeMillis() - start), containers.size(),
+                    (System.currentTimeMillis() - start), found.size(),
                     readerTime, setids));
+            found.clear();
             containers.clear();
             cancelled = true;
             g = null;
@@ -376,6 +486,254 @@ public class ImportCandidates extends DirectoryWalker
         }
     }
 
+    /**
+     * Alternative to the two passes of {@link #execute(String[])} used if
+     * more than one thread is to parse the files. The paths are first walked by
+     * a {@link ForkJoinPool} which lists the files in the order in which
+     * {@link #walk(File, Collection)} would handle them. The files are then
+     * parsed concurrently by workers ahead of the calling thread, which
+     * merges their results in that order, so that the containers found and
+     * the events raised are those of {@link #execute(String[])}. A worker
+     * skips a file already used by a merged container, but a file may also
+     * be parsed in vain if used by a container merged while it is parsed.
+     *
+     * @param depth number of directory levels to search down
+     * @param paths file paths which are searched. May be directories.
+     * @param threads number of concurrent workers
+     */
+    protected void executeInParallel(int depth, String[] paths, int threads)
+    {
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        try {
+            final AtomicInteger walked = new AtomicInteger();
+            final List<Walk> walks = new ArrayList<Walk>();
+            for (String string : paths) {
+                final Walk walk = new Walk(new File(string), 0, depth,
+                        walked, stop);
+                pool.execute(walk);
+                walks.add(walk);
+            }
+            final List<Scanned> files = new ArrayList<Scanned>();
+            final int[] ends = new int[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                files.addAll(await(walks.get(i), new File(paths[i]), walked));
+                ends[i] = files.size();
+            }
+            total = files.size();
+            count = 0;
+
+            final ImportConfig config = reader.getConfig();
+            final BlockingQueue<OMEROWrapper> readers =
+                    new LinkedBlockingQueue<OMEROWrapper>();
+            final LinkedList<ForkJoinTask<Parsed>> pending =
+                    new LinkedList<ForkJoinTask<Parsed>>();
+            final int ahead = threads * 4;
+            int submitted = 0;
+            int path = 0;
+            for (int i = 0; i < files.size(); i++) {
+                while (submitted < files.size() && submitted <= i + ahead) {
+                    pending.add(pool.submit(new Parse(
+                            files.get(submitted++).file, config, readers)));
+                }
+                final ForkJoinTask<Parsed> task = pending.removeFirst();
+                final Scanned scanned = files.get(i);
+                merge(scanned.file, scanned.depth, task);
+                while (path < ends.length && ends[path] <= i + 1) {
+                    // As in execute, one event for each path.
+                    scanWithCancel(new File(paths[path++]), 0);
+                }
+            }
+            while (path < ends.length) {
+                scanWithCancel(new File(paths[path++]), 0);
+            }
+        } finally {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the given walk to complete, raising a {@link SCANNING} event
+     * every second with the number of files walked so far.
+     */
+    private List<Scanned> await(Walk walk, File path, AtomicInteger walked)
+    {
+        while (true) {
+            try {
+                final List<Scanned> files = walk.get(1, TimeUnit.SECONDS);
+                count = walked.get();
+                scanWithCancel(path, 0);
+                return files;
+            } catch (TimeoutException te) {
+                count = walked.get();
+                scanWithCancel(path, 0);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new CANCEL();
+            } catch (ExecutionException ee) {
+                throw new RuntimeException(ee.getCause());
+            }
+        }
+    }
+
+    /**
+     * The parallel equivalent of {@link #handleFile(File, int, Collection)}
+     * once the files have been counted, using the result of the given task
+     * rather than parsing the file.
+     */
+    private void merge(File file, int depth, ForkJoinTask<Parsed> task)
+    {
+        count++;
+
+        // Our own filtering
+        if (file.getName().startsWith(".")) {
+            return; // Omitting dot files.
+        }
+
+        // If this is the 100th file, publish an event
+        if (count%100 == 0) {
+            scanWithCancel(file, depth);
+        }
+
+        // Also checked by the task, but the file may have been used since.
+        if (allFiles.contains(file.getAbsolutePath())) {
+            return;
+        }
+
+        final Parsed parsed;
+        try {
+            parsed = task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new CANCEL();
+        } catch (ExecutionException ee) {
+            throw new RuntimeException(ee.getCause());
+        }
+        add(file, record(parsed));
+    }
+
+    /**
+     * A file to be parsed, with its depth in the walk.
+     */
+    private static class Scanned
+    {
+        final File file;
+        final int depth;
+
+        Scanned(File file, int depth)
+        {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Lists the files which {@link ImportCandidates#walk(File, Collection)}
+     * would handle below the given file, in the same order, forking a task
+     * for each subdirectory.
+     */
+    private static class Walk extends RecursiveTask<List<Scanned>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final int depth;
+        private final int depthLimit;
+        private final AtomicInteger walked;
+        private final AtomicBoolean stop;
+
+        Walk(File file, int depth, int depthLimit, AtomicInteger walked,
+                AtomicBoolean stop)
+        {
+            this.file = file;
+            this.depth = depth;
+            this.depthLimit = depthLimit;
+            this.walked = walked;
+            this.stop = stop;
+        }
+
+        @Override
+        protected List<Scanned> compute()
+        {
+            final List<Scanned> files = new ArrayList<Scanned>();
+            if (stop.get()) {
+                return files;
+            }
+            if (!file.isDirectory()) {
+                walked.incrementAndGet();
+                files.add(new Scanned(file, depth));
+                return files;
+            }
+            final int childDepth = depth + 1;
+            if (depthLimit >= 0 && childDepth > depthLimit) {
+                return files;
+            }
+            final File[] children = file.listFiles();
+            if (children == null) {
+                return files;
+            }
+            final List<Object> parts = new ArrayList<Object>(children.length);
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    final Walk walk = new Walk(child, childDepth, depthLimit,
+                            walked, stop);
+                    walk.fork();
+                    parts.add(walk);
+                } else {
+                    walked.incrementAndGet();
+                    parts.add(new Scanned(child, childDepth));
+                }
+            }
+            for (Object part : parts) {
+                if (part instanceof Walk) {
+                    files.addAll(((Walk) part).join());
+                } else {
+                    files.add((Scanned) part);
+                }
+            }
+            return files;
+        }
+    }
+
+    /**
+     * Parses a single file with a worker reader taken from the given queue,
+     * unless the file is a dot file or already used by a container found.
+     */
+    private class Parse implements Callable<Parsed>
+    {
+        private final File file;
+        private final ImportConfig config;
+        private final BlockingQueue<OMEROWrapper> readers;
+
+        Parse(File file, ImportConfig config,
+                BlockingQueue<OMEROWrapper> readers)
+        {
+            this.file = file;
+            this.config = config;
+            this.readers = readers;
+        }
+
+        public Parsed call()
+        {
+            if (file.getName().startsWith(".")
+                    || allFiles.contains(file.getAbsolutePath())) {
+                return null;
+            }
+            OMEROWrapper worker = readers.poll();
+            if (worker == null) {
+                worker = new OMEROWrapper(config, MEMOIZER_WAIT,
+                        MEMOIZER_DIRECTORY == null ? null
+                                : new File(MEMOIZER_DIRECTORY));
+            }
+            try {
+                return parse(worker, file, config);
+            } finally {
+                readers.add(worker);
+            }
+        }
+    }
+
     /**
      * Return an import container for a single file
      * @param file - single file
@@ -383,17 +741,60 @@ public class ImportCandidates extends DirectoryWalker
      */
     protected ImportContainer singleFile(File file, ImportConfig config)
     {
+        return record(parse(reader, file, config));
+    }
+
+    /**
+     * Result of parsing a single file with
+     * {@link ImportCandidates#parse(OMEROWrapper, File, ImportConfig)},
+     * kept until it is known whether the result is used.
+     */
+    private static class Parsed
+    {
+        ImportContainer container;
+        ImportEvent error;
+        long time = 0;
+        int setids = 0;
+        boolean unknown = false;
+    }
+
+    /**
+     * Adds the statistics of the given result to this instance and raises
+     * its error, if any.
+     *
+     * @return the container of the result, possibly null
+     */
+    private ImportContainer record(Parsed parsed)
+    {
+        setids += parsed.setids;
+        readerTime += parsed.time;
+        if (parsed.unknown) {
+            unknown++;
+        }
+        if (parsed.error != null) {
+            safeUpdate(parsed.error);
+        }
+        return parsed.container;
+    }
 
+    /**
+     * Parses a single file with the given reader. Any error is kept in the
+     * result rather than raised so that this method may be called by
+     * several threads.
+     */
+    private Parsed parse(OMEROWrapper reader, File file, ImportConfig config)
+    {
+        final Parsed parsed = new Parsed();
         if (file == null) {
             // Can't do anything about it.
-            return null;
+            return parsed;
         }
 
         final String path = file.getAbsolutePath();
         if (!file.exists() || !file.canRead()) {
-            safeUpdate(new ErrorHandler.UNREADABLE_FILE(path,
-                new java.io.FileNotFoundException(path), this));
-            return null;
+            parsed.error = new ErrorHandler.UNREADABLE_FILE(path,
+                new java.io.FileNotFoundException(path), this);
+            return parsed;
         }
 
         String format = null;
@@ -402,14 +803,14 @@ public class ImportCandidates extends DirectoryWalker
         try {
 
             try {
-                setids++;
+                parsed.setids++;
                 reader.close();
                 reader.setMetadataStore(new ImageNameMetadataStore());
                 reader.setMetadataOptions(
                         new DefaultMetadataOptions(METADATA_LEVEL));
                 reader.setId(path);
                 format = reader.getFormat();
-                usedFiles = getOrderedFiles();
+                usedFiles = getOrderedFiles(reader);
                 String[] domains = reader.getReader().getDomains();
                 boolean isSPW = Arrays.asList(domains).contains(FormatTools.HCS_DOMAIN);
 
@@ -430,25 +831,25 @@ public class ImportCandidates extends DirectoryWalker
                 }
                 ic.setUserSpecifiedDescription(config.userSpecifiedDescription.get());
                 ic.setCustomAnnotationList(config.annotations.get());
-                return ic;
+                parsed.container = ic;
             } finally
             {
-                readerTime += (System.currentTimeMillis() - start);
+                parsed.time += (System.currentTimeMillis() - start);
                 reader.close();
             }
 
         } catch (UnsupportedCompressionException uce)
         {
-            unknown++;
+            parsed.unknown = true;
             // Handling as UNKNOWN_FORMAT for 4.3.0
-            safeUpdate(new ErrorHandler.UNKNOWN_FORMAT(path, uce, this));
+            parsed.error = new ErrorHandler.UNKNOWN_FORMAT(path, uce, this);
         } catch (UnknownFormatException ufe)
         {
-            unknown++;
-            safeUpdate(new ErrorHandler.UNKNOWN_FORMAT(path, ufe, this));
+            parsed.unknown = true;
+            parsed.error = new ErrorHandler.UNKNOWN_FORMAT(path, ufe, this);
         } catch (MissingLibraryException mle)
         {
-            safeUpdate(new ErrorHandler.MISSING_LIBRARY(path, mle, usedFiles, format));
+            parsed.error = new ErrorHandler.MISSING_LIBRARY(path, mle, usedFiles, format);
         } catch (Throwable t)
         {
             Exception e = null;
@@ -458,10 +859,10 @@ public class ImportCandidates extends DirectoryWalker
             else {
                 e = new Exception(t);
             }
-            safeUpdate(new ErrorHandler.FILE_EXCEPTION(path, e, usedFiles, format));
+            parsed.error = new ErrorHandler.FILE_EXCEPTION(path, e, usedFiles, format);
         }
 
-        return null;
+        return parsed;
 
     }
 
@@ -484,7 +885,7 @@ public class ImportCandidates extends DirectoryWalker
      * used files. All files which can be used to initialize a fileset are
      * returned first.
      */
-    private String[] getOrderedFiles() {
+    private static String[] getOrderedFiles(OMEROWrapper reader) {
 
         FileInfo[] infos = reader.getAdvancedUsedFiles(false);
         String[] usedFiles = new String[infos.length];
@@ -563,12 +964,23 @@ public class ImportCandidates extends DirectoryWalker
             return;
         }
 
-        ImportContainer info = singleFile(file, reader.getConfig());
+        add(file, singleFile(file, reader.getConfig()));
+    }
+
+    /**
+     * Adds the container found by parsing a file to the search results,
+     * raising a {@link FOUND} event if it will be part of the final result.
+     *
+     * @param file the file parsed
+     * @param info the container found, may be null
+     */
+    private void add(File file, ImportContainer info) {
         if (info == null) {
             return;
         }
 
-        containers.add(info);
+        final String path = file.getAbsolutePath();
+        found.put(info.getFile().getAbsolutePath(), info);
         allFiles.addAll(Arrays.asList(info.getUsedFiles()));
         for (String string : info.getUsedFiles()) {
             List<String> users = usedBy.get(string);
@@ -576,7 +988,19 @@ public class ImportCandidates extends DirectoryWalker
                 users = new ArrayList<String>();
                 usedBy.put(string, users);
             }
-            users.add(file.getAbsolutePath());
+            users.add(path);
+        }
+
+        // The group of a container which uses at least two other files is
+        // never removed by Groups.parse, whatever is found later.
+        final Set<String> others = new HashSet<String>(
+                Arrays.asList(info.getUsedFiles()));
+        if (path.equals(info.getFile().getAbsolutePath())
+                && others.remove(path) && others.size() > 1) {
+            info.setFile(new File(info.getUsedFiles()[0]));
+            info.updateUsedFilesTotalSize();
+            raised.add(info);
+            safeUpdate(new FOUND(info));
         }
     }
 
@@ -586,7 +1010,7 @@ public class ImportCandidates extends DirectoryWalker
      * These objects should never leave the outer class.
      *
      * It is important that the Groups keep their used files ordered.
-     * @see ImportCandidates#getOrderedFiles()
+     * @see ImportCandidates#getOrderedFiles(OMEROWrapper)
      */
     private static class Groups {
 
@@ -600,10 +1024,9 @@ public class ImportCandidates extends DirectoryWalker
                 this.theyUseMe = new ArrayList<String>(usedBy.get(key));
                 this.theyUseMe.remove(key);
                 this.iUseThem = new ArrayList<String>();
-                for (Map.Entry<String, List<String>> entry : usedBy.entrySet()) {
-                    if (entry.getValue().contains(key)) {
-                        iUseThem.add(entry.getKey());
-                    }
+                Set<String> used = uses.get(key);
+                if (used != null) {
+                    iUseThem.addAll(used);
                 }
                 iUseThem.remove(key);
             }
@@ -650,11 +1073,23 @@ public class ImportCandidates extends DirectoryWalker
         }
 
         private final Map<String, List<String>> usedBy;
+        /** The inverse of {@link #usedBy}, in the order of its keys. */
+        private final Map<String, Set<String>> uses = new HashMap<String, Set<String>>();
         private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
         private List<String> ordering;
 
         Groups(Map<String, List<String>> usedBy) {
             this.usedBy = usedBy;
+            for (Map.Entry<String, List<String>> entry : usedBy.entrySet()) {
+                for (String user : entry.getValue()) {
+                    Set<String> used = uses.get(user);
+                    if (used == null) {
+                        used = new LinkedHashSet<String>();
+                        uses.put(user, used);
+                    }
+                    used.add(entry.getKey());
+                }
+            }
             for (String key : usedBy.keySet()) {
                 groups.put(key, new Group(key));
             }
@@ -670,7 +1105,14 @@ public class ImportCandidates extends DirectoryWalker
             return ordering;
         }
 
-        Groups parse(List<ImportContainer> containers) {
+        /**
+         * @param found the containers found, keyed by the absolute path of
+         *        their file as it was when they were found
+         * @param containers the list to fill with the remaining containers
+         * @param raised the containers already rewritten when they were found
+         */
+        Groups parse(ListMultimap<String, ImportContainer> found,
+                List<ImportContainer> containers, Set<ImportContainer> raised) {
             if (ordering != null) {
                 throw new RuntimeException("Already ordered");
             }
@@ -679,19 +1121,16 @@ public class ImportCandidates extends DirectoryWalker
             }
             ordering = new ArrayList<String>(groups.keySet());
             // Here we remove all the superfluous import containers.
-            List<ImportContainer> copy = new ArrayList<ImportContainer>(
-                    containers);
             containers.clear();
             for (String key : ordering) {
-                for (ImportContainer importContainer : copy) {
-                    if (importContainer.getFile().getAbsolutePath().equals(key)) {
-                        containers.add(importContainer);
-                    }
-                }
+                containers.addAll(found.get(key));
             }
             // Now rewrite the filename chosen based on the first file in the
             // getUsedFiles.
             for (ImportContainer c : containers) {
+                if (raised.contains(c)) {
+                    continue;
+                }
                 c.setFile(new File(c.getUsedFiles()[0]));
                 c.updateUsedFilesTotalSize();
             }
@@ -730,7 +1169,9 @@ public class ImportCandidates extends DirectoryWalker
             line("TEST " + count);
             Groups g = new Groups(t);
             System.out.println(g);
-            g.parse(new ArrayList<ImportContainer>());
+            g.parse(LinkedListMultimap.<String, ImportContainer>create(),
+                    new ArrayList<ImportContainer>(),
+                    Collections.<ImportContainer>emptySet());
             line("RESULT " + count);
             System.out.println(g);
             return g;
@@ -146,6 +146,7 @@ public class ImportConfig {
 
     public final BoolValue encryptedConnection;
     public final BoolValue autoClose;
+    public final IntValue parallelUpload;
 
     public final AnnotationListValue annotations;
     public final DoubleArrayValue userPixels;
@@ -286,6 +287,7 @@ public class ImportConfig {
 
         encryptedConnection = new BoolValue("ecryptedConnection", this, true);
         autoClose = new BoolValue("autoClose", this, false);
+        parallelUpload = new IntValue("parallelUpload", this, 1);
 
         annotations = new AnnotationListValue(
                 "annotations", this, new ArrayList<Annotation>());
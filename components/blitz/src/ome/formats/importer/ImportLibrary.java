@@ -27,6 +27,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import loci.common.Location;
 import loci.formats.FormatException;
@@ -135,6 +140,12 @@ public class ImportLibrary implements IObservable
      */
     private final int minutesToWait;
 
+    /**
+     * How many files of a fileset to upload at once. The {@link FileTransfer}
+     * must be thread safe if this is more than one.
+     */
+    private volatile int parallelUpload = 1;
+
     /**
      * Adapter for use with any callbacks created by the library.
      */
@@ -242,11 +253,28 @@ public class ImportLibrary implements IObservable
      */
     public void notifyObservers(ImportEvent event)
     {
-        for (IObserver observer : observers) {
-            observer.update(this, event);
+        // Files may be being uploaded concurrently.
+        synchronized (observers) {
+            for (IObserver observer : observers) {
+                observer.update(this, event);
+            }
         }
     }
 
+    /**
+     * Set how many files of a fileset to upload at once. Uploading several
+     * files at once helps when a fileset has many small files or the
+     * connection to the server has a high latency. Values above one require
+     * the {@link FileTransfer} to be thread safe, as is for instance
+     * {@link ome.formats.importer.transfers.PipelinedUploadFileTransfer}.
+     * @param parallelUpload the number of files to upload at once,
+     * <code>1</code> by default
+     */
+    public void setParallelUpload(int parallelUpload)
+    {
+        this.parallelUpload = Math.max(1, parallelUpload);
+    }
+
 
     // ~ Actions
     // =========================================================================
@@ -258,56 +286,114 @@ public class ImportLibrary implements IObservable
      * @return if the import did not exit because of an error
      */
     public boolean importCandidates(ImportConfig config, ImportCandidates candidates)
+    {
+        return importCandidates(config, candidates, null);
+    }
+
+    /**
+     * Imports a number of import candidates, of which some may already have
+     * started importing while the candidates were found.
+     * @param config The configuration information.
+     * @param candidates Hosts information about the files to import.
+     * @param found the observer of the search for the candidates as returned
+     * by {@link #importFound(ImportConfig, IObserver)}, may be
+     * <code>null</code>
+     * @return if the import did not exit because of an error
+     */
+    public boolean importCandidates(ImportConfig config,
+            ImportCandidates candidates, FoundImports found)
     {
         List<ImportContainer> containers = candidates.getContainers();
-        if (containers != null) {
-            int numDone = 0;
-            for (int index = 0; index < containers.size(); index++) {
-                ImportContainer ic = containers.get(index);
-                ImportTarget target = config.getTarget();
-                if (target != null) {
-                    try {
-                        IObject obj = target.load(store, ic);
-                        if (!(obj instanceof Annotation)) {
-                            ic.setTarget(obj);
-                        } else {
-                            // This is likely a "post-processing" annotation
-                            // so that we don't have to resolve the target
-                            // until later.
-                            ic.getCustomAnnotationList().add((Annotation) obj);
-                        }
-                    } catch (Exception e) {
-                        log.error("Could not load target: {}", target);
-                        throw new RuntimeException("Failed to load target", e);
-                    }
+        if (found == null) {
+            found = importFound(config, null);
+        }
+        if (containers == null) {
+            containers = Collections.emptyList();
+        }
+        return found.importContainers(containers);
+    }
+
+    /**
+     * Provides an observer for an {@link ImportCandidates} search which
+     * starts importing each container as soon as it is found while the
+     * search continues. The result is then to be passed to
+     * {@link #importCandidates(ImportConfig, ImportCandidates, FoundImports)}
+     * once the search is complete so that the remaining containers are
+     * imported.
+     * @param config The configuration information.
+     * @param observer the observer to which the events of the search are
+     * also to be passed, may be <code>null</code>
+     * @return the observer of the search
+     */
+    public FoundImports importFound(final ImportConfig config,
+            final IObserver observer)
+    {
+        final FoundImports.Importer importer = new FoundImports.Importer() {
+            public boolean importContainer(ImportContainer ic, int index,
+                    int numDone, int total) {
+                return ImportLibrary.this.importContainer(config, ic, index,
+                        numDone, total);
+            }
+        };
+        final IObserver delegate = observer == null ? null : new IObserver() {
+            public void update(IObservable observable, ImportEvent event) {
+                /* the observer may also be notified by a found import */
+                synchronized (observers) {
+                    observer.update(observable, event);
                 }
+            }
+        };
+        return new FoundImports(importer, delegate, config.contOnError.get());
+    }
 
-                if (config.checksumAlgorithm.get() != null) {
-                    ic.setChecksumAlgorithm(config.checksumAlgorithm.get());
+    /**
+     * Imports a single container of a number of import candidates.
+     * @param config The configuration information.
+     * @param ic the container to import
+     * @param index the index of the container
+     * @param numDone the number of containers imported so far
+     * @param total the number of containers
+     * @return if the container was imported without error
+     */
+    private boolean importContainer(ImportConfig config, ImportContainer ic,
+            int index, int numDone, int total)
+    {
+        ImportTarget target = config.getTarget();
+        if (target != null) {
+            try {
+                IObject obj = target.load(store, ic);
+                if (!(obj instanceof Annotation)) {
+                    ic.setTarget(obj);
+                } else {
+                    // This is likely a "post-processing" annotation
+                    // so that we don't have to resolve the target
+                    // until later.
+                    ic.getCustomAnnotationList().add((Annotation) obj);
                 }
+            } catch (Exception e) {
+                log.error("Could not load target: {}", target);
+                throw new RuntimeException("Failed to load target", e);
+            }
+        }
 
-                try {
-                    importImage(ic,index,numDone,containers.size());
-                    numDone++;
-                } catch (Throwable t) {
-                    String message = "Error on import";
-                    if (t instanceof ServerError) {
-                        final ServerError se = (ServerError) t;
-                        if (StringUtils.isNotBlank(se.message)) {
-                            message += ": " + se.message;
-                        }
-                    }
-                    log.error(message, t);
-                    if (!config.contOnError.get()) {
-                        log.info("Exiting on error");
-                        return false;
-                    } else {
-                        log.info("Continuing after error");
-                    }
+        if (config.checksumAlgorithm.get() != null) {
+            ic.setChecksumAlgorithm(config.checksumAlgorithm.get());
+        }
+
+        try {
+            importImage(ic, index, numDone, total);
+            return true;
+        } catch (Throwable t) {
+            String message = "Error on import";
+            if (t instanceof ServerError) {
+                final ServerError se = (ServerError) t;
+                if (StringUtils.isNotBlank(se.message)) {
+                    message += ": " + se.message;
                 }
             }
+            log.error(message, t);
+            return false;
         }
-        return true;
     }
 
     /**
@@ -398,19 +484,87 @@ public class ImportLibrary implements IObservable
         final TimeEstimator estimator = new ProportionalTimeEstimatorImpl(10000L);
 
         log.debug("Used files created:");
-        for (int i = 0; i < fileTotal; i++) {
-            try {
+        try {
+            uploadFiles(proc, srcFiles, estimator, buf, checksums);
+        } catch (ServerError e) {
+            log.error("Server error uploading file.", e);
+        } catch (IOException e) {
+            log.error("I/O error uploading file.", e);
+        }
+        return checksums;
+    }
+
+    /**
+     * Upload the files of a fileset, as many at once as set by
+     * {@link #setParallelUpload(int)}.
+     * @param proc the server import process to use for the upload
+     * @param srcFiles the files to upload
+     * @param estimator the time-to-completion estimator for the fileset
+     * @param buf the buffer to use if uploading one file at a time
+     * @param checksums the list to which to add the client-side checksum of
+     * each file, in order, up to the first file that failed to upload
+     * @throws ServerError if a file failed to upload
+     * @throws IOException if a file could not be read
+     */
+    private void uploadFiles(final ImportProcessPrx proc,
+            final String[] srcFiles, final TimeEstimator estimator,
+            final byte[] buf, final List<String> checksums)
+            throws ServerError, IOException
+    {
+        final int threads = Math.min(parallelUpload, srcFiles.length);
+        if (threads <= 1) {
+            for (int i = 0; i < srcFiles.length; i++) {
                 checksums.add(uploadFile(proc, srcFiles, i,
                         checksumProviderFactory, estimator, buf));
-            } catch (ServerError e) {
-                log.error("Server error uploading file.", e);
-                break;
-            } catch (IOException e) {
-                log.error("I/O error uploading file.", e);
-                break;
             }
+            return;
+        }
+
+        // Each upload thread has its own buffer.
+        final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[buf.length];
+            }
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<String>> uploads =
+                    new ArrayList<Future<String>>(srcFiles.length);
+            for (int i = 0; i < srcFiles.length; i++) {
+                final int index = i;
+                uploads.add(executor.submit(new Callable<String>() {
+                    public String call() throws ServerError, IOException {
+                        return uploadFile(proc, srcFiles, index,
+                                checksumProviderFactory, estimator,
+                                buffers.get());
+                    }
+                }));
+            }
+            for (final Future<String> upload : uploads) {
+                try {
+                    checksums.add(upload.get());
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted during upload", e);
+                } catch (ExecutionException e) {
+                    final Throwable t = e.getCause();
+                    if (t instanceof ServerError) {
+                        throw (ServerError) t;
+                    } else if (t instanceof IOException) {
+                        throw (IOException) t;
+                    } else if (t instanceof RuntimeException) {
+                        throw (RuntimeException) t;
+                    } else if (t instanceof Error) {
+                        throw (Error) t;
+                    } else {
+                        throw new RuntimeException(t);
+                    }
+                }
+            }
+        } finally {
+            // Abandon the remaining uploads if one failed.
+            executor.shutdownNow();
         }
-        return checksums;
     }
 
     public String uploadFile(final ImportProcessPrx proc,
@@ -508,10 +662,7 @@ public class ImportLibrary implements IObservable
         notifyObservers(new ImportEvent.FILESET_UPLOAD_START(
                 null, index, srcFiles.length, null, null, null));
 
-        for (int i = 0; i < srcFiles.length; i++) {
-            checksums.add(uploadFile(proc, srcFiles, i, checksumProviderFactory,
-                    estimator, buf));
-        }
+        uploadFiles(proc, srcFiles, estimator, buf, checksums);
 
         try {
             handle = proc.verifyUpload(checksums);
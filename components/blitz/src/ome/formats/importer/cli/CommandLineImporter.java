@@ -22,6 +22,7 @@ import loci.formats.in.DefaultMetadataOptions;
 import loci.formats.in.MetadataLevel;
 import loci.formats.meta.MetadataStore;
 import ome.formats.OMEROMetadataStoreClient;
+import ome.formats.importer.FoundImports;
 import ome.formats.importer.ImportCandidates;
 import ome.formats.importer.ImportConfig;
 import ome.formats.importer.ImportContainer;
@@ -90,6 +91,9 @@ public class CommandLineImporter {
     /** Candidates for import */
     private final ImportCandidates candidates;
 
+    /** Imports the candidates found while the search continues */
+    private final FoundImports found;
+
     /** If true, then only a report on used files will be produced */
     private final boolean getUsedFiles;
 
@@ -145,12 +149,13 @@ public class CommandLineImporter {
         if (exclusions != null) {
             this.exclusions.addAll(exclusions);
         }
-        candidates = new ImportCandidates(reader, paths, handler);
 
         if (paths == null || paths.length == 0 || getUsedFiles) {
 
             store = null;
             library = null;
+            found = null;
+            candidates = new ImportCandidates(reader, paths, handler);
 
         } else {
 
@@ -169,11 +174,19 @@ public class CommandLineImporter {
             }
             store = config.createStore();
             store.logVersionInfo(config.getIniVersionNumber());
-            reader.setMetadataOptions(
-                    new DefaultMetadataOptions(MetadataLevel.ALL));
 
             library = new ImportLibrary(store, reader,
                     transfer, exclusions, minutesToWait);
+            library.setParallelUpload(config.parallelUpload.get());
+            library.addObserver(new LoggingImportMonitor());
+            // error handler has been configured in constructor from main args
+            library.addObserver(this.handler);
+
+            // the containers found are imported while the search continues
+            found = library.importFound(config, handler);
+            candidates = new ImportCandidates(reader, paths, found);
+            reader.setMetadataOptions(
+                    new DefaultMetadataOptions(MetadataLevel.ALL));
         }
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -246,6 +259,10 @@ public class CommandLineImporter {
                 return 1;
             }
         } else if (candidates.size() < 1) {
+            if (found != null) {
+                // wait for any import started before the search was cancelled
+                library.importCandidates(config, candidates, found);
+            }
             if (handler.errorCount() > 0) {
                 System.err.println("No imports due to errors!");
                 report();
@@ -259,11 +276,7 @@ public class CommandLineImporter {
             }
         } else {
             sw.start();
-            library.addObserver(new LoggingImportMonitor());
-            // error handler has been configured in constructor from main args
-            library.addObserver(this.handler);
-
-            successful = library.importCandidates(config, candidates);
+            successful = library.importCandidates(config, candidates, found);
 
             try {
                 List<String> paths = new ArrayList<String>();
@@ -388,6 +401,7 @@ public class CommandLineImporter {
             + "        General options:    \t\n"
             + "          upload          \t# Default\n"
             + "          upload_rm       \t# Caution! File upload followed by source deletion.\n"
+            + "          upload_pipelined\t# File upload without waiting on each write.\n"
             + "          some.class.Name \t# Use a class on the CLASSPATH.\n\n"
             + "        Server-side options:\t\n"
             + "          ln              \t# Use hard-link.\n"
@@ -434,6 +448,9 @@ public class CommandLineImporter {
             + " when as part of the Bio-Formats reader metadata\n\n"
             + "  e.g. $ bin/omero import -- --no-stats-info foo.tiff\n"
             + "       $ ./importer-cli --no-stats-info bar.tiff\n\n"
+            + "    --parallel-upload=ARG\tNumber of files of a fileset to upload at once (default 1)\n\n"
+            + "  e.g. $ bin/omero import -- --transfer=upload_pipelined --parallel-upload=4 plate.xdce\n"
+            + "       $ ./importer-cli --parallel-upload=4 plate.xdce\n\n"
             + "  --no-thumbnails\t\tDo not perform thumbnailing after import\n\n"
             + "  e.g. $ bin/omero import -- --no-thumbnails foo.tiff\n"
             + "       $ ./importer-cli --no-thumbnails bar.tiff\n\n"
@@ -567,6 +584,8 @@ public class CommandLineImporter {
                 new LongOpt("no-stats-info", LongOpt.NO_ARGUMENT, null, 23);
         LongOpt noUpgradeCheck =
                 new LongOpt("no-upgrade-check", LongOpt.NO_ARGUMENT, null, 24);
+        LongOpt parallelUpload =
+                new LongOpt("parallel-upload", LongOpt.REQUIRED_ARGUMENT, null, 25);
 
         // DEPRECATED OPTIONS
         LongOpt plateName = new LongOpt(
@@ -592,7 +611,7 @@ public class CommandLineImporter {
                                 checksumAlgorithm, minutesWait,
                                 closeCompleted, waitCompleted, autoClose,
                                 exclude, target, noStatsInfo,
-                                noUpgradeCheck, qaBaseURL,
+                                noUpgradeCheck, qaBaseURL, parallelUpload,
                                 plateName, plateDescription,
                                 noThumbnailsDeprecated,
                                 checksumAlgorithmDeprecated,
@@ -735,6 +754,12 @@ public class CommandLineImporter {
                 config.checkUpgrade.set(false);
                 break;
             }
+            case 25: {
+                int arg = Integer.parseInt(g.getOptarg());
+                log.info("Setting parallel upload to {}", arg);
+                config.parallelUpload.set(arg);
+                break;
+            }
             // ADVANCED END ---------------------------------------------------
             // DEPRECATED OPTIONS
             case 90: {
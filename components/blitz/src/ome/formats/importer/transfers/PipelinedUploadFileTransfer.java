@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.importer.transfers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ome.util.checksum.ChecksumProvider;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+
+import org.apache.commons.lang.ArrayUtils;
+
+/**
+ * File transfer mechanism which uploads files using the API like
+ * {@link UploadFileTransfer} but without waiting for each chunk to be
+ * written before reading the next. Up to {@link #getChunksInFlight()} chunks
+ * are sent with {@link RawFileStorePrx#begin_write(byte[], long, int)} at
+ * once and the {@link TransferState#getChecksumProvider() checksum} is
+ * calculated on a separate thread for each file, so that the latency of
+ * each round trip to the server is hidden. Files are read in chunks of the size of
+ * {@link TransferState#getBuffer()}.
+ * <p>
+ * Unlike {@link UploadFileTransfer}, this class is thread safe and a
+ * single instance may transfer several files at once.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class PipelinedUploadFileTransfer extends AbstractFileTransfer {
+
+    /** Default number of chunks of a file to have in flight at once. */
+    public static final int DEFAULT_CHUNKS_IN_FLIGHT = 4;
+
+    /**
+     * A chunk of a file which is being written and hashed.
+     */
+    private static class Chunk {
+        final byte[] buf;
+        final int length;
+        Ice.AsyncResult written;
+        Future<?> hashed;
+
+        Chunk(byte[] buf, int length) {
+            this.buf = buf;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Creates the thread of each transfer which hashes the chunks of its
+     * file in the order in which they were read. Files transferred in
+     * parallel are thus hashed in parallel.
+     */
+    private static final ThreadFactory hasherThreads = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "upload-checksum");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private final int chunksInFlight;
+
+    public PipelinedUploadFileTransfer() {
+        this(DEFAULT_CHUNKS_IN_FLIGHT);
+    }
+
+    /**
+     * @param chunksInFlight how many chunks of a file may be being written
+     * at once, must be positive
+     */
+    public PipelinedUploadFileTransfer(int chunksInFlight) {
+        if (chunksInFlight < 1) {
+            throw new IllegalArgumentException(
+                    "chunks in flight must be positive: " + chunksInFlight);
+        }
+        this.chunksInFlight = chunksInFlight;
+    }
+
+    /**
+     * @return how many chunks of a file may be being written at once
+     */
+    public int getChunksInFlight() {
+        return chunksInFlight;
+    }
+
+    public String transfer(TransferState state) throws IOException, ServerError {
+
+        final RawFileStorePrx rawFileStore = start(state);
+        final File file = state.getFile();
+        final ChecksumProvider cp = state.getChecksumProvider();
+        final int chunkSize = state.getBuffer().length;
+        final Deque<Chunk> inFlight = new ArrayDeque<Chunk>(chunksInFlight);
+        final Deque<byte[]> spare = new ArrayDeque<byte[]>(chunksInFlight);
+        spare.add(state.getBuffer());
+        final ExecutorService hasher =
+            Executors.newSingleThreadExecutor(hasherThreads);
+
+        FileInputStream stream = null;
+
+        try {
+            stream = new FileInputStream(file);
+            long offset = 0;
+            long written = 0;
+
+            state.uploadStarted();
+
+            // "touch" the file otherwise zero-length files
+            rawFileStore.write(ArrayUtils.EMPTY_BYTE_ARRAY, offset, 0);
+            state.stop();
+            state.uploadBytes(offset);
+            state.start();
+
+            while (true) {
+                // Only the last chunk is short, so that it can be read into
+                // an array of its exact size rather than copied into one.
+                final long remaining = state.getLength() - offset;
+                final byte[] buf;
+                if (remaining >= chunkSize || remaining <= 0) {
+                    buf = spare.isEmpty() ? new byte[chunkSize] : spare.poll();
+                } else {
+                    buf = new byte[(int) remaining];
+                }
+                final int rlen = read(stream, buf);
+                if (rlen == 0) {
+                    break;
+                }
+                final Chunk chunk = new Chunk(rlen == buf.length ? buf
+                        : Arrays.copyOf(buf, rlen), rlen);
+                chunk.hashed = hasher.submit(new Runnable() {
+                    public void run() {
+                        cp.putBytes(chunk.buf, 0, chunk.length);
+                    }
+                });
+                chunk.written = rawFileStore.begin_write(chunk.buf, offset, rlen);
+                inFlight.add(chunk);
+                offset += rlen;
+
+                if (inFlight.size() == chunksInFlight) {
+                    written += complete(state, rawFileStore, inFlight.poll(),
+                            written, chunkSize, spare);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                written += complete(state, rawFileStore, inFlight.poll(),
+                        written, chunkSize, spare);
+            }
+
+            return finish(state, offset);
+        } finally {
+            hasher.shutdownNow();
+            cleanupUpload(rawFileStore, stream);
+        }
+    }
+
+    /**
+     * Wait for a chunk to be written and hashed, and report the progress.
+     *
+     * @param state the transfer state
+     * @param rawFileStore the store to which the chunk is being written
+     * @param chunk the oldest chunk in flight
+     * @param written how many bytes were already written
+     * @param chunkSize the size of a full chunk
+     * @param spare the buffers available for re-use
+     * @return the length of the chunk
+     */
+    private int complete(TransferState state, RawFileStorePrx rawFileStore,
+            Chunk chunk, long written, int chunkSize, Deque<byte[]> spare)
+                    throws IOException, ServerError {
+        rawFileStore.end_write(chunk.written);
+        try {
+            chunk.hashed.get();
+        } catch (InterruptedException ie) {
+            throw new IOException("interrupted while hashing " + state.getFile(), ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("failed to hash " + state.getFile(), ee.getCause());
+        }
+        if (chunk.buf.length == chunkSize) {
+            spare.add(chunk.buf);
+        }
+        state.stop(chunk.length);
+        state.uploadBytes(written + chunk.length);
+        state.start();
+        return chunk.length;
+    }
+
+    /**
+     * Fill as much of a buffer as can be read from a stream.
+     *
+     * @return the number of bytes read, <code>0</code> at the end of the stream
+     */
+    private static int read(FileInputStream stream, byte[] buf)
+            throws IOException {
+        int total = 0;
+        while (total < buf.length) {
+            final int rlen = stream.read(buf, total, buf.length - total);
+            if (rlen == -1) {
+                break;
+            }
+            total += rlen;
+        }
+        return total;
+    }
+
+    /**
+     * Since the {@link RawFileStorePrx} instances are cleaned up after each
+     * transfer, there's no need to cleanup per {@link File}.
+     */
+    public void afterTransfer(int errors, List<String> srcFiles) throws CleanupFailure {
+        // no-op
+    }
+}
@@ -71,6 +71,16 @@ public class TransferState implements TimeEstimator {
 
     private String checksum;
 
+    /**
+     * {@link System#nanoTime()} when {@link #uploadStarted()} was called.
+     */
+    private long uploadStartTime;
+
+    /**
+     * Bytes uploaded as of the latest progress notification.
+     */
+    private long uploadedBytes;
+
     /**
      * Cache of the latest return value from
      * {@link #getUploader(String)} which can be used to cleanup
@@ -269,6 +279,8 @@ public class TransferState implements TimeEstimator {
      * event to all observers.
      */
     public void uploadStarted() {
+        uploadStartTime = System.nanoTime();
+        uploadedBytes = 0;
         library.notifyObservers(
                 new ImportEvent.FILE_UPLOAD_STARTED(
                 file.getAbsolutePath(), index, total,
@@ -281,6 +293,7 @@ public class TransferState implements TimeEstimator {
      * @param offset how many bytes are uploaded
      */
     public void uploadBytes(long offset) {
+        uploadedBytes = offset;
         library.notifyObservers(
                 new ImportEvent.FILE_UPLOAD_BYTES(
                 file.getAbsolutePath(), index, total,
@@ -293,11 +306,31 @@ public class TransferState implements TimeEstimator {
      * @param offset how many bytes are uploaded
      */
     public void uploadComplete(long offset) {
+        uploadedBytes = offset;
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("uploaded %s bytes of %s at %.0f bytes/s",
+                    offset, file, getBytesPerSecond()));
+        }
         library.notifyObservers(new ImportEvent.FILE_UPLOAD_COMPLETE(
                 file.getAbsolutePath(), index, total,
                 offset, length, null));
     }
 
+    /**
+     * Return the throughput of the upload of the file so far, as of the
+     * latest {@link #uploadBytes(long)} or {@link #uploadComplete(long)}
+     * notification.
+     * @return bytes uploaded per second since {@link #uploadStarted()},
+     * or <code>0</code> if the upload has not started
+     */
+    public double getBytesPerSecond() {
+        if (uploadStartTime == 0) {
+            return 0;
+        }
+        final long elapsed = System.nanoTime() - uploadStartTime;
+        return elapsed > 0 ? uploadedBytes * 1e9 / elapsed : 0;
+    }
+
     //
     // ESTIMATOR DELEGATION
     //
@@ -25,6 +25,8 @@ import org.apache.commons.lang.time.StopWatch;
  * Class implementing the {@link TimeEstimator} interface. Uses the Exponential
  * Moving Average equation to provide an estimate of the remaining upload time
  * of binary data. A correction factor is used for minimal overestimation.
+ * Each thread is timed separately so that the files of a fileset may be
+ * uploaded concurrently.
  *
  * @author Blazej Pindelski, bpindelski at dundee.ac.uk
  * @since 5.0
@@ -37,7 +39,12 @@ public class ProportionalTimeEstimatorImpl implements TimeEstimator {
 
     private long totalTime = 0;
 
-    private StopWatch sw;
+    private final ThreadLocal<StopWatch> sw = new ThreadLocal<StopWatch>() {
+        @Override
+        protected StopWatch initialValue() {
+            return new StopWatch();
+        }
+    };
 
     /**
      * Creates a new object of this class with a defined internal buffer size.
@@ -47,7 +54,6 @@ public class ProportionalTimeEstimatorImpl implements TimeEstimator {
      *            time is being estimated.
      */
     public ProportionalTimeEstimatorImpl(long imageContainerSize) {
-        sw = new StopWatch();
         this.imageContainerSize = imageContainerSize;
     }
 
@@ -55,6 +61,7 @@ public class ProportionalTimeEstimatorImpl implements TimeEstimator {
      * @see TimeEstimator#start()
      */
     public void start() {
+        final StopWatch sw = this.sw.get();
         sw.reset();
         sw.start();
     }
@@ -63,14 +70,18 @@ public class ProportionalTimeEstimatorImpl implements TimeEstimator {
      * @see TimeEstimator#stop()
      */
     public void stop() {
+        final StopWatch sw = this.sw.get();
         sw.stop();
-        totalTime += sw.getTime();
+        synchronized (this) {
+            totalTime += sw.getTime();
+        }
     }
 
     /**
      * @see TimeEstimator#stop(long)
      */
-    public void stop(long uploadedBytes) {
+    public synchronized void stop(long uploadedBytes) {
+        final StopWatch sw = this.sw.get();
         sw.stop();
         totalTime += sw.getTime();
         totalBytes += uploadedBytes;
@@ -86,7 +97,7 @@ public class ProportionalTimeEstimatorImpl implements TimeEstimator {
     /**
      * @see TimeEstimator#getUploadTimeLeft()
      */
-    public long getUploadTimeLeft() {
+    public synchronized long getUploadTimeLeft() {
         return timeLeft;
     }
 
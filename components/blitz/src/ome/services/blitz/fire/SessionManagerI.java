@@ -335,6 +335,25 @@ public final class SessionManagerI extends Glacier2._SessionManagerDisp
 
     }
 
+    /**
+     * Returns the number of sessions which have servants on this node.
+     */
+    public int getSessionCount() {
+        return (int) sessionToHolder.size();
+    }
+
+    /**
+     * Returns the number of stateful servants held for all the sessions on
+     * this node.
+     */
+    public int getStatefulServantCount() {
+        int count = 0;
+        for (final ServantHolder holder : sessionToHolder.asMap().values()) {
+            count += holder.getStatefulServantCount();
+        }
+        return count;
+    }
+
     /**
      * {@link ServiceFactoryI#doDestroy() Destroys} all the
      * {@link ServiceFactoryI} instances based on the given sessionId. Multiple
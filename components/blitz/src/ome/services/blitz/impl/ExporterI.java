@@ -11,6 +11,15 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -31,7 +40,6 @@ import ome.api.RawPixelsStore;
 import ome.conditions.ApiUsageException;
 import ome.conditions.InternalException;
 import ome.io.nio.PixelsService;
-import ome.io.nio.RomioPixelBuffer;
 import ome.services.blitz.util.BlitzExecutor;
 import ome.services.blitz.util.BlitzOnly;
 import ome.services.blitz.util.ServiceFactoryAware;
@@ -85,12 +93,143 @@ public class ExporterI extends AbstractCloseableAmdServant implements
      * a normal tiff. This value is checked against the data size PLUS
      * various metadata sizes.
      *
-     * @see #getMetadataBytes(OmeroReader)
+     * @see #getMetadataBytes(OmeroReader, int, int)
      * @see #getDataBytes(OmeroReader)
      * @see ticket:6520
      */
     private final static long BIG_TIFF_SIZE = 2L * Integer.MAX_VALUE;
 
+    /**
+     * Width and height of the TIFF tiles of images without a pyramid.
+     * Images with a pyramid are written in tiles of the pyramid's size.
+     */
+    private final static int DEFAULT_TILE_SIZE = 512;
+
+    /**
+     * Number of tiles which may have been read but not yet written.
+     */
+    final static int TILE_QUEUE_SIZE = 16;
+
+    /**
+     * A tile of a plane which has been read for writing, or the
+     * {@link #LAST} marker.
+     */
+    static class Tile {
+        final int plane, x, y, w, h;
+        final byte[] buf;
+
+        Tile(int plane, int x, int y, int w, int h, byte[] buf) {
+            this.plane = plane;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.buf = buf;
+        }
+    }
+
+    final static Tile LAST = new Tile(-1, 0, 0, 0, 0, null);
+
+    /**
+     * Writes the tiles of an OME-TIFF in the order in which they are read.
+     * When submitted to an executor, takes the tiles from a bounded queue
+     * until {@link #LAST} so that the next tiles are read while the previous
+     * are compressed and written. Must be {@link #cancel() cancelled} before
+     * the writer is closed if the writing may not have finished.
+     */
+    static class TileWriter implements Callable<Object> {
+
+        private final BlockingQueue<Tile> tiles =
+            new ArrayBlockingQueue<Tile>(TILE_QUEUE_SIZE);
+
+        private final OMETiffWriter writer;
+
+        private final int tileWidth, tileHeight;
+
+        private int plane = -1;
+
+        private IFD ifd;
+
+        /** Set once {@link #call()} starts or {@link #cancel()} prevents it. */
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        /** Released once {@link #call()} no longer uses the writer. */
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        private volatile boolean cancelled;
+
+        TileWriter(OMETiffWriter writer, int tileWidth, int tileHeight) {
+            this.writer = writer;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+        }
+
+        /**
+         * Queues a tile, failing if the writing has stopped.
+         */
+        void put(Tile tile, Future<Object> written) throws Exception {
+            while (!tiles.offer(tile, 1, TimeUnit.SECONDS)) {
+                if (written.isDone()) {
+                    written.get();
+                    throw new InternalException("TIFF writing stopped");
+                }
+            }
+        }
+
+        void write(Tile tile) throws Exception {
+            if (tile.plane != plane) {
+                plane = tile.plane;
+                ifd = new IFD();
+                ifd.put(IFD.TILE_WIDTH, tileWidth);
+                ifd.put(IFD.TILE_LENGTH, tileHeight);
+            }
+            writer.saveBytes(tile.plane, tile.buf, ifd,
+                    tile.x, tile.y, tile.w, tile.h);
+        }
+
+        public Object call() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                Tile tile;
+                while ((tile = tiles.take()) != LAST && !cancelled) {
+                    write(tile);
+                }
+                return null;
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        /**
+         * Stops the writing after the tile being written, if any, and waits
+         * for it so that the writer may then be closed. The thread is not
+         * interrupted, so that the tile being written is not cut short.
+         * Called by the thread which queues the tiles.
+         */
+        void cancel() {
+            cancelled = true;
+            if (started.compareAndSet(false, true)) {
+                return; // never ran
+            }
+            tiles.clear();
+            tiles.offer(LAST); // wake the writer if waiting for a tile
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    stopped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
 
     /**
      * Utility enum for asserting the state of Exporter instances.
@@ -131,14 +270,22 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     /** LOCI OME-XML service for working with OME-XML. */
     private final OMEXMLService service;
 
-    /** Access to information about big images to prevent exporting large
-     * files since there is currently no generally readable tiff support
-     * for our tiles.
-     *
-     * @see ticket:6713
+    /** Access to information about big images so that those with a
+     * pyramid are exported in tiles of the pyramid's size.
      */
     private final PixelsService pixelsService;
 
+    /**
+     * Pool on which the tiles of TIFFs are compressed and written while the
+     * next are read. If null, tiles are written in turn as they are read.
+     */
+    private ExecutorService tiffExecutor;
+
+    /**
+     * Bio-Formats TIFF compression of the exported planes, e.g. "LZW".
+     */
+    private String compression = "Uncompressed";
+
     public ExporterI(BlitzExecutor be, DatabaseIdentity databaseIdentity,
             PixelsService pixelsService)
         throws DependencyException {
@@ -155,6 +302,22 @@ public class ExporterI extends AbstractCloseableAmdServant implements
         this.factory = sf;
     }
 
+    /**
+     * Spring injector. Sets the pool shared by all exports on which the
+     * tiles of TIFFs are compressed and written.
+     */
+    public void setTiffExecutor(ExecutorService tiffExecutor) {
+        this.tiffExecutor = tiffExecutor;
+    }
+
+    /**
+     * Spring injector. Sets the compression of exported TIFFs, one of the
+     * compression types of the Bio-Formats TIFF writer.
+     */
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
     // Interface methods
     // =========================================================================
 
@@ -353,19 +516,12 @@ public class ExporterI extends AbstractCloseableAmdServant implements
                             RawPixelsStore raw = null;
                             OmeroReader reader = null;
                             OMETiffWriter writer = null;
+                            TileWriter tileWriter = null;
+                            Future<Object> written = null;
                             try {
 
                                 Image image = retrieve.getImage(0);
                                 Pixels pix = image.getPixels(0);
-                                if (requiresPyramid(sf, pix.getId().getValue())) {
-                                    long id = image.getId().getValue();
-                                    int x = pix.getSizeX().getValue();
-                                    int y = pix.getSizeY().getValue();
-                                    throw new omero.ApiUsageException(
-                                            null, null, String.format(
-                                            "Image:%s is too large for export (sizeX=%s, sizeY=%s)",
-                                            id, x, y));
-                                }
 
                                 file = TempFileManager.create_path("__omero_export__",
                                         ".ome.tiff");
@@ -376,10 +532,22 @@ public class ExporterI extends AbstractCloseableAmdServant implements
                                 reader = new OmeroReader(raw, pix);
                                 reader.setId("OMERO");
 
+                                int tileWidth = DEFAULT_TILE_SIZE;
+                                int tileHeight = DEFAULT_TILE_SIZE;
+                                if (requiresPyramid(sf, pix.getId().getValue())) {
+                                    int[] tileSize = raw.getTileSize();
+                                    tileWidth = tileSize[0];
+                                    tileHeight = tileSize[1];
+                                }
+                                // TIFF tiles must be multiples of 16 pixels
+                                tileWidth = Math.min(tileWidth, reader.sizeX + 15) / 16 * 16;
+                                tileHeight = Math.min(tileHeight, reader.sizeY + 15) / 16 * 16;
+
                                 writer = new OMETiffWriter();
                                 writer.setMetadataRetrieve(retrieve);
                                 writer.setWriteSequentially(true); // ticket:6701
-                                long mSize = getMetadataBytes(reader);
+                                writer.setCompression(compression);
+                                long mSize = getMetadataBytes(reader, tileWidth, tileHeight);
                                 long dSize = getDataBytes(reader);
                                 final boolean bigtiff =
                                     ( ( mSize + dSize ) > BIG_TIFF_SIZE );
@@ -389,29 +557,45 @@ public class ExporterI extends AbstractCloseableAmdServant implements
                                 writer.setId(file.getAbsolutePath());
 
                                 int planeCount = reader.planes;
-                                int planeSize = RomioPixelBuffer.safeLongToInteger(
-                                        raw.getPlaneSize());
                                 log.info(String.format(
                                             "Using big TIFF? %s mSize=%d " +
                                             "dSize=%d planeCount=%d " +
-                                            "planeSize=%d",
+                                            "tileSize=%dx%d compression=%s",
                                             bigtiff, mSize, dSize,
-                                            planeCount, planeSize));
-                                byte[] plane = new byte[planeSize];
+                                            planeCount, tileWidth, tileHeight,
+                                            compression));
+
+                                // Tiles are read through the RawPixelsStore
+                                // on this thread, which holds the session,
+                                // and compressed and written on another.
+                                tileWriter =
+                                    new TileWriter(writer, tileWidth, tileHeight);
+                                if (tiffExecutor != null) {
+                                    written = tiffExecutor.submit(tileWriter);
+                                }
                                 for (int i = 0; i < planeCount; i++) {
                                     int[] zct = FormatTools.getZCTCoords(
                                         retrieve.getPixelsDimensionOrder(0).getValue(),
                                         reader.getSizeZ(), reader.getSizeC(), reader.getSizeT(),
                                         planeCount, i);
-                                    int readerIndex = reader.getIndex(zct[0], zct[1], zct[2]);
-                                    reader.openBytes(readerIndex, plane);
-
-
-                                    IFD ifd = new IFD();
-                                    ifd.put(IFD.TILE_WIDTH, 128);
-                                    ifd.put(IFD.TILE_LENGTH, 128);
-
-                                    writer.saveBytes(i, plane, ifd);
+                                    for (int y = 0; y < reader.sizeY; y += tileHeight) {
+                                        int h = Math.min(tileHeight, reader.sizeY - y);
+                                        for (int x = 0; x < reader.sizeX; x += tileWidth) {
+                                            int w = Math.min(tileWidth, reader.sizeX - x);
+                                            Tile tile = new Tile(i, x, y, w, h,
+                                                    raw.getTile(zct[0], zct[1], zct[2],
+                                                            x, y, w, h));
+                                            if (written == null) {
+                                                tileWriter.write(tile);
+                                            } else {
+                                                tileWriter.put(tile, written);
+                                            }
+                                        }
+                                    }
+                                }
+                                if (written != null) {
+                                    tileWriter.put(LAST, written);
+                                    written.get();
                                 }
                                 retrieve = null;
 
@@ -424,12 +608,23 @@ public class ExporterI extends AbstractCloseableAmdServant implements
 
                                     __cb.ice_response(file.length());
                                 } catch (Exception e) {
+                                    Throwable t = e;
+                                    if (e instanceof ExecutionException
+                                            && e.getCause() != null) {
+                                        t = e.getCause();
+                                    }
                                     omero.InternalException ie = new omero.InternalException(
                                             null, null,
                                             "Error during TIFF generation");
-                                    IceMapper.fillServerError(ie, e);
+                                    IceMapper.fillServerError(ie, t);
                                     __cb.ice_exception(ie);
                                 } finally {
+                                    if (written != null) {
+                                        // Wait for the writer task to
+                                        // stop before closing its writer.
+                                        written.cancel(false);
+                                        tileWriter.cancel();
+                                    }
                                     cleanup(raw, reader, writer);
                                 }
 
@@ -554,8 +749,8 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     // Misc. helpers.
     // =========================================================================
 
-    private long getMetadataBytes(OmeroReader reader)
-            throws DependencyException, ServiceException {
+    private long getMetadataBytes(OmeroReader reader, int tileWidth,
+            int tileHeight) throws DependencyException, ServiceException {
 
         String xml = service.getOMEXML(retrieve);
 
@@ -566,7 +761,11 @@ public class ExporterI extends AbstractCloseableAmdServant implements
             throw new RuntimeException("Failed to convert to UTF-8", e);
         }
         long planebytes = reader.planes * 512;
-        return planebytes + xmlbytes;
+        // Offset and byte count of each tile
+        long tiles = (long) reader.planes
+            * ((reader.sizeX + tileWidth - 1) / tileWidth)
+            * ((reader.sizeY + tileHeight - 1) / tileHeight);
+        return planebytes + tiles * 16 + xmlbytes;
     }
 
     private long getDataBytes(OmeroReader reader) {
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.redirect;
+
+import ome.services.blitz.fire.SessionManagerI;
+import ome.services.scheduler.ThreadPool;
+import omeis.providers.re.RenderingExecutor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically measures the {@link NodeLoad} of this node and publishes it
+ * through the {@link LoadRedirector}, if that is the configured
+ * {@link Redirector}. Each source of load is optional.
+ *
+ * @since 5.2.0
+ */
+public class LoadPublisher {
+
+    private final static Logger log = LoggerFactory.getLogger(LoadPublisher.class);
+
+    private final Redirector redirector;
+
+    private final Redirector.Context context;
+
+    private SessionManagerI sessionManager;
+
+    private ThreadPool threadPool;
+
+    private RenderingExecutor renderingExecutor;
+
+    public LoadPublisher(Redirector redirector, Redirector.Context context) {
+        this.redirector = redirector;
+        this.context = context;
+    }
+
+    public void setSessionManager(SessionManagerI sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    public void setThreadPool(ThreadPool threadPool) {
+        this.threadPool = threadPool;
+    }
+
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Returns the current load of this node.
+     */
+    public NodeLoad measure() {
+        return new NodeLoad(
+                sessionManager == null ? 0 : sessionManager.getSessionCount(),
+                sessionManager == null ? 0 :
+                    sessionManager.getStatefulServantCount(),
+                (threadPool == null ? 0 : threadPool.size())
+                    + (renderingExecutor == null ? 0 :
+                        renderingExecutor.getQueueSize()),
+                renderingExecutor == null ? 0 :
+                    renderingExecutor.getRecentLatency());
+    }
+
+    /**
+     * Publishes the current load of this node. Called by the scheduler.
+     */
+    public void publish() {
+        if (!(redirector instanceof LoadRedirector)) {
+            return;
+        }
+        try {
+            ((LoadRedirector) redirector).publish(context, measure());
+        } catch (Exception e) {
+            log.warn("Failed to publish the load of " + context.uuid(), e);
+        }
+    }
+
+}
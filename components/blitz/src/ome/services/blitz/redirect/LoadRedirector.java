@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.redirect;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import ome.services.blitz.redirect.LoadRegistry.Published;
+import ome.services.util.Executor;
+import Glacier2.CannotCreateSessionException;
+import Glacier2.SessionPrx;
+
+/**
+ * {@link Redirector} which creates each new session on the least loaded node
+ * of the cluster, as published by each node in the {@link LoadRegistry} by
+ * its {@link LoadPublisher}. In order not to move sessions back and forth
+ * between nodes with similar loads, a session is only redirected away from
+ * the current node if the load of the current node exceeds that of the
+ * target node by more than the hysteresis, a percentage of the target load,
+ * and by at least the minimum difference.
+ *
+ * Since the loads are only published periodically, the sessions placed on
+ * each node since it last published its load are counted here as if they each
+ * added {@link NodeLoad#SESSION_WEIGHT} to its load, so that a burst of new
+ * sessions is spread over the cluster rather than all sent to one node.
+ *
+ * @since 5.2.0
+ */
+public class LoadRedirector extends AbstractRedirector {
+
+    private final LoadRegistry registry;
+
+    private final int hysteresis;
+
+    private final int minimumDifference;
+
+    /** Last load score read for each node. */
+    private final Map<String, Integer> scores = new HashMap<String, Integer>();
+
+    /** Generation of the last load score read for each node. */
+    private final Map<String, Long> generations = new HashMap<String, Long>();
+
+    /** Number of sessions placed on each node since its last read score. */
+    private final Map<String, Integer> placed = new HashMap<String, Integer>();
+
+    /**
+     * @param ex the executor
+     * @param registry where the loads of the nodes are published
+     * @param hysteresis the percentage by which the load of the current node
+     *        must exceed the lowest load for a session to be redirected
+     */
+    public LoadRedirector(Executor ex, LoadRegistry registry, int hysteresis) {
+        this(ex, registry, hysteresis, NodeLoad.SESSION_WEIGHT);
+    }
+
+    /**
+     * @param ex the executor
+     * @param registry where the loads of the nodes are published
+     * @param hysteresis the percentage by which the load of the current node
+     *        must exceed the lowest load for a session to be redirected
+     * @param minimumDifference the least difference in load for which a
+     *        session is redirected
+     */
+    public LoadRedirector(Executor ex, LoadRegistry registry, int hysteresis,
+            int minimumDifference) {
+        super(ex);
+        this.registry = registry;
+        this.hysteresis = Math.max(0, hysteresis);
+        this.minimumDifference = Math.max(1, minimumDifference);
+    }
+
+    public SessionPrx getProxyOrNull(Context ctx, String userId,
+            Glacier2.SessionControlPrx control, Ice.Current current)
+            throws CannotCreateSessionException {
+
+        // First, give the abstract class a chance to handle common cases
+        SessionPrx prx = super.getProxyOrNull(ctx, userId, control, current);
+        if (prx != null) {
+            return prx; // EARLY EXIT
+        }
+
+        String proxyString = null;
+        if (!alreadyRouted(current)) {
+            final String target = chooseNode(ctx);
+            if (target != null) {
+                proxyString = findProxy(ctx, target);
+                log.info(String.format("Load balancing to %s", proxyString));
+            }
+        }
+
+        // Handles nulls
+        return obtainProxy(proxyString, ctx, userId, control, current);
+    }
+
+    /**
+     * Publishes the load of the node of the given context.
+     */
+    public void publish(Context ctx, NodeLoad load) {
+        registry.publish(ctx, load.score());
+        log.debug("Published " + load);
+    }
+
+    /**
+     * Chooses the node on which to create a new session and counts the
+     * session as placed on it.
+     *
+     * @return the uuid of the node to which to redirect the session, or null
+     *         if it should be created on the node of the given context
+     */
+    public synchronized String chooseNode(Context ctx) {
+        final Map<String, Published> loads = registry.getLoads(ctx);
+        scores.keySet().retainAll(loads.keySet());
+        generations.keySet().retainAll(loads.keySet());
+        placed.keySet().retainAll(loads.keySet());
+        for (final Map.Entry<String, Published> entry : loads.entrySet()) {
+            final Published load = entry.getValue();
+            scores.put(entry.getKey(), load.getScore());
+            final Long previous = generations.put(entry.getKey(),
+                    load.getGeneration());
+            // The sessions placed so far are counted in a score published
+            // since, even if it is equal to the previous one.
+            if (previous == null || previous != load.getGeneration()) {
+                placed.remove(entry.getKey());
+            }
+        }
+
+        final String local = ctx.uuid();
+        if (!loads.containsKey(local)) {
+            return null; // Not yet published, so nothing to compare.
+        }
+        final int localLoad = effectiveLoad(local);
+
+        String best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (final String uuid : new TreeMap<String, Published>(loads).keySet()) {
+            if (!uuid.equals(local)) {
+                final int load = effectiveLoad(uuid);
+                if (load < bestLoad) {
+                    best = uuid;
+                    bestLoad = load;
+                }
+            }
+        }
+
+        final String chosen;
+        if (best != null && (long) localLoad - bestLoad >
+                Math.max(minimumDifference, (long) bestLoad * hysteresis / 100)) {
+            chosen = best;
+        } else {
+            chosen = local;
+        }
+        final Integer count = placed.get(chosen);
+        placed.put(chosen, count == null ? 1 : count + 1);
+        return chosen.equals(local) ? null : chosen;
+    }
+
+    private int effectiveLoad(String uuid) {
+        final Integer count = placed.get(uuid);
+        final long load = scores.get(uuid) + (count == null ? 0L :
+                (long) count * NodeLoad.SESSION_WEIGHT);
+        return (int) Math.min(Integer.MAX_VALUE, load);
+    }
+
+    /**
+     * Does nothing since all redirects are chosen during
+     * {@link #getProxyOrNull(Context, String, Glacier2.SessionControlPrx, Ice.Current)}
+     */
+    public void chooseNextRedirect(Context context, Set<String> nodeUuids) {
+
+    }
+
+    /**
+     * Removes the load of the node going down so that no more sessions are
+     * redirected to it.
+     */
+    public synchronized void handleRingShutdown(Context context, String uuid) {
+        registry.remove(context, uuid);
+        scores.remove(uuid);
+        generations.remove(uuid);
+        placed.remove(uuid);
+    }
+
+}
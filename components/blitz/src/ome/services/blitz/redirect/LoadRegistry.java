@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.redirect;
+
+import java.util.Map;
+
+import ome.services.blitz.redirect.Redirector.Context;
+
+/**
+ * Place where each node of the cluster publishes its {@link NodeLoad#score()}
+ * and from which the {@link LoadRedirector} of every node reads them.
+ *
+ * @since 5.2.0
+ */
+public interface LoadRegistry {
+
+    /**
+     * Publishes the load score of the node of the given context.
+     */
+    void publish(Context ctx, int score);
+
+    /**
+     * Returns the last load score published by each active node, keyed by
+     * the node uuid.
+     */
+    Map<String, Published> getLoads(Context ctx);
+
+    /**
+     * Forgets the load of the node with the given uuid, which is going down.
+     */
+    void remove(Context ctx, String uuid);
+
+    /**
+     * A load score as last published by a node, with the generation of the
+     * publication so that a score published anew may be told from the
+     * previous one even if their values are equal.
+     */
+    public static class Published {
+
+        private final int score;
+
+        private final long generation;
+
+        public Published(int score, long generation) {
+            this.score = score;
+            this.generation = generation;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+    }
+
+}
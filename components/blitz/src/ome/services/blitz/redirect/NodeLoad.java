@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.redirect;
+
+/**
+ * Load of a single blitz node as measured by the {@link LoadPublisher},
+ * reduced to a single {@link #score()} so that it may be published in the
+ * {@link ome.model.meta.Node#getScale() scale} of the node and compared by
+ * the {@link LoadRedirector}.
+ *
+ * @since 5.2.0
+ */
+public class NodeLoad {
+
+    /** Weight of each session, i.e. of each connected client. */
+    public final static int SESSION_WEIGHT = 10;
+
+    /** Weight of each stateful servant, e.g. a rendering engine. */
+    public final static int SERVANT_WEIGHT = 5;
+
+    /** Weight of each task waiting for a thread of the executor. */
+    public final static int QUEUED_TASK_WEIGHT = 20;
+
+    /** Weight of each millisecond of recent rendering latency. */
+    public final static int LATENCY_WEIGHT = 1;
+
+    private final int sessions;
+
+    private final int servants;
+
+    private final int queuedTasks;
+
+    private final double renderLatency;
+
+    /**
+     * @param sessions the number of sessions with servants on the node
+     * @param servants the number of stateful servants on the node
+     * @param queuedTasks the number of tasks waiting for a thread, of the
+     *        executor or of the rendering executor
+     * @param renderLatency the mean latency of the recent rendering tasks,
+     *        in milliseconds
+     */
+    public NodeLoad(int sessions, int servants, int queuedTasks,
+            double renderLatency) {
+        this.sessions = sessions;
+        this.servants = servants;
+        this.queuedTasks = queuedTasks;
+        this.renderLatency = renderLatency;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public int getServants() {
+        return servants;
+    }
+
+    public int getQueuedTasks() {
+        return queuedTasks;
+    }
+
+    public double getRenderLatency() {
+        return renderLatency;
+    }
+
+    /**
+     * Returns the weighted sum of the load, lower being less loaded.
+     */
+    public int score() {
+        final long score = (long) sessions * SESSION_WEIGHT
+                + (long) servants * SERVANT_WEIGHT
+                + (long) queuedTasks * QUEUED_TASK_WEIGHT
+                + Math.round(renderLatency * LATENCY_WEIGHT);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, score));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NodeLoad(sessions=%d, servants=%d, "
+                + "queued=%d, latency=%.1fms, score=%d)", sessions, servants,
+                queuedTasks, renderLatency, score());
+    }
+
+}
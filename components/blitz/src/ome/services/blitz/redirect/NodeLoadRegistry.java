@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.redirect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ome.model.meta.Node;
+import ome.services.blitz.redirect.Redirector.Context;
+import ome.services.util.Executor;
+import ome.system.ServiceFactory;
+
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * {@link LoadRegistry} which publishes the load score of each node in the
+ * {@link Node#getScale() scale} column of the {@link Node} table shared by
+ * the whole cluster. Nodes which are down are ignored.
+ *
+ * @since 5.2.0
+ */
+public class NodeLoadRegistry implements LoadRegistry {
+
+    private final Executor executor;
+
+    public NodeLoadRegistry(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void publish(final Context ctx, final int score) {
+        executor.execute(ctx.principal(), new Executor.SimpleWork(this,
+                "publish", score) {
+            @Transactional(readOnly = false)
+            public Object doWork(Session session, ServiceFactory sf) {
+                return getSqlAction().setNodeLoad(ctx.uuid(), score);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Published> getLoads(Context ctx) {
+        final Map<String, Object[]> rows = (Map<String, Object[]>)
+                executor.execute(ctx.principal(),
+                new Executor.SimpleWork(this, "getLoads") {
+                    @Transactional(readOnly = true)
+                    public Object doWork(Session session, ServiceFactory sf) {
+                        return getSqlAction().getNodeLoads();
+                    }
+                });
+        final Map<String, Published> loads = new HashMap<String, Published>();
+        for (final Map.Entry<String, Object[]> row : rows.entrySet()) {
+            loads.put(row.getKey(), new Published((Integer) row.getValue()[0],
+                    (Long) row.getValue()[1]));
+        }
+        return loads;
+    }
+
+    /**
+     * Does nothing since the {@link ome.services.blitz.fire.Ring} sets the
+     * node down, after which its load is no longer returned.
+     */
+    public void remove(Context ctx, String uuid) {
+
+    }
+
+}
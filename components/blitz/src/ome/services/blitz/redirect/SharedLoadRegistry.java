@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.redirect;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.services.blitz.redirect.Redirector.Context;
+
+/**
+ * In-memory {@link LoadRegistry} shared by the nodes running in a single
+ * process, e.g. by several {@link ome.services.blitz.fire.Ring} instances
+ * during testing.
+ *
+ * @since 5.2.0
+ */
+public class SharedLoadRegistry implements LoadRegistry {
+
+    private final ConcurrentMap<String, Published> loads =
+            new ConcurrentHashMap<String, Published>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    public void publish(Context ctx, int score) {
+        loads.put(ctx.uuid(),
+                new Published(score, generation.incrementAndGet()));
+    }
+
+    public Map<String, Published> getLoads(Context ctx) {
+        return new HashMap<String, Published>(loads);
+    }
+
+    public void remove(Context ctx, String uuid) {
+        loads.remove(uuid);
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumType;
+
+/**
+ * Verifies the checksums of repository files on a bounded pool of workers.
+ * Files are hashed through read-only memory-mapped windows rather than
+ * copied through a heap buffer, and at most a configured number of files
+ * of any one repository are read at once so that a bulk verification does
+ * not saturate the storage underlying that repository.
+ *
+ * @since 5.1.0
+ */
+public class ChecksumVerifier {
+
+    /** The size of the windows in which a file is mapped for hashing. */
+    public static final long MAP_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * A file whose checksum is to be verified.
+     */
+    public static class Check {
+        /** the ID of the original file */
+        public final long id;
+        /** the file on disk */
+        public final File file;
+        /** the checksum algorithm with which the file was hashed */
+        public final ChecksumType type;
+        /** the expected hash of the file */
+        public final String hash;
+
+        public Check(long id, File file, ChecksumType type, String hash) {
+            this.id = id;
+            this.file = file;
+            this.type = type;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * The outcome of verifying the checksum of a single file.
+     */
+    public static class Result {
+        /** the ID of the original file */
+        public final long id;
+        /** the number of bytes hashed */
+        public final long bytes;
+        /** if the file's checksum matched the expected hash */
+        public final boolean matches;
+
+        Result(long id, long bytes, boolean matches) {
+            this.id = id;
+            this.bytes = bytes;
+            this.matches = matches;
+        }
+    }
+
+    /**
+     * The files of one repository that are waiting to be hashed.
+     * Dispatches them to the executor so that no more than
+     * {@link ChecksumVerifier#ioLimit} are being read at once.
+     */
+    private class RepositoryQueue {
+        private final Queue<FutureTask<Result>> waiting = new ArrayDeque<FutureTask<Result>>();
+        private int running = 0;
+
+        synchronized void add(FutureTask<Result> task) {
+            waiting.add(task);
+            drain();
+        }
+
+        synchronized void done() {
+            running--;
+            drain();
+        }
+
+        private void drain() {
+            while (running < ioLimit && !waiting.isEmpty()) {
+                final FutureTask<Result> task = waiting.poll();
+                running++;
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                task.run();
+                            } finally {
+                                done();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException ree) {
+                    running--;
+                    task.cancel(false);
+                }
+            }
+        }
+    }
+
+    private final ChecksumProviderFactory checksumProviderFactory;
+
+    private final Executor executor;
+
+    private final int ioLimit;
+
+    private final ConcurrentMap<String, RepositoryQueue> queues =
+            new ConcurrentHashMap<String, RepositoryQueue>();
+
+    /**
+     * Construct a verifier that hashes files in the calling thread, one at a time.
+     * Used primarily during testing.
+     * @param checksumProviderFactory the source of checksum providers
+     */
+    public ChecksumVerifier(ChecksumProviderFactory checksumProviderFactory) {
+        this(checksumProviderFactory, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, 1);
+    }
+
+    /**
+     * Construct a verifier.
+     * @param checksumProviderFactory the source of checksum providers
+     * @param executor the pool of workers on which files are hashed
+     * @param ioLimit the maximum number of files of any one repository to read at once
+     */
+    public ChecksumVerifier(ChecksumProviderFactory checksumProviderFactory, Executor executor,
+            int ioLimit) {
+        if (ioLimit < 1) {
+            throw new IllegalArgumentException("I/O limit must be positive: " + ioLimit);
+        }
+        this.checksumProviderFactory = checksumProviderFactory;
+        this.executor = executor;
+        this.ioLimit = ioLimit;
+    }
+
+    /**
+     * Queue the verification of a file's checksum.
+     * @param repoUuid the UUID of the repository holding the file
+     * @param check the file to verify
+     * @return the result of the verification, failing with an {@link IOException} if the file could not be read
+     */
+    public Future<Result> submit(String repoUuid, final Check check) {
+        final FutureTask<Result> task = new FutureTask<Result>(new Callable<Result>() {
+            @Override
+            public Result call() throws IOException {
+                final ChecksumProvider provider = checksumProviderFactory.getProvider(check.type);
+                final long bytes = putFile(provider, check.file);
+                return new Result(check.id, bytes, provider.checksumAsString().equalsIgnoreCase(check.hash));
+            }
+        });
+        RepositoryQueue queue = queues.get(repoUuid);
+        if (queue == null) {
+            final RepositoryQueue newQueue = new RepositoryQueue();
+            queue = queues.putIfAbsent(repoUuid, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        queue.add(task);
+        return task;
+    }
+
+    /**
+     * Update a checksum provider with the whole content of a file,
+     * mapping it into memory window by window.
+     * @param provider the checksum provider to update
+     * @param file the file to hash
+     * @return the size of the file
+     * @throws IOException if the file could not be read
+     */
+    static long putFile(ChecksumProvider provider, File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            for (long position = 0; position < size; position += MAP_SIZE) {
+                provider.putBytes(channel.map(MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position)));
+            }
+            return size;
+        } finally {
+            raf.close();
+        }
+    }
+}
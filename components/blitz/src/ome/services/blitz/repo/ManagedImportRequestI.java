@@ -22,8 +22,16 @@ import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
@@ -32,6 +40,7 @@ import loci.formats.MissingLibraryException;
 import loci.formats.UnknownFormatException;
 import loci.formats.UnsupportedCompressionException;
 import loci.formats.in.MIASReader;
+import loci.formats.meta.IMinMaxStore;
 import ome.formats.OMEROMetadataStoreClient;
 import ome.formats.OverlayMetadataStore;
 import ome.formats.importer.ImportConfig;
@@ -78,6 +87,8 @@ import org.slf4j.MDC;
 
 import ch.qos.logback.classic.ClassicConstants;
 
+import com.google.common.base.Supplier;
+
 /**
  * Wrapper around {@link FilesetJobLink} instances which need to be handled
  * on the server-side. This will primarily provide the step-location required
@@ -123,6 +134,17 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
 
     private Resources.Entry resourcesEntry = null;
 
+    /**
+     * Pool on which series are parsed concurrently by {@link #pixelData},
+     * or null if they are parsed in turn by {@link #reader}.
+     */
+    private ExecutorService seriesExecutor = null;
+
+    /**
+     * Source of the additional readers used by {@link #seriesExecutor}.
+     */
+    private Supplier<OMEROWrapper> seriesReaders = null;
+
     private OMEROWrapper reader = null;
 
     private CheckedPath file = null;
@@ -186,6 +208,20 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         this.resources = resources;
     }
 
+    /**
+     * Late injection of the pool on which the series of a fileset are
+     * parsed concurrently to calculate their minima, maxima and checksums.
+     * Each thread parsing a series uses its own reader.
+     * @param executor the pool to parse series on, may be null to parse
+     * each series in turn
+     * @param readers the source of readers for the pool
+     */
+    public void setSeriesExecutor(ExecutorService executor,
+            Supplier<OMEROWrapper> readers) {
+        this.seriesExecutor = executor;
+        this.seriesReaders = readers;
+    }
+
     //
     // IRequest methods
     //
@@ -643,7 +679,10 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         {
             // Parse the binary data to generate min/max values
             int seriesCount = reader.getSeriesCount();
-            for (int series = 0; series < seriesCount; series++) {
+            if (seriesExecutor != null && seriesCount > 1) {
+                parseAllSeries(seriesCount);
+            }
+            else for (int series = 0; series < seriesCount; series++) {
                 ImportSize size = new ImportSize(fileName,
                         pixList.get(series), reader.getDimensionOrder());
                 Pixels pixels = pixList.get(series);
@@ -747,6 +786,24 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
             String fileName, int series,
             ImportSize size)
         throws FormatException, IOException, ServerError
+    {
+        return parseData(reader, series, size, true);
+    }
+
+    /**
+     * Parse the binary data of a series with the given reader.
+     *
+     * @param reader The reader to parse the series with.
+     * @param series The series to parse.
+     * @param size Sizes of the Pixels set.
+     * @param notify If progress is to be reported plane by plane.
+     * @return The SHA1 message digest for the binary data, or null if the
+     * planes are too large to be parsed.
+     */
+    private MessageDigest parseData(
+            OMEROWrapper reader, int series,
+            ImportSize size, boolean notify)
+        throws FormatException, IOException
     {
         reader.setSeries(series);
         int maxPlaneSize = sizes.getMaxPlaneWidth() * sizes.getMaxPlaneHeight();
@@ -764,41 +821,216 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
             throw new RuntimeException(
                 "Required SHA-1 message digest algorithm unavailable.");
         }
+        byte[] buf = reader == this.reader ? arrayBuf : new byte[0];
         int planeNo = 1;
         for (int t = 0; t < size.sizeT; t++) {
             for (int c = 0; c < size.sizeC; c++) {
                 for (int z = 0; z < size.sizeZ; z++) {
-                    parseDataByPlane(size, z, c, t,
-                            bytesPerPixel, fileName, md);
-                    notifyObservers(new ImportEvent.IMPORT_STEP(
-                            planeNo, series, reader.getSeriesCount()));
+                    buf = parseDataByPlane(reader, buf, size, z, c, t,
+                            bytesPerPixel, md);
+                    if (notify) {
+                        notifyObservers(new ImportEvent.IMPORT_STEP(
+                                planeNo, series, reader.getSeriesCount()));
+                    }
                     planeNo++;
                 }
             }
         }
+        if (reader == this.reader) {
+            arrayBuf = buf;
+        }
         return md;
     }
 
+    /**
+     * Parse the binary data of all series of the fileset, several at once on
+     * {@link #seriesExecutor}, to generate min/max values and the SHA1 of
+     * each Pixels set. Each series is parsed whole by a single reader, so
+     * the digests are those that {@link #parseData} would calculate. The
+     * results are passed to the metadata store, and the progress reported,
+     * in the order of the series.
+     *
+     * @param seriesCount The number of series.
+     */
+    private void parseAllSeries(int seriesCount) throws Throwable
+    {
+        final SeriesMinMaxStore minMax = new SeriesMinMaxStore();
+        final BlockingQueue<OMEROWrapper> idle =
+                new LinkedBlockingQueue<OMEROWrapper>();
+        final List<OMEROWrapper> opened =
+                Collections.synchronizedList(new ArrayList<OMEROWrapper>());
+        final List<Future<MessageDigest>> digests =
+                new ArrayList<Future<MessageDigest>>(seriesCount);
+        final List<ReaderLease> leases = new ArrayList<ReaderLease>(seriesCount);
+        try {
+            for (int series = 0; series < seriesCount; series++) {
+                final int s = series;
+                final ImportSize size = new ImportSize(fileName,
+                        pixList.get(series), reader.getDimensionOrder());
+                final ReaderLease lease = new ReaderLease();
+                leases.add(lease);
+                digests.add(seriesExecutor.submit(new Callable<MessageDigest>() {
+                    public MessageDigest call() throws Exception {
+                        if (!lease.begin()) {
+                            return null;
+                        }
+                        try {
+                            return parse();
+                        } finally {
+                            lease.end();
+                        }
+                    }
+                    private MessageDigest parse() throws Exception {
+                        // Readers are only opened for as many series as
+                        // are being parsed at once.
+                        OMEROWrapper worker = idle.poll();
+                        if (worker == null) {
+                            worker = seriesReaders.get();
+                            opened.add(worker);
+                            worker.setMinMaxStore(minMax);
+                            file.bfSetId(worker);
+                            worker.minMaxSet = false;
+                        }
+                        try {
+                            final MessageDigest md =
+                                    parseData(worker, s, size, false);
+                            if (md != null) {
+                                for (int c = 0; c < size.sizeC; c++) {
+                                    final Double min =
+                                            worker.getChannelKnownMinimum(c);
+                                    final Double max =
+                                            worker.getChannelKnownMaximum(c);
+                                    if (min != null && max != null) {
+                                        minMax.setChannelGlobalMinMax(
+                                                c, min, max, s);
+                                    }
+                                }
+                            }
+                            return md;
+                        } finally {
+                            idle.add(worker);
+                        }
+                    }
+                }));
+            }
+
+            for (int series = 0; series < seriesCount; series++) {
+                final MessageDigest md;
+                try {
+                    md = digests.get(series).get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+                if (md == null) {
+                    continue;
+                }
+                final Pixels pixels = pixList.get(series);
+                pixels.setSha1(store.toRType(Hex.encodeHexString(md.digest())));
+                minMax.populate(store, series);
+                final int planeCount = pixels.getSizeZ().getValue()
+                        * pixels.getSizeC().getValue()
+                        * pixels.getSizeT().getValue();
+                for (int planeNo = 1; planeNo <= planeCount; planeNo++) {
+                    notifyObservers(new ImportEvent.IMPORT_STEP(
+                            planeNo, series, seriesCount));
+                }
+            }
+        } finally {
+            for (final Future<MessageDigest> digest : digests) {
+                digest.cancel(true);
+            }
+            // Cancelling does not wait for the running tasks, which must
+            // be done with their readers before these can be closed.
+            for (final ReaderLease lease : leases) {
+                lease.revokeOrAwait();
+            }
+            synchronized (opened) {
+                for (final OMEROWrapper worker : opened) {
+                    try {
+                        worker.close();
+                    } catch (IOException e) {
+                        log.warn("Failed to close series reader", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reducer of the channel minima and maxima found by the readers of
+     * {@link #parseAllSeries(int)}, in the manner of the
+     * <code>PixelsPyramidMinMaxStore</code> of {@link ome.io.nio.PixelsService}
+     * but keeping the extremes of all values reported for each channel of
+     * each series.
+     */
+    private static class SeriesMinMaxStore implements IMinMaxStore
+    {
+        private final Map<Integer, List<double[]>> seriesMinMax =
+                new HashMap<Integer, List<double[]>>();
+
+        public synchronized void setChannelGlobalMinMax(int channel,
+                double minimum, double maximum, int series)
+        {
+            List<double[]> channels = seriesMinMax.get(series);
+            if (channels == null) {
+                channels = new ArrayList<double[]>();
+                seriesMinMax.put(series, channels);
+            }
+            while (channels.size() <= channel) {
+                channels.add(null);
+            }
+            final double[] minMax = channels.get(channel);
+            if (minMax == null) {
+                channels.set(channel, new double[] { minimum, maximum });
+            } else {
+                minMax[0] = Math.min(minMax[0], minimum);
+                minMax[1] = Math.max(minMax[1], maximum);
+            }
+        }
+
+        /**
+         * Pass the minima and maxima of the channels of a series on.
+         * @param store The store to pass the values to.
+         * @param series The series.
+         */
+        synchronized void populate(IMinMaxStore store, int series)
+        {
+            final List<double[]> channels = seriesMinMax.get(series);
+            if (channels == null) {
+                return;
+            }
+            for (int channel = 0; channel < channels.size(); channel++) {
+                final double[] minMax = channels.get(channel);
+                if (minMax != null) {
+                    store.setChannelGlobalMinMax(
+                            channel, minMax[0], minMax[1], series);
+                }
+            }
+        }
+    }
+
 
     /**
      * Read a plane and update the pixels checksum
      *
+     * @param reader The reader from which to read the plane.
+     * @param arrayBuf Buffer for the tiles, grown if it is too small.
      * @param size Sizes of the Pixels set.
      * @param z The Z-section offset to write to.
      * @param c The channel offset to write to.
      * @param t The timepoint offset to write to.
      * @param bytesPerPixel Number of bytes per pixel.
-     * @param fileName Name of the file.
      * @param md Current Pixels set message digest.
+     * @return The buffer for the tiles, to be passed to the next call.
      * @throws FormatException If there is an error reading Pixel data via
      * Bio-Formats.
      * @throws IOException If there is an I/O error reading Pixel data via
      * Bio-Formats.
      */
-    private void parseDataByPlane(
+    private byte[] parseDataByPlane(
+            OMEROWrapper reader, byte[] arrayBuf,
             ImportSize size, int z, int c, int t,
-            int bytesPerPixel, String fileName,
-            MessageDigest md)
+            int bytesPerPixel, MessageDigest md)
         throws FormatException, IOException
     {
         int tileHeight = reader.getOptimalTileHeight();
@@ -848,6 +1080,7 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
                 }
             }
         }
+        return arrayBuf;
     }
 
     /**
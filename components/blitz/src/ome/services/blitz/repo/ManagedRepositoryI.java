@@ -36,6 +36,9 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,11 +50,13 @@ import ome.formats.importer.ImportConfig;
 import ome.formats.importer.ImportContainer;
 import ome.model.core.OriginalFile;
 import ome.model.meta.Experimenter;
+import ome.services.blitz.impl.ServiceFactoryI;
 import ome.services.blitz.repo.path.ClientFilePathTransformer;
 import ome.services.blitz.repo.path.FilePathRestrictionInstance;
 import ome.services.blitz.repo.path.FsFile;
 import ome.services.blitz.repo.path.MakeNextDirectory;
 import ome.services.blitz.util.ChecksumAlgorithmMapper;
+import ome.services.blitz.util.FindServiceFactoryMessage;
 import ome.system.Roles;
 import ome.system.ServiceFactory;
 import ome.util.SqlAction;
@@ -61,6 +66,7 @@ import ome.util.checksum.ChecksumProviderFactoryImpl;
 import ome.util.checksum.ChecksumType;
 import omero.ResourceError;
 import omero.ServerError;
+import omero.cmd.HandlePrx;
 import omero.grid.ImportLocation;
 import omero.grid.ImportProcessPrx;
 import omero.grid.ImportSettings;
@@ -150,6 +156,8 @@ public class ManagedRepositoryI extends PublicRepositoryI
 
     private final long userGroupId;
 
+    private ChecksumVerifier checksumVerifier;
+
     /**
      * Creates a {@link ProcessContainer} internally that will not be managed
      * by background threads. Used primarily during testing.
@@ -187,9 +195,19 @@ public class ManagedRepositoryI extends PublicRepositoryI
         this.processes = processes;
         this.rootSessionUuid = rootSessionUuid;
         this.userGroupId = roles.getUserGroupId();
+        this.checksumVerifier = new ChecksumVerifier(checksumProviderFactory);
         log.info("Repository template: " + template);
     }
 
+    /**
+     * Set the verifier on which the checksums of files are verified.
+     * Defaults to one that verifies them in the calling thread.
+     * @param checksumVerifier a checksum verifier
+     */
+    public void setChecksumVerifier(ChecksumVerifier checksumVerifier) {
+        this.checksumVerifier = checksumVerifier;
+    }
+
     @Override
     public Ice.Object tie() {
         return new _ManagedRepositoryTie(this);
@@ -330,33 +348,72 @@ public class ManagedRepositoryI extends PublicRepositoryI
     }
 
     public List<Long> verifyChecksums(List<Long> ids, Current __current) throws ServerError {
+        /* queue the verification of the checksum of the specified files that are in this repository */
+        final List<ChecksumVerifier.Check> checks = getChecksumChecks(ids, __current);
+        final List<Future<ChecksumVerifier.Result>> results = new ArrayList<Future<ChecksumVerifier.Result>>(checks.size());
+        for (final ChecksumVerifier.Check check : checks) {
+            results.add(checksumVerifier.submit(getRepoUuid(), check));
+        }
+
+        /* collect the files whose checksum does not match */
+        final List<Long> mismatchFiles = new ArrayList<Long>();
+        for (final Future<ChecksumVerifier.Result> result : results) {
+            try {
+                if (!result.get().matches) {
+                    mismatchFiles.add(result.get().id);
+                }
+            } catch (ExecutionException ee) {
+                throw new ResourceError(null, null, "failed to verify checksum: " + ee.getCause());
+            } catch (InterruptedException ie) {
+                throw new ResourceError(null, null, "interrupted while verifying checksums");
+            } catch (CancellationException ce) {
+                throw new ResourceError(null, null, "checksum verification was cancelled");
+            }
+        }
+        return mismatchFiles;
+    }
+
+    public HandlePrx startChecksumVerification(List<Long> ids, Current __current) throws ServerError {
+        final List<ChecksumVerifier.Check> checks = getChecksumChecks(ids, __current);
+        final VerifyChecksumsRequestI req = new VerifyChecksumsRequestI(checksumVerifier, getRepoUuid(), checks);
+
+        final Ice.Current adjustedCurr = makeAdjustedCurrent(__current);
+        final FindServiceFactoryMessage msg = new FindServiceFactoryMessage(this, adjustedCurr);
+        publishMessage(msg);
+        final ServiceFactoryI sf = msg.getServiceFactory();
+
+        final AMD_submit submit = submitRequest(sf, req, adjustedCurr);
+        return submit.ret;
+    }
+
+    /**
+     * Find which of the given files are in this repository and have a checksum that can be verified.
+     * @param ids the IDs of original files
+     * @param __current the Ice method invocation context
+     * @return the files to verify, in the order of the given IDs
+     * @throws ServerError if the files could not be looked up
+     */
+    private List<ChecksumVerifier.Check> getChecksumChecks(List<Long> ids, Current __current) throws ServerError {
         /* set up an invocation context in which the group is set to -1, for "all groups" */
         final Current allGroupsCurrent = makeAdjustedCurrent(__current);
         allGroupsCurrent.ctx = new HashMap<String, String>(__current.ctx);
         allGroupsCurrent.ctx.put(omero.constants.GROUP.value, "-1");
 
-        /* verify the checksum of the specified files that are in this repository */
-        final List<Long> mismatchFiles = new ArrayList<Long>();
+        final List<ChecksumVerifier.Check> checks = new ArrayList<ChecksumVerifier.Check>();
         for (final long id : repositoryDao.filterFilesByRepository(getRepoUuid(), ids, allGroupsCurrent)) {
             /* get one of the files */
             final OriginalFile file = repositoryDao.getOriginalFileWithHasher(id, allGroupsCurrent);
             final FsFile fsPath = new FsFile(file.getPath() + file.getName());
-            final String osPath = serverPaths.getServerFileFromFsFile(fsPath).getAbsolutePath();
 
-            /* check the file's checksum */
+            /* only files with a valid checksum can be checked */
             final ome.model.enums.ChecksumAlgorithm hasher = file.getHasher();
             final String hash = file.getHash();
             if (hasher != null && hash != null) {
-                /* has a valid checksum, so check it */
-                final ChecksumProvider fromProvider =
-                        checksumProviderFactory.getProvider(ChecksumAlgorithmMapper.getChecksumType(hasher));
-                fromProvider.putFile(osPath);
-                if (!fromProvider.checksumAsString().equalsIgnoreCase(hash)) {
-                    mismatchFiles.add(id);
-                }
+                checks.add(new ChecksumVerifier.Check(id, serverPaths.getServerFileFromFsFile(fsPath),
+                        ChecksumAlgorithmMapper.getChecksumType(hasher), hash));
             }
         }
-        return mismatchFiles;
+        return checks;
     }
 
     public List<Long> setChecksumAlgorithm(ChecksumAlgorithm toHasherWrapped, List<Long> ids, Current __current)
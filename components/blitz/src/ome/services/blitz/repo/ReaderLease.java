@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package ome.services.blitz.repo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Marks the span during which a task submitted to an executor may use
+ * readers shared with the submitter, so that the submitter only closes
+ * them once the task can no longer be using them. Cancelling the task's
+ * {@link Future} is not enough, since {@link Future#cancel(boolean)} does
+ * not wait for a running task to return.
+ *
+ * The task calls {@link #begin()} before touching a reader and
+ * {@link #end()} once done with it. The submitter calls
+ * {@link #revokeOrAwait()} after cancelling the task.
+ *
+ * @since 5.1.0
+ */
+public class ReaderLease {
+
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    /**
+     * Called by the task before it uses any reader.
+     *
+     * @return <code>false</code> if the lease was revoked before the task
+     * started, in which case the task must not use any reader and need not
+     * call {@link #end()}
+     */
+    public boolean begin() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by the task, in a <code>finally</code> block, once it will no
+     * longer use any reader.
+     */
+    public void end() {
+        released.countDown();
+    }
+
+    /**
+     * Prevents the task from using any reader if it has not begun yet, or
+     * else waits for it to {@link #end()}. Interrupts are deferred until the
+     * task has ended.
+     */
+    public void revokeOrAwait() {
+        if (claimed.compareAndSet(false, true)) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                released.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package ome.services.blitz.repo;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -35,6 +36,8 @@ import ome.formats.importer.OMEROWrapper;
 
 import omero.util.Resources;
 
+import com.google.common.base.Supplier;
+
 
 /**
  * Requests which are handled by the repository servants.
@@ -56,6 +59,8 @@ public class RequestObjectFactoryRegistry extends
 
     private/* final */OmeroContext ctx;
 
+    private ExecutorService seriesExecutor;
+
     public RequestObjectFactoryRegistry(Registry reg, TileSizes sizes,
             RepositoryDao repositoryDao, Ring ring,
             PixelsService pixels) {
@@ -72,6 +77,15 @@ public class RequestObjectFactoryRegistry extends
         this.resources = resources;
     }
 
+    /**
+     * Set the pool on which the series of multi-series imports are parsed
+     * concurrently. If not set, the series are parsed one after another.
+     * @param seriesExecutor the pool of workers for parsing series
+     */
+    public void setSeriesExecutor(ExecutorService seriesExecutor) {
+        this.seriesExecutor = seriesExecutor;
+    }
+
     public void setApplicationContext(ApplicationContext ctx)
             throws BeansException {
         this.ctx = (OmeroContext) ctx;
@@ -90,6 +104,17 @@ public class RequestObjectFactoryRegistry extends
                                 pixels.getMemoizerDirectory()),
                         ring.uuid);
                 mir.setResources(resources);
+                if (seriesExecutor != null) {
+                    mir.setSeriesExecutor(seriesExecutor,
+                            new Supplier<OMEROWrapper>() {
+                                public OMEROWrapper get() {
+                                    return new OMEROWrapper(
+                                            new ImportConfig(),
+                                            pixels.getMemoizerWait(),
+                                            pixels.getMemoizerDirectory());
+                                }
+                            });
+                }
                 return mir;
             }
 
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import omero.cmd.ERR;
+import omero.cmd.HandleI.Cancel;
+import omero.cmd.Helper;
+import omero.cmd.IRequest;
+import omero.cmd.Response;
+import omero.grid.VerifyChecksumsRequest;
+import omero.grid.VerifyChecksumsResponse;
+
+/**
+ * Command request for verifying the checksums of repository files in the
+ * background. The files are queued to a {@link ChecksumVerifier} when the
+ * request starts and each step waits for one of them to be hashed, so the
+ * {@link omero.cmd.Status#parameters} of the handle can report the progress
+ * of the verification as it proceeds.
+ *
+ * @since 5.1.0
+ */
+public class VerifyChecksumsRequestI extends VerifyChecksumsRequest implements IRequest {
+
+    private static final long serialVersionUID = 8254715907735130371L;
+
+    private final ChecksumVerifier verifier;
+
+    private final List<ChecksumVerifier.Check> checks;
+
+    private final List<Future<ChecksumVerifier.Result>> results =
+            new ArrayList<Future<ChecksumVerifier.Result>>();
+
+    private final VerifyChecksumsResponse response = new VerifyChecksumsResponse(
+            new ArrayList<Long>(), new ArrayList<Long>(), 0, 0, 0, 0);
+
+    private long startTime;
+
+    private Helper helper;
+
+    /**
+     * Construct a request for verifying the checksums of the given files.
+     * @param verifier the verifier to which to submit the files
+     * @param repoUuid the UUID of the repository holding the files
+     * @param checks the files to verify
+     */
+    public VerifyChecksumsRequestI(ChecksumVerifier verifier, String repoUuid,
+            List<ChecksumVerifier.Check> checks) {
+        this.verifier = verifier;
+        this.checks = checks;
+        this.repoUuid = repoUuid;
+        this.fileIds = new ArrayList<Long>(checks.size());
+        for (final ChecksumVerifier.Check check : checks) {
+            this.fileIds.add(check.id);
+        }
+    }
+
+    //
+    // IRequest methods
+    //
+
+    @Override
+    public Map<String, String> getCallContext() {
+        return null;
+    }
+
+    @Override
+    public void init(Helper helper) {
+        this.helper = helper;
+        this.helper.setSteps(Math.max(1, checks.size()));
+        startTime = System.currentTimeMillis();
+        for (final ChecksumVerifier.Check check : checks) {
+            results.add(verifier.submit(repoUuid, check));
+        }
+    }
+
+    @Override
+    public Object step(int step) throws Cancel {
+        helper.assertStep(step);
+        if (step >= results.size()) {
+            return null;
+        }
+        final ChecksumVerifier.Check check = checks.get(step);
+        try {
+            final ChecksumVerifier.Result result = results.get(step).get();
+            response.fileCount++;
+            response.byteCount += result.bytes;
+            if (!result.matches) {
+                response.mismatchFiles.add(check.id);
+            }
+        } catch (ExecutionException ee) {
+            if (!(ee.getCause() instanceof IOException)) {
+                throw helper.cancel(new ERR(), ee.getCause(), "checksum-failed",
+                        "fileId", Long.toString(check.id));
+            }
+            helper.warn("cannot read file %s for ID %s", check.file, check.id);
+            response.unreadableFiles.add(check.id);
+        } catch (InterruptedException ie) {
+            throw helper.cancel(new ERR(), ie, "interrupted");
+        } catch (CancellationException ce) {
+            throw helper.cancel(new ERR(), ce, "cancelled",
+                    "fileId", Long.toString(check.id));
+        }
+        updateThroughput();
+        return null;
+    }
+
+    @Override
+    public void finish() throws Cancel {
+        // no-op
+    }
+
+    @Override
+    public void buildResponse(int step, Object object) {
+        helper.assertResponse(step);
+        if (helper.isLast(step)) {
+            helper.setResponseIfNull(response);
+        }
+    }
+
+    @Override
+    public Response getResponse() {
+        return helper.getResponse();
+    }
+
+    /**
+     * Note the throughput so far in the response and in the status of the request.
+     */
+    private void updateThroughput() {
+        final double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        response.filesPerSecond = response.fileCount / seconds;
+        response.bytesPerSecond = response.byteCount / seconds;
+        final Map<String, String> progress = new HashMap<String, String>();
+        progress.put("fileCount", Long.toString(response.fileCount));
+        progress.put("byteCount", Long.toString(response.byteCount));
+        progress.put("filesPerSecond", Double.toString(response.filesPerSecond));
+        progress.put("bytesPerSecond", Double.toString(response.bytesPerSecond));
+        final omero.cmd.Status status = helper.getStatus();
+        synchronized (status) {
+            if (status.parameters == null) {
+                status.parameters = progress;
+            } else {
+                status.parameters.putAll(progress);
+            }
+        }
+    }
+}
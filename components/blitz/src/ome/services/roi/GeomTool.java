@@ -13,12 +13,20 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.conditions.ApiUsageException;
+import ome.conditions.InternalException;
+import ome.conditions.ValidationException;
 import ome.io.nio.PixelBuffer;
 import ome.model.IObject;
 import ome.model.core.Pixels;
@@ -68,6 +76,15 @@ public class GeomTool {
 
     protected final String uuid;
 
+    /** Number of shapes loaded by a single query in {@link #getStats(List)}. */
+    private static final int SHAPE_BATCH_SIZE = 500;
+
+    /** Processes the planes of a shape concurrently; may be <code>null</code>. */
+    private volatile ExecutorService pool;
+
+    /** Number of threads of {@link #pool}; 1 or less leaves it unused. */
+    private volatile int threads = 1;
+
     public GeomTool(PixelData data, SqlAction sql,
             SessionFactory factory) {
         this(data, sql, factory, null, null);
@@ -230,6 +247,60 @@ public class GeomTool {
         return sp;
     }
 
+    /**
+     * Sets the number of threads used by {@link #getStats(List)} to process
+     * the planes of a shape concurrently. With <code>1</code> or less, the
+     * default, or without a {@link #setStatsExecutor(ExecutorService) pool},
+     * all planes are processed by the calling thread.
+     *
+     * @param threads The number of threads.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the pool, shared with the other callers, on which the planes of
+     * a shape are processed concurrently.
+     *
+     * @param pool The pool, which is not shut down by this instance.
+     */
+    public void setStatsExecutor(ExecutorService pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Loads the given shapes along with their ROI, image, pixels and
+     * channels in batches rather than one query per shape.
+     *
+     * @return The shapes by id.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Long, ome.model.roi.Shape> loadShapes(List<Long> shapeIds,
+            Session session) {
+        final Map<Long, ome.model.roi.Shape> shapes =
+            new HashMap<Long, ome.model.roi.Shape>();
+        final List<Long> ids = new ArrayList<Long>(
+                new LinkedHashSet<Long>(shapeIds));
+        for (int i = 0; i < ids.size(); i += SHAPE_BATCH_SIZE) {
+            List<Long> batch =
+                ids.subList(i, Math.min(i + SHAPE_BATCH_SIZE, ids.size()));
+            List<ome.model.roi.Shape> loaded = session
+                    .createQuery(
+                            "select distinct s from Shape s "
+                                    + "left outer join fetch s.channels selected " // optional
+                                    + "join fetch s.roi r join fetch r.image i "
+                                    + "join fetch i.pixels p join fetch p.channels c "
+                                    + "join fetch c.logicalChannel lc "
+                                    + "where s.id in (:ids)")
+                    .setParameterList("ids", batch).list();
+            for (ome.model.roi.Shape shape : loaded) {
+                shapes.put(shape.getId(), shape);
+            }
+        }
+        return shapes;
+    }
+
     public RoiStats getStats(List<Long> shapeIds) {
 
         if (shapeIds == null) {
@@ -239,20 +310,17 @@ public class GeomTool {
         final Session session = factory.getSession();
         final RoiStats rs = new RoiStats();
         rs.perShape = new ShapeStats[shapeIds.size()];
+        final Map<Long, ome.model.roi.Shape> shapes =
+            loadShapes(shapeIds, session);
 
         for (int i = 0; i < shapeIds.size(); i++) {
 
             final long shapeId = shapeIds.get(i);
 
-            final ome.model.roi.Shape shape = (ome.model.roi.Shape) session
-                    .createQuery(
-                            "select s from Shape s "
-                                    + "left outer join fetch s.channels selected " // optional
-                                    + "join fetch s.roi r join fetch r.image i "
-                                    + "join fetch i.pixels p join fetch p.channels c "
-                                    + "join fetch c.logicalChannel lc "
-                                    + "where s.id = :id").setParameter("id",
-                            shapeId).uniqueResult();
+            final ome.model.roi.Shape shape = shapes.get(shapeId);
+            if (shape == null) {
+                throw new ApiUsageException("Unknown shape: " + shapeId);
+            }
             final SmartShape smartShape = (SmartShape) new ShapeMapper()
                     .map(shape);
 
@@ -292,6 +360,7 @@ public class GeomTool {
 
             final Integer theZ = shape.getTheZ(); // May be null
             final Integer theT = shape.getTheT(); // May be null
+            final Integer theC = shape.getTheC(); // May be null
 
             final int startZ = (theZ == null) ? 0 : theZ.intValue();
             final int startT = (theT == null) ? 0 : theT.intValue();
@@ -299,38 +368,38 @@ public class GeomTool {
             final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
             final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
 
-            final PixelBuffer buf = data.getBuffer(pixId);
-            try {
-                SmartShape.PointCallback cb = new SmartShape.PointCallback() {
-
-                    public void handle(int x, int y) {
-
-                        for (int w = 0; w < ch; w++) {
-
-                            for (int z = startZ; z <= endZ; z++) {
-                                for (int t = startT; t <= endT; t++) {
-
-                                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
-                                    stats.pointsCount[w]++;
-                                    double value = data.get(buf, x, y, z, w, t);
-                                    stats.min[w] = Math.min(value, stats.min[w]);
-                                    stats.max[w] = Math.max(value, stats.max[w]);
-                                    stats.sum[w] += value;
-                                    sumOfSquares[w] += value * value;
-
-                                }
-                            }
-
-                        }
-                    }
-                };
-
-                smartShape.areaPoints(cb);
-            } finally {
+            final ShapeSpans spans = ShapeSpans.of(smartShape);
+            if (!spans.isEmpty()) {
+                if (spans.getX() < 0 || spans.getY() < 0
+                        || spans.getX() + spans.getWidth() > pix.getSizeX()
+                        || spans.getY() + spans.getHeight() > pix.getSizeY()) {
+                    throw new ValidationException("Shape " + shapeId
+                            + " lies outside of the image.");
+                }
+                final double[][] acc = new double[ch][];
+                for (int w = 0; w < ch; w++) {
+                    acc[w] = ShapeSpans.newAccumulator();
+                }
+                final PixelBuffer buf = data.getBuffer(pixId);
                 try {
-                    buf.close();
-                } catch (IOException e) {
-                    log.error("Error closing " + buf, e);
+                    accumulate(buf, spans, theC, ch, startZ, endZ,
+                            startT, endT, acc);
+                } finally {
+                    try {
+                        buf.close();
+                    } catch (IOException e) {
+                        log.error("Error closing " + buf, e);
+                    }
+                }
+                for (int w = 0; w < ch; w++) {
+                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
+                    stats.pointsCount[w] = (long) acc[w][ShapeSpans.COUNT];
+                    stats.min[w] = Math.min(acc[w][ShapeSpans.MIN],
+                            stats.min[w]);
+                    stats.max[w] = Math.max(acc[w][ShapeSpans.MAX],
+                            stats.max[w]);
+                    stats.sum[w] = acc[w][ShapeSpans.SUM];
+                    sumOfSquares[w] = acc[w][ShapeSpans.SUM_OF_SQUARES];
                 }
             }
 
@@ -354,6 +423,81 @@ public class GeomTool {
 
     }
 
+    /**
+     * Accumulates the values of the points of a shape over the given planes,
+     * one task per (z, t) plane. Tasks run on {@link #pool} if set.
+     */
+    private void accumulate(final PixelBuffer buf, final ShapeSpans spans,
+            final Integer theC, final int ch, int startZ, int endZ,
+            int startT, int endT, final double[][] acc) {
+        final List<Callable<double[][]>> tasks =
+            new ArrayList<Callable<double[][]>>();
+        for (int z = startZ; z <= endZ; z++) {
+            for (int t = startT; t <= endT; t++) {
+                final int theZ = z, theT = t;
+                tasks.add(new Callable<double[][]>() {
+                    public double[][] call() {
+                        double[][] plane = new double[ch][];
+                        for (int w = 0; w < ch; w++) {
+                            plane[w] = ShapeSpans.newAccumulator();
+                            int c = theC == null ? w : theC.intValue();
+                            data.accumulate(buf, spans, theZ, c, theT,
+                                    plane[w]);
+                        }
+                        return plane;
+                    }
+                });
+            }
+        }
+
+        final ExecutorService pool = this.pool;
+        if (pool == null || threads < 2 || tasks.size() < 2) {
+            for (Callable<double[][]> task : tasks) {
+                merge(call(task), acc);
+            }
+            return;
+        }
+        final List<Future<double[][]>> futures =
+            new ArrayList<Future<double[][]>>();
+        try {
+            for (Callable<double[][]> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            for (Future<double[][]> future : futures) {
+                merge(future.get(), acc);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted computing stats");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new InternalException("Error computing stats: " + cause);
+        } finally {
+            for (Future<double[][]> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static double[][] call(Callable<double[][]> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException rt) {
+            throw rt;
+        } catch (Exception e) {
+            throw new InternalException("Error computing stats: " + e);
+        }
+    }
+
+    private static void merge(double[][] from, double[][] to) {
+        for (int w = 0; w < to.length; w++) {
+            ShapeSpans.merge(from[w], to[w]);
+        }
+    }
+
     /**
      * Maps from multiple possible user-provided names of shapes (e.g.
      * "::omero::model::Text", "Text", "TextI", "omero.model.TextI",
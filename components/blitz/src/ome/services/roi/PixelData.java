@@ -33,6 +33,9 @@ public class PixelData {
 
     protected final IPixels meta;
 
+    /** Maximum size in bytes of a region read by {@link #accumulate}. */
+    public static final int MAX_REGION_BYTES = 4 * 1024 * 1024;
+
     public PixelData(PixelsService data, IPixels meta) {
         this.data = data;
         this.meta = meta;
@@ -42,6 +45,51 @@ public class PixelData {
         return data.getPixelBuffer(meta.retrievePixDescription(pix), false);
     }
 
+    /**
+     * Adds the values of the points of a shape in the given plane to an
+     * accumulator. The bounding box of the shape is read region by region,
+     * each region holding as many full rows of the box as fit in
+     * {@link #MAX_REGION_BYTES}. Reads are serialized on the buffer so that
+     * it may be shared by several threads.
+     *
+     * @param buf The buffer to read from.
+     * @param spans The rasterised shape. Must lie within the plane.
+     * @param z The z-section.
+     * @param c The channel.
+     * @param t The timepoint.
+     * @param acc The accumulator to update.
+     * @see ShapeSpans#newAccumulator()
+     */
+    public void accumulate(PixelBuffer buf, ShapeSpans spans, int z, int c,
+            int t, double[] acc) {
+        if (spans.isEmpty()) {
+            return;
+        }
+        final int x = spans.getX();
+        final int width = spans.getWidth();
+        final int endY = spans.getY() + spans.getHeight();
+        final int rows = Math.max(1,
+                MAX_REGION_BYTES / (width * buf.getByteWidth()));
+        for (int y = spans.getY(); y < endY; y += rows) {
+            final int height = Math.min(rows, endY - y);
+            ome.util.PixelData pd = null;
+            try {
+                synchronized (buf) {
+                    pd = buf.getTile(z, c, t, x, y, width, height);
+                }
+                spans.accumulate(pd, y, height, acc);
+            } catch (IOException e) {
+                throw new ResourceError("IOException: " + e);
+            } catch (IndexOutOfBoundsException iobe) {
+                throw new ValidationException("IndexOutOfBounds: " + iobe);
+            } finally {
+                if (pd != null) {
+                    pd.dispose();
+                }
+            }
+        }
+    }
+
     public double get(PixelBuffer buf, int x, int y, int z, int c, int t) {
         ome.util.PixelData pd = null;
         try {
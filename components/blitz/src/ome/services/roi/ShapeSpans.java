@@ -0,0 +1,254 @@
+/*
+ *   Copyright 2015 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.util.Arrays;
+
+import ome.util.PixelData;
+import omero.model.SmartShape;
+
+/**
+ * Rasterisation of a {@link SmartShape} into horizontal spans of points, sorted
+ * by row, so that statistics over the shape can be accumulated from a region
+ * of pixels read once per plane rather than point by point.
+ * <p>
+ * The spans contain exactly the points passed to
+ * {@link SmartShape#areaPoints(SmartShape.PointCallback)}, including any
+ * duplicates.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class ShapeSpans {
+
+    /** Index of the number of points in the accumulator array. */
+    public static final int COUNT = 0;
+
+    /** Index of the minimum in the accumulator array. */
+    public static final int MIN = 1;
+
+    /** Index of the maximum in the accumulator array. */
+    public static final int MAX = 2;
+
+    /** Index of the sum of the values in the accumulator array. */
+    public static final int SUM = 3;
+
+    /** Index of the sum of the squared values in the accumulator array. */
+    public static final int SUM_OF_SQUARES = 4;
+
+    /** Row of each span. */
+    private final int[] ys;
+
+    /** First column of each span. */
+    private final int[] starts;
+
+    /** Column after the last one of each span. */
+    private final int[] ends;
+
+    private final int size;
+
+    private final int pointCount;
+
+    private final int minX, minY, maxX, maxY;
+
+    private ShapeSpans(int[] ys, int[] starts, int[] ends, int size,
+            int pointCount, int minX, int minY, int maxX, int maxY) {
+        this.ys = ys;
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+        this.pointCount = pointCount;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Rasterises a shape.
+     * @param shape The shape to rasterise.
+     * @return See above.
+     */
+    public static ShapeSpans of(SmartShape shape) {
+        final long[][] points = new long[][] { new long[256] };
+        final int[] count = new int[1];
+        shape.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                if (count[0] == points[0].length) {
+                    points[0] = Arrays.copyOf(points[0], count[0] * 2);
+                }
+                // Sorting the packed values sorts by row, then column.
+                points[0][count[0]++] =
+                    ((long) y << 32) | (x & 0xFFFFFFFFL);
+            }
+        });
+        return of(points[0], count[0]);
+    }
+
+    private static ShapeSpans of(long[] points, int n) {
+        Arrays.sort(points, 0, n);
+        int[] ys = new int[16];
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int size = 0;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int y = (int) (points[i] >> 32);
+            int x = (int) points[i];
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            if (size > 0 && ys[size - 1] == y && ends[size - 1] == x) {
+                ends[size - 1]++;
+                continue;
+            }
+            if (size == ys.length) {
+                ys = Arrays.copyOf(ys, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            ys[size] = y;
+            starts[size] = x;
+            ends[size] = x + 1;
+            size++;
+        }
+        return new ShapeSpans(ys, starts, ends, size, n,
+                minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Returns <code>true</code> if the shape contains no point.
+     * @return See above.
+     */
+    public boolean isEmpty() {
+        return pointCount == 0;
+    }
+
+    /**
+     * Returns the number of points of the shape.
+     * @return See above.
+     */
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Returns the number of spans.
+     * @return See above.
+     */
+    public int getSpanCount() {
+        return size;
+    }
+
+    /**
+     * Returns the first column of the bounding box of the shape.
+     * @return See above.
+     */
+    public int getX() {
+        return minX;
+    }
+
+    /**
+     * Returns the first row of the bounding box of the shape.
+     * @return See above.
+     */
+    public int getY() {
+        return minY;
+    }
+
+    /**
+     * Returns the width of the bounding box of the shape.
+     * @return See above.
+     */
+    public int getWidth() {
+        return isEmpty() ? 0 : maxX - minX + 1;
+    }
+
+    /**
+     * Returns the height of the bounding box of the shape.
+     * @return See above.
+     */
+    public int getHeight() {
+        return isEmpty() ? 0 : maxY - minY + 1;
+    }
+
+    /**
+     * Creates an accumulator array, indexed by {@link #COUNT}, {@link #MIN},
+     * {@link #MAX}, {@link #SUM} and {@link #SUM_OF_SQUARES}.
+     * @return See above.
+     */
+    public static double[] newAccumulator() {
+        double[] acc = new double[5];
+        acc[MIN] = Double.MAX_VALUE;
+        acc[MAX] = -Double.MAX_VALUE;
+        return acc;
+    }
+
+    /**
+     * Adds the values of the points of the shape which lie within a band of
+     * rows spanning the whole width of the bounding box.
+     * @param region The pixels of the band, row by row, starting at column
+     * {@link #getX()}.
+     * @param regionY The row of the plane the band starts at.
+     * @param regionHeight The number of rows of the band.
+     * @param acc The accumulator to update.
+     * @see #newAccumulator()
+     */
+    public void accumulate(PixelData region, int regionY, int regionHeight,
+            double[] acc) {
+        final int width = getWidth();
+        final int endY = regionY + regionHeight;
+        double count = acc[COUNT], min = acc[MIN], max = acc[MAX];
+        double sum = acc[SUM], sumOfSquares = acc[SUM_OF_SQUARES];
+        for (int s = firstSpan(regionY); s < size && ys[s] < endY; s++) {
+            int offset = (ys[s] - regionY) * width - minX;
+            for (int x = starts[s]; x < ends[s]; x++) {
+                double value = region.getPixelValue(offset + x);
+                min = Math.min(value, min);
+                max = Math.max(value, max);
+                sum += value;
+                sumOfSquares += value * value;
+            }
+            count += ends[s] - starts[s];
+        }
+        acc[COUNT] = count;
+        acc[MIN] = min;
+        acc[MAX] = max;
+        acc[SUM] = sum;
+        acc[SUM_OF_SQUARES] = sumOfSquares;
+    }
+
+    /**
+     * Returns the index of the first span on or after the given row.
+     */
+    private int firstSpan(int y) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys[mid] < y) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Merges the values of one accumulator into another.
+     * @param from The accumulator to add.
+     * @param to The accumulator to update.
+     */
+    public static void merge(double[] from, double[] to) {
+        to[COUNT] += from[COUNT];
+        to[MIN] = Math.min(from[MIN], to[MIN]);
+        to[MAX] = Math.max(from[MAX], to[MAX]);
+        to[SUM] += from[SUM];
+        to[SUM_OF_SQUARES] += from[SUM_OF_SQUARES];
+    }
+}
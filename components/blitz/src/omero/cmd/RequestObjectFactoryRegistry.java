@@ -45,6 +45,7 @@ import omero.cmd.graphs.GraphRequestFactory;
 import omero.cmd.graphs.LegalGraphTargetsI;
 import omero.cmd.graphs.SkipHeadI;
 import omero.cmd.mail.SendEmailRequestI;
+import omero.cmd.rendering.ResetRenderingSettingsI;
 
 /**
  * SPI type picked up from the Spring configuration and given a chance to
@@ -253,6 +254,13 @@ public class RequestObjectFactoryRegistry extends
                     	return new SendEmailRequestI(mailUtil);
                     }
                 });
+        factories.put(ResetRenderingSettingsI.ice_staticId(),
+                new ObjectFactory(ResetRenderingSettingsI.ice_staticId()) {
+                    @Override
+                    public Ice.Object create(String name) {
+                        return new ResetRenderingSettingsI();
+                    }
+                });
         factories.put(ResetPasswordRequestI.ice_staticId(),
                 new ObjectFactory(ResetPasswordRequestI.ice_staticId()) {
                     @Override
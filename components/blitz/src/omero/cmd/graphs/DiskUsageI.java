@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,9 +47,13 @@ import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.nio.PixelsService;
 import ome.io.nio.ThumbnailService;
 import ome.model.IObject;
+import ome.model.display.Thumbnail;
 import ome.parameters.Parameters;
+import ome.services.diskusage.DiskUsageLedger;
 import ome.services.graphs.GraphPathBean;
+import ome.system.EventContext;
 import ome.system.Login;
+import ome.util.SqlAction;
 import omero.api.LongPair;
 import omero.cmd.DiskUsage;
 import omero.cmd.DiskUsageResponse;
@@ -313,6 +318,37 @@ public class DiskUsageI extends DiskUsage implements IRequest {
             }
         }
 
+        /**
+         * Adjust counts and sizes according to totals read from the disk usage ledger.
+         * @param owner the ID of an owner
+         * @param group the ID of a group
+         * @param type a type, or {@code null} to adjust the totals across all types
+         * @param count a number of files
+         * @param size the size of those files
+         */
+        void addTotals(long owner, long group, String type, int count, long size) {
+            final LongPair ownership = new LongPair(owner, group);
+            if (type == null) {
+                final Integer totalCount = totalCountByWho.get(ownership);
+                final Long totalSize = totalSizeByWho.get(ownership);
+                totalCountByWho.put(ownership, totalCount == null ? count : totalCount + count);
+                totalSizeByWho.put(ownership, totalSize == null ? size : totalSize + size);
+                return;
+            }
+            Map<String, Integer> countByType = countByTypeByWho.get(ownership);
+            Map<String, Long> sizeByType = sizeByTypeByWho.get(ownership);
+            if (countByType == null) {
+                countByType = new HashMap<String, Integer>();
+                sizeByType = new HashMap<String, Long>();
+                countByTypeByWho.put(ownership, countByType);
+                sizeByTypeByWho.put(ownership, sizeByType);
+            }
+            final Integer countThisType = countByType.get(type);
+            final Long sizeThisType = sizeByType.get(type);
+            countByType.put(type, countThisType == null ? count : countThisType + count);
+            sizeByType.put(type, sizeThisType == null ? size : sizeThisType + size);
+        }
+
         /**
          * @return a disk usage response corresponding to the current usage
          */
@@ -366,7 +402,8 @@ public class DiskUsageI extends DiskUsage implements IRequest {
             throw helper.cancel(new ERR(), new IllegalArgumentException(), "disk usage operation has no step " + step);
         }
         try {
-            return getDiskUsage();
+            final DiskUsageResponse response = getLedgerDiskUsage(helper.getEventContext(), helper.getSql());
+            return response == null ? getDiskUsage() : response;
         } catch (Cancel c) {
             throw c;
         } catch (Throwable t) {
@@ -421,6 +458,22 @@ public class DiskUsageI extends DiskUsage implements IRequest {
         }
     }
 
+    /**
+     * Reduce a class name from the request to its simple name.
+     * @param className a class name, possibly with its package or a leading slash
+     * @return the simple class name
+     */
+    private static String getSimpleClassName(String className) {
+        final int lastDot = className.lastIndexOf('.');
+        if (lastDot >= 0) {
+            return className.substring(lastDot + 1);
+        } else if (className.charAt(0) == '/') {
+            return className.substring(1);
+        } else {
+            return className;
+        }
+    }
+
     /**
      * Get the size of the file at the given path, or {@code 0} if it does not exist.
      * @param path a file path
@@ -455,6 +508,63 @@ public class DiskUsageI extends DiskUsage implements IRequest {
         return idProperty;
     }
 
+    /**
+     * Read the disk usage of the users and groups specified in the request from the totals of the ledger kept by
+     * {@link DiskUsageLedger}. This is done only if the request opts in with {@code useLedger}, if it is for nothing but
+     * whole users and groups, if the ledger has been reconciled, and if the current user may see all of the usage:
+     * administrators that of anybody, other users only their own. The ledger notes each original file's usage by all the
+     * types that refer to it and does not include usage owned by others, such as their annotations on the users' objects.
+     * @param ec the event context of the current user
+     * @param sql the SQL action for reading the ledger
+     * @return the usage, or {@code null} if it must be calculated by walking the model graph
+     */
+    DiskUsageResponse getLedgerDiskUsage(EventContext ec, SqlAction sql) {
+        if (!useLedger) {
+            return null;
+        }
+        final Set<Long> owners = new HashSet<Long>();
+        final Set<Long> groups = new HashSet<Long>();
+        boolean everybody = false;
+        for (final String className : classes) {
+            final String simpleName = getSimpleClassName(className);
+            if ("Experimenter".equals(simpleName) || "ExperimenterGroup".equals(simpleName)) {
+                everybody = true;
+            } else {
+                return null;
+            }
+        }
+        for (final Map.Entry<String, List<Long>> objectList : objects.entrySet()) {
+            final String simpleName = getSimpleClassName(objectList.getKey());
+            if ("Experimenter".equals(simpleName)) {
+                owners.addAll(objectList.getValue());
+            } else if ("ExperimenterGroup".equals(simpleName)) {
+                groups.addAll(objectList.getValue());
+            } else {
+                return null;
+            }
+        }
+        if (!everybody && owners.isEmpty() && groups.isEmpty()) {
+            return null;
+        }
+        if (!ec.isCurrentUserAdmin() &&
+                (everybody || !groups.isEmpty() || !ImmutableSet.of(ec.getCurrentUserId()).containsAll(owners))) {
+            return null;
+        }
+        if (sql.configValue(DiskUsageLedger.RECONCILED_KEY) == null) {
+            return null;
+        }
+        final Usage usage = new Usage();
+        for (final Object[] row : sql.getDiskUsageTotals(everybody ? null : owners, groups)) {
+            final String type = (String) row[2];
+            usage.addTotals((Long) row[0], (Long) row[1], type.isEmpty() ? null : type, ((Long) row[3]).intValue(),
+                    (Long) row[4]);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("usage is " + usage + " as read from the disk usage ledger");
+        }
+        return usage.getDiskUsageResponse();
+    }
+
     /**
      * Calculate the disk usage of the model objects specified in the request.
      * @return the total usage, in bytes
@@ -506,13 +616,7 @@ public class DiskUsageI extends DiskUsage implements IRequest {
         while (!objectsToProcess.isEmpty()) {
             /* obtain canonical class name and ID list */
             final Map.Entry<String, Collection<Long>> nextClass = objectsToProcess.asMap().entrySet().iterator().next();
-            String className = nextClass.getKey();
-            final int lastDot = className.lastIndexOf('.');
-            if (lastDot >= 0) {
-                className = className.substring(lastDot + 1);
-            } else if (className.charAt(0) == '/') {
-                className = className.substring(1);
-            }
+            final String className = getSimpleClassName(nextClass.getKey());
             /* get IDs still to process, and split off a batch of them for this query */
             final Collection<Long> ids = nextClass.getValue();
             ids.removeAll(objectsProcessed.get(className));
@@ -547,8 +651,8 @@ public class DiskUsageI extends DiskUsage implements IRequest {
                         final Long thumbnailId = (Long) resultRow[0];
                         final Long ownerId = (Long) resultRow[1];
                         final Long groupId = (Long) resultRow[2];
-                        final String thumbnailPath = thumbnailService.getThumbnailPath(thumbnailId);
-                        usage.bumpTotals().add(ownerId, groupId, className, getFileSize(thumbnailPath));
+                        final long thumbnailSize = thumbnailService.getThumbnailLength(new Thumbnail(thumbnailId, false));
+                        usage.bumpTotals().add(ownerId, groupId, className, thumbnailSize);
                     }
                 }
             } else if ("OriginalFile".equals(className)) {
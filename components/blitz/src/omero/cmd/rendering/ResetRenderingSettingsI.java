@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.rendering;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.common.collect.ImmutableMap;
+
+import ome.api.IRenderingSettings;
+import ome.model.core.Pixels;
+import omero.cmd.ERR;
+import omero.cmd.HandleI.Cancel;
+import omero.cmd.Helper;
+import omero.cmd.IRequest;
+import omero.cmd.ResetRenderingSettings;
+import omero.cmd.ResetRenderingSettingsResponse;
+import omero.cmd.Response;
+
+/**
+ * Resets the rendering settings of the Pixels sets of a set of containers
+ * through {@link IRenderingSettings}, one batch of Pixels sets per step so
+ * that the progress of the reset is reported by the handle.
+ *
+ * @since 5.1.0
+ */
+public class ResetRenderingSettingsI extends ResetRenderingSettings
+        implements IRequest {
+
+    private static final long serialVersionUID = -1L;
+
+    /** Number of Pixels sets whose settings are reset in each step. */
+    private static final int BATCH_SIZE = 200;
+
+    /** Queries for the Pixels sets of each type of target. */
+    private static final ImmutableMap<String, String> PIXELS_QUERIES =
+            ImmutableMap.<String, String>builder()
+            .put("Pixels", "select p.id from Pixels p " +
+                    "where p.id in (:ids)")
+            .put("Image", "select p.id from Pixels p " +
+                    "where p.image.id in (:ids)")
+            .put("Dataset", "select p.id from Pixels p " +
+                    "join p.image i join i.datasetLinks dil " +
+                    "where dil.parent.id in (:ids)")
+            .put("Project", "select p.id from Pixels p " +
+                    "join p.image i join i.datasetLinks dil " +
+                    "join dil.parent d join d.projectLinks pdl " +
+                    "where pdl.parent.id in (:ids)")
+            .put("Plate", "select p.id from Pixels p " +
+                    "join p.image i join i.wellSamples ws join ws.well w " +
+                    "where w.plate.id in (:ids)")
+            .put("PlateAcquisition", "select p.id from Pixels p " +
+                    "join p.image i join i.wellSamples ws " +
+                    "where ws.plateAcquisition.id in (:ids)")
+            .put("Screen", "select p.id from Pixels p " +
+                    "join p.image i join i.wellSamples ws join ws.well w " +
+                    "join w.plate pl join pl.screenLinks spl " +
+                    "where spl.parent.id in (:ids)")
+            .build();
+
+    private final Set<Long> imageIds = new TreeSet<Long>();
+
+    private Helper helper;
+
+    private List<Long> pixelsIds;
+
+    //
+    // CMD API
+    //
+
+    public Map<String, String> getCallContext() {
+        return null;
+    }
+
+    public void init(Helper helper) {
+        this.helper = helper;
+        final String query = PIXELS_QUERIES.get(targetType);
+        if (query == null) {
+            throw helper.cancel(new ERR(), null, "bad-target-type",
+                    "targetType", targetType);
+        }
+        pixelsIds = new ArrayList<Long>();
+        if (targetIds != null && !targetIds.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            final List<Long> ids = helper.getSession().createQuery(query)
+                    .setParameterList("ids", targetIds).list();
+            pixelsIds.addAll(new TreeSet<Long>(ids));
+        }
+        final int batches = (pixelsIds.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        helper.setSteps(Math.max(1, batches));
+    }
+
+    public Object step(int step) throws Cancel {
+        helper.assertStep(step);
+        final int from = step * BATCH_SIZE;
+        if (from >= pixelsIds.size()) {
+            return null;
+        }
+        final Set<Long> batch = new HashSet<Long>(pixelsIds.subList(from,
+                Math.min(from + BATCH_SIZE, pixelsIds.size())));
+        final IRenderingSettings settings =
+                helper.getServiceFactory().getRenderingSettingsService();
+        if (original) {
+            imageIds.addAll(settings.setOriginalSettingsInSet(
+                    Pixels.class, batch));
+        } else {
+            imageIds.addAll(settings.resetDefaultsInSet(Pixels.class, batch));
+        }
+        helper.info("reset settings of %s of %s Pixels sets",
+                from + batch.size(), pixelsIds.size());
+        return null;
+    }
+
+    public void finish() throws Cancel {
+        // no-op
+    }
+
+    public void buildResponse(int step, Object object) {
+        helper.assertResponse(step);
+        if (helper.isLast(step)) {
+            final ResetRenderingSettingsResponse rsp =
+                    new ResetRenderingSettingsResponse();
+            rsp.imageIds = new ArrayList<Long>(imageIds);
+            helper.setResponseIfNull(rsp);
+        }
+    }
+
+    public Response getResponse() {
+        return helper.getResponse();
+    }
+}
@@ -209,6 +209,21 @@ public class ServantHolder {
         return list;
     }
 
+    /**
+     * Returns the number of stateful servants held, as listed by
+     * {@link #getStatefulServiceCount()}.
+     */
+    public int getStatefulServantCount() {
+        int count = 0;
+        for (final String idName : getServantList()) {
+            final Object servant = getUntied(getIdentity(idName));
+            if (servant instanceof _StatefulServiceInterfaceOperations) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     //
     // Implementation
     //
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ome.formats.importer.FoundImports;
+import ome.formats.importer.IObservable;
+import ome.formats.importer.IObserver;
+import ome.formats.importer.ImportCandidates;
+import ome.formats.importer.ImportConfig;
+import ome.formats.importer.ImportContainer;
+import ome.formats.importer.ImportEvent;
+import ome.formats.importer.OMEROWrapper;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link FoundImports} starts importing the containers raised by
+ * {@link ImportCandidates.FOUND} while the search continues and that the
+ * remaining containers are then imported without importing those again.
+ *
+ * @since 5.1
+ */
+@Test(groups = "unit")
+public class FoundImportsTest {
+
+    private final ImportConfig config = new ImportConfig();
+
+    private final OMEROWrapper w = new OMEROWrapper(config);
+
+    private File dir;
+
+    @BeforeMethod
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("FoundImportsTest").toFile();
+    }
+
+    @AfterMethod
+    public void deleteDir() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private String write(String path) throws IOException {
+        final File file = new File(dir, path);
+        FileUtils.writeByteArrayToFile(file, new byte[1]);
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Records the containers imported, signalling the first.
+     */
+    private static class Recorder implements FoundImports.Importer {
+
+        final List<ImportContainer> imported =
+                Collections.synchronizedList(new ArrayList<ImportContainer>());
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        public boolean importContainer(ImportContainer container, int index,
+                int numDone, int total) {
+            imported.add(container);
+            started.countDown();
+            return true;
+        }
+    }
+
+    /**
+     * Once a container has been found, holds up the end of the search until
+     * its import has started.
+     */
+    private static class Waiter implements IObserver {
+
+        final Recorder recorder;
+
+        final List<ImportContainer> found = new ArrayList<ImportContainer>();
+
+        Boolean startedBeforeEnd;
+
+        Waiter(Recorder recorder) {
+            this.recorder = recorder;
+        }
+
+        public void update(IObservable observable, ImportEvent event) {
+            if (event instanceof ImportCandidates.FOUND) {
+                found.add(((ImportCandidates.FOUND) event).container);
+            } else if (event instanceof ImportCandidates.SCANNING
+                    && ((ImportCandidates.SCANNING) event).depth == 0
+                    && !found.isEmpty() && startedBeforeEnd == null) {
+                try {
+                    startedBeforeEnd = recorder.started.await(10,
+                            TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    startedBeforeEnd = false;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testImportStartsDuringSearch() throws Exception {
+        final String a = write("a");
+        final String b = write("b");
+        final String x = write("x");
+        final String y = write("y");
+        final String z = write("z");
+        final Recorder recorder = new Recorder();
+        final Waiter waiter = new Waiter(recorder);
+        final FoundImports imports = new FoundImports(recorder, waiter, false);
+        final ImportCandidates c = new ImportCandidates(ImportCandidates.DEPTH,
+                w, new String[] { dir.getAbsolutePath() }, imports, 1) {
+            @Override
+            protected ImportContainer singleFile(File file,
+                    ImportConfig config) {
+                final String path = file.getAbsolutePath();
+                if (path.equals(z)) {
+                    return container(file, x, y, z);
+                } else if (path.equals(a)) {
+                    return container(file, a, b);
+                }
+                return null;
+            }
+        };
+        Assert.assertEquals(waiter.found.size(), 1);
+        final ImportContainer found = waiter.found.get(0);
+        Assert.assertEquals(waiter.startedBeforeEnd, Boolean.TRUE);
+        Assert.assertEquals(found.getFile().getAbsolutePath(), x);
+
+        Assert.assertTrue(imports.importContainers(c.getContainers()));
+        Assert.assertEquals(c.size(), 2);
+        Assert.assertEquals(recorder.imported.size(), 2);
+        Assert.assertSame(recorder.imported.get(0), found);
+        Assert.assertTrue(recorder.imported.containsAll(c.getContainers()));
+    }
+
+    private static ImportContainer container(File file, String...usedFiles) {
+        return new ImportContainer(file, null, null, "", usedFiles, false);
+    }
+}
@@ -7,9 +7,13 @@
 package ome.formats.utests;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.TestCase;
 import ome.formats.OMEROMetadataStoreClient;
@@ -22,10 +26,15 @@ import ome.formats.importer.ImportEvent;
 import ome.formats.importer.ImportFixture;
 import ome.formats.importer.ImportLibrary;
 import ome.formats.importer.OMEROWrapper;
+import ome.formats.importer.ImportCandidates.FOUND;
 import ome.formats.importer.ImportCandidates.SCANNING;
+import ome.formats.importer.util.ErrorHandler;
 
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 /**
@@ -71,13 +80,109 @@ public class ImportCandidatesTest extends TestCase {
         }
     };
 
-    private void basic(IObserver obs) {
+    /**
+     * Records the {@link FOUND} events and the error events.
+     */
+    static class Recorder implements IObserver {
+        final List<FOUND> found = new ArrayList<FOUND>();
+        final List<String> errors = new ArrayList<String>();
+        public void update(IObservable importLibrary, ImportEvent event) {
+            if (event instanceof FOUND) {
+                found.add((FOUND) event);
+            } else if (event instanceof ErrorHandler.EXCEPTION_EVENT) {
+                errors.add(event.getClass().getName() + " " + event.toLog());
+            }
+        }
+    }
+
+    File dir;
+
+    @BeforeMethod
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("ImportCandidatesTest").toFile();
+    }
+
+    @AfterMethod
+    public void deleteDir() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private File write(String path, byte[] content) throws IOException {
+        File file = new File(dir, path);
+        FileUtils.writeByteArrayToFile(file, content);
+        return file;
+    }
+
+    /**
+     * Fills {@link #dir} with single-file images, a two-file image, dot
+     * files and enough files of no known format for progress events to be
+     * raised and for the parsing to run ahead of the merging.
+     */
+    private void createTree() throws IOException {
+        write("one.fake", new byte[0]);
+        write("sub/two&sizeZ=3.fake", new byte[0]);
+        write("sub/deeper/three&sizeC=2.fake", new byte[0]);
+        write("sub/.hidden.fake", new byte[0]);
+        write("pair.ics", ("\t\n"
+                + "ics_version\t1.0\n"
+                + "filename\tpair\n"
+                + "layout\tparameters\t3\n"
+                + "layout\torder\tbits\tx\ty\n"
+                + "layout\tsizes\t8\t2\t2\n"
+                + "layout\tsignificant_bits\t8\n"
+                + "representation\tformat\tinteger\n"
+                + "representation\tsign\tunsigned\n"
+                + "representation\tcompression\tuncompressed\n"
+                + "representation\tbyte_order\t1\n").getBytes("US-ASCII"));
+        write("pair.ids", new byte[4]);
+        Random random = new Random(1);
+        for (int i = 0; i < 150; i++) {
+            byte[] content = new byte[i];
+            random.nextBytes(content);
+            write((i % 3 == 0 ? "" : "sub/") + "unknown" + i + ".omitted",
+                    content);
+        }
+    }
+
+    /**
+     * Describes the containers found, one string for each.
+     */
+    private static List<String> describe(List<ImportContainer> containers) {
+        List<String> described = new ArrayList<String>();
+        for (ImportContainer ic : containers) {
+            described.add(ic.getFile().getAbsolutePath() + " "
+                    + ic.getReader() + " "
+                    + Arrays.asList(ic.getUsedFiles()));
+        }
+        return described;
+    }
+
+    /**
+     * Describes the groups of used files, one string for each path.
+     */
+    private static List<String> usedBy(ImportCandidates candidates) {
+        List<String> described = new ArrayList<String>();
+        for (String path : candidates.getPaths()) {
+            described.add(path + " "
+                    + Arrays.asList(candidates.getUsedFiles(path)));
+        }
+        return described;
+    }
+
+    private String root() {
         URL url = getClass().getResource(getClass().getSimpleName() + ".class");
         String thisClass = url.getFile();
         File file = new File(thisClass);
         file = file.getParentFile().getParentFile().getParentFile();
-        c = new ImportCandidates(w, new String[] { file.getAbsolutePath() },
-                obs);
+        return file.getAbsolutePath();
+    }
+
+    private void basic(IObserver obs) {
+        c = new ImportCandidates(w, new String[] { root() }, obs);
+    }
+
+    private ImportContainer container(File file, String...usedFiles) {
+        return new ImportContainer(file, null, null, "", usedFiles, false);
     }
 
     private ImportContainer container(String...usedFiles) {
@@ -107,6 +212,78 @@ public class ImportCandidatesTest extends TestCase {
         assertTrue(c.wasCancelled());
     }
 
+    /**
+     * The parallel search finds the same containers, groups of used files
+     * and errors as the serial search of the same tree.
+     */
+    @Test
+    public void testParallelPasses() throws Exception {
+        createTree();
+        String[] paths = new String[] { dir.getAbsolutePath() };
+        Recorder serial = new Recorder();
+        ImportCandidates expected = new ImportCandidates(
+                ImportCandidates.DEPTH, w, paths, serial, 1);
+        for (int threads : new int[] { 2, 4 }) {
+            Recorder parallel = new Recorder();
+            c = new ImportCandidates(ImportCandidates.DEPTH, w, paths,
+                    parallel, threads);
+            assertFalse(c.wasCancelled());
+            assertTrue(c.size() > 0);
+            assertEquals(expected.getPaths(), c.getPaths());
+            assertEquals(describe(expected.getContainers()),
+                    describe(c.getContainers()));
+            assertEquals(usedBy(expected), usedBy(c));
+            assertFalse(serial.errors.isEmpty());
+            assertEquals(serial.errors, parallel.errors);
+        }
+    }
+
+    @Test
+    public void testParallelCancelFunctions() throws Exception {
+        Canceler cancel = new Canceler();
+        c = new ImportCandidates(ImportCandidates.DEPTH, w,
+                new String[] { root() }, cancel, 4);
+        assertEquals(0, c.size());
+        assertEquals(1, cancel.count);
+        assertTrue(c.wasCancelled());
+    }
+
+    /**
+     * A container using at least two files besides its own is raised as
+     * soon as found, with its first used file as its file, and is part of
+     * the result. Other containers are not raised.
+     */
+    @Test
+    public void testFound() throws Exception {
+        final String a = write("a", new byte[1]).getAbsolutePath();
+        final String b = write("b", new byte[1]).getAbsolutePath();
+        final String x = write("x", new byte[1]).getAbsolutePath();
+        final String y = write("y", new byte[1]).getAbsolutePath();
+        final String z = write("z", new byte[1]).getAbsolutePath();
+        Recorder recorder = new Recorder();
+        c = new ImportCandidates(ImportCandidates.DEPTH, w,
+                new String[] { dir.getAbsolutePath() }, recorder, 1) {
+            @Override
+            protected ImportContainer singleFile(File file,
+                    ImportConfig config) {
+                String path = file.getAbsolutePath();
+                if (path.equals(z)) {
+                    return container(file, x, y, z);
+                } else if (path.equals(a)) {
+                    return container(file, a, b);
+                }
+                return null;
+            }
+        };
+        assertEquals(1, recorder.found.size());
+        ImportContainer found = recorder.found.get(0).container;
+        assertEquals(x, found.getFile().getAbsolutePath());
+        assertEquals(Arrays.asList(x, y, z),
+                Arrays.asList(found.getUsedFiles()));
+        assertTrue(c.getContainers().contains(found));
+        assertEquals(2, c.size());
+    }
+
     @Test
     public void testOrderedReturns() {
         c = new ImportCandidates(w, new String[]{"a","b"}, o) {
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.utests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ome.formats.importer.transfers.PipelinedUploadFileTransfer;
+import ome.formats.importer.transfers.TransferState;
+import ome.formats.importer.util.ProportionalTimeEstimatorImpl;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+import omero.model.OriginalFileI;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link PipelinedUploadFileTransfer} calculates the same
+ * checksum as hashing the whole file serially and uploads the file's
+ * content, also when one instance transfers several files in parallel.
+ *
+ * @since 5.1
+ */
+@Test(groups = "unit")
+public class PipelinedUploadFileTransferTest extends MockObjectTestCase {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final ChecksumProviderFactory cpf =
+        new ChecksumProviderFactoryImpl();
+
+    private final List<File> files = new ArrayList<File>();
+
+    @BeforeClass
+    public void createFiles() throws IOException {
+        final Random random = new Random(1);
+        // empty, less than a chunk, exactly two chunks, several and a bit
+        for (final int length : new int[] { 0, 1000, 2 * CHUNK_SIZE,
+                7 * CHUNK_SIZE + 123 }) {
+            final File file = File.createTempFile("upload", ".bin");
+            final byte[] content = new byte[length];
+            random.nextBytes(content);
+            FileUtils.writeByteArrayToFile(file, content);
+            files.add(file);
+        }
+    }
+
+    @AfterClass
+    public void deleteFiles() {
+        for (final File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Transfer state which uploads to the given store and raises no events.
+     */
+    private static class TestTransferState extends TransferState {
+
+        private final RawFileStorePrx uploader;
+
+        TestTransferState(File file, RawFileStorePrx uploader)
+                throws Exception {
+            super(file, 0, 1, null, null,
+                    new ProportionalTimeEstimatorImpl(file.length()),
+                    cpf.getProvider(ChecksumType.SHA1), new byte[CHUNK_SIZE]);
+            this.uploader = uploader;
+        }
+
+        @Override
+        public RawFileStorePrx getUploader(String mode) throws ServerError {
+            return uploader;
+        }
+
+        @Override
+        public void uploadStarted() {
+        }
+
+        @Override
+        public void uploadBytes(long offset) {
+        }
+
+        @Override
+        public void uploadComplete(long offset) {
+        }
+    }
+
+    /**
+     * Creates a raw file store which writes into the given stream.
+     */
+    private RawFileStorePrx uploader(final ByteArrayOutputStream uploaded) {
+        final Mock mock = mock(RawFileStorePrx.class);
+        final CustomStub write = new CustomStub("write") {
+            public Object invoke(Invocation invocation) {
+                final byte[] buf = (byte[]) invocation.parameterValues.get(0);
+                final long offset = (Long) invocation.parameterValues.get(1);
+                final int length = (Integer) invocation.parameterValues.get(2);
+                synchronized (uploaded) {
+                    assertEquals(uploaded.size(), offset);
+                    uploaded.write(buf, 0, length);
+                }
+                return null;
+            }
+        };
+        mock.stubs().method("write").will(write);
+        mock.stubs().method("begin_write").will(write);
+        mock.stubs().method("end_write").isVoid();
+        mock.stubs().method("close").isVoid();
+        final OriginalFileI saved = new OriginalFileI(1L, true);
+        saved.setPath(omero.rtypes.rstring("/"));
+        saved.setName(omero.rtypes.rstring("upload.bin"));
+        saved.setHash(omero.rtypes.rstring(""));
+        mock.stubs().method("save").will(returnValue(saved));
+        return (RawFileStorePrx) mock.proxy();
+    }
+
+    /**
+     * Transfers a file and checks its checksum and uploaded content.
+     * @param uploaded the content written to the uploader
+     */
+    private void assertTransfer(PipelinedUploadFileTransfer transfer,
+            File file, RawFileStorePrx uploader,
+            ByteArrayOutputStream uploaded) throws Exception {
+        final String checksum = transfer.transfer(
+                new TestTransferState(file, uploader));
+        final String serial = cpf.getProvider(ChecksumType.SHA1)
+                .putFile(file.getAbsolutePath()).checksumAsString();
+        assertEquals(serial, checksum);
+        assertTrue(Arrays.equals(FileUtils.readFileToByteArray(file),
+                uploaded.toByteArray()));
+    }
+
+    public void testChecksumMatchesSerial() throws Exception {
+        for (final int chunksInFlight : new int[] { 1, 3 }) {
+            final PipelinedUploadFileTransfer transfer =
+                new PipelinedUploadFileTransfer(chunksInFlight);
+            for (final File file : files) {
+                final ByteArrayOutputStream uploaded =
+                    new ByteArrayOutputStream();
+                assertTransfer(transfer, file, uploader(uploaded), uploaded);
+            }
+        }
+    }
+
+    public void testParallelChecksumsMatchSerial() throws Exception {
+        final PipelinedUploadFileTransfer transfer =
+            new PipelinedUploadFileTransfer();
+        final ExecutorService threads =
+            Executors.newFixedThreadPool(files.size());
+        try {
+            final List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 3; i++) {
+                for (final File file : files) {
+                    // Mocks are created on this thread.
+                    final ByteArrayOutputStream uploaded =
+                        new ByteArrayOutputStream();
+                    final RawFileStorePrx uploader = uploader(uploaded);
+                    results.add(threads.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            assertTransfer(transfer, file, uploader, uploaded);
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (final Future<Object> result : results) {
+                result.get();
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+}
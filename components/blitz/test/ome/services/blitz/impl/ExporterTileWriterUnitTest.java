@@ -0,0 +1,169 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.FormatException;
+import loci.formats.out.OMETiffWriter;
+import loci.formats.tiff.IFD;
+import ome.services.blitz.impl.ExporterI.Tile;
+import ome.services.blitz.impl.ExporterI.TileWriter;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the writing of exported OME-TIFF tiles by {@link TileWriter} on
+ * another thread than the one reading them, in particular that the writer
+ * is no longer in use once a failed export has cancelled the writing.
+ *
+ * @since 5.1
+ */
+@Test(groups = "unit")
+public class ExporterTileWriterUnitTest {
+
+    /**
+     * Notes the tiles saved instead of writing them, taking the given time
+     * for each and failing on the given plane.
+     */
+    private static class RecordingWriter extends OMETiffWriter {
+
+        final List<String> saved =
+            Collections.synchronizedList(new ArrayList<String>());
+
+        final CountDownLatch saving = new CountDownLatch(1);
+
+        final long millis;
+
+        final int failingPlane;
+
+        volatile boolean inSaveBytes;
+
+        RecordingWriter(long millis, int failingPlane) {
+            this.millis = millis;
+            this.failingPlane = failingPlane;
+        }
+
+        @Override
+        public void saveBytes(int no, byte[] buf, IFD ifd, int x, int y,
+                int w, int h) throws FormatException, IOException {
+            inSaveBytes = true;
+            try {
+                saving.countDown();
+                if (no == failingPlane) {
+                    throw new IOException("disk full");
+                }
+                long end = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(millis);
+                // Ignores interrupts, as file writes may.
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+                saved.add(no + ":" + x + "," + y + ":" + ifd.get(IFD.TILE_WIDTH));
+            } finally {
+                inSaveBytes = false;
+            }
+        }
+    }
+
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static Tile tile(int plane, int x, int y) {
+        return new Tile(plane, x, y, 16, 16, new byte[16 * 16]);
+    }
+
+    /**
+     * The tiles are written in the order in which they are queued until
+     * the last.
+     */
+    public void testWritesTilesInOrder() throws Exception {
+        RecordingWriter writer = new RecordingWriter(0, -1);
+        TileWriter tileWriter = new TileWriter(writer, 16, 16);
+        Future<Object> written = executor.submit(tileWriter);
+        tileWriter.put(tile(0, 0, 0), written);
+        tileWriter.put(tile(0, 16, 0), written);
+        tileWriter.put(tile(1, 0, 0), written);
+        tileWriter.put(ExporterI.LAST, written);
+        written.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(writer.saved,
+                Arrays.asList("0:0,0:16", "0:16,0:16", "1:0,0:16"));
+    }
+
+    /**
+     * Cancelling returns only once the tile being written is written, and
+     * no further tile is written, so that the writer may then be closed.
+     */
+    public void testCancelWaitsForTileBeingWritten() throws Exception {
+        RecordingWriter writer = new RecordingWriter(200, -1);
+        TileWriter tileWriter = new TileWriter(writer, 16, 16);
+        Future<Object> written = executor.submit(tileWriter);
+        for (int x = 0; x < 5; x++) {
+            tileWriter.put(tile(0, x * 16, 0), written);
+        }
+        Assert.assertTrue(writer.saving.await(10, TimeUnit.SECONDS));
+        written.cancel(false);
+        tileWriter.cancel();
+        Assert.assertFalse(writer.inSaveBytes);
+        Assert.assertEquals(writer.saved.size(), 1);
+        Thread.sleep(300);
+        Assert.assertEquals(writer.saved.size(), 1);
+    }
+
+    /**
+     * Cancelling a task which has not started does not wait and the task
+     * writes nothing if run afterwards.
+     */
+    public void testCancelBeforeStart() throws Exception {
+        RecordingWriter writer = new RecordingWriter(0, -1);
+        TileWriter tileWriter = new TileWriter(writer, 16, 16);
+        tileWriter.cancel();
+        Assert.assertNull(tileWriter.call());
+        Assert.assertTrue(writer.saved.isEmpty());
+    }
+
+    /**
+     * Once the writing has failed, queueing further tiles fails with the
+     * cause rather than blocking.
+     */
+    public void testPutFailsOnceWritingFailed() throws Exception {
+        RecordingWriter writer = new RecordingWriter(0, 1);
+        TileWriter tileWriter = new TileWriter(writer, 16, 16);
+        Future<Object> written = executor.submit(tileWriter);
+        try {
+            for (int i = 0; i < 2 * ExporterI.TILE_QUEUE_SIZE + 2; i++) {
+                tileWriter.put(tile(1, 0, 0), written);
+            }
+            Assert.fail("expected the writing to have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        tileWriter.cancel();
+        Assert.assertTrue(writer.saved.isEmpty());
+    }
+}
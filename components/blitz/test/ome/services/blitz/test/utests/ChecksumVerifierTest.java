@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.test.utests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ome.services.blitz.repo.ChecksumVerifier;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test that the {@link ChecksumVerifier} finds the same checksums for files
+ * as hashing them directly, whether or not it uses a pool of workers.
+ * @since 5.1.0
+ */
+public class ChecksumVerifierTest {
+    private ChecksumProviderFactory checksumProviderFactory;
+    private ExecutorService executor;
+    private List<File> files;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        checksumProviderFactory = new ChecksumProviderFactoryImpl();
+        executor = Executors.newFixedThreadPool(4);
+        files = new ArrayList<File>();
+        for (int size : new int[] {0, 1, 1000, 100000}) {
+            final File file = File.createTempFile("ChecksumVerifierTest", ".bin");
+            file.deleteOnExit();
+            final byte[] content = new byte[size];
+            for (int i = 0; i < size; i++) {
+                content[i] = (byte) (i * 31);
+            }
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            files.add(file);
+        }
+    }
+
+    private String hash(ChecksumType type, File file) {
+        final ChecksumProvider provider = checksumProviderFactory.getProvider(type);
+        provider.putFile(file.getPath());
+        return provider.checksumAsString();
+    }
+
+    private void assertVerifies(ChecksumVerifier verifier) throws Exception {
+        final List<Future<ChecksumVerifier.Result>> matching = new ArrayList<Future<ChecksumVerifier.Result>>();
+        final List<Future<ChecksumVerifier.Result>> mismatching = new ArrayList<Future<ChecksumVerifier.Result>>();
+        long id = 0;
+        for (final ChecksumType type : ChecksumType.values()) {
+            for (final File file : files) {
+                final String hash = hash(type, file);
+                matching.add(verifier.submit("repo" + (id % 2), new ChecksumVerifier.Check(id++, file, type, hash)));
+                mismatching.add(verifier.submit("repo" + (id % 2), new ChecksumVerifier.Check(id++, file, type, hash + "0")));
+            }
+        }
+        for (final Future<ChecksumVerifier.Result> result : matching) {
+            Assert.assertTrue(result.get().matches);
+        }
+        for (final Future<ChecksumVerifier.Result> result : mismatching) {
+            Assert.assertFalse(result.get().matches);
+        }
+        Assert.assertEquals(matching.get(3).get().bytes, files.get(3).length());
+    }
+
+    /**
+     * Test that files are verified correctly in the calling thread.
+     */
+    @Test
+    public void testVerifyInCallingThread() throws Exception {
+        assertVerifies(new ChecksumVerifier(checksumProviderFactory));
+    }
+
+    /**
+     * Test that files are verified correctly by a pool of workers.
+     */
+    @Test
+    public void testVerifyInPool() throws Exception {
+        assertVerifies(new ChecksumVerifier(checksumProviderFactory, executor, 2));
+    }
+
+    /**
+     * Test that a missing file fails verification with an {@link IOException}.
+     */
+    @Test
+    public void testMissingFile() throws Exception {
+        final File missing = new File(files.get(0).getPath() + ".missing");
+        final ChecksumVerifier verifier = new ChecksumVerifier(checksumProviderFactory, executor, 1);
+        final Future<ChecksumVerifier.Result> result =
+                verifier.submit("repo", new ChecksumVerifier.Check(1, missing, ChecksumType.MD5, ""));
+        try {
+            result.get();
+            Assert.fail("missing file should not be verified");
+        } catch (ExecutionException ee) {
+            Assert.assertTrue(ee.getCause() instanceof IOException);
+        }
+    }
+
+    @AfterMethod
+    public void teardown() {
+        executor.shutdownNow();
+        for (final File file : files) {
+            file.delete();
+        }
+    }
+}
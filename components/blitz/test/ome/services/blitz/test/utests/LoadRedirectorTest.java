@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.blitz.test.utests;
+
+import ome.services.blitz.fire.Ring;
+import ome.services.blitz.redirect.LoadRedirector;
+import ome.services.blitz.redirect.NodeLoad;
+import ome.services.blitz.redirect.SharedLoadRegistry;
+import ome.services.util.Executor;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Places sessions with several in-process {@link Ring} instances which
+ * publish their loads in a {@link SharedLoadRegistry}.
+ *
+ * @since 5.2.0
+ */
+public class LoadRedirectorTest extends MockObjectTestCase {
+
+    SharedLoadRegistry registry;
+    LoadRedirector redirectorOne, redirectorTwo, redirectorThree;
+    Ring one, two, three;
+
+    @BeforeMethod
+    public void setupMethod() throws Exception {
+        Mock mockEx = mock(Executor.class);
+        Executor ex = (Executor) mockEx.proxy();
+        registry = new SharedLoadRegistry();
+        redirectorOne = new LoadRedirector(ex, registry, 25);
+        redirectorTwo = new LoadRedirector(ex, registry, 25);
+        redirectorThree = new LoadRedirector(ex, registry, 25);
+        one = new Ring("one", ex, redirectorOne);
+        two = new Ring("two", ex, redirectorTwo);
+        three = new Ring("three", ex, redirectorThree);
+    }
+
+    @Test
+    public void testStaysLocalBeforePublishing() {
+        redirectorTwo.publish(two, sessions(0));
+        assertNull(redirectorOne.chooseNode(one));
+    }
+
+    @Test
+    public void testChoosesLeastLoaded() {
+        redirectorOne.publish(one, sessions(20));
+        redirectorTwo.publish(two, sessions(5));
+        redirectorThree.publish(three, sessions(10));
+        assertEquals("two", redirectorOne.chooseNode(one));
+        assertNull(redirectorTwo.chooseNode(two));
+    }
+
+    @Test
+    public void testHysteresis() {
+        redirectorOne.publish(one, sessions(12));
+        redirectorTwo.publish(two, sessions(10));
+        assertNull(redirectorOne.chooseNode(one));
+        assertNull(redirectorTwo.chooseNode(two));
+    }
+
+    @Test
+    public void testSpreadsBurstsBetweenPublishing() {
+        redirectorOne.publish(one, sessions(10));
+        redirectorTwo.publish(two, sessions(0));
+        redirectorThree.publish(three, sessions(0));
+        int toTwo = 0, toThree = 0, local = 0;
+        for (int i = 0; i < 20; i++) {
+            String chosen = redirectorOne.chooseNode(one);
+            if ("two".equals(chosen)) {
+                toTwo++;
+            } else if ("three".equals(chosen)) {
+                toThree++;
+            } else {
+                local++;
+            }
+        }
+        assertTrue(toTwo > 0);
+        assertTrue(toThree > 0);
+        assertTrue(local > 0);
+        assertTrue(Math.abs(toTwo - toThree) <= 1);
+    }
+
+    @Test
+    public void testPublishingResetsPlacements() {
+        redirectorOne.publish(one, sessions(5));
+        redirectorTwo.publish(two, sessions(0));
+        int redirected = 0;
+        while (redirectorOne.chooseNode(one) != null) {
+            redirected++;
+        }
+        assertTrue(redirected > 0);
+        redirectorTwo.publish(two, sessions(redirected));
+        assertEquals("two", redirectorOne.chooseNode(one));
+    }
+
+    @Test
+    public void testPublishingSameScoreResetsPlacements() {
+        redirectorOne.publish(one, sessions(3));
+        redirectorTwo.publish(two, sessions(0));
+        int redirected = 0;
+        while (redirectorOne.chooseNode(one) != null) {
+            redirected++;
+        }
+        assertTrue(redirected > 0);
+        // The sessions placed on either node have since closed.
+        redirectorOne.publish(one, sessions(3));
+        redirectorTwo.publish(two, sessions(0));
+        assertEquals("two", redirectorOne.chooseNode(one));
+    }
+
+    @Test
+    public void testIgnoresNodesGoingDown() {
+        redirectorOne.publish(one, sessions(20));
+        redirectorTwo.publish(two, sessions(0));
+        redirectorOne.handleRingShutdown(one, "two");
+        assertNull(redirectorOne.chooseNode(one));
+    }
+
+    @Test
+    public void testScoreWeighsEachSource() {
+        assertEquals(0, new NodeLoad(0, 0, 0, 0).score());
+        assertEquals(NodeLoad.SESSION_WEIGHT + 2 * NodeLoad.SERVANT_WEIGHT
+                + 3 * NodeLoad.QUEUED_TASK_WEIGHT + 4 * NodeLoad.LATENCY_WEIGHT,
+                new NodeLoad(1, 2, 3, 4.0).score());
+    }
+
+    private static NodeLoad sessions(int count) {
+        return new NodeLoad(count, 0, 0, 0);
+    }
+
+}
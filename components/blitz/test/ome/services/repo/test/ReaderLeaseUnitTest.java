@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.repo.test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ome.services.blitz.repo.ReaderLease;
+
+/**
+ * Tests the failure and cancellation path of the concurrent series parsing
+ * of <code>ManagedImportRequestI</code>: readers must not be closed while a
+ * cancelled task is still using them.
+ */
+@Test(groups = { "repo" })
+public class ReaderLeaseUnitTest {
+
+    ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(1);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A task cancelled while running keeps its reader until it returns,
+     * even though its future reports the cancellation at once.
+     */
+    public void testRevokeAwaitsRunningTask() throws Exception {
+        final ReaderLease lease = new ReaderLease();
+        final CountDownLatch reading = new CountDownLatch(1);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final AtomicBoolean readAfterClose = new AtomicBoolean();
+        Future<Object> future = executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                if (!lease.begin()) {
+                    return null;
+                }
+                try {
+                    reading.countDown();
+                    // Reader which ignores interrupts, as openBytes may.
+                    long end = System.nanoTime()
+                            + TimeUnit.MILLISECONDS.toNanos(200);
+                    while (System.nanoTime() < end) {
+                        Thread.yield();
+                    }
+                    readAfterClose.set(closed.get());
+                    return null;
+                } finally {
+                    lease.end();
+                }
+            }
+        });
+        Assert.assertTrue(reading.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(future.cancel(true));
+        lease.revokeOrAwait();
+        closed.set(true);
+        Assert.assertFalse(readAfterClose.get());
+    }
+
+    /**
+     * A task cancelled before it begins never touches a reader, and
+     * revoking its lease does not wait.
+     */
+    public void testRevokeBeforeBegin() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                blocked.await();
+                return null;
+            }
+        });
+        final ReaderLease lease = new ReaderLease();
+        final AtomicInteger uses = new AtomicInteger();
+        Future<Object> future = executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                if (!lease.begin()) {
+                    return null;
+                }
+                try {
+                    uses.incrementAndGet();
+                    return null;
+                } finally {
+                    lease.end();
+                }
+            }
+        });
+        future.cancel(true);
+        lease.revokeOrAwait();
+        Assert.assertFalse(lease.begin());
+        blocked.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(uses.get(), 0);
+    }
+
+    /**
+     * A task which failed has ended, so revoking its lease returns at once.
+     */
+    public void testRevokeAfterFailure() throws Exception {
+        final ReaderLease lease = new ReaderLease();
+        Future<Object> future = executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                if (!lease.begin()) {
+                    return null;
+                }
+                try {
+                    throw new RuntimeException("unreadable series");
+                } finally {
+                    lease.end();
+                }
+            }
+        });
+        try {
+            future.get();
+            Assert.fail("expected the task to fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(e.getCause().getMessage(), "unreadable series");
+        }
+        lease.revokeOrAwait();
+        Assert.assertFalse(lease.begin());
+    }
+}
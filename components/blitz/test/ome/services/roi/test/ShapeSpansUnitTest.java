@@ -0,0 +1,111 @@
+/*
+ *   Copyright 2015 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi.test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import ome.services.roi.GeomTool;
+import ome.services.roi.ShapeSpans;
+import ome.util.PixelData;
+import omero.model.SmartShape;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that statistics accumulated from {@link ShapeSpans} over regions
+ * of a plane match those computed point by point.
+ */
+@Test(groups = { "rois" })
+public class ShapeSpansUnitTest extends TestCase {
+
+    static final int SIZE_X = 64;
+
+    static final int SIZE_Y = 48;
+
+    GeomTool geomTool = new GeomTool(null, null, null);
+
+    PixelData plane() {
+        PixelData plane = new PixelData("uint16",
+                ByteBuffer.wrap(new byte[SIZE_X * SIZE_Y * 2]));
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE_X * SIZE_Y; i++) {
+            plane.setPixelValue(i, random.nextInt(65536));
+        }
+        return plane;
+    }
+
+    double[] byPoint(SmartShape shape, final PixelData plane) {
+        final double[] acc = ShapeSpans.newAccumulator();
+        shape.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                double value = plane.getPixelValue(y * SIZE_X + x);
+                acc[ShapeSpans.COUNT]++;
+                acc[ShapeSpans.MIN] = Math.min(value, acc[ShapeSpans.MIN]);
+                acc[ShapeSpans.MAX] = Math.max(value, acc[ShapeSpans.MAX]);
+                acc[ShapeSpans.SUM] += value;
+                acc[ShapeSpans.SUM_OF_SQUARES] += value * value;
+            }
+        });
+        return acc;
+    }
+
+    double[] bySpans(ShapeSpans spans, PixelData plane, int rows) {
+        double[] acc = ShapeSpans.newAccumulator();
+        int endY = spans.getY() + spans.getHeight();
+        for (int y = spans.getY(); y < endY; y += rows) {
+            int height = Math.min(rows, endY - y);
+            PixelData region = new PixelData("uint16", ByteBuffer
+                    .wrap(new byte[spans.getWidth() * height * 2]));
+            for (int row = 0; row < height; row++) {
+                for (int x = 0; x < spans.getWidth(); x++) {
+                    region.setPixelValue(row * spans.getWidth() + x,
+                            plane.getPixelValue((y + row) * SIZE_X
+                                    + spans.getX() + x));
+                }
+            }
+            spans.accumulate(region, y, height, acc);
+        }
+        return acc;
+    }
+
+    void assertSameStats(SmartShape shape) {
+        PixelData plane = plane();
+        ShapeSpans spans = ShapeSpans.of(shape);
+        double[] expected = byPoint(shape, plane);
+        assertEquals((int) expected[ShapeSpans.COUNT], spans.getPointCount());
+        for (int rows : new int[] { 1, 3, spans.getHeight() }) {
+            double[] actual = bySpans(spans, plane, rows);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], actual[i], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testEllipse() throws Exception {
+        assertSameStats((SmartShape) geomTool.ellipse(30.5, 20.2, 20, 12));
+    }
+
+    @Test
+    public void testRectangle() throws Exception {
+        SmartShape rect = (SmartShape) geomTool.rect(2, 3, 40, 30);
+        assertSameStats(rect);
+        ShapeSpans spans = ShapeSpans.of(rect);
+        assertEquals(spans.getHeight(), spans.getSpanCount());
+        assertEquals(spans.getWidth() * spans.getHeight(),
+                spans.getPointCount());
+    }
+
+    @Test
+    public void testPoint() throws Exception {
+        ShapeSpans spans = ShapeSpans.of((SmartShape) geomTool.pt(5, 7));
+        assertSameStats((SmartShape) geomTool.pt(5, 7));
+        assertEquals(5, spans.getX());
+        assertEquals(7, spans.getY());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omero.cmd.graphs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import ome.services.diskusage.DiskUsageLedger;
+import ome.system.EventContext;
+import ome.util.SqlAction;
+import omero.api.LongPair;
+import omero.cmd.DiskUsageResponse;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test when {@link DiskUsageI} reads the usage from the totals of the disk usage ledger rather than walking the model
+ * graph, and how it reports those totals.
+ * @since 5.2.0
+ */
+@Test
+public class DiskUsageLedgerRequestTest extends MockObjectTestCase {
+
+    private static final long USER_ID = 1;
+
+    private static final long OTHER_USER_ID = 2;
+
+    private static final long GROUP_ID = 3;
+
+    private Mock ecMock;
+
+    private Mock sqlMock;
+
+    private DiskUsageI request;
+
+    @BeforeMethod
+    public void setUpRequest() {
+        ecMock = mock(EventContext.class);
+        ecMock.stubs().method("getCurrentUserId").will(returnValue(USER_ID));
+        sqlMock = mock(SqlAction.class);
+        request = new DiskUsageI(null, null, null);
+        request.classes = new ArrayList<String>();
+        request.objects = new HashMap<String, List<Long>>();
+        request.useLedger = true;
+    }
+
+    private void setAdmin(boolean isAdmin) {
+        ecMock.stubs().method("isCurrentUserAdmin").will(returnValue(isAdmin));
+    }
+
+    private void setReconciled(boolean isReconciled) {
+        sqlMock.expects(once()).method("configValue").with(eq(DiskUsageLedger.RECONCILED_KEY))
+                .will(returnValue(isReconciled ? "2015-06-01 03:00:00.0" : null));
+    }
+
+    private DiskUsageResponse getLedgerDiskUsage() {
+        return request.getLedgerDiskUsage((EventContext) ecMock.proxy(), (SqlAction) sqlMock.proxy());
+    }
+
+    /**
+     * Test that the ledger is not used unless the request opts in.
+     */
+    public void testNotOptedIn() {
+        setAdmin(true);
+        request.useLedger = false;
+        request.classes.add("Experimenter");
+        assertNull(getLedgerDiskUsage());
+    }
+
+    /**
+     * Test that the ledger is not used if the request names no users or groups.
+     */
+    public void testNothingRequested() {
+        setAdmin(true);
+        assertNull(getLedgerDiskUsage());
+    }
+
+    /**
+     * Test that the ledger is not used if the request names a class other than users and groups.
+     */
+    public void testOtherClassRequested() {
+        setAdmin(true);
+        request.classes.add("Experimenter");
+        request.classes.add("Project");
+        assertNull(getLedgerDiskUsage());
+    }
+
+    /**
+     * Test that the ledger is not used if the request names objects other than users and groups.
+     */
+    public void testOtherObjectsRequested() {
+        setAdmin(true);
+        request.objects.put("Experimenter", Collections.singletonList(USER_ID));
+        request.objects.put("Image", Collections.singletonList(1L));
+        assertNull(getLedgerDiskUsage());
+    }
+
+    /**
+     * Test that the ledger is not used for a user asking about another user.
+     */
+    public void testOtherUserRequested() {
+        setAdmin(false);
+        request.objects.put("Experimenter", Arrays.asList(USER_ID, OTHER_USER_ID));
+        assertNull(getLedgerDiskUsage());
+    }
+
+    /**
+     * Test that the ledger is not used for a user asking about a group.
+     */
+    public void testGroupRequestedByUser() {
+        setAdmin(false);
+        request.objects.put("ExperimenterGroup", Collections.singletonList(GROUP_ID));
+        assertNull(getLedgerDiskUsage());
+    }
+
+    /**
+     * Test that the ledger is not used for a user asking about all users.
+     */
+    public void testEverybodyRequestedByUser() {
+        setAdmin(false);
+        request.classes.add("Experimenter");
+        assertNull(getLedgerDiskUsage());
+    }
+
+    /**
+     * Test that the ledger is not used before it has been reconciled.
+     */
+    public void testNotReconciled() {
+        setAdmin(true);
+        setReconciled(false);
+        request.objects.put("Experimenter", Collections.singletonList(OTHER_USER_ID));
+        assertNull(getLedgerDiskUsage());
+    }
+
+    /**
+     * Test that a user asking about their own usage is answered from the ledger's totals.
+     */
+    public void testOwnUsage() {
+        setAdmin(false);
+        setReconciled(true);
+        request.objects.put("ome.model.meta.Experimenter", Collections.singletonList(USER_ID));
+        final List<Object[]> totals = new ArrayList<Object[]>();
+        totals.add(new Object[] {USER_ID, GROUP_ID, "", 3L, 600L});
+        totals.add(new Object[] {USER_ID, GROUP_ID, "FilesetEntry", 2L, 500L});
+        totals.add(new Object[] {USER_ID, GROUP_ID, "Thumbnail", 1L, 100L});
+        sqlMock.expects(once()).method("getDiskUsageTotals")
+                .with(eq(Collections.singleton(USER_ID)), eq(Collections.emptySet()))
+                .will(returnValue(totals));
+        final DiskUsageResponse response = getLedgerDiskUsage();
+        assertNotNull(response);
+        final LongPair who = new LongPair(USER_ID, GROUP_ID);
+        assertEquals(Collections.singleton(who), response.totalBytesUsed.keySet());
+        assertEquals(600L, (long) response.totalBytesUsed.get(who));
+        assertEquals(3, (int) response.totalFileCount.get(who));
+        assertEquals(500L, (long) response.bytesUsedByReferer.get(who).get("FilesetEntry"));
+        assertEquals(2, (int) response.fileCountByReferer.get(who).get("FilesetEntry"));
+        assertEquals(100L, (long) response.bytesUsedByReferer.get(who).get("Thumbnail"));
+        assertEquals(1, (int) response.fileCountByReferer.get(who).get("Thumbnail"));
+        assertEquals(2, response.bytesUsedByReferer.get(who).size());
+    }
+
+    /**
+     * Test that an administrator asking about all users is answered from the totals of all owners and groups.
+     */
+    public void testEverybodyRequestedByAdmin() {
+        setAdmin(true);
+        setReconciled(true);
+        request.classes.add("/Experimenter");
+        final List<Object[]> totals = new ArrayList<Object[]>();
+        totals.add(new Object[] {USER_ID, GROUP_ID, "", 1L, 10L});
+        totals.add(new Object[] {OTHER_USER_ID, GROUP_ID, "", 2L, 20L});
+        sqlMock.expects(once()).method("getDiskUsageTotals").with(NULL, ANYTHING).will(returnValue(totals));
+        final DiskUsageResponse response = getLedgerDiskUsage();
+        assertNotNull(response);
+        assertEquals(10L, (long) response.totalBytesUsed.get(new LongPair(USER_ID, GROUP_ID)));
+        assertEquals(2, (int) response.totalFileCount.get(new LongPair(OTHER_USER_ID, GROUP_ID)));
+        assertTrue(response.bytesUsedByReferer.isEmpty());
+    }
+}
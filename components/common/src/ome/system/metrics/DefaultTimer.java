@@ -60,4 +60,11 @@ public class DefaultTimer implements Timer {
     public long getCount() {
         return this.t.getCount();
     }
+
+    /**
+     * @see com.codahale.metrics.Timer#getSnapshot()
+     */
+    public Snapshot getSnapshot() {
+        return new DefaultSnapshot(this.t.getSnapshot());
+    }
 }
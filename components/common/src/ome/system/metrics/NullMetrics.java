@@ -131,6 +131,11 @@ public class NullMetrics implements Metrics {
         public long getCount() {
             return -1;
         }
+
+        @Override
+        public Snapshot getSnapshot() {
+            return S;
+        }
     }
 
     private static class NullCounter implements Counter {
@@ -140,6 +145,11 @@ public class NullMetrics implements Metrics {
             // no-op
         }
 
+        @Override
+        public void inc(long n) {
+            // no-op
+        }
+
         public void dec() {
             // no-op
         }
@@ -43,4 +43,9 @@ public interface Timer {
      */
     long getCount();
 
+    /**
+     * @see com.codahale.metrics.Timer#getSnapshot()
+     */
+    Snapshot getSnapshot();
+
 }
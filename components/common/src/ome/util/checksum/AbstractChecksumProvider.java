@@ -41,6 +41,11 @@ import com.google.common.io.Files;
  */
 public class AbstractChecksumProvider implements ChecksumProvider {
 
+    /**
+     * Size of the chunks copied from buffers without an accessible array.
+     */
+    private static final int DIRECT_CHUNK_SIZE = 64 * 1024;
+
     private final HashFunction hashFunction;
 
     private Hasher hasher;
@@ -82,12 +87,20 @@ public class AbstractChecksumProvider implements ChecksumProvider {
     public ChecksumProvider putBytes(ByteBuffer byteBuffer) {
         this.verifyState(this.hashBytes, this.hashString);
         if (byteBuffer.hasArray()) {
-            this.hasher.putBytes(byteBuffer.array(), 0, byteBuffer.limit());
+            this.hasher.putBytes(byteBuffer.array(),
+                    byteBuffer.arrayOffset() + byteBuffer.position(),
+                    byteBuffer.remaining());
             return this;
-        } else {
-            throw new IllegalArgumentException("Supplied ByteBuffer has " +
-                    "inaccessible array.");
         }
+        final ByteBuffer source = byteBuffer.duplicate();
+        final byte[] chunk = new byte[Math.min(DIRECT_CHUNK_SIZE,
+                source.remaining())];
+        while (source.hasRemaining()) {
+            final int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            this.hasher.putBytes(chunk, 0, length);
+        }
+        return this;
     }
 
     /**
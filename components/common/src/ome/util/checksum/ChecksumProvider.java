@@ -68,9 +68,9 @@ public interface ChecksumProvider {
     ChecksumProvider putBytes(byte[] byteArray, int offset, int length);
 
     /**
-     * Updates the internal checksum value with data from a byte buffer.
-     * If the array underlying the byte buffer is not accessible, throws an
-     * IllegalArgumentException.
+     * Updates the internal checksum value with data from a byte buffer,
+     * read from its position to its limit, whether or not it has an
+     * accessible array. The position of the given buffer is left unchanged.
      *
      * @param byteBuffer The input byte buffer.
      * @return ChecksumProvider
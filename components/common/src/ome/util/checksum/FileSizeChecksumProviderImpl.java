@@ -60,11 +60,6 @@ public class FileSizeChecksumProviderImpl implements ChecksumProvider {
     public ChecksumProvider putBytes(ByteBuffer byteBuffer) {
         verifyState();
 
-        if (!byteBuffer.hasArray()) {
-            throw new IllegalArgumentException("Supplied ByteBuffer has " +
-                    "inaccessible array.");
-        }
-
         size += byteBuffer.limit() - byteBuffer.position();
         return this;
     }
@@ -133,12 +133,51 @@ public abstract class AbstractChecksumProviderAlgorithmTest {
                 .get(ChecksumTestVector.ABC));
     }
 
-    @Test(expectedExceptions = IllegalArgumentException.class)
-    public void testChecksumAsBytesWithEmptyByteBufferShouldThrowIAE() {
-        byte[] actual = this.checksumProvider
+    @Test
+    public void testChecksumAsStringWithPositionedByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap("xyabcdef".getBytes());
+        buffer.position(2).limit(5);
+        String actual = this.checksumProvider
+                .putBytes(buffer)
+                .checksumAsString();
+        Assert.assertEquals(actual, this.checksumValues
+                .get(ChecksumTestVector.ABC));
+        Assert.assertEquals(buffer.position(), 2);
+    }
+
+    @Test
+    public void testChecksumAsStringWithSlicedByteBuffer() {
+        ByteBuffer whole = ByteBuffer.wrap("xyzabcdef".getBytes());
+        whole.position(2);
+        ByteBuffer buffer = whole.slice();
+        buffer.position(1).limit(4);
+        String actual = this.checksumProvider
+                .putBytes(buffer)
+                .checksumAsString();
+        Assert.assertEquals(actual, this.checksumValues
+                .get(ChecksumTestVector.ABC));
+    }
+
+    @Test
+    public void testChecksumAsStringWithDirectByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+        buffer.put("abc".getBytes());
+        buffer.flip();
+        String actual = this.checksumProvider
+                .putBytes(buffer)
+                .checksumAsString();
+        Assert.assertEquals(actual, this.checksumValues
+                .get(ChecksumTestVector.ABC));
+        Assert.assertEquals(buffer.position(), 0);
+    }
+
+    @Test
+    public void testChecksumAsStringWithEmptyDirectByteBuffer() {
+        String actual = this.checksumProvider
                 .putBytes(ByteBuffer.allocateDirect(0))
-                .checksumAsBytes();
-        Assert.assertNull(actual);
+                .checksumAsString();
+        Assert.assertEquals(actual, this.checksumValues
+                .get(ChecksumTestVector.EMPTYARRAY));
     }
 
     @Test
@@ -25,6 +25,7 @@ import ome.conditions.InternalException;
 import ome.model.core.Channel;
 import ome.model.internal.Details;
 import ome.model.internal.Permissions;
+import ome.model.meta.Event;
 import ome.model.meta.ExperimenterGroup;
 import ome.model.stats.StatsInfo;
 
@@ -340,6 +341,26 @@ public interface SqlAction {
 
     int closeNode(String uuid);
 
+    /**
+     * Publishes the load score of the active node with the given uuid in its
+     * {@code scale} column.
+     *
+     * @return the number of nodes updated
+     */
+    int setNodeLoad(String uuid, int load);
+
+    /**
+     * Returns the load scores published by the active nodes, keyed by their
+     * uuid. Nodes which have not yet published a score are omitted. Each
+     * value holds:
+     * <ol>
+     * <li>the load score (Integer)</li>
+     * <li>the generation of the score (Long), which changes each time the
+     * node publishes its score, even if the score itself is unchanged</li>
+     * </ol>
+     */
+    Map<String, Object[]> getNodeLoads();
+
     long nodeId(String internal_uuid);
 
     int insertSession(Map<String, Object> params);
@@ -405,6 +426,20 @@ public interface SqlAction {
     List<Object[]> getEventLogPartitions(Collection<String> types,
             Collection<String> actions, long offset, long limit);
 
+    /**
+     * Loads event logs for {@link ome.model.core.Pixels} like
+     * {@link #getEventLogPartitions(Collection, Collection, long, long)}
+     * with the owner of the Pixels as an additional, sixth element of each
+     * object array (Long). Event logs for Pixels which no longer exist are
+     * not returned.
+     * @param actions Collection of ACTION strings which should be queried
+     * @param offset Offset to the row which should be queried first
+     * @param limit Maximum number of rows (after partionting) which should
+     *        be returned.
+     */
+    List<Object[]> getPixelsEventLogPartitions(Collection<String> actions,
+            long offset, long limit);
+
     void setCurrentEventLog(long id, String key);
 
     void delCurrentEventLog(String key);
@@ -432,6 +467,76 @@ public interface SqlAction {
 
     void insertLogs(List<Object[]> batchData);
 
+    /**
+     * Inserts an {@link Event} whose id was already allocated from
+     * <code>seq_event</code>, with the {@link ome.model.enums.EventType} of
+     * the same value as its type. Used to save the events of write calls
+     * only once they first write, without a round-trip through Hibernate.
+     *
+     * @param event an unsaved event with an id, an experimenter, a group
+     *        and a session
+     * @return the number of events inserted, 0 if there is no such type
+     */
+    int insertEvent(Event event);
+
+    /**
+     * Notes the disk space used by an object in the ledger of disk usage,
+     * replacing any usage noted earlier for the same object. The totals read
+     * by {@link #getDiskUsageTotals(Collection, Collection)} are adjusted by
+     * the database.
+     *
+     * @param entityType the class name of the object
+     * @param entityId the id of the object
+     * @param owner the id of the owner of the object
+     * @param group the id of the group of the object
+     * @param usageTypes comma-separated types of usage, e.g. the types of
+     *        the objects referring to an original file
+     * @param fileCount the number of files of the object on disk
+     * @param bytes the size of those files
+     * @return the number of rows updated or inserted
+     */
+    int setDiskUsage(String entityType, long entityId, long owner, long group,
+            String usageTypes, int fileCount, long bytes);
+
+    /**
+     * Removes the disk space used by the given objects from the ledger of
+     * disk usage.
+     *
+     * @param entityType the class name of the objects
+     * @param entityIds the ids of the objects
+     * @return the number of rows deleted
+     */
+    int deleteDiskUsage(String entityType, Collection<Long> entityIds);
+
+    /**
+     * Removes from the ledger of disk usage all the objects of the given
+     * type which no longer exist.
+     *
+     * @param entityType the class name of the objects
+     * @param table the table of the objects
+     * @return the number of rows deleted
+     */
+    int deleteStaleDiskUsage(String entityType, String table);
+
+    /**
+     * Loads the totals of the ledger of disk usage. Each object array
+     * contains:
+     * <ol>
+     * <li>the id of the owner (Long)</li>
+     * <li>the id of the group (Long)</li>
+     * <li>the type of usage, or the empty string for the total across all
+     * types (String)</li>
+     * <li>the number of files (Long)</li>
+     * <li>the size of the files (Long)</li>
+     * </ol>
+     * @param owners the ids of the owners whose totals are loaded, or
+     *        {@code null} for those of all owners and groups
+     * @param groups the ids of the groups whose totals are also loaded,
+     *        ignored if {@code owners} is {@code null}
+     */
+    List<Object[]> getDiskUsageTotals(Collection<Long> owners,
+            Collection<Long> groups);
+
     List<Map<String, Object>> roiByImageAndNs(final long imageId,
             final String ns);
 
@@ -644,6 +749,27 @@ public interface SqlAction {
                     _lookup("update_node"), uuid); //$NON-NLS-1$
         }
 
+        public int setNodeLoad(String uuid, int load) {
+            return _jdbc().update(
+                    _lookup("update_node_load"), load, uuid); //$NON-NLS-1$
+        }
+
+        public Map<String, Object[]> getNodeLoads() {
+            final Map<String, Object[]> loads = new HashMap<String, Object[]>();
+            // The generation is the id of the transaction which last
+            // updated the row, i.e. which last published the score.
+            _jdbc().query(_lookup("get_node_loads"), //$NON-NLS-1$
+                    new RowMapper<Object>() {
+                        public Object mapRow(ResultSet arg0, int arg1)
+                                throws SQLException {
+                            loads.put(arg0.getString(1), new Object[] {
+                                    arg0.getInt(2), arg0.getLong(3) });
+                            return null;
+                        }
+                    });
+            return loads;
+        }
+
 
         public boolean setUserPassword(Long experimenterID, String password) {
             int results = _jdbc().update(_lookup("update_password"), //$NON-NLS-1$
@@ -1017,6 +1143,83 @@ public interface SqlAction {
             }
         }
 
+        //
+        // EVENTS
+        //
+
+        public int insertEvent(Event event) {
+            return _jdbc().update(_lookup("insert_event"), //$NON-NLS-1$
+                    event.getId(),
+                    Utils.internalForm(event.getDetails().getPermissions()),
+                    event.getTime(),
+                    event.getExperimenter().getId(),
+                    event.getExperimenterGroup().getId(),
+                    event.getSession().getId(), event.getType().getValue());
+        }
+
+        //
+        // DISK USAGE
+        //
+
+        public int setDiskUsage(String entityType, long entityId, long owner,
+                long group, String usageTypes, int fileCount, long bytes) {
+            int count = _jdbc().update(_lookup("disk_usage_update"), //$NON-NLS-1$
+                    owner, group, usageTypes, fileCount, bytes,
+                    entityType, entityId);
+            if (count == 0) {
+                count = _jdbc().update(_lookup("disk_usage_insert"), //$NON-NLS-1$
+                        entityType, entityId, owner, group, usageTypes,
+                        fileCount, bytes);
+            }
+            return count;
+        }
+
+        public int deleteDiskUsage(String entityType,
+                Collection<Long> entityIds) {
+            if (entityIds.isEmpty()) {
+                return 0;
+            }
+            final Map<String, Object> params = new HashMap<String, Object>();
+            params.put("type", entityType);
+            params.put("ids", entityIds);
+            return _jdbc().update(_lookup("disk_usage_delete"), //$NON-NLS-1$
+                    params);
+        }
+
+        public int deleteStaleDiskUsage(String entityType, String table) {
+            return _jdbc().update(String.format(
+                    _lookup("disk_usage_delete_stale"), table), //$NON-NLS-1$
+                    entityType);
+        }
+
+        public List<Object[]> getDiskUsageTotals(Collection<Long> owners,
+                Collection<Long> groups) {
+            final RowMapper<Object[]> mapper = new RowMapper<Object[]>() {
+                @Override
+                public Object[] mapRow(ResultSet arg0, int arg1)
+                        throws SQLException {
+                    return new Object[] {
+                        arg0.getLong(1),
+                        arg0.getLong(2),
+                        arg0.getString(3),
+                        arg0.getLong(4),
+                        arg0.getLong(5)
+                    };
+                }};
+            if (owners == null) {
+                return _jdbc().query(_lookup("disk_usage_totals"), //$NON-NLS-1$
+                        mapper);
+            }
+            // "in ()" is not valid SQL and no object has the id -1.
+            final Map<String, Object> params = new HashMap<String, Object>();
+            params.put("owners", owners.isEmpty()
+                    ? Collections.singleton(-1L) : owners);
+            params.put("groups", groups == null || groups.isEmpty()
+                    ? Collections.singleton(-1L) : groups);
+            return _jdbc().query(_lookup("disk_usage_totals_for"), //$NON-NLS-1$
+                    mapper, params);
+        }
+
         //
         // PIXELS
         //
@@ -1098,6 +1301,29 @@ public interface SqlAction {
                     }}, params);
         }
 
+        public List<Object[]> getPixelsEventLogPartitions(
+                Collection<String> actions, long offset, long limit) {
+            final String query = _lookup("log_loader_partition_pixels"); // $NON_NLS-1$
+            final Map<String, Object> params = new HashMap<String, Object>();
+            params.put("actions", actions);
+            params.put("currentid", offset);
+            params.put("max", limit);
+            return _jdbc().query(query,
+                new RowMapper<Object[]>() {
+                    @Override
+                    public Object[] mapRow(ResultSet arg0, int arg1)
+                            throws SQLException {
+                        return new Object[] {
+                            arg0.getLong(1),
+                            arg0.getString(2),
+                            arg0.getLong(3),
+                            arg0.getString(4),
+                            arg0.getInt(5),
+                            arg0.getLong(6)
+                        };
+                    }}, params);
+        }
+
         public void setCurrentEventLog(long id, String key) {
 
             int count = _jdbc().update(
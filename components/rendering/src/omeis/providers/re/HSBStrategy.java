@@ -13,9 +13,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,8 +39,9 @@ import omeis.providers.re.quantum.QuantumStrategy;
  * each wavelength is mapped to a color. All these things are specified by the
  * rendering context.
  * <p>
- * This strategy renders the in "regions", dividing the planar data up based
- * on {@link #maxTasks} and assigning each task to its own thread. This should
+ * This strategy renders the in "regions", dividing the planar data up into
+ * bands of rows of roughly {@link RenderingExecutor#getRegionSize()} pixels
+ * and handing each task to the shared {@link RenderingExecutor}. This should
  * result in parallel rendering on multi-processor machines.
  * </p>
  * <p>
@@ -67,19 +65,17 @@ class HSBStrategy extends RenderingStrategy {
     private static Logger log = LoggerFactory.getLogger(HSBStrategy.class);
     
     /**
-     * Retrieves the maximum number of reasonable tasks to schedule based on
-     * image size and <i>maxTasks</i>.
+     * Retrieves the number of rows along the X2 axis each task should render
+     * so that a task covers roughly <i>regionSize</i> pixels.
      * 
-     * @param size The width along the X2 axis.
-     * @return the number of tasks to schedule.
+     * @param regionSize The approximate number of pixels per task.
+     * @return the number of rows per task.
      */
-    private int numTasks(int size) {
-        for (int i = maxTasks; i > 0; i--) {
-            if (size % i == 0) {
-                return i;
-            }
+    private int rowsPerTask(int regionSize) {
+        if (sizeX1 <= 0) {
+            return sizeX2;
         }
-        return 1;
+        return Math.max(1, regionSize / sizeX1);
     }
 
     /**
@@ -217,16 +213,16 @@ class HSBStrategy extends RenderingStrategy {
         List<Plane2D> wData = getWavelengthData(def);
         List<int[]> colors = getColors();
         List<QuantumStrategy> strategies = getStrategies();
-        // Create a number of rendering tasks.
-        int taskCount = numTasks(sizeX2);
-        int delta = sizeX2/taskCount;
+        // Create a rendering task per band of rows.
+        int delta = rowsPerTask(renderer.getExecutor().getRegionSize());
         int x1Start = 0;
         int x1End = sizeX1;
         int x2Start, x2End;
-        log.info("taskCount: "+taskCount+" delta: "+delta);
-        for (int i = 0; i < taskCount; i++) {
-            x2Start = i*delta;
-            x2End = (i+1)*delta;
+        if (log.isDebugEnabled()) {
+            log.debug("rows per task: " + delta);
+        }
+        for (x2Start = 0; x2Start < sizeX2; x2Start += delta) {
+            x2End = Math.min(x2Start + delta, sizeX2);
             tasks.add(new RenderHSBRegionTask(buf, wData, strategies, cc,
             		colors, renderer.getOptimizations(),
             		x1Start, x1End, x2Start, x2End));
@@ -306,38 +302,12 @@ class HSBStrategy extends RenderingStrategy {
     private void render(RGBBuffer buf, PlaneDef planeDef) throws IOException,
             QuantizationException {
         RenderingStats performanceStats = renderer.getStats();
-        // Process each active wavelength. If their number N > 1, then
-        // process N-1 async and one in the current thread. If N = 1,
+        // Process each region. If their number N > 1, then process N-1
+        // on the shared pool and one in the current thread. If N = 1,
         // just use the current thread.
         RenderingTask[] tasks = makeRenderingTasks(planeDef, buf);
         performanceStats.startRendering();
-        int n = tasks.length;
-        Future[] rndTskFutures = new Future[n]; // [0] unused.
-        ExecutorService processor = Executors.newCachedThreadPool();
-
-        while (0 < --n) {
-            rndTskFutures[n] = processor.submit(tasks[n]);
-        }
-
-        // Call the task in the current thread.
-        if (n == 0) {
-            tasks[0].call();
-        }
-
-        // Wait for all forked tasks (if any) to complete.
-        for (n = 1; n < rndTskFutures.length; ++n) {
-            try {
-                rndTskFutures[n].get();
-            } catch (Exception e) {
-                if (e instanceof QuantizationException) {
-                    throw (QuantizationException) e;
-                }
-                throw new RuntimeException(e);
-            }
-        }
-
-        // Shutdown the task processor
-        processor.shutdown();
+        renderer.getExecutor().execute(tasks);
 
         // End the performance metrics for this rendering event.
         performanceStats.endRendering();
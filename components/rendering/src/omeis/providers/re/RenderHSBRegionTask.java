@@ -12,8 +12,6 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ome.util.PixelData;
-
 import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.quantum.BinaryMaskQuantizer;
@@ -127,6 +125,57 @@ class RenderHSBRegionTask implements RenderingTask {
         return null;
     }
 
+    /**
+     * Quantizes one row of the region for a given wavelength. For <i>XY</i>
+     * planes the whole row is handed to the quantum strategy in one call so
+     * that it can read the values straight from the backing buffer.
+     *
+     * @param plane The wavelength data.
+     * @param qs The quantum strategy of the wavelength.
+     * @param x2 The row to quantize.
+     * @param rowStart The offset of the first pixel of the row.
+     * @param row The array receiving the quantized values.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void quantizeRow(Plane2D plane, QuantumStrategy qs, int x2,
+            int rowStart, byte[] row) throws QuantizationException {
+        if (plane.isXYPlanar()) {
+            qs.quantize(plane.getData(), rowStart, row.length, row);
+        } else {
+            for (int x1 = x1Start; x1 < x1End; ++x1) {
+                row[x1 - x1Start] = (byte) qs.quantize(
+                        plane.getPixelValue(x1, x2));
+            }
+        }
+    }
+
+    /**
+     * Computes, for each of the 256 quantized values, the amount a colour
+     * component contributes to a packed integer pixel.
+     *
+     * @param color The colour component value.
+     * @param alpha The alpha of the channel.
+     * @param isAlphaless Whether or not alphaless rendering is enabled.
+     * @return See above.
+     */
+    private static int[] componentTable(int color, float alpha,
+            boolean isAlphaless) {
+        double ratio = color > 0 ? color / 255.0 : 0.0;
+        int[] table = new int[256];
+        int value;
+        for (int discreteValue = 0; discreteValue < 256; discreteValue++) {
+            value = (int) (ratio * discreteValue);
+            // Pre-multiply the alpha for each colour component if the
+            // image has a non-1.0 alpha component.
+            if (!isAlphaless) {
+                value *= alpha;
+            }
+            table[discreteValue] = value;
+        }
+        return table;
+    }
+
     /**
      * Renders into a banded byte buffer.
      * 
@@ -134,36 +183,50 @@ class RenderHSBRegionTask implements RenderingTask {
      *             if there is an error during pixel value quantization.
      */
     private void renderBanded() throws QuantizationException {
-        int discreteValue, pix;
-        int rValue, gValue, bValue;
-        float v;
-
+        int n = wData.size();
         int width = x1End - x1Start;
-        int i = 0;
         byte[] r = dataBuffer.getRedBand();
         byte[] g = dataBuffer.getGreenBand();
         byte[] b = dataBuffer.getBlueBand();
-        for (Plane2D plane : wData) {
+
+        // Pre-compute the contribution of each quantized value once the
+        // codomain transformations have been applied.
+        int[][] rTables = new int[n][256];
+        int[][] gTables = new int[n][256];
+        int[][] bTables = new int[n][256];
+        for (int i = 0; i < n; i++) {
             int[] color = colors.get(i);
-            QuantumStrategy qs = strategies.get(i);
             int rColor = color[ColorsFactory.RED_INDEX];
             int gColor = color[ColorsFactory.GREEN_INDEX];
             int bColor = color[ColorsFactory.BLUE_INDEX];
-
             float alpha = new Float(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 65025;// 255*255
-            for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-                    discreteValue = cc.transform(discreteValue);
-
-                    // Pre-multiply the alpha component and add the existing
-                    // colour value to the new colour value.
-                    v = discreteValue * alpha;
-                    rValue = (int) (rColor * v) + r[pix];
-                    gValue = (int) (gColor * v) + g[pix];
-                    bValue = (int) (bColor * v) + b[pix];
+            for (int value = 0; value < 256; value++) {
+                // Pre-multiply the alpha component.
+                float v = cc.transform(value) * alpha;
+                rTables[i][value] = (int) (rColor * v);
+                gTables[i][value] = (int) (gColor * v);
+                bTables[i][value] = (int) (bColor * v);
+            }
+        }
+
+        byte[] row = new byte[width];
+        int rValue, gValue, bValue, discreteValue, pix;
+        for (int x2 = x2Start; x2 < x2End; ++x2) {
+            int rowStart = width * x2 + x1Start;
+            for (int i = 0; i < n; i++) {
+                quantizeRow(wData.get(i), strategies.get(i), x2, rowStart, row);
+                int[] rTable = rTables[i];
+                int[] gTable = gTables[i];
+                int[] bTable = bTables[i];
+                for (int x = 0; x < width; x++) {
+                    pix = rowStart + x;
+                    discreteValue = row[x] & 0xFF;
+
+                    // Add the existing colour value to the new colour value.
+                    rValue = rTable[discreteValue] + r[pix];
+                    gValue = gTable[discreteValue] + g[pix];
+                    bValue = bTable[discreteValue] + b[pix];
 
                     // Ensure that each colour component value is between 0 and
                     // 255 (byte). We must make *certain* that values to not
@@ -183,8 +246,6 @@ class RenderHSBRegionTask implements RenderingTask {
                     b[pix] = (byte) (bValue & 0xFF);
                 }
             }
-
-            i++;
         }
     }
 
@@ -195,118 +256,112 @@ class RenderHSBRegionTask implements RenderingTask {
      *             if there is an error during pixel value quantization.
      */
     private void renderPackedInt() throws QuantizationException {
-        int discreteValue, pix;
-        double redRatio, greenRatio, blueRatio;
-        int rValue, gValue, bValue;
-        int newRValue, newGValue, newBValue;
-        int colorOffset = 24;  // Only used when we're doing primary color.
-
+        int n = wData.size();
         int width = x1End - x1Start;
-        int i = 0;
         int[] buf = ((RGBIntBuffer) dataBuffer).getDataBuffer();
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
         boolean isAlphaless = optimizations.isAlphalessRendering();
-        for (Plane2D plane : wData) {
+
+        // Work out everything which only depends on the channel up front.
+        // A colour offset of 24 means no primary colour optimization.
+        int[] colorOffsets = new int[n];
+        boolean[] masks = new boolean[n];
+        int[][] rTables = new int[n][];
+        int[][] gTables = new int[n][];
+        int[][] bTables = new int[n][];
+        for (int i = 0; i < n; i++) {
             int[] color = colors.get(i);
-            QuantumStrategy qs = strategies.get(i);
-            boolean isMask = qs instanceof BinaryMaskQuantizer? true : false;
-            redRatio = color[ColorsFactory.RED_INDEX] > 0 ? 
-            		color[ColorsFactory.RED_INDEX] / 255.0 : 0.0;
-            greenRatio = color[ColorsFactory.GREEN_INDEX] > 0 ? 
-            		color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
-            blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
-            		color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
-
-            // Get our color offset if we've got the primary color optimization
-            // enabled.
-            if (isPrimaryColor)
-            	colorOffset = getColorOffset(color);
-            
+            colorOffsets[i] = isPrimaryColor? getColorOffset(color) : 24;
+            masks[i] = strategies.get(i) instanceof BinaryMaskQuantizer;
             float alpha = new Integer(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
-            for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    if (isXYPlanar)
-                    	discreteValue = 
-                    		qs.quantize(
-                    			data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                    	discreteValue = 
-                    		qs.quantize(plane.getPixelValue(x1, x2));
-                    
-                    // Right now we have no transforms being used so it's safe to
-                    // comment this out for the time being.
-                    //discreteValue = cc.transform(discreteValue);
+            rTables[i] = componentTable(color[ColorsFactory.RED_INDEX],
+                    alpha, isAlphaless);
+            gTables[i] = componentTable(color[ColorsFactory.GREEN_INDEX],
+                    alpha, isAlphaless);
+            bTables[i] = componentTable(color[ColorsFactory.BLUE_INDEX],
+                    alpha, isAlphaless);
+        }
 
+        byte[] row = new byte[width];
+        for (int x2 = x2Start; x2 < x2End; ++x2) {
+            int rowStart = width * x2 + x1Start;
+            for (int i = 0; i < n; i++) {
+                quantizeRow(wData.get(i), strategies.get(i), x2, rowStart, row);
+                int colorOffset = colorOffsets[i];
+                if (colorOffset != 24) {
                     // Primary colour optimization is in effect, we don't need
                     // to do any of the sillyness below just shift the value
-                    // into the correct colour component slot and move on to
-                    // the next pixel value.
-                    if (colorOffset != 24)
-                    {
-                    	buf[pix] |= 0xFF000000;  // Alpha.
-                    	buf[pix] |= discreteValue << colorOffset;
-                    	continue;
-                    }
-
-                    newRValue = (int) (redRatio * discreteValue);
-                    newGValue = (int) (greenRatio * discreteValue);
-                    newBValue = (int) (blueRatio * discreteValue);
-                    
-                    // Pre-multiply the alpha for each colour component if the
-                    // image has a non-1.0 alpha component.
-                    if (!isAlphaless)
-                    {
-                    	newRValue *= alpha;
-                    	newGValue *= alpha;
-                    	newBValue *= alpha;
-                    }
-
-                    if (isMask && discreteValue == 255) {
-                    	// Since the mask is a hard value, we do not want to
-                    	// compromise on colour fidelity. Packed each colour
-                    	// component along with a 1.0 alpha into the buffer so
-                    	// that buffered images that use this buffer can be
-                    	// type 1 (3 bands, pre-multiplied alpha) or type 2
-                        // (4 bands, alpha component included).
-                        buf[pix] = 0xFF000000 | newRValue << 16
-                                   | newGValue << 8 | newBValue;
-                        continue;
-                    }
-                    // Add the existing colour component values to the new
-                    // colour component values.
-                    rValue = ((buf[pix] & 0x00FF0000) >> 16) + newRValue;
-                    gValue = ((buf[pix] & 0x0000FF00) >> 8) + newGValue;
-                    bValue = (buf[pix] & 0x000000FF) + newBValue;
-
-                    // Ensure that each colour component value is between 0 and
-                    // 255 (byte). We must make *certain* that values do not
-                    // wrap over 255 otherwise there will be corruption
-                    // introduced into the rendered image. The value may be over
-                    // 255 if we have mapped two high intensity channels to
-                    // the same color.
-                    if (rValue > 255) {
-                        rValue = 255;
-                    }
-                    if (gValue > 255) {
-                        gValue = 255;
-                    }
-                    if (bValue > 255) {
-                        bValue = 255;
+                    // into the correct colour component slot.
+                    for (int x = 0; x < width; x++) {
+                        buf[rowStart + x] |= 0xFF000000  // Alpha.
+                            | (row[x] & 0xFF) << colorOffset;
                     }
-
-                    // Packed each colour component along with a 1.0 alpha into
-                    // the buffer so that buffered images that use this buffer
-                    // can be type 1 (3 bands, pre-multiplied alpha) or type 2
-                    // (4 bands, alpha component included).
-                    buf[pix] = 0xFF000000 | rValue << 16 | gValue << 8 | bValue;
+                } else {
+                    packInt(row, buf, rowStart, masks[i],
+                            rTables[i], gTables[i], bTables[i]);
                 }
             }
-            i++;
+        }
+    }
+
+    /**
+     * Composites a quantized row into a packed integer (ARGB) array.
+     *
+     * @param row The quantized values.
+     * @param buf The packed integer array.
+     * @param rowStart The offset of the first pixel of the row.
+     * @param isMask Whether or not the channel is a binary mask.
+     * @param rTable The red contribution of each quantized value.
+     * @param gTable The green contribution of each quantized value.
+     * @param bTable The blue contribution of each quantized value.
+     */
+    private static void packInt(byte[] row, int[] buf, int rowStart,
+            boolean isMask, int[] rTable, int[] gTable, int[] bTable) {
+        int discreteValue, pix, v;
+        int rValue, gValue, bValue;
+        for (int x = 0; x < row.length; x++) {
+            pix = rowStart + x;
+            discreteValue = row[x] & 0xFF;
+            if (isMask && discreteValue == 255) {
+                // Since the mask is a hard value, we do not want to
+                // compromise on colour fidelity. Packed each colour
+                // component along with a 1.0 alpha into the buffer so
+                // that buffered images that use this buffer can be
+                // type 1 (3 bands, pre-multiplied alpha) or type 2
+                // (4 bands, alpha component included).
+                buf[pix] = 0xFF000000 | rTable[discreteValue] << 16
+                           | gTable[discreteValue] << 8 | bTable[discreteValue];
+                continue;
+            }
+            // Add the existing colour component values to the new
+            // colour component values.
+            v = buf[pix];
+            rValue = ((v & 0x00FF0000) >> 16) + rTable[discreteValue];
+            gValue = ((v & 0x0000FF00) >> 8) + gTable[discreteValue];
+            bValue = (v & 0x000000FF) + bTable[discreteValue];
+
+            // Ensure that each colour component value is between 0 and
+            // 255 (byte). We must make *certain* that values do not
+            // wrap over 255 otherwise there will be corruption
+            // introduced into the rendered image. The value may be over
+            // 255 if we have mapped two high intensity channels to
+            // the same color.
+            if (rValue > 255) {
+                rValue = 255;
+            }
+            if (gValue > 255) {
+                gValue = 255;
+            }
+            if (bValue > 255) {
+                bValue = 255;
+            }
+
+            // Packed each colour component along with a 1.0 alpha into
+            // the buffer so that buffered images that use this buffer
+            // can be type 1 (3 bands, pre-multiplied alpha) or type 2
+            // (4 bands, alpha component included).
+            buf[pix] = 0xFF000000 | rValue << 16 | gValue << 8 | bValue;
         }
     }
 
@@ -317,108 +372,102 @@ class RenderHSBRegionTask implements RenderingTask {
      *             if there is an error during pixel value quantization.
      */
     private void renderPackedIntAsRGBA() throws QuantizationException {
-        int discreteValue, pix;
-        double redRatio, greenRatio, blueRatio;
-        int rValue, gValue, bValue;
-        int newRValue, newGValue, newBValue;
-        int colorOffset = 32;  // Only used when we're doing primary color.
-
+        int n = wData.size();
         int width = x1End - x1Start;
-        int i = 0;
         int[] buf = ((RGBAIntBuffer) dataBuffer).getDataBuffer();
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
         boolean isAlphaless = optimizations.isAlphalessRendering();
-        for (Plane2D plane : wData) {
+
+        // Work out everything which only depends on the channel up front.
+        // A colour offset of 32 means no primary colour optimization.
+        int[] colorOffsets = new int[n];
+        int[][] rTables = new int[n][];
+        int[][] gTables = new int[n][];
+        int[][] bTables = new int[n][];
+        for (int i = 0; i < n; i++) {
             int[] color = colors.get(i);
-            QuantumStrategy qs = strategies.get(i);
-            redRatio = color[ColorsFactory.RED_INDEX] > 0 ? 
-            		color[ColorsFactory.RED_INDEX] / 255.0 : 0.0;
-            greenRatio = color[ColorsFactory.GREEN_INDEX] > 0 ? 
-            		color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
-            blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
-            		color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
-
-            // Get our color offset if we've got the primary color optimization
-            // enabled.
-            if (isPrimaryColor)
-            	colorOffset = getColorOffsetAsRGBA(color);
-
-            float alpha = new Integer(color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
-            for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    if (isXYPlanar)
-                    	discreteValue = 
-                    		qs.quantize(
-                    			data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                    	discreteValue = 
-                    		qs.quantize(plane.getPixelValue(x1, x2));
-                    // Right now we have no transforms being used so it's safe to
-                    // comment this out for the time being.
-                    //discreteValue = cc.transform(discreteValue);
+            colorOffsets[i] = isPrimaryColor? getColorOffsetAsRGBA(color) : 32;
+            float alpha = new Integer(
+                    color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            rTables[i] = componentTable(color[ColorsFactory.RED_INDEX],
+                    alpha, isAlphaless);
+            gTables[i] = componentTable(color[ColorsFactory.GREEN_INDEX],
+                    alpha, isAlphaless);
+            bTables[i] = componentTable(color[ColorsFactory.BLUE_INDEX],
+                    alpha, isAlphaless);
+        }
 
+        byte[] row = new byte[width];
+        for (int x2 = x2Start; x2 < x2End; ++x2) {
+            int rowStart = width * x2 + x1Start;
+            for (int i = 0; i < n; i++) {
+                quantizeRow(wData.get(i), strategies.get(i), x2, rowStart, row);
+                int colorOffset = colorOffsets[i];
+                if (colorOffset != 32) {
                     // Primary colour optimization is in effect, we don't need
                     // to do any of the sillyness below just shift the value
-                    // into the correct colour component slot and move on to
-                    // the next pixel value.
-                    if (colorOffset != 32)
-                    {
-                    	buf[pix] |= 0x000000FF;  // Alpha.
-                    	buf[pix] |= discreteValue << colorOffset;
-                    	continue;
-                    }
-
-                    newRValue = (int) (redRatio * discreteValue);
-                    newGValue = (int) (greenRatio * discreteValue);
-                    newBValue = (int) (blueRatio * discreteValue);
-
-                    // Pre-multiply the alpha for each colour component if the
-                    // image has a non-1.0 alpha component.
-                    if (!isAlphaless)
-                    {
-                    	newRValue *= alpha;
-                    	newGValue *= alpha;
-                    	newBValue *= alpha;
-                    }
-
-                    // Add the existing colour component values to the new
-                    // colour component values.
-                    rValue = ((buf[pix] & 0xFF000000) >> 24) + newRValue;
-                    gValue = ((buf[pix] & 0x00FF0000) >> 16) + newGValue;
-                    bValue = ((buf[pix] & 0x0000FF00) >>8) + newBValue;
-
-                    // Ensure that each colour component value is between 0 and
-                    // 255 (byte). We must make *certain* that values do not
-                    // wrap over 255 otherwise there will be corruption
-                    // introduced into the rendered image. The value may be over
-                    // 255 if we have mapped two high intensity channels to
-                    // the same color.
-                    if (rValue > 255) {
-                        rValue = 255;
+                    // into the correct colour component slot.
+                    for (int x = 0; x < width; x++) {
+                        buf[rowStart + x] |= 0x000000FF  // Alpha.
+                            | (row[x] & 0xFF) << colorOffset;
                     }
-                    if (gValue > 255) {
-                        gValue = 255;
-                    }
-                    if (bValue > 255) {
-                        bValue = 255;
-                    }
-
-                    // Packed each colour component along with a 1.0 alpha into
-                    // the buffer so that buffered images that use this buffer
-                    // can be type 1 (3 bands, pre-multiplied alpha) or type 2
-                    // (4 bands, alpha component included).
-                    buf[pix] = 0x000000FF | rValue << 24 | gValue << 16 | bValue<<8;
+                } else {
+                    packIntAsRGBA(row, buf, rowStart,
+                            rTables[i], gTables[i], bTables[i]);
                 }
             }
+        }
+    }
 
-            i++;
+    /**
+     * Composites a quantized row into a packed integer (RGBA) array.
+     *
+     * @param row The quantized values.
+     * @param buf The packed integer array.
+     * @param rowStart The offset of the first pixel of the row.
+     * @param rTable The red contribution of each quantized value.
+     * @param gTable The green contribution of each quantized value.
+     * @param bTable The blue contribution of each quantized value.
+     */
+    private static void packIntAsRGBA(byte[] row, int[] buf, int rowStart,
+            int[] rTable, int[] gTable, int[] bTable) {
+        int discreteValue, pix, v;
+        int rValue, gValue, bValue;
+        for (int x = 0; x < row.length; x++) {
+            pix = rowStart + x;
+            discreteValue = row[x] & 0xFF;
+
+            // Add the existing colour component values to the new
+            // colour component values.
+            v = buf[pix];
+            rValue = ((v & 0xFF000000) >> 24) + rTable[discreteValue];
+            gValue = ((v & 0x00FF0000) >> 16) + gTable[discreteValue];
+            bValue = ((v & 0x0000FF00) >> 8) + bTable[discreteValue];
+
+            // Ensure that each colour component value is between 0 and
+            // 255 (byte). We must make *certain* that values do not
+            // wrap over 255 otherwise there will be corruption
+            // introduced into the rendered image. The value may be over
+            // 255 if we have mapped two high intensity channels to
+            // the same color.
+            if (rValue > 255) {
+                rValue = 255;
+            }
+            if (gValue > 255) {
+                gValue = 255;
+            }
+            if (bValue > 255) {
+                bValue = 255;
+            }
+
+            // Packed each colour component along with a 1.0 alpha into
+            // the buffer so that buffered images that use this buffer
+            // can be type 1 (3 bands, pre-multiplied alpha) or type 2
+            // (4 bands, alpha component included).
+            buf[pix] = 0x000000FF | rValue << 24 | gValue << 16 | bValue << 8;
         }
     }
-    
+
     /**
      * Returns a color offset based on which color component is 0xFF.
      * @param color the color to check.
@@ -136,6 +136,9 @@ public class Renderer {
     /** Map of overlays we've currently been told to render. */
     private Map<byte[], Integer> overlays;
 
+    /** The pool used to render the regions of a plane concurrently. */
+    private RenderingExecutor executor;
+
     /**
      * Returns a copy of a list of channel bindings with one element removed;
      * the so called "other" channel bindings for the image.
@@ -330,6 +333,29 @@ public class Renderer {
     public Renderer(QuantumFactory quantumFactory,
     		List<RenderingModel> renderingModels, Pixels pixelsObj,
             RenderingDef renderingDefObj, PixelBuffer bufferObj) {
+        this(quantumFactory, renderingModels, pixelsObj, renderingDefObj,
+                bufferObj, null);
+    }
+
+    /**
+     * Creates a new instance to render the specified pixels set and get this
+     * new instance ready for rendering.
+     * 
+     * @param quantumFactory a populated quantum factory.
+     * @param renderingModels an enumerated list of all rendering models.
+     * @param pixelsObj Pixels object.
+     * @param renderingDefObj Rendering definition object.
+     * @param bufferObj PixelBuffer object.
+     * @param executor The pool used to render the regions of a plane. If
+     * <code>null</code>, {@link RenderingExecutor#getDefault()} is used.
+     * @throws NullPointerException If <code>null</code> parameters are passed.
+     */
+    public Renderer(QuantumFactory quantumFactory,
+    		List<RenderingModel> renderingModels, Pixels pixelsObj,
+            RenderingDef renderingDefObj, PixelBuffer bufferObj,
+            RenderingExecutor executor) {
+        this.executor = executor == null?
+                RenderingExecutor.getDefault() : executor;
         metadata = pixelsObj;
         rndDef = renderingDefObj;
         buffer = bufferObj;
@@ -654,6 +680,16 @@ public class Renderer {
         return stats;
     }
 
+    /**
+     * Returns the pool the rendering strategy uses to render the regions of
+     * a plane concurrently.
+     * 
+     * @return See above.
+     */
+    public RenderingExecutor getExecutor() {
+        return executor;
+    }
+
    
 
     //
@@ -0,0 +1,239 @@
+/*
+ * omeis.providers.re.RenderingExecutor
+ *
+ *   Copyright 2014 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+
+import omeis.providers.re.quantum.QuantizationException;
+
+/**
+ * Process-wide pool of worker threads used by the {@link RenderingStrategy}
+ * implementations to render the regions of a plane concurrently. A single
+ * instance is meant to be shared by all {@link Renderer} objects in the JVM
+ * so that rendering a plane no longer creates (and destroys) a thread pool.
+ * <p>
+ * The size of the regions handed to each {@link RenderingTask} is controlled
+ * by {@link #getRegionSize()}, which is the approximate number of pixels
+ * a single task should render.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class RenderingExecutor {
+
+    /** The logger for this particular class */
+    private static Logger log = LoggerFactory.getLogger(RenderingExecutor.class);
+
+    /** Default number of pixels rendered by a single task; a 256x256 tile. */
+    public static final int DEFAULT_REGION_SIZE = 256 * 256;
+
+    /** Lazily created instance used when none has been injected. */
+    private static RenderingExecutor defaultExecutor;
+
+    /** The pool executing the rendering tasks. */
+    private final ThreadPoolExecutor pool;
+
+    /** Approximate number of pixels rendered by a single task. */
+    private final int regionSize;
+
+    /** Number of tasks waiting in the queue when a new plane is submitted. */
+    private final Histogram queueDepth;
+
+    /** Time from the submission of a task to its completion. */
+    private final Timer taskLatency;
+
+    /**
+     * Returns the executor shared by all {@link Renderer} instances which have
+     * not been given one explicitly.
+     *
+     * @return See above.
+     */
+    public static synchronized RenderingExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new RenderingExecutor();
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Creates an executor with as many threads as there are processors,
+     * {@link #DEFAULT_REGION_SIZE} and no metrics.
+     */
+    public RenderingExecutor() {
+        this(0, DEFAULT_REGION_SIZE, new NullMetrics());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads The number of worker threads. If <code>0</code> or less,
+     *            the number of available processors is used.
+     * @param regionSize Approximate number of pixels rendered by a single
+     *            task. If <code>0</code> or less, {@link #DEFAULT_REGION_SIZE}
+     *            is used.
+     * @param metrics Used to report the queue depth and task latency.
+     */
+    public RenderingExecutor(int threads, int regionSize, Metrics metrics) {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.regionSize = regionSize > 0 ? regionSize : DEFAULT_REGION_SIZE;
+        this.queueDepth = metrics.histogram(this, "queueDepth");
+        this.taskLatency = metrics.timer(this, "taskLatency");
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new RenderingThreadFactory());
+        log.info("Rendering executor started with " + threads
+                + " threads and a region size of " + this.regionSize);
+    }
+
+    /**
+     * Returns the approximate number of pixels a single rendering task should
+     * process.
+     *
+     * @return See above.
+     */
+    public int getRegionSize() {
+        return regionSize;
+    }
+
+    /**
+     * Returns the number of rendering tasks waiting for a worker thread.
+     *
+     * @return See above.
+     */
+    public int getQueueSize() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Returns the mean latency of the recently run rendering tasks, from
+     * their queueing to their completion.
+     *
+     * @return See above, in milliseconds.
+     */
+    public double getRecentLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(
+                (long) taskLatency.getSnapshot().getMean()) / 1000.0;
+    }
+
+    /**
+     * Runs the passed tasks and waits for all of them to complete. All tasks
+     * but the first are queued on the shared pool; the first one is run in
+     * the calling thread.
+     *
+     * @param tasks The tasks to run.
+     * @throws QuantizationException If an error occurred while quantizing the
+     *             pixels raw data.
+     */
+    public void execute(RenderingTask[] tasks) throws QuantizationException {
+        if (tasks.length == 0) {
+            return;
+        }
+        queueDepth.update(pool.getQueue().size());
+        List<Future<Object>> futures =
+            new ArrayList<Future<Object>>(tasks.length - 1);
+        for (int i = 1; i < tasks.length; i++) {
+            futures.add(pool.submit(new TimedTask(tasks[i])));
+        }
+
+        // Call the first task in the current thread.
+        Throwable failure = null;
+        try {
+            new TimedTask(tasks[0]).call();
+        } catch (Throwable t) {
+            failure = t;
+        }
+
+        // Wait for all forked tasks (if any) to complete, even on failure,
+        // so that no task is still writing into the buffer when we return.
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure instanceof QuantizationException) {
+            throw (QuantizationException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Stops the worker threads. Called by Spring on context shutdown.
+     */
+    public void destroy() {
+        pool.shutdown();
+    }
+
+    /**
+     * Wraps a {@link RenderingTask} in order to record its latency.
+     */
+    private class TimedTask implements Callable<Object> {
+
+        private final RenderingTask task;
+
+        private final Timer.Context ctx;
+
+        TimedTask(RenderingTask task) {
+            this.task = task;
+            this.ctx = taskLatency.time();
+        }
+
+        public Object call() throws QuantizationException {
+            try {
+                return task.call();
+            } finally {
+                ctx.stop();
+            }
+        }
+    }
+
+    /**
+     * Creates named daemon threads so that an idle pool never prevents the
+     * JVM from exiting.
+     */
+    private static class RenderingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Rendering-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * omeis.providers.re.quantum.AbstractBinnedQuantization
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2015 University of Dundee. All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+
+package omeis.providers.re.quantum;
+
+import java.nio.ByteBuffer;
+
+import ome.model.core.Pixels;
+import ome.model.display.QuantumDef;
+import ome.util.PixelData;
+
+/**
+ * Quantization process for pixels types whose range is too large for a
+ * look-up table indexed by pixel value i.e. 32-bit integers and floating
+ * point values. The input window is divided into as many bins as there are
+ * values in the codomain interval (see {@link #getMiddleRange(double)}) and
+ * the mapped value of each bin is pre-computed in a small table. Quantizing a
+ * pixel is then a bin computation and an array lookup, without boxing.
+ * <p>
+ * The table is rebuilt lazily after each {@link #onWindowChange()}. It is
+ * immutable once built so a strategy can be used by several rendering tasks
+ * concurrently.
+ * </p>
+ *
+ * @since 5.1
+ */
+public abstract class AbstractBinnedQuantization extends QuantumStrategy {
+
+    /**
+     * The pre-computed mapped values for the current window. Replaced as a
+     * whole, never modified.
+     */
+    private volatile BinTable table;
+
+    /**
+     * Creates a new strategy.
+     *
+     * @param qd
+     *            Quantum definition object, contained mapping data.
+     * @param pixels
+     *            The pixels
+     */
+    protected AbstractBinnedQuantization(QuantumDef qd, Pixels pixels) {
+        super(qd, pixels);
+    }
+
+    /**
+     * Maps a value returned by {@link #getMiddleRange(double)} onto the
+     * codomain interval. Only invoked while building the table.
+     *
+     * @param value The value to handle.
+     * @return The mapped value.
+     * @throws QuantizationException Thrown if an error occurred during
+     *                               the mapping.
+     */
+    protected abstract int _quantize(double value)
+        throws QuantizationException;
+
+    /** The input window size changed, re-map the values. */
+    @Override
+    protected void onWindowChange() {
+        table = null;
+    }
+
+    /**
+     * Returns the table for the current window, building it if required.
+     *
+     * @return See above.
+     * @throws QuantizationException Thrown if an error occurred during
+     *                               the mapping.
+     */
+    private BinTable getTable() throws QuantizationException {
+        BinTable t = table;
+        if (t == null) {
+            synchronized (this) {
+                t = table;
+                if (t == null) {
+                    t = new BinTable();
+                    table = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Implemented as specified in {@link QuantumStrategy}.
+     *
+     * @see QuantumStrategy#quantize(double)
+     */
+    @Override
+    public int quantize(double value) throws QuantizationException {
+        return getTable().lookup(value) & 0xFF;
+    }
+
+    /**
+     * Overridden to read the values straight from the backing buffer of the
+     * pixel data, switching on the pixels type once per call.
+     *
+     * @see QuantumStrategy#quantize(PixelData, int, int, byte[])
+     */
+    @Override
+    public void quantize(PixelData data, int offset, int count, byte[] out)
+        throws QuantizationException {
+        BinTable t = getTable();
+        ByteBuffer buf = data.getData();
+        int pos = offset * data.bytesPerPixel();
+        switch (data.javaType()) {
+            case PixelData.INT:
+                if (data.isSigned()) {
+                    for (int i = 0; i < count; i++, pos += 4) {
+                        out[i] = t.lookup(buf.getInt(pos));
+                    }
+                } else {
+                    for (int i = 0; i < count; i++, pos += 4) {
+                        out[i] = t.lookup(buf.getInt(pos) & 0xFFFFFFFFL);
+                    }
+                }
+                break;
+            case PixelData.FLOAT:
+                for (int i = 0; i < count; i++, pos += 4) {
+                    out[i] = t.lookup(buf.getFloat(pos));
+                }
+                break;
+            case PixelData.DOUBLE:
+                for (int i = 0; i < count; i++, pos += 8) {
+                    out[i] = t.lookup(buf.getDouble(pos));
+                }
+                break;
+            default:
+                super.quantize(data, offset, count, out);
+        }
+    }
+
+    /**
+     * The mapped value of every bin of the input window. Mirrors the binning
+     * performed by {@link QuantumStrategy#getMiddleRange(double)} so that the
+     * values returned are identical to mapping the middle of each range.
+     */
+    private class BinTable {
+
+        /** The lower bound of the input window. */
+        private final double start;
+
+        /** The upper bound of the input window. */
+        private final double end;
+
+        /** The width of a bin. */
+        private final double step;
+
+        /** The mapped value of values lower than the window start. */
+        private final byte below;
+
+        /** The mapped value of values greater than the window end. */
+        private final byte above;
+
+        /** The mapped value of the window start. */
+        private final byte atStart;
+
+        /** The mapped value of each bin, indexed as in getMiddleRange. */
+        private final byte[] bins;
+
+        BinTable() throws QuantizationException {
+            start = getWindowStart();
+            end = getWindowEnd();
+            step = Math.abs(end - start)
+                    / (qDef.getCdEnd() - qDef.getCdStart() + 1);
+            below = (byte) _quantize(start);
+            above = (byte) _quantize(end);
+            atStart = (byte) _quantize(start + step / 2);
+            int n = step > 0 ? (int) ((end - start) / step) + 1 : 0;
+            bins = new byte[n];
+            for (int v = 0; v < n; v++) {
+                bins[v] = (byte) _quantize(
+                        (start + (v - 1) * step + start + v * step) / 2);
+            }
+        }
+
+        /**
+         * Returns the mapped value of the passed pixel intensity.
+         *
+         * @param value The pixel intensity value.
+         * @return See above.
+         * @throws QuantizationException Thrown if an error occurred during
+         *                               the mapping.
+         */
+        byte lookup(double value) throws QuantizationException {
+            if (value < start) return below;
+            if (value > end) return above;
+            if (value == start) return atStart;
+            int v = (int) ((value - start) / step);
+            if (v >= 0 && v < bins.length) {
+                return bins[v];
+            }
+            // Only reachable through rounding at the end of the window.
+            return (byte) _quantize(getMiddleRange(value));
+        }
+    }
+
+}
@@ -23,13 +23,6 @@
 
 package omeis.providers.re.quantum;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
 
@@ -47,7 +40,7 @@ import ome.model.display.QuantumDef;
  *          <a href="mailto:j.burel@dundee.ac.uk">j.burel@dundee.ac.uk</a>
  * @since OME5.1
  */
-public class Quantization_32_bit extends QuantumStrategy {
+public class Quantization_32_bit extends AbstractBinnedQuantization {
 
     /** The lowest pixel intensity value. */
     private int min;
@@ -82,9 +75,6 @@ public class Quantization_32_bit extends QuantumStrategy {
      */
     private int cdStart, cdEnd;
 
-    /** The mapped values.*/
-    private LoadingCache<Double, Integer> values;
-
     /**
      * Initializes the coefficient of the normalize mapping operation.
      *
@@ -157,12 +147,6 @@ public class Quantization_32_bit extends QuantumStrategy {
         return v;
     }
 
-    /** The input window size changed, re-map the values. */
-    @Override
-    protected void onWindowChange() {
-        values.invalidateAll();
-    }
-
     /**
      * Maps the value.
      *
@@ -171,7 +155,8 @@ public class Quantization_32_bit extends QuantumStrategy {
      * @throws QuantizationException Thrown if an error occurred during
      *                               the mapping.
      */
-    private int _quantize(double value)
+    @Override
+    protected int _quantize(double value)
                 throws QuantizationException
     {
         double dStart = getWindowStart(), dEnd = getWindowEnd();
@@ -211,27 +196,6 @@ public class Quantization_32_bit extends QuantumStrategy {
      */
     public Quantization_32_bit(QuantumDef qd, Pixels pixels) {
         super(qd, pixels);
-        values = CacheBuilder.newBuilder()
-                .expireAfterWrite(10, TimeUnit.MINUTES)
-                .build(new CacheLoader<Double, Integer>() {
-                    public Integer load(Double key) throws Exception {
-                        return _quantize(key);
-                    }
-                });
-    }
-
-    /**
-     * Implemented as specified in {@link QuantumStrategy}.
-     *
-     * @see QuantumStrategy#quantize(double)
-     */
-    @Override
-    public int quantize(double value) throws QuantizationException {
-        try {
-            return values.get(getMiddleRange(value));
-        } catch (ExecutionException e) {
-            throw new QuantizationException(e);
-        }
     }
 
 }
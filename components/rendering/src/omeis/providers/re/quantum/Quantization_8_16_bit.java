@@ -7,8 +7,11 @@
 
 package omeis.providers.re.quantum;
 
+import java.nio.ByteBuffer;
+
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
+import ome.util.PixelData;
 
 /**
  * Quantization process. In charge of building a look-up table for each active
@@ -293,7 +296,55 @@ public class Quantization_8_16_bit extends QuantumStrategy {
      */
     @Override
     public int quantize(double value) throws QuantizationException {
-        int x = (int) value;
+        return lookup((int) value);
+    }
+
+    /**
+     * Overridden to read the values straight from the backing buffer of the
+     * pixel data, switching on the pixels type once per call.
+     *
+     * @see QuantumStrategy#quantize(PixelData, int, int, byte[])
+     */
+    @Override
+    public void quantize(PixelData data, int offset, int count, byte[] out)
+        throws QuantizationException {
+        ByteBuffer buf = data.getData();
+        int pos = offset * data.bytesPerPixel();
+        switch (data.javaType()) {
+            case PixelData.BYTE:
+                if (data.isSigned()) {
+                    for (int i = 0; i < count; i++, pos++) {
+                        out[i] = (byte) lookup(buf.get(pos));
+                    }
+                } else {
+                    for (int i = 0; i < count; i++, pos++) {
+                        out[i] = (byte) lookup(buf.get(pos) & 0xFF);
+                    }
+                }
+                break;
+            case PixelData.SHORT:
+                if (data.isSigned()) {
+                    for (int i = 0; i < count; i++, pos += 2) {
+                        out[i] = (byte) lookup(buf.getShort(pos));
+                    }
+                } else {
+                    for (int i = 0; i < count; i++, pos += 2) {
+                        out[i] = (byte) lookup(buf.getShort(pos) & 0xFFFF);
+                    }
+                }
+                break;
+            default:
+                super.quantize(data, offset, count, out);
+        }
+    }
+
+    /**
+     * Maps the passed value onto the codomain interval using the LUT.
+     *
+     * @param x The value to map.
+     * @return The mapped value.
+     */
+    private int lookup(int x) {
         if (x < lutMin) {
             double r = getOriginalGlobalMax()-getOriginalGlobalMin();
             if (r != 0) {
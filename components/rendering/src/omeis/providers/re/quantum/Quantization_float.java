@@ -23,16 +23,9 @@
 
 package omeis.providers.re.quantum;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-
 /**
  * Quantization process. In charge of building a look-up table for each active
  * wavelength. The mapping process is done in three mapping steps, for some
@@ -47,7 +40,7 @@ import com.google.common.cache.LoadingCache;
  *          <a href="mailto:j.burel@dundee.ac.uk">j.burel@dundee.ac.uk</a>
  * @since OME5.1
  */
-public class Quantization_float extends QuantumStrategy {
+public class Quantization_float extends AbstractBinnedQuantization {
 
     /** The lowest pixel intensity value. */
     private int min;
@@ -82,9 +75,6 @@ public class Quantization_float extends QuantumStrategy {
      */
     private int cdStart, cdEnd;
 
-    /** The mapped values.*/
-    private LoadingCache<Double, Integer> values;
-
     /**
      * Initializes the coefficient of the normalize mapping operation.
      *
@@ -157,12 +147,6 @@ public class Quantization_float extends QuantumStrategy {
         return v;
     }
 
-    /** The input window size changed, re-map the values. */
-    @Override
-    protected void onWindowChange() {
-        values.invalidateAll();
-    }
-
     /**
      * Creates a new strategy.
      *
@@ -173,13 +157,6 @@ public class Quantization_float extends QuantumStrategy {
      */
     public Quantization_float(QuantumDef qd, Pixels pixels) {
         super(qd, pixels);
-        values = CacheBuilder.newBuilder()
-                .expireAfterWrite(10, TimeUnit.MINUTES)
-                .build(new CacheLoader<Double, Integer>() {
-                    public Integer load(Double key) throws Exception {
-                        return _quantize(key);
-                    }
-                });
     }
 
     /**
@@ -190,7 +167,8 @@ public class Quantization_float extends QuantumStrategy {
      * @throws QuantizationException Thrown if an error occurred during
      *                               the mapping.
      */
-    private int _quantize(double value)
+    @Override
+    protected int _quantize(double value)
                 throws QuantizationException
     {
         double dStart = getWindowStart(), dEnd = getWindowEnd();
@@ -220,18 +198,4 @@ public class Quantization_float extends QuantumStrategy {
         return ((byte) v) & 0xFF;
     }
 
-    /**
-     * Implemented as specified in {@link QuantumStrategy}.
-     *
-     * @see QuantumStrategy#quantize(double)
-     */
-    @Override
-    public int quantize(double value) throws QuantizationException {
-        try {
-            return values.get(getMiddleRange(value));
-        } catch (ExecutionException e) {
-            throw new QuantizationException(e);
-        }
-    }
-
 }
@@ -10,6 +10,7 @@ package omeis.providers.re.quantum;
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
 import ome.model.enums.Family;
+import ome.util.PixelData;
 
 import omeis.providers.re.data.PlaneFactory;
 import omeis.providers.re.metadata.StatsFactory;
@@ -451,4 +452,29 @@ public abstract class QuantumStrategy {
      */
     public abstract int quantize(double value) throws QuantizationException;
 
+    /**
+     * Maps a run of consecutive pixel intensity values onto the codomain
+     * interval. The value of the pixel at <code>offset + i</code> is stored
+     * at index <code>i</code> of <code>out</code>. Subclasses are encouraged
+     * to override this method with a version which does not convert each
+     * value through {@link PixelData#getPixelValue(int)}.
+     *
+     * @param data
+     *            The pixel data to quantize.
+     * @param offset
+     *            The offset, in pixels, of the first value to quantize.
+     * @param count
+     *            The number of values to quantize.
+     * @param out
+     *            The array receiving the quantized values.
+     * @throws QuantizationException
+     *             If one of the values could not be mapped.
+     */
+    public void quantize(PixelData data, int offset, int count, byte[] out)
+        throws QuantizationException {
+        for (int i = 0; i < count; i++) {
+            out[i] = (byte) quantize(data.getPixelValue(offset + i));
+        }
+    }
+
 }
@@ -0,0 +1,79 @@
+/*
+ * omeis.providers.re.TestRenderingExecutor
+ *
+ *   Copyright 2014 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.system.metrics.NullMetrics;
+import omeis.providers.re.quantum.QuantizationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test cases for {@link RenderingExecutor}.
+ */
+@Test
+public class TestRenderingExecutor {
+
+    final RenderingExecutor executor =
+        new RenderingExecutor(2, 16, new NullMetrics());
+
+    @AfterClass
+    public void shutdown() {
+        executor.destroy();
+    }
+
+    private RenderingTask[] counting(final AtomicInteger count, int n) {
+        RenderingTask[] tasks = new RenderingTask[n];
+        for (int i = 0; i < n; i++) {
+            tasks[i] = new RenderingTask() {
+                public Object call() {
+                    count.incrementAndGet();
+                    return null;
+                }
+            };
+        }
+        return tasks;
+    }
+
+    public void testAllTasksRun() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        executor.execute(counting(count, 50));
+        Assert.assertEquals(count.get(), 50);
+    }
+
+    public void testNoTasks() throws Exception {
+        executor.execute(new RenderingTask[0]);
+    }
+
+    public void testRegionSize() {
+        Assert.assertEquals(executor.getRegionSize(), 16);
+        RenderingExecutor other = new RenderingExecutor(1, 0, new NullMetrics());
+        try {
+            Assert.assertEquals(other.getRegionSize(),
+                    RenderingExecutor.DEFAULT_REGION_SIZE);
+        } finally {
+            other.destroy();
+        }
+    }
+
+    @Test(expectedExceptions = QuantizationException.class)
+    public void testQuantizationExceptionPropagates() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        RenderingTask[] tasks = counting(count, 4);
+        tasks[3] = new RenderingTask() {
+            public Object call() throws QuantizationException {
+                throw new QuantizationException("failed");
+            }
+        };
+        executor.execute(tasks);
+    }
+
+}
@@ -30,6 +30,7 @@ import ome.conditions.ResourceError;
 import ome.io.nio.ConfiguredTileSizes;
 import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
+import ome.io.nio.TileCache;
 import ome.io.nio.TileSizes;
 import ome.model.core.Pixels;
 import ome.util.PixelData;
@@ -123,6 +124,30 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
 
     public static final String PYR_LOCK_EXT = ".pyr_lock";
 
+    // CONCURRENT READS
+
+    /**
+     * Maximum number of readers used to serve tile, region and row reads
+     * concurrently. If <code>1</code> or less these reads, like all the
+     * others, go through the delegate while holding the monitor of this
+     * instance.
+     */
+    private volatile int maxReaders = 1;
+
+    /**
+     * The readers of the concurrent read mode, shared with the other
+     * instances reading the same pyramid file. Acquired on the first
+     * concurrent read and released on close; guarded by the monitor of this
+     * instance.
+     */
+    private PyramidReaderPool readerPool;
+
+    /**
+     * Server-wide cache of decoded tiles, shared with the other buffers
+     * created by the pixels service. May be <code>null</code>.
+     */
+    private volatile TileCache tileCache;
+
     /**
      * We may want a constructor that takes the id of an imported file
      * or that takes a File object?
@@ -451,6 +476,178 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         }
     }
 
+    /**
+     * Sets the maximum number of Bio-Formats readers open on the pyramid
+     * file so that tiles can be decoded by several threads at once. The
+     * readers are shared by all the instances reading the file, so the
+     * maximum applies to the file rather than to this instance, and is the
+     * one of the first instance to read it concurrently. Only used once the
+     * pyramid has been written; the writer path is unaffected.
+     * @param maxReaders The number of readers. <code>1</code> or less
+     * serializes all reads on this instance.
+     */
+    public void setConcurrentReaders(int maxReaders)
+    {
+        this.maxReaders = maxReaders;
+    }
+
+    /**
+     * Sets the cache the decoded tiles of the pyramid are looked up in and
+     * added to by {@link #getTile} and {@link #getTileDirect}.
+     * @param tileCache The cache, <code>null</code> to disable caching.
+     */
+    public void setTileCache(TileCache tileCache)
+    {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Returns a copy of a cached tile, in the byte order of the pyramid.
+     * @return See above or <code>null</code> if the tile is not cached or
+     * caching is disabled.
+     */
+    private byte[] getCachedTile(int t, int resolutionLevel, int x, int y,
+            int w, int h)
+    {
+        TileCache cache = tileCache;
+        if (cache == null || pixels.getId() == null)
+        {
+            return null;
+        }
+        return cache.get(new TileCache.Key(pixels.getId(), resolutionLevel,
+                0, 0, t, x, y, w, h));
+    }
+
+    /**
+     * Adds a tile, in the byte order of the pyramid, to the cache if
+     * caching is enabled.
+     */
+    private void cacheTile(int t, int resolutionLevel, int x, int y,
+            int w, int h, byte[] tile)
+    {
+        TileCache cache = tileCache;
+        if (cache != null && pixels.getId() != null)
+        {
+            cache.put(new TileCache.Key(pixels.getId(), resolutionLevel,
+                    0, 0, t, x, y, w, h), tile);
+        }
+    }
+
+    /**
+     * Swaps the bytes of each sample of a buffer in the byte order of the
+     * pyramid so that it is big-endian, as returned by the
+     * <code>*Direct</code> methods.
+     */
+    private byte[] toBigEndian(byte[] buffer, int length)
+    {
+        if (byteOrder != ByteOrder.LITTLE_ENDIAN)
+        {
+            return buffer;
+        }
+        int width = FormatTools.getBytesPerPixel(FormatTools.pixelTypeFromString(
+                pixels.getPixelsType().getValue()));
+        for (int i = 0; i + width <= length; i += width)
+        {
+            for (int lo = i, hi = i + width - 1; lo < hi; lo++, hi--)
+            {
+                byte b = buffer[lo];
+                buffer[lo] = buffer[hi];
+                buffer[hi] = b;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Releases the readers of the concurrent read mode. Readers in use are
+     * given back to the pool, or closed, when their read completes.
+     */
+    private synchronized void releaseReaders()
+    {
+        if (readerPool != null)
+        {
+            readerPool.release();
+            readerPool = null;
+        }
+    }
+
+    /**
+     * A read performed against a single Bio-Formats backed buffer.
+     */
+    private abstract class Read<T>
+    {
+        /**
+         * Looks up the result of the read in the tile cache before any
+         * buffer is used. Returns <code>null</code> by default.
+         * @param t The rasterized timepoint.
+         * @param resolutionLevel The current resolution level.
+         * @return See above or <code>null</code> to perform the read.
+         */
+        T cached(int t, int resolutionLevel)
+        {
+            return null;
+        }
+
+        /**
+         * Performs the read.
+         * @param buffer The buffer to read from.
+         * @param t The rasterized timepoint; z-section and channel are
+         * always <code>0</code>.
+         * @return See above.
+         * @throws IOException If the read failed.
+         */
+        abstract T read(BfPixelBuffer buffer, int t) throws IOException;
+    }
+
+    /**
+     * Performs a read either through the delegate, holding the monitor of
+     * this instance, or, if concurrent reads are enabled and the pyramid has
+     * been written, through a pooled reader without holding it. Neither is
+     * used if the result is found in the tile cache.
+     * @param z Z-section offset requested.
+     * @param c Channel offset requested.
+     * @param t Timepoint offset requested.
+     * @param read The read to perform.
+     * @return The value returned by <code>read</code>.
+     * @throws IOException If the read failed.
+     */
+    private <T> T read(int z, int c, int t, Read<T> read) throws IOException
+    {
+        int resolutionLevel;
+        PyramidReaderPool pool;
+        synchronized (this)
+        {
+            int rasterizedT = getRasterizedT(z, c, t);
+            boolean serialized = maxReaders <= 1 || isWrite();
+            BfPixelBuffer delegate = delegate();
+            resolutionLevel = delegate.getResolutionLevel();
+            T cached = read.cached(rasterizedT, resolutionLevel);
+            if (cached != null)
+            {
+                return cached;
+            }
+            if (serialized)
+            {
+                return read.read(delegate, rasterizedT);
+            }
+            t = rasterizedT;
+            if (readerPool == null)
+            {
+                readerPool = PyramidReaderPool.acquire(readerFile, maxReaders);
+            }
+            pool = readerPool;
+        }
+        BfPixelBuffer buffer = pool.borrow(resolutionLevel);
+        try
+        {
+            return read.read(buffer, t);
+        }
+        finally
+        {
+            pool.giveBack(buffer);
+        }
+    }
+
     /**
      * Whether or not this instance is in writing-mode. Any of the calls to reader
      * methods called while this method returns true will close the writer,
@@ -645,6 +842,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      */
     public synchronized void close() throws IOException
     {
+        releaseReaders();
         try
         {
             if (delegate != null)
@@ -804,18 +1002,21 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegion(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlaneRegion(Integer x, Integer y,
-            Integer width, Integer height, Integer z, Integer c, Integer t,
-            Integer stride)
+    public PixelData getPlaneRegion(final Integer x, final Integer y,
+            final Integer width, final Integer height, Integer z, Integer c,
+            Integer t, final Integer stride)
             throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data =
-            delegate().getPlaneRegion(x, y, width, height, z, c, t, stride);
-        data.setOrder(byteOrder);
-        return data;
+        return read(z, c, t, new Read<PixelData>() {
+            public PixelData read(BfPixelBuffer buffer, int t)
+                throws IOException
+            {
+                PixelData data =
+                    buffer.getPlaneRegion(x, y, width, height, 0, 0, t, stride);
+                data.setOrder(byteOrder);
+                return data;
+            }
+        });
     }
 
     /* (non-Javadoc)
@@ -859,29 +1060,35 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRow(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getRow(Integer y, Integer z, Integer c,
-                                         Integer t)
+    public PixelData getRow(final Integer y, Integer z, Integer c,
+                            Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data = delegate().getRow(y, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        return read(z, c, t, new Read<PixelData>() {
+            public PixelData read(BfPixelBuffer buffer, int t)
+                throws IOException
+            {
+                PixelData data = buffer.getRow(y, 0, 0, t);
+                data.setOrder(byteOrder);
+                return data;
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getRowDirect(Integer y, Integer z, Integer c,
-            Integer t, byte[] buffer)
+    public byte[] getRowDirect(final Integer y, Integer z, Integer c,
+            Integer t, final byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getRowDirect(y, z, c, t, buffer);
+        return read(z, c, t, new Read<byte[]>() {
+            public byte[] read(BfPixelBuffer reader, int t)
+                throws IOException
+            {
+                return reader.getRowDirect(y, 0, 0, t, buffer);
+            }
+        });
     }
 
     /* (non-Javadoc)
@@ -1003,30 +1210,73 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTile(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getTile(Integer z, Integer c, Integer t,
-            Integer x, Integer y, Integer w, Integer h) throws IOException
+    public PixelData getTile(Integer z, Integer c, Integer t,
+            final Integer x, final Integer y, final Integer w, final Integer h)
+        throws IOException
     {
         checkTileParameters(x, y, w, h);
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        PixelData data = delegate().getTile(z, c, t, x, y, w, h);
-        data.setOrder(byteOrder);
-        return data;
+        return read(z, c, t, new Read<PixelData>() {
+            PixelData cached(int t, int resolutionLevel)
+            {
+                byte[] tile = getCachedTile(t, resolutionLevel, x, y, w, h);
+                if (tile == null)
+                {
+                    return null;
+                }
+                PixelData data = new PixelData(
+                        pixels.getPixelsType().getValue(), ByteBuffer.wrap(tile));
+                data.setOrder(byteOrder);
+                return data;
+            }
+
+            public PixelData read(BfPixelBuffer buffer, int t)
+                throws IOException
+            {
+                PixelData data = buffer.getTile(0, 0, t, x, y, w, h);
+                cacheTile(t, buffer.getResolutionLevel(), x, y, w, h,
+                        data.getData().array());
+                data.setOrder(byteOrder);
+                return data;
+            }
+        });
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTileDirect(Integer z, Integer c, Integer t,
-            Integer x, Integer y, Integer w, Integer h, byte[] buffer)
+    public byte[] getTileDirect(Integer z, Integer c, Integer t,
+            final Integer x, final Integer y, final Integer w, final Integer h,
+            final byte[] buffer)
         throws IOException
     {
         checkTileParameters(x, y, w, h);
-        t = getRasterizedT(z, c, t);
-        c = 0;
-        z = 0;
-        return delegate().getTileDirect(z, c, t, x, y, w, h, buffer);
+        return read(z, c, t, new Read<byte[]>() {
+            byte[] cached(int t, int resolutionLevel)
+            {
+                byte[] tile = getCachedTile(t, resolutionLevel, x, y, w, h);
+                if (tile == null)
+                {
+                    return null;
+                }
+                System.arraycopy(tile, 0, buffer, 0, tile.length);
+                return toBigEndian(buffer, tile.length);
+            }
+
+            public byte[] read(BfPixelBuffer reader, int t)
+                throws IOException
+            {
+                if (tileCache == null)
+                {
+                    return reader.getTileDirect(0, 0, t, x, y, w, h, buffer);
+                }
+                // Cache the tile as decoded, before the bytes are swapped.
+                byte[] tile = reader.getTile(0, 0, t, x, y, w, h)
+                        .getData().array();
+                cacheTile(t, reader.getResolutionLevel(), x, y, w, h, tile);
+                System.arraycopy(tile, 0, buffer, 0, tile.length);
+                return toBigEndian(buffer, tile.length);
+            }
+        });
     }
 
     /* (non-Javadoc)
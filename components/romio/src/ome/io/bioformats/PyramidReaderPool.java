@@ -0,0 +1,246 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of Bio-Formats readers opened on a single pyramid file. The pool of
+ * a file is shared by all the {@link BfPyramidPixelBuffer} instances of the
+ * JVM reading it, so that at most a fixed number of readers, and of file
+ * handles, are open on each pyramid however many sessions or rendering
+ * engines have it open.
+ * <p>
+ * Pools are reference counted: {@link #acquire(File, int)} returns the pool
+ * of a file, creating it if needed, and {@link #release()} closes its
+ * readers once no buffer uses it any more. A pyramid which is written anew
+ * gets a new pool, so that readers are never shared between the old and the
+ * new file.
+ * </p>
+ *
+ * @since 5.1
+ */
+class PyramidReaderPool {
+
+    private final static Logger log = LoggerFactory.getLogger(PyramidReaderPool.class);
+
+    /** The pools in use, by {@link #key(File)}. Also guards references. */
+    private static final Map<String, PyramidReaderPool> pools =
+        new HashMap<String, PyramidReaderPool>();
+
+    /**
+     * Returns the pool of readers of a pyramid file, creating it with the
+     * given maximum number of readers if no buffer is using one. Must be
+     * matched by a call to {@link #release()}.
+     * @param file The pyramid file, which must have been written.
+     * @param maxReaders The maximum number of readers of a new pool.
+     * @return See above.
+     */
+    static PyramidReaderPool acquire(File file, int maxReaders)
+    {
+        String key = key(file);
+        synchronized (pools)
+        {
+            PyramidReaderPool pool = pools.get(key);
+            if (pool == null)
+            {
+                pool = new PyramidReaderPool(key, file, maxReaders);
+                pools.put(key, pool);
+            }
+            pool.references++;
+            return pool;
+        }
+    }
+
+    /**
+     * Identifies a pyramid file by its path and, so that a pyramid written
+     * anew is not read with the readers of the old one, by its modification
+     * time and length.
+     */
+    private static String key(File file)
+    {
+        return file.getAbsolutePath() + ":" + file.lastModified() + ":"
+            + file.length();
+    }
+
+    private final String key;
+
+    private final File file;
+
+    private final int maxReaders;
+
+    /** Number of buffers using the pool, guarded by {@link #pools}. */
+    private int references;
+
+    /**
+     * Readers which are not in use. Also guards {@link #openReaders} and
+     * {@link #closed}.
+     */
+    private final Deque<BfPixelBuffer> idleReaders =
+        new ArrayDeque<BfPixelBuffer>();
+
+    /** Number of readers, idle or in use. */
+    private int openReaders;
+
+    /**
+     * Set once no buffer uses the pool. Readers in use at that time are
+     * closed, rather than pooled, when they are returned.
+     */
+    private boolean closed;
+
+    private PyramidReaderPool(String key, File file, int maxReaders)
+    {
+        this.key = key;
+        this.file = file;
+        this.maxReaders = Math.max(maxReaders, 1);
+    }
+
+    /**
+     * Takes an idle reader from the pool, opening a new one if the maximum
+     * has not been reached and waiting for one to be returned otherwise.
+     * Must be matched by a call to {@link #giveBack(BfPixelBuffer)}.
+     * @param resolutionLevel The resolution level the reader must be set to.
+     * @return See above.
+     * @throws IOException If interrupted while waiting for a reader.
+     */
+    BfPixelBuffer borrow(int resolutionLevel) throws IOException
+    {
+        BfPixelBuffer buffer = null;
+        synchronized (idleReaders)
+        {
+            while (buffer == null)
+            {
+                buffer = idleReaders.poll();
+                if (buffer != null)
+                {
+                    break;
+                }
+                if (openReaders < maxReaders)
+                {
+                    openReaders++;
+                    break;
+                }
+                try
+                {
+                    idleReaders.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for a reader.");
+                }
+            }
+        }
+        try
+        {
+            if (buffer == null)
+            {
+                buffer = new BfPixelBuffer(file.getAbsolutePath(),
+                        new OmeroPixelsPyramidReader());
+            }
+            if (buffer.getResolutionLevel() != resolutionLevel)
+            {
+                buffer.setResolutionLevel(resolutionLevel);
+            }
+            return buffer;
+        }
+        catch (Exception e)
+        {
+            discard(buffer);
+            if (e instanceof RuntimeException)
+            {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gives a reader back to the pool, closing it if the pool has been
+     * closed in the meantime.
+     * @param buffer The reader to return.
+     */
+    void giveBack(BfPixelBuffer buffer)
+    {
+        synchronized (idleReaders)
+        {
+            if (!closed)
+            {
+                idleReaders.push(buffer);
+                idleReaders.notify();
+                return;
+            }
+        }
+        discard(buffer);
+    }
+
+    /**
+     * Closes a reader which is not returned to the pool.
+     * @param buffer The reader, may be <code>null</code> if it could not be
+     * created.
+     */
+    private void discard(BfPixelBuffer buffer)
+    {
+        synchronized (idleReaders)
+        {
+            openReaders--;
+            idleReaders.notify();
+        }
+        if (buffer != null)
+        {
+            try
+            {
+                buffer.close();
+            }
+            catch (Exception e)
+            {
+                log.warn("Failed to close pooled reader", e);
+            }
+        }
+    }
+
+    /**
+     * Called by a buffer which no longer uses the pool. Once no buffer
+     * does, closes all idle readers; readers in use are closed when
+     * returned.
+     */
+    void release()
+    {
+        synchronized (pools)
+        {
+            if (--references > 0)
+            {
+                return;
+            }
+            if (pools.get(key) == this)
+            {
+                pools.remove(key);
+            }
+        }
+        List<BfPixelBuffer> toClose;
+        synchronized (idleReaders)
+        {
+            closed = true;
+            toClose = new ArrayList<BfPixelBuffer>(idleReaders);
+            idleReaders.clear();
+            idleReaders.notifyAll();
+        }
+        for (BfPixelBuffer buffer : toClose)
+        {
+            discard(buffer);
+        }
+    }
+}
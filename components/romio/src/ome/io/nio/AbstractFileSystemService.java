@@ -102,6 +102,16 @@ public class AbstractFileSystemService {
         return getPath(THUMBNAILS_PATH, id);
     }
 
+    /**
+     * Returns the path of the directory holding the thumbnails which are
+     * packed by {@link PackedThumbnailStore}, "ROOT/Thumbnails/Packed".
+     *
+     * @return       the path of the directory
+     */
+    public String getThumbnailPackPath() {
+        return root + File.separatorChar + THUMBNAILS_PATH + "Packed";
+    }
+
     private String getPath(String prefix, Long id) {
         String suffix = "";
         Long remaining = id;
@@ -0,0 +1,910 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.io.nio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only store of many small blobs, such as thumbnails, keyed by a
+ * positive ID. Instead of a file per blob, blobs are appended to segment
+ * files of a fixed size and located through an open-addressing hash table
+ * kept in a memory-mapped index file. Segments are neither mapped nor kept
+ * open between calls: each call opens the segments it needs and reads or
+ * writes them with positional I/O, so the number of segments does not
+ * bound the address space or file handles of the JVM.
+ * <p>
+ * Replaced and removed blobs leave garbage in their segment which is
+ * counted in the segment's header. Once more than half of a segment other
+ * than the one being appended to is garbage, {@link #remove(Collection)}
+ * compacts it by appending its remaining blobs anew and deleting the
+ * segment file.
+ * </p>
+ * <p>
+ * Every record in a segment repeats the ID and length of its blob and holds
+ * a CRC32 of its content, so a lookup whose index slot is being written by
+ * another process, or whose record was not completely written before a
+ * crash, is detected and treated as a miss. As the blobs held can be
+ * recreated, neither the index
+ * nor the segments are forced to disk on each write. The segment being
+ * appended to and the index are forced only when the segment is full and
+ * the next one is begun, and the index when it is rehashed. After a crash
+ * the blobs stored since the last segment was begun may therefore be
+ * missing, but no other blob is lost.
+ * </p>
+ * <p>
+ * All the instances for a directory in one JVM must be shared, see
+ * {@link #getInstance(File)}. Writers in different processes are serialized
+ * by a lock on the <code>lock</code> file in the directory.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class PackedThumbnailStore {
+
+    private final static Logger log = LoggerFactory.getLogger(PackedThumbnailStore.class);
+
+    /** Default size of a segment file, 64 MiB. */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAGIC = 0x4f545042; // "OTPB"
+
+    private static final int VERSION = 2;
+
+    /*
+     * Layout of the index header: magic, version, capacity (slots),
+     * used slots (live and removed), live slots, active segment,
+     * append position in the active segment, moved flag.
+     */
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_CAPACITY = 8;
+    private static final int H_USED = 16;
+    private static final int H_LIVE = 24;
+    private static final int H_SEGMENT = 32;
+    private static final int H_POSITION = 36;
+    private static final int H_MOVED = 40;
+
+    /* Layout of an index slot: ID, segment, offset, length. */
+    private static final int SLOT_SIZE = 24;
+    private static final int S_SEGMENT = 8;
+    private static final int S_OFFSET = 12;
+    private static final int S_LENGTH = 16;
+
+    /** ID of a slot which has never been used. */
+    private static final long EMPTY = 0;
+
+    /** ID of a slot whose blob has been removed. */
+    private static final long REMOVED = -1;
+
+    /** Initial number of slots in the index. */
+    private static final long INITIAL_CAPACITY = 1 << 16;
+
+    /** Number of slots mapped by each buffer of the index. */
+    private static final int SLOTS_PER_CHUNK = 1 << 25;
+
+    /** Header of a segment: the number of garbage bytes it holds. */
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    /* Layout of a record header: the blob's ID, length and CRC32. */
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int R_LENGTH = 8;
+    private static final int R_CRC = 12;
+
+    private static final ConcurrentMap<String, PackedThumbnailStore> instances =
+            new ConcurrentHashMap<String, PackedThumbnailStore>();
+
+    /**
+     * Returns the store for the given directory that is shared within this
+     * JVM, creating it if necessary. The directory itself is only created
+     * once the first blob is stored.
+     * @param directory the directory holding the store
+     * @return the store
+     */
+    public static PackedThumbnailStore getInstance(File directory) {
+        final String key = directory.getAbsolutePath();
+        PackedThumbnailStore store = instances.get(key);
+        if (store == null) {
+            final PackedThumbnailStore newStore =
+                    new PackedThumbnailStore(directory, DEFAULT_SEGMENT_SIZE);
+            store = instances.putIfAbsent(key, newStore);
+            if (store == null) {
+                store = newStore;
+            }
+        }
+        return store;
+    }
+
+    private final File directory;
+
+    private final File indexFile;
+
+    private final int segmentSize;
+
+    private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+
+    /** The index header, <code>null</code> if the index does not exist yet. */
+    private MappedByteBuffer header;
+
+    /** The index slots, in chunks of {@link #SLOTS_PER_CHUNK}. */
+    private MappedByteBuffer[] chunks;
+
+    private long capacity;
+
+    /**
+     * Creates a store which is not shared. Used primarily during testing,
+     * otherwise see {@link #getInstance(File)}.
+     * @param directory the directory holding the store
+     * @param segmentSize the size of each segment file
+     */
+    public PackedThumbnailStore(File directory, int segmentSize) {
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException(
+                    "segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.indexFile = new File(directory, "index");
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return the directory holding the store
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    //
+    // Reading
+    //
+
+    /**
+     * Returns a read-only copy of a blob.
+     * @param id the blob's ID
+     * @return the blob or <code>null</code> if it is not stored
+     * @throws IOException if the store could not be read
+     */
+    public ByteBuffer get(long id) throws IOException {
+        final Map<Long, ByteBuffer> blobs = get(Arrays.asList(id));
+        return blobs.get(id);
+    }
+
+    /**
+     * Returns the length of a blob.
+     * @param id the blob's ID
+     * @return the length or <code>-1</code> if the blob is not stored
+     * @throws IOException if the store could not be read
+     */
+    public int length(long id) throws IOException {
+        final ByteBuffer blob = get(id);
+        return blob == null ? -1 : blob.remaining();
+    }
+
+    /**
+     * Returns read-only copies of several blobs. The blobs are located in
+     * the order in which they lie in the segments so that reading them in
+     * the iteration order of the returned map is sequential.
+     * @param ids the blobs' IDs
+     * @return the blobs which are stored, by ID
+     * @throws IOException if the store could not be read
+     */
+    public Map<Long, ByteBuffer> get(Collection<Long> ids) throws IOException {
+        final SortedSet<long[]> locations = new TreeSet<long[]>(
+                new java.util.Comparator<long[]>() {
+                    public int compare(long[] a, long[] b) {
+                        for (int i = 1; i < 3; i++) {
+                            if (a[i] != b[i]) {
+                                return a[i] < b[i] ? -1 : 1;
+                            }
+                        }
+                        return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+                    }
+                });
+        final Map<Long, ByteBuffer> blobs = new LinkedHashMap<Long, ByteBuffer>();
+        final SegmentChannels channels = new SegmentChannels(false);
+        readLock();
+        try {
+            if (header == null) {
+                return blobs;
+            }
+            for (final Long id : ids) {
+                final long slot = find(id);
+                if (slot >= 0) {
+                    locations.add(new long[] {id,
+                            getSlotInt(slot, S_SEGMENT),
+                            getSlotInt(slot, S_OFFSET),
+                            getSlotInt(slot, S_LENGTH)});
+                }
+            }
+            for (final long[] location : locations) {
+                final ByteBuffer blob = read(channels, location[0],
+                        (int) location[1], (int) location[2],
+                        (int) location[3]);
+                if (blob != null) {
+                    blobs.put(location[0], blob);
+                }
+            }
+        } finally {
+            try {
+                channels.close();
+            } finally {
+                rwl.readLock().unlock();
+            }
+        }
+        return blobs;
+    }
+
+    /**
+     * Returns if a blob is stored.
+     * @param id the blob's ID
+     * @return if the blob is stored
+     * @throws IOException if the store could not be read
+     */
+    public boolean contains(long id) throws IOException {
+        return get(id) != null;
+    }
+
+    /**
+     * Checks the record of a blob against its index slot and returns it.
+     * @return the blob or <code>null</code> if the record does not match
+     */
+    private ByteBuffer read(SegmentChannels channels, long id, int segment,
+            int offset, int length) throws IOException {
+        final FileChannel channel = channels.get(segment, false);
+        ByteBuffer record = null;
+        if (channel != null && offset >= SEGMENT_HEADER_SIZE && length >= 0
+                && (long) offset + RECORD_HEADER_SIZE + length <= segmentSize) {
+            record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+            if (!readFully(channel, record, offset)
+                    || record.getLong(0) != id
+                    || record.getInt(R_LENGTH) != length
+                    || record.getInt(R_CRC) != crc(record, RECORD_HEADER_SIZE)) {
+                record = null;
+            }
+        }
+        if (record == null) {
+            log.warn("Ignoring invalid record of thumbnail " + id
+                    + " in segment " + segment);
+            return null;
+        }
+        record.position(RECORD_HEADER_SIZE);
+        return record.slice().asReadOnlyBuffer();
+    }
+
+    //
+    // Writing
+    //
+
+    /**
+     * Stores a blob, replacing any blob already stored with the same ID.
+     * @param id the blob's ID, must be positive
+     * @param data the blob
+     * @throws IOException if the store could not be written
+     */
+    public void put(long id, byte[] data) throws IOException {
+        put(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Stores a blob, replacing any blob already stored with the same ID.
+     * @param id the blob's ID, must be positive
+     * @param data the blob, from its position to its limit
+     * @throws IOException if the store could not be written
+     */
+    public void put(long id, ByteBuffer data) throws IOException {
+        if (id <= 0) {
+            throw new IllegalArgumentException("ID must be positive: " + id);
+        }
+        if (SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + data.remaining() > segmentSize) {
+            throw new IllegalArgumentException("thumbnail " + id + " of "
+                    + data.remaining() + " bytes is larger than a segment");
+        }
+        final FileLock lock = writeLock(true);
+        final SegmentChannels channels = new SegmentChannels(true);
+        try {
+            append(channels, id, data.duplicate());
+        } finally {
+            try {
+                channels.close();
+            } finally {
+                writeUnlock(lock);
+            }
+        }
+    }
+
+    /**
+     * Removes blobs, compacting any segment which is mostly garbage as a
+     * result.
+     * @param ids the blobs' IDs
+     * @return the number of blobs that were stored
+     * @throws IOException if the store could not be written
+     */
+    public int remove(Collection<Long> ids) throws IOException {
+        final FileLock lock = writeLock(false);
+        final SegmentChannels channels = new SegmentChannels(true);
+        int removed = 0;
+        try {
+            if (header == null) {
+                return 0;
+            }
+            final SortedSet<Integer> touched = new TreeSet<Integer>();
+            for (final Long id : ids) {
+                final long slot = find(id);
+                if (slot < 0) {
+                    continue;
+                }
+                final int segment = getSlotInt(slot, S_SEGMENT);
+                addGarbage(channels, segment,
+                        RECORD_HEADER_SIZE + getSlotInt(slot, S_LENGTH));
+                putSlotLong(slot, 0, REMOVED);
+                header.putLong(H_LIVE, header.getLong(H_LIVE) - 1);
+                touched.add(segment);
+                removed++;
+            }
+            for (final Integer segment : touched) {
+                final FileChannel channel = channels.get(segment, false);
+                if (segment != header.getInt(H_SEGMENT) && channel != null
+                        && getLong(channel, 0) * 2 > segmentSize) {
+                    compact(channels, segment);
+                }
+            }
+        } finally {
+            try {
+                channels.close();
+            } finally {
+                writeUnlock(lock);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Appends a record for a blob to the active segment and points its
+     * index slot at it. Must be called with the write lock held.
+     */
+    private void append(SegmentChannels channels, long id, ByteBuffer data)
+            throws IOException {
+        final int length = data.remaining();
+        int segment = header.getInt(H_SEGMENT);
+        int position = header.getInt(H_POSITION);
+        if (position + RECORD_HEADER_SIZE + length > segmentSize) {
+            // The full segment and the index which points into it are
+            // forced before the next segment is begun.
+            final FileChannel full = channels.get(segment, false);
+            if (full != null) {
+                full.force(true);
+            }
+            forceIndex();
+            segment++;
+            position = SEGMENT_HEADER_SIZE;
+            header.putInt(H_SEGMENT, segment);
+        }
+        final ByteBuffer record =
+                ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putLong(id);
+        record.putInt(length);
+        record.putInt(0);
+        record.put(data);
+        record.putInt(R_CRC, crc(record, RECORD_HEADER_SIZE));
+        record.flip();
+        writeFully(channels.get(segment, true), record, position);
+        header.putInt(H_POSITION, position + RECORD_HEADER_SIZE + length);
+
+        long slot = find(id);
+        if (slot >= 0) {
+            addGarbage(channels, getSlotInt(slot, S_SEGMENT),
+                    RECORD_HEADER_SIZE + getSlotInt(slot, S_LENGTH));
+        } else {
+            slot = findFree(id);
+            if (getSlotLong(slot, 0) == EMPTY) {
+                header.putLong(H_USED, header.getLong(H_USED) + 1);
+            }
+            header.putLong(H_LIVE, header.getLong(H_LIVE) + 1);
+        }
+        // The ID is written last so that the slot is complete once found.
+        putSlotInt(slot, S_SEGMENT, segment);
+        putSlotInt(slot, S_OFFSET, position);
+        putSlotInt(slot, S_LENGTH, length);
+        putSlotLong(slot, 0, id);
+
+        if (header.getLong(H_USED) * 2 > capacity) {
+            rehash();
+        }
+    }
+
+    /**
+     * Appends the blobs of a segment which are still live to the active
+     * segment and deletes the segment. Must be called with the write lock
+     * held.
+     */
+    private void compact(SegmentChannels channels, int segment)
+            throws IOException {
+        final FileChannel channel = channels.get(segment, false);
+        final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        int position = SEGMENT_HEADER_SIZE;
+        int moved = 0;
+        while (position + RECORD_HEADER_SIZE <= segmentSize) {
+            recordHeader.clear();
+            if (!readFully(channel, recordHeader, position)) {
+                break;
+            }
+            final long id = recordHeader.getLong(0);
+            final int length = recordHeader.getInt(R_LENGTH);
+            if (id == EMPTY || length < 0
+                    || position + RECORD_HEADER_SIZE + length > segmentSize) {
+                break;
+            }
+            final long slot = find(id);
+            if (slot >= 0 && getSlotInt(slot, S_SEGMENT) == segment
+                    && getSlotInt(slot, S_OFFSET) == position) {
+                final ByteBuffer blob = ByteBuffer.allocate(length);
+                if (!readFully(channel, blob, position + RECORD_HEADER_SIZE)) {
+                    break;
+                }
+                blob.flip();
+                // Unmark the slot so that append() does not count the
+                // record being moved as garbage of the segment.
+                putSlotLong(slot, 0, REMOVED);
+                header.putLong(H_LIVE, header.getLong(H_LIVE) - 1);
+                if (recordHeader.getInt(R_CRC) == crc(blob, 0)) {
+                    append(channels, id, blob);
+                    moved++;
+                } else {
+                    // A corrupt blob is dropped rather than given a new CRC.
+                    log.warn("Dropping invalid record of thumbnail " + id
+                            + " in segment " + segment);
+                }
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        channels.close(segment);
+        if (!segmentFile(segment).delete()) {
+            log.warn("Failed to delete compacted segment " + segmentFile(segment));
+        } else if (log.isInfoEnabled()) {
+            log.info("Compacted segment " + segment + " of " + directory
+                    + ", moving " + moved + " thumbnails");
+        }
+    }
+
+    /**
+     * @return the CRC32 of the bytes of a buffer from the given index to its
+     * limit
+     */
+    private static int crc(ByteBuffer buffer, int from) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + from,
+                buffer.limit() - from);
+        return (int) crc.getValue();
+    }
+
+    private void addGarbage(SegmentChannels channels, int segment, int bytes)
+            throws IOException {
+        final FileChannel channel = channels.get(segment, false);
+        if (channel != null) {
+            putLong(channel, 0, getLong(channel, 0) + bytes);
+        }
+    }
+
+    //
+    // Index
+    //
+
+    private static long hash(long id, long capacity) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return h & (capacity - 1);
+    }
+
+    /**
+     * @return the slot holding the given ID or <code>-1</code>
+     */
+    private long find(long id) {
+        long slot = hash(id, capacity);
+        for (long probes = 0; probes < capacity; probes++) {
+            final long current = getSlotLong(slot, 0);
+            if (current == id) {
+                return slot;
+            } else if (current == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first empty or removed slot in the probe sequence of the
+     * given ID
+     */
+    private long findFree(long id) {
+        long slot = hash(id, capacity);
+        while (true) {
+            final long current = getSlotLong(slot, 0);
+            if (current == EMPTY || current == REMOVED) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    private MappedByteBuffer chunk(long slot) {
+        return chunks[(int) (slot / SLOTS_PER_CHUNK)];
+    }
+
+    private int slotOffset(long slot, int field) {
+        return (int) (slot % SLOTS_PER_CHUNK) * SLOT_SIZE + field;
+    }
+
+    private long getSlotLong(long slot, int field) {
+        return chunk(slot).getLong(slotOffset(slot, field));
+    }
+
+    private int getSlotInt(long slot, int field) {
+        return chunk(slot).getInt(slotOffset(slot, field));
+    }
+
+    private void putSlotLong(long slot, int field, long value) {
+        chunk(slot).putLong(slotOffset(slot, field), value);
+    }
+
+    private void putSlotInt(long slot, int field, int value) {
+        chunk(slot).putInt(slotOffset(slot, field), value);
+    }
+
+    /**
+     * Maps an index file.
+     * @param file the index file
+     * @param newCapacity the capacity of a new index, or <code>0</code> to
+     * map an existing one
+     */
+    private void mapIndex(File file, long newCapacity) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final MappedByteBuffer newHeader =
+                    channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (newCapacity > 0) {
+                newHeader.putInt(H_MAGIC, MAGIC);
+                newHeader.putInt(H_VERSION, VERSION);
+                newHeader.putLong(H_CAPACITY, newCapacity);
+                newHeader.putInt(H_POSITION, SEGMENT_HEADER_SIZE);
+            } else if (newHeader.getInt(H_MAGIC) != MAGIC
+                    || newHeader.getInt(H_VERSION) != VERSION) {
+                throw new IOException("Not a thumbnail index: " + file);
+            }
+            final long newSlots = newHeader.getLong(H_CAPACITY);
+            final MappedByteBuffer[] newChunks = new MappedByteBuffer[
+                    (int) ((newSlots + SLOTS_PER_CHUNK - 1) / SLOTS_PER_CHUNK)];
+            for (int i = 0; i < newChunks.length; i++) {
+                final long first = (long) i * SLOTS_PER_CHUNK;
+                newChunks[i] = channel.map(MapMode.READ_WRITE,
+                        HEADER_SIZE + first * SLOT_SIZE,
+                        Math.min(SLOTS_PER_CHUNK, newSlots - first) * SLOT_SIZE);
+            }
+            header = newHeader;
+            chunks = newChunks;
+            capacity = newSlots;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Copies the live slots into a new index with room for twice as many,
+     * replaces the index file with it and marks the old one as moved for
+     * other processes. Must be called with the write lock held.
+     */
+    private void rehash() throws IOException {
+        final MappedByteBuffer oldHeader = header;
+        final MappedByteBuffer[] oldChunks = chunks;
+        final long oldCapacity = capacity;
+        final long live = oldHeader.getLong(H_LIVE);
+        long newCapacity = oldCapacity;
+        while (live * 4 > newCapacity) {
+            newCapacity *= 2;
+        }
+        final File newFile = new File(directory, "index.new");
+        newFile.delete();
+        mapIndex(newFile, newCapacity);
+        header.putInt(H_SEGMENT, oldHeader.getInt(H_SEGMENT));
+        header.putInt(H_POSITION, oldHeader.getInt(H_POSITION));
+        header.putLong(H_USED, live);
+        header.putLong(H_LIVE, live);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            final MappedByteBuffer oldChunk = oldChunks[(int) (slot / SLOTS_PER_CHUNK)];
+            final int offset = slotOffset(slot, 0);
+            final long id = oldChunk.getLong(offset);
+            if (id == EMPTY || id == REMOVED) {
+                continue;
+            }
+            final long newSlot = findFree(id);
+            putSlotInt(newSlot, S_SEGMENT, oldChunk.getInt(offset + S_SEGMENT));
+            putSlotInt(newSlot, S_OFFSET, oldChunk.getInt(offset + S_OFFSET));
+            putSlotInt(newSlot, S_LENGTH, oldChunk.getInt(offset + S_LENGTH));
+            putSlotLong(newSlot, 0, id);
+        }
+        forceIndex();
+        Files.move(newFile.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        oldHeader.putInt(H_MOVED, 1);
+        if (log.isInfoEnabled()) {
+            log.info(String.format("Rehashed %d thumbnails of %s into %d slots",
+                    live, directory, newCapacity));
+        }
+    }
+
+    //
+    // Segments
+    //
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format("%08d.seg", segment));
+    }
+
+    /**
+     * Reads from a segment until the buffer is full.
+     * @return <code>false</code> if the end of the segment was reached first
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static long getLong(FileChannel channel, long position)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        return readFully(channel, buffer, position) ? buffer.getLong(0) : 0;
+    }
+
+    private static void putLong(FileChannel channel, long position, long value)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(0, value);
+        writeFully(channel, buffer, position);
+    }
+
+    /**
+     * Forces the mapped index to disk.
+     */
+    private void forceIndex() {
+        for (final MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        header.force();
+    }
+
+    /**
+     * The segments opened by one call on the store, which are all closed
+     * once it is done. Must only be used by the thread making the call.
+     */
+    private class SegmentChannels implements Closeable {
+
+        private final Map<Integer, RandomAccessFile> files =
+                new HashMap<Integer, RandomAccessFile>();
+
+        private final boolean writable;
+
+        /**
+         * @param writable if the segments are to be opened for writing
+         */
+        SegmentChannels(boolean writable) {
+            this.writable = writable;
+        }
+
+        /**
+         * Opens a segment unless already open.
+         * @param segment the segment
+         * @param create if the segment is to be created if it does not
+         * exist, only for a writable instance
+         * @return the segment or <code>null</code> if it does not exist
+         */
+        FileChannel get(int segment, boolean create) throws IOException {
+            RandomAccessFile raf = files.get(segment);
+            if (raf == null) {
+                final File file = segmentFile(segment);
+                if (!create && !file.exists()) {
+                    return null;
+                }
+                raf = new RandomAccessFile(file, writable ? "rw" : "r");
+                files.put(segment, raf);
+            }
+            return raf.getChannel();
+        }
+
+        /**
+         * Closes a segment if open.
+         * @param segment the segment
+         */
+        void close(int segment) throws IOException {
+            final RandomAccessFile raf = files.remove(segment);
+            if (raf != null) {
+                raf.close();
+            }
+        }
+
+        public void close() throws IOException {
+            IOException failure = null;
+            for (final RandomAccessFile raf : files.values()) {
+                try {
+                    raf.close();
+                } catch (IOException ioe) {
+                    failure = ioe;
+                }
+            }
+            files.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    //
+    // Locking
+    //
+
+    /**
+     * Takes the read lock, first (re-)opening the index if it has been
+     * created or moved by another process.
+     */
+    private void readLock() throws IOException {
+        rwl.readLock().lock();
+        if (isCurrent()) {
+            return;
+        }
+        rwl.readLock().unlock();
+        rwl.writeLock().lock();
+        try {
+            refresh(false);
+        } finally {
+            // Downgrade to the read lock.
+            rwl.readLock().lock();
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the write lock and the lock on the store's files, first
+     * (re-)opening the index if it has been created or moved by another
+     * process.
+     * @param create if the store is to be created if it does not exist
+     * @return the file lock, to be passed to {@link #writeUnlock(FileLock)}
+     */
+    private FileLock writeLock(boolean create) throws IOException {
+        rwl.writeLock().lock();
+        FileLock lock = null;
+        try {
+            if (create) {
+                directory.mkdirs();
+            }
+            final File lockFile = new File(directory, "lock");
+            if (create || lockFile.exists()) {
+                final RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+                lock = raf.getChannel().lock();
+            }
+            refresh(create);
+            return lock;
+        } catch (IOException ioe) {
+            writeUnlock(lock);
+            throw ioe;
+        } catch (RuntimeException rte) {
+            writeUnlock(lock);
+            throw rte;
+        }
+    }
+
+    private void writeUnlock(FileLock lock) throws IOException {
+        try {
+            if (lock != null) {
+                lock.release();
+                lock.channel().close();
+            }
+        } finally {
+            rwl.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return if the mapped index is the index file
+     */
+    private boolean isCurrent() {
+        return header != null ? header.getInt(H_MOVED) == 0 : !indexFile.exists();
+    }
+
+    /**
+     * Maps the index file if it is not mapped or has been moved. Must be
+     * called with the write lock held.
+     * @param create if the index is to be created if it does not exist
+     */
+    private void refresh(boolean create) throws IOException {
+        if (header != null && header.getInt(H_MOVED) == 0) {
+            return;
+        }
+        if (indexFile.exists()) {
+            mapIndex(indexFile, 0);
+        } else if (create) {
+            mapIndex(indexFile, INITIAL_CAPACITY);
+        } else {
+            header = null;
+            chunks = null;
+            capacity = 0;
+        }
+    }
+
+    /**
+     * Lists the IDs of the blobs that are stored.
+     * @return the IDs, in no particular order
+     * @throws IOException if the store could not be read
+     */
+    public Collection<Long> ids() throws IOException {
+        final Collection<Long> ids = new ArrayList<Long>();
+        readLock();
+        try {
+            for (long slot = 0; slot < capacity; slot++) {
+                final long id = getSlotLong(slot, 0);
+                if (id != EMPTY && id != REMOVED) {
+                    ids.add(id);
+                }
+            }
+        } finally {
+            rwl.readLock().unlock();
+        }
+        return ids;
+    }
+}
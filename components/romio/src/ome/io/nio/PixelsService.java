@@ -93,6 +93,25 @@ public class PixelsService extends AbstractFileSystemService
 	private Timer tileTimes;
 
 	private Timer minmaxTimes;
+
+	private Timer tileReadTimes;
+
+	private Timer tileWriteTimes;
+
+	/**
+	 * Number of tiles read ahead of the pyramid writer. If <code>0</code>,
+	 * tiles are read and written sequentially by the same thread.
+	 */
+	private int pyramidQueueSize;
+
+	/**
+	 * Number of readers each pyramid pixel buffer may open to decode tiles
+	 * concurrently. If <code>1</code>, reads of a pyramid are serialized.
+	 */
+	private int pyramidReaders = 1;
+
+	/** Cache of decoded pyramid tiles shared by all the buffers. */
+	private TileCache tileCache;
 	
 	private IQuery iQuery;
 
@@ -186,6 +205,42 @@ public class PixelsService extends AbstractFileSystemService
     public void setMetrics(Metrics metrics) {
         this.tileTimes = metrics.timer(this, "tileTimes");
         this.minmaxTimes = metrics.timer(this, "minmaxTimes");
+        this.tileReadTimes = metrics.timer(this, "tileReadTimes");
+        this.tileWriteTimes = metrics.timer(this, "tileWriteTimes");
+    }
+
+    /**
+     * Sets the number of tiles which may be read ahead of the pyramid writer
+     * while a pyramid is created. A value of <code>0</code> disables the
+     * read-ahead. <code>omero.pixeldata.pyramid_queue_size</code> sets 16 by
+     * default.
+     * @param pyramidQueueSize The number of tiles.
+     */
+    public void setPyramidQueueSize(int pyramidQueueSize) {
+        this.pyramidQueueSize = Math.max(pyramidQueueSize, 0);
+    }
+
+    /**
+     * Sets the number of Bio-Formats readers which may be open on each
+     * pyramid file so that several threads can decode tiles of the same
+     * pyramid at once. The readers are shared by all the pyramid pixel
+     * buffers of the file. A value of <code>1</code> serializes the reads.
+     * <code>omero.pixeldata.pyramid_readers</code> sets 4 by default.
+     * @param pyramidReaders The number of readers.
+     * @see BfPyramidPixelBuffer#setConcurrentReaders(int)
+     */
+    public void setPyramidReaders(int pyramidReaders) {
+        this.pyramidReaders = Math.max(pyramidReaders, 1);
+    }
+
+    /**
+     * Sets the cache of decoded tiles shared by the pyramid pixel buffers
+     * this service creates.
+     * @param tileCache The cache, <code>null</code> to disable caching.
+     * @see BfPyramidPixelBuffer#setTileCache(TileCache)
+     */
+    public void setTileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
     }
 
     public long getMemoizerWait() {
@@ -326,6 +381,7 @@ public class PixelsService extends AbstractFileSystemService
                     log.error("Error closing pixel pyramid.", e);
                 }
             }
+            invalidateTiles(pixels.getId());
         }
     }
 
@@ -399,49 +455,67 @@ public class PixelsService extends AbstractFileSystemService
                 (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
                 (Math.ceil(source.getSizeY() / tileSize.getHeight()));
             final int tenPercent = Math.max((int) totalTiles / 10, 1);
-            Utils.forEachTile(new TileLoopIteration() {
-                public void run(int z, int c, int t, int x, int y, int w,
-                            int h, int tileCount)
+            final int tileWidth = (int) tileSize.getWidth();
+            final int tileHeight = (int) tileSize.getHeight();
+            if (pyramidQueueSize > 0)
             {
-                if (log.isInfoEnabled()
-                    && tileCount % tenPercent == 0)
-                {
-                    log.info(String.format(
-                            "Pyramid creation for Pixels:%d %d/%d (%d%%).",
-                            pixels.getId(), tileCount + 1, (int) totalTiles,
-                            (int) (tileCount / totalTiles * 100)));
-                }
+                // Read the tiles ahead of the pyramid writer so that decoding
+                // the source overlaps with the compression of the pyramid.
+                TilePipeline pipeline = new TilePipeline(source, tileWidth,
+                        tileHeight, pyramidQueueSize, tileReadTimes,
+                        tileWriteTimes, tileTimes);
                 try
                 {
-                    Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
-                    try {
-                        PixelData tile = source.getTile(z, c, t, x, y, w, h);
-                        pixelsPyramid.setTile(
-                            tile.getData().array(), z, c, t, x, y, w, h);
-                        tile.dispose();
-                    } finally {
-                        if (ctx != null) {
-                            ctx.stop();
+                    pipeline.run(new TilePipeline.TileWriter() {
+                        public void write(PixelData tile, int z, int c, int t,
+                                int x, int y, int w, int h, int tileCount)
+                            throws IOException
+                        {
+                            logPyramidProgress(pixels, tileCount, totalTiles,
+                                    tenPercent);
+                            pixelsPyramid.setTile(
+                                tile.getData().array(), z, c, t, x, y, w, h);
                         }
-                    }
+                    });
                 }
                 catch (IOException e1)
                 {
                     log.error("FAIL -- Error during tile population", e1);
+                    clearPyramid(pixelsPyramidFile);
+                    // The minima and maxima of a partial read are not kept.
+                    return null;
+                }
+            }
+            else
+            {
+                Utils.forEachTile(new TileLoopIteration() {
+                    public void run(int z, int c, int t, int x, int y, int w,
+                                int h, int tileCount)
+                {
+                    logPyramidProgress(pixels, tileCount, totalTiles, tenPercent);
                     try
                     {
-                        pixelsPyramidFile.delete();
-                        FileUtils.touch(pixelsPyramidFile); // ticket:5189
+                        Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
+                        try {
+                            PixelData tile = source.getTile(z, c, t, x, y, w, h);
+                            pixelsPyramid.setTile(
+                                tile.getData().array(), z, c, t, x, y, w, h);
+                            tile.dispose();
+                        } finally {
+                            if (ctx != null) {
+                                ctx.stop();
+                            }
+                        }
                     }
-                    catch (Exception e2)
+                    catch (IOException e1)
                     {
-                        log.warn("Error clearing empty or incomplete pixel " +
-                                 "buffer.", e2);
+                        log.error("FAIL -- Error during tile population", e1);
+                        clearPyramid(pixelsPyramidFile);
+                        return;
                     }
-                    return;
                 }
+                }, source, tileWidth, tileHeight);
             }
-            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
 
             log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
 
@@ -464,6 +538,45 @@ public class PixelsService extends AbstractFileSystemService
         return minMaxStore;
     }
 
+    /**
+     * Logs the progress of the pyramid creation every ten percent.
+     * @param pixels The pixels set whose pyramid is being created.
+     * @param tileCount Counter of the tile since the beginning of the loop.
+     * @param totalTiles The total number of tiles.
+     * @param tenPercent The number of tiles in ten percent of the total.
+     */
+    private void logPyramidProgress(Pixels pixels, int tileCount,
+            double totalTiles, int tenPercent)
+    {
+        if (log.isInfoEnabled()
+            && tileCount % tenPercent == 0)
+        {
+            log.info(String.format(
+                    "Pyramid creation for Pixels:%d %d/%d (%d%%).",
+                    pixels.getId(), tileCount + 1, (int) totalTiles,
+                    (int) (tileCount / totalTiles * 100)));
+        }
+    }
+
+    /**
+     * Replaces an incomplete pyramid by an empty file so that further calls
+     * get an exception rather than being told to try indefinitely.
+     * @param pixelsPyramidFile The pyramid file.
+     */
+    private void clearPyramid(File pixelsPyramidFile)
+    {
+        try
+        {
+            pixelsPyramidFile.delete();
+            FileUtils.touch(pixelsPyramidFile); // ticket:5189
+        }
+        catch (Exception e2)
+        {
+            log.warn("Error clearing empty or incomplete pixel " +
+                     "buffer.", e2);
+        }
+    }
+
     /**
      * Returns a pixel buffer for a given set of pixels. Either a proprietary
      * ROMIO pixel buffer or a specific pixel buffer implementation.
@@ -833,7 +946,11 @@ public class PixelsService extends AbstractFileSystemService
                 // #5159. Creating the path if we need to write.
                 createSubpath(filePath);
             }
-            return new BfPyramidPixelBuffer(pixels, filePath, write);
+            BfPyramidPixelBuffer buffer =
+                new BfPyramidPixelBuffer(pixels, filePath, write);
+            buffer.setConcurrentReaders(pyramidReaders);
+            buffer.setTileCache(tileCache);
+            return buffer;
         }
         catch (Exception e)
         {
@@ -872,6 +989,7 @@ public class PixelsService extends AbstractFileSystemService
 
 		for (Iterator<Long> iter = pixelIds.iterator(); iter.hasNext();) {
 			Long id = iter.next();
+			invalidateTiles(id);
 
 			String pixelPath = getPixelsPath(id);
 			file = new File(pixelPath);
@@ -890,6 +1008,17 @@ public class PixelsService extends AbstractFileSystemService
 		}
 	}
 
+    /**
+     * Drops the cached tiles of a pixels set whose pyramid has been written
+     * or which is being removed.
+     * @param pixelsId The id of the pixels set, may be <code>null</code>.
+     */
+    private void invalidateTiles(Long pixelsId) {
+        if (tileCache != null && pixelsId != null) {
+            tileCache.invalidate(pixelsId);
+        }
+    }
+
     class PixelsPyramidMinMaxStore implements IMinMaxStore
     {
         final double[][] channelGlobalMinMax;
@@ -472,11 +472,12 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 			Integer count, Integer offset, byte[] buffer)
 		throws IOException, DimensionsOutOfBoundsException
 	{
-		final PixelData pd = getPlane(z, c, t);
-		final ByteBuffer b = pd.getData();
-		b.position(offset * getByteWidth());
-		b.get(buffer, 0, count * getByteWidth());
-		pd.dispose();
+		if ((long) offset + count > (long) getSizeX() * getSizeY())
+			throw new DimensionsOutOfBoundsException("Region of " + count
+					+ " pixels at '" + offset + "' exceeds the plane.");
+		final int byteWidth = getByteWidth();
+		read(getPlaneOffset(z, c, t) + (long) offset * byteWidth,
+				buffer, 0, count * byteWidth);
 		return buffer;
 	}
 
@@ -486,7 +487,9 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 	 */
     public PixelData getPlane(Integer z, Integer c, Integer t)
             throws IOException, DimensionsOutOfBoundsException {
-        log.info("Retrieving plane: " + z + "x" + c + "x" + t);
+        if (log.isDebugEnabled()) {
+            log.debug("Retrieving plane: " + z + "x" + c + "x" + t);
+        }
         Long offset = getPlaneOffset(z, c, t);
         Integer size = safeLongToInteger(getPlaneSize());
         PixelData region = getRegion(size, offset);
@@ -514,44 +517,19 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     	if (stride == null || stride < 0) stride = 0;
     	checkBounds(x, y, z, c, t);
     	checkBounds(x+width-1, y+height-1, null, null, null);
-    	
-    	PixelData plane = getPlane(z, c, t);
-    	Integer size;
-    	ByteBuffer buf;
-    	PixelData region = null;
-    	int offset;
-    	
-    	if (stride == 0) {
-    		size =  width*height*getByteWidth();
-            buf = ByteBuffer.wrap(new byte[size]);
-            region = new PixelData(pixels.getPixelsType().getValue(), buf);
-            for (int i = 0; i < height; i++) {
-            	for (int j = 0; j < width; j++) {
-            		offset = (i+y)*getSizeX()+x+j;
-            		region.setPixelValue(i*width+j, plane.getPixelValue(offset));
-            	}
-            }
-            plane.dispose();
-            return region;
-    	}
-    	stride++;
-    	int w = width/stride;
-    	size = width*height*getByteWidth()/(stride*stride);
-        buf = ByteBuffer.wrap(new byte[size]);
-        region = new PixelData(pixels.getPixelsType().getValue(), buf);
-    	int k = 0;
-    	int l = 0;
-    	for (int i = 0; i < height; i = i+stride) {
-    		l = 0;
-        	for (int j = 0; j < width; j = j+stride) {
-        		offset = (i+y)*getSizeX()+x+j;
-        		region.setPixelValue(k*w+l, plane.getPixelValue(offset));
-        		l++;
-        	}
-        	k++;
-        }
-        plane.dispose();
-        return region;
+
+    	// Only every stride+1-th row and column is sampled, giving a region
+    	// of width/(stride+1) x height/(stride+1) pixels as expected by the
+    	// renderer. The rows are read straight into the region so neither
+    	// the plane nor the rows skipped are ever read.
+    	int step = stride + 1;
+    	int w = width/step;
+    	int h = height/step;
+    	byte[] region = new byte[w*h*getByteWidth()];
+    	readPlaneRegion(getPlaneOffset(z, c, t), x, y, w, h, step, step,
+    			region, 0);
+        return new PixelData(pixels.getPixelsType().getValue(),
+                ByteBuffer.wrap(region));
     }
     
     /**
@@ -981,54 +959,104 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 
     /*
      * Temporary helpers. May be factored out.
-     * This code is repeated in bfPixelWrapper and so needs refactoring.
      */
     private byte[] getWholeHypercube(List<Integer> offset, List<Integer> size,
-            List<Integer> step, byte[] cube) throws IOException {
+            List<Integer> step, byte[] cube)
+            throws IOException, DimensionsOutOfBoundsException {
         int cubeOffset = 0;
         int xStripes = (size.get(0) + step.get(0) - 1) / step.get(0);
-        int pixelSize = getByteWidth();
-        int tileRowSize = pixelSize * xStripes;
-        byte[] plane = new byte[safeLongToInteger(getPlaneSize())];
+        int yStripes = (size.get(1) + step.get(1) - 1) / step.get(1);
         for(int t = offset.get(4); t < size.get(4)+offset.get(4); t += step.get(4))
         {
             for(int c = offset.get(3); c < size.get(3)+offset.get(3); c += step.get(3))
             {
                 for(int z = offset.get(2); z < size.get(2)+offset.get(2); z += step.get(2))
                 {
-                    getPlaneDirect(z,c,t,plane);
-                    int rowOffset = offset.get(1)*getRowSize();
-                    if(step.get(0)==1)
-                    {
-                        int byteOffset = rowOffset + offset.get(0)*pixelSize;
-                        for(int y = offset.get(1); y < size.get(1)+offset.get(1); y += step.get(1))
-                        {
-                            System.arraycopy(plane, byteOffset, cube, cubeOffset, tileRowSize);
-                            cubeOffset += tileRowSize;
-                            byteOffset += getRowSize()*step.get(1);
-                        }
-                    }
-                    else
-                    {
-                        for(int y = offset.get(1); y < size.get(1)+offset.get(1); y += step.get(1))
-                        {
-                            int byteOffset = offset.get(0)*pixelSize;
-                            for(int x = offset.get(0); x < size.get(0)+offset.get(0); x += step.get(0))
-                            {
-                                System.arraycopy(plane, rowOffset+byteOffset, cube, cubeOffset, pixelSize);
-                                cubeOffset += pixelSize;
-                                byteOffset += step.get(0)*pixelSize;
-                            }
-                            rowOffset += getRowSize()*step.get(1);
-                        }
-                    }
-
+                    cubeOffset = readPlaneRegion(getPlaneOffset(z, c, t),
+                            offset.get(0), offset.get(1), xStripes, yStripes,
+                            step.get(0), step.get(1), cube, cubeOffset);
                 }
             }
         }
         return cube;
     }
-    
+
+    /**
+     * Reads every <code>stepX</code>-th pixel of every <code>stepY</code>-th
+     * row of a region of a plane into a buffer. Each row is read with a
+     * positional read of the file channel straight into the buffer, or,
+     * when sampling columns, into a row sized scratch buffer, so that the
+     * plane is never mapped or copied as a whole.
+     * @param planeOffset the offset of the plane in the file
+     * @param x the X coordinate of the first pixel read
+     * @param y the Y coordinate of the first row read
+     * @param w the number of pixels read from each row
+     * @param h the number of rows read
+     * @param stepX the distance between two pixels read in a row
+     * @param stepY the distance between two rows read
+     * @param buffer the buffer to read into
+     * @param bufferOffset the offset in the buffer of the first pixel
+     * @return the offset in the buffer after the last pixel read
+     * @throws IOException if the pixels could not be read
+     */
+    private int readPlaneRegion(long planeOffset, int x, int y, int w, int h,
+            int stepX, int stepY, byte[] buffer, int bufferOffset)
+            throws IOException {
+        if (w <= 0 || h <= 0) {
+            return bufferOffset;
+        }
+        final int byteWidth = getByteWidth();
+        final long rowSize = getRowSize();
+        final int tileRowSize = w * byteWidth;
+        long offset = planeOffset + y * rowSize + (long) x * byteWidth;
+        if (stepX == 1 && (stepY == 1 || h == 1) && w == getSizeX()) {
+            // Whole rows, contiguous in the file.
+            read(offset, buffer, bufferOffset, tileRowSize * h);
+            return bufferOffset + tileRowSize * h;
+        }
+        if (stepX == 1) {
+            for (int i = 0; i < h; i++) {
+                read(offset, buffer, bufferOffset, tileRowSize);
+                bufferOffset += tileRowSize;
+                offset += rowSize * stepY;
+            }
+            return bufferOffset;
+        }
+        final int span = ((w - 1) * stepX + 1) * byteWidth;
+        final byte[] row = new byte[span];
+        for (int i = 0; i < h; i++) {
+            read(offset, row, 0, span);
+            for (int j = 0; j < span; j += stepX * byteWidth) {
+                System.arraycopy(row, j, buffer, bufferOffset, byteWidth);
+                bufferOffset += byteWidth;
+            }
+            offset += rowSize * stepY;
+        }
+        return bufferOffset;
+    }
+
+    /**
+     * Fills part of a buffer with a positional read of the file channel,
+     * which leaves the position of the channel as it is. Bytes beyond the
+     * end of the file, in planes which were never written, are read as 0.
+     * @param position the offset in the file of the first byte read
+     * @param buffer the buffer to read into
+     * @param offset the offset in the buffer of the first byte read
+     * @param length the number of bytes to read
+     * @throws IOException if the bytes could not be read
+     */
+    private void read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        final FileChannel fileChannel = getFileChannel();
+        final ByteBuffer b = ByteBuffer.wrap(buffer, offset, length);
+        while (b.hasRemaining()) {
+            if (fileChannel.read(b, position + b.position() - offset) < 0) {
+                Arrays.fill(buffer, b.position(), offset + length, (byte) 0);
+                break;
+            }
+        }
+    }
+
     private void checkCubeBounds(List<Integer> offset, List<Integer> size, List<Integer> step)
             throws DimensionsOutOfBoundsException {
         // At the moment the array must contain 5 values
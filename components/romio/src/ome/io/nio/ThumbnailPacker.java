@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.io.nio;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commandline entry-point which moves the thumbnails of a data directory
+ * from a file each, as stored before 5.1, into its
+ * {@link PackedThumbnailStore}. Thumbnails which are already packed are
+ * left as they are and their files deleted. Since a thumbnail deleted by
+ * the server while being moved may be packed again, the server should not
+ * be running. Usage:
+ *
+ * <pre>
+ * java ome.io.nio.ThumbnailPacker /OMERO [--keep]
+ * </pre>
+ *
+ * where <code>--keep</code> leaves the files in place.
+ *
+ * @since 5.1
+ */
+public class ThumbnailPacker {
+
+    private final static Logger log = LoggerFactory.getLogger(ThumbnailPacker.class);
+
+    private final ThumbnailService service;
+
+    private final PackedThumbnailStore store;
+
+    private final boolean keep;
+
+    private long packed = 0;
+
+    private long skipped = 0;
+
+    public ThumbnailPacker(String dataDir, boolean keep) {
+        this.service = new ThumbnailService(dataDir);
+        this.store = service.getPackedStore();
+        this.keep = keep;
+    }
+
+    /**
+     * Packs all the thumbnails stored in a file each.
+     * @return the number of thumbnails packed
+     * @throws IOException if a thumbnail could not be read or packed
+     */
+    public long pack() throws IOException {
+        final String path = service.getThumbnailPath(0L);
+        pack(new File(path).getParentFile());
+        log.info(String.format("Packed %d thumbnails, %d were already packed",
+                packed, skipped));
+        return packed;
+    }
+
+    private void pack(File directory) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                if (file.getName().startsWith("Dir-")) {
+                    pack(file);
+                }
+                continue;
+            }
+            final long id;
+            try {
+                id = Long.parseLong(file.getName());
+            } catch (NumberFormatException nfe) {
+                continue;
+            }
+            if (!file.getPath().equals(service.getThumbnailPath(id))) {
+                continue;
+            }
+            if (store.contains(id)) {
+                skipped++;
+            } else {
+                store.put(id, FileUtils.readFileToByteArray(file));
+                packed++;
+            }
+            if (!keep && !file.delete()) {
+                log.warn("Failed to delete " + file);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2
+                || (args.length == 2 && !"--keep".equals(args[1]))) {
+            System.err.println("Usage: java " + ThumbnailPacker.class.getName()
+                    + " DATA_DIR [--keep]");
+            System.exit(2);
+        }
+        final ThumbnailPacker packer =
+                new ThumbnailPacker(args[0], args.length == 2);
+        System.out.println("Packed " + packer.pack() + " thumbnails");
+    }
+}
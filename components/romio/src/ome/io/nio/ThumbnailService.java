@@ -6,11 +6,16 @@
  */
 package ome.io.nio;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +42,17 @@ public class ThumbnailService extends AbstractFileSystemService {
         super(path);
     }
 
+    /**
+     * Returns the store of packed thumbnails. Thumbnails are written to it
+     * and read from it in preference to the file per thumbnail in which
+     * earlier versions stored them.
+     *
+     * @return the store
+     */
+    public PackedThumbnailStore getPackedStore() {
+        return PackedThumbnailStore.getInstance(new File(getThumbnailPackPath()));
+    }
+
     /**
      * Creates thumbnail on disk using byte array
      *
@@ -46,12 +62,8 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public void createThumbnail(Thumbnail thumbnail, byte[] buf)
             throws IOException {
-        String path = getThumbnailPath(thumbnail.getId());
-        createSubpath(path);
-
-        FileOutputStream stream = new FileOutputStream(path);
-        stream.write(buf);
-        stream.close();
+        getPackedStore().put(thumbnail.getId(), buf);
+        removeLegacyThumbnail(thumbnail.getId());
     }
 
     /**
@@ -60,6 +72,14 @@ public class ThumbnailService extends AbstractFileSystemService {
      * @param thumbnail
      */
     public long getThumbnailLength(Thumbnail thumbnail) {
+        try {
+            int length = getPackedStore().length(thumbnail.getId());
+            if (length >= 0) {
+                return length;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read packed thumbnail " + thumbnail.getId(), e);
+        }
         File f = new File(getThumbnailPath(thumbnail.getId()));
         return f.length();
     }
@@ -72,6 +92,12 @@ public class ThumbnailService extends AbstractFileSystemService {
      * @throws IOException
      */
     public byte[] getThumbnail(Thumbnail thumbnail) throws IOException {
+        ByteBuffer packed = getPackedStore().get(thumbnail.getId());
+        if (packed != null) {
+            byte[] buf = new byte[packed.remaining()];
+            packed.get(buf);
+            return buf;
+        }
         byte[] buf = new byte[(int) getThumbnailLength(thumbnail)];
         return getThumbnail(thumbnail, buf);
     }
@@ -86,6 +112,11 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public byte[] getThumbnail(Thumbnail thumbnail, byte[] buf)
             throws IOException {
+        ByteBuffer packed = getPackedStore().get(thumbnail.getId());
+        if (packed != null) {
+            packed.get(buf, 0, Math.min(buf.length, packed.remaining()));
+            return buf;
+        }
         String path = getThumbnailPath(thumbnail.getId());
         FileInputStream stream = new FileInputStream(path);
         try {
@@ -97,17 +128,56 @@ public class ThumbnailService extends AbstractFileSystemService {
     }
 
     /**
-     * Return FileOutputStream of Thumbnail
+     * Return byte arrays of several thumbnails at once. The packed
+     * thumbnails are read in the order in which they are stored.
+     *
+     * @param thumbnails the thumbnails to read
+     * @return the thumbnails which exist on disk, by ID
+     * @throws IOException
+     */
+    public Map<Long, byte[]> getThumbnails(Collection<Thumbnail> thumbnails)
+            throws IOException {
+        Map<Long, Thumbnail> byId = new HashMap<Long, Thumbnail>();
+        for (Thumbnail thumbnail : thumbnails) {
+            byId.put(thumbnail.getId(), thumbnail);
+        }
+        Map<Long, byte[]> bufs = new HashMap<Long, byte[]>();
+        Map<Long, ByteBuffer> packed = getPackedStore().get(byId.keySet());
+        for (Map.Entry<Long, ByteBuffer> entry : packed.entrySet()) {
+            byte[] buf = new byte[entry.getValue().remaining()];
+            entry.getValue().get(buf);
+            bufs.put(entry.getKey(), buf);
+        }
+        for (Map.Entry<Long, Thumbnail> entry : byId.entrySet()) {
+            if (!bufs.containsKey(entry.getKey())
+                    && new File(getThumbnailPath(entry.getKey())).exists()) {
+                bufs.put(entry.getKey(), getThumbnail(entry.getValue()));
+            }
+        }
+        return bufs;
+    }
+
+    /**
+     * Return an OutputStream for a Thumbnail. What is written is stored
+     * once the stream is closed.
      * 
      * @param thumbnail
-     * @return a {@link FileOutputStream}
+     * @return an {@link OutputStream}
      * @throws IOException
      */
-    public FileOutputStream getThumbnailOutputStream(Thumbnail thumbnail)
+    public OutputStream getThumbnailOutputStream(final Thumbnail thumbnail)
             throws IOException {
-        String path = getThumbnailPath(thumbnail.getId());
-        createSubpath(path);
-        return new FileOutputStream(path);
+        return new ByteArrayOutputStream() {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    createThumbnail(thumbnail, toByteArray());
+                }
+            }
+        };
     }
 
     /**
@@ -118,41 +188,61 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public boolean getThumbnailExists(Thumbnail thumbnail)
             throws IOException {
+        if (getPackedStore().contains(thumbnail.getId())) {
+            return true;
+        }
         String path = getThumbnailPath(thumbnail.getId());
         return new File(path).exists();
     }
 
     /**
      * Removes files from data repository based on a parameterized List of Long
-     * thumbnail ids
+     * thumbnail ids. Packed thumbnails are removed from their store, which
+     * is compacted as necessary.
      *
      * @param thumbnailIds -
      *            Long file keys to be deleted
      * @throws ResourceError If deletion fails.
      */
     public void removeThumbnails(List<Long> thumbnailIds) {
-        File file;
-        boolean success = false;
-
+        try {
+            int removed = getPackedStore().remove(thumbnailIds);
+            if (removed > 0 && log.isInfoEnabled())
+            {
+                log.info("INFO: " + removed + " packed thumbnails deleted.");
+            }
+        } catch (IOException e) {
+            throw new ResourceError("Packed thumbnail deletion failed: "
+                    + e.getMessage());
+        }
         for (Long id : thumbnailIds)
         {
-            String thumbnailPath = getThumbnailPath(id);
-            file = new File(thumbnailPath);
-            if (file.exists())
+            removeLegacyThumbnail(id);
+        }
+    }
+
+    /**
+     * Removes the file in which a thumbnail was stored before thumbnails
+     * were packed, if it exists.
+     *
+     * @param id the thumbnail id
+     * @throws ResourceError If deletion fails.
+     */
+    private void removeLegacyThumbnail(Long id) {
+        File file = new File(getThumbnailPath(id));
+        if (file.exists())
+        {
+            if (!file.delete())
             {
-                success = file.delete();
-                if (!success)
-                {
-                    throw new ResourceError("Thumbnail " + file.getName()
-                            + " deletion failed");
-                }
-                else
+                throw new ResourceError("Thumbnail " + file.getName()
+                        + " deletion failed");
+            }
+            else
+            {
+                if (log.isInfoEnabled())
                 {
-                    if (log.isInfoEnabled())
-                    {
-                        log.info("INFO: Thumbnail " + file.getName()
-                                + " deleted.");
-                    }
+                    log.info("INFO: Thumbnail " + file.getName()
+                            + " deleted.");
                 }
             }
         }
@@ -0,0 +1,230 @@
+/*
+ * ome.io.nio.TileCache
+ *
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.util.Iterator;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Server-wide cache of decoded pixels pyramid tiles, shared by all the
+ * {@link PixelBuffer} instances created by the {@link PixelsService} so that
+ * the tiles of a popular image are only decoded once for all sessions.
+ * The cache is bounded by the total number of bytes of the tiles it holds,
+ * including an estimate of the overhead of each entry, and evicts the least
+ * recently used tiles first. The cache lives on the heap so it is never
+ * allowed to grow beyond {@link #MAX_HEAP_FRACTION} of the maximum heap,
+ * whatever size is configured.
+ * <p>
+ * Tiles are stored as they come out of the decoder, before any byte swapping,
+ * and are copied on the way in and out so that callers are free to modify or
+ * dispose of the data they receive.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class TileCache {
+
+    /** The logger for this class. */
+    private final static Logger log = LoggerFactory.getLogger(TileCache.class);
+
+    /** The largest fraction of the maximum heap which the cache may use. */
+    public static final double MAX_HEAP_FRACTION = 0.25;
+
+    /**
+     * Estimated bytes used by each cache entry besides the tile itself:
+     * the key, the array header and the cache's own entry.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /** Whether tiles are cached at all. */
+    private final boolean enabled;
+
+    /** The cached tiles. */
+    private final Cache<Key, byte[]> tiles;
+
+    /** Number of lookups which found a tile. */
+    private final Counter hits;
+
+    /** Number of lookups which did not find a tile. */
+    private final Counter misses;
+
+    /** Number of tiles evicted to stay within the size limit. */
+    private final Counter evictions;
+
+    /**
+     * Creates a new cache without metrics.
+     * @param maxSize The maximum size of the cache in megabytes.
+     * <code>0</code> disables the cache.
+     */
+    public TileCache(long maxSize)
+    {
+        this(maxSize, new NullMetrics());
+    }
+
+    /**
+     * Creates a new cache.
+     * @param maxSize The maximum size of the cache in megabytes, lowered to
+     * {@link #MAX_HEAP_FRACTION} of the maximum heap if larger.
+     * <code>0</code> disables the cache.
+     * @param metrics Used to report the hits, misses and evictions.
+     */
+    public TileCache(long maxSize, Metrics metrics)
+    {
+        final long heapSize = (long) (Runtime.getRuntime().maxMemory()
+                * MAX_HEAP_FRACTION) / (1024 * 1024);
+        final long size = Math.min(Math.max(maxSize, 0), heapSize);
+        this.enabled = size > 0;
+        this.hits = metrics.counter(this, "hits");
+        this.misses = metrics.counter(this, "misses");
+        this.evictions = metrics.counter(this, "evictions");
+        this.tiles = CacheBuilder.newBuilder()
+            .maximumWeight(size * 1024 * 1024)
+            .weigher(new Weigher<Key, byte[]>() {
+                public int weigh(Key key, byte[] tile) {
+                    return tile.length + ENTRY_OVERHEAD;
+                }
+            })
+            .removalListener(new RemovalListener<Key, byte[]>() {
+                public void onRemoval(RemovalNotification<Key, byte[]> n) {
+                    if (n.wasEvicted()) {
+                        evictions.inc();
+                    }
+                }
+            })
+            .build();
+        if (size < maxSize) {
+            log.warn("Tile cache of " + maxSize + " MB limited to "
+                    + size + " MB of the heap");
+        } else {
+            log.info("Tile cache of " + maxSize + " MB");
+        }
+    }
+
+    /**
+     * Returns a copy of a cached tile.
+     * @param key The tile to look up.
+     * @return See above or <code>null</code> if the tile is not cached.
+     */
+    public byte[] get(Key key)
+    {
+        byte[] tile = tiles.getIfPresent(key);
+        if (tile == null) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return tile.clone();
+    }
+
+    /**
+     * Caches a copy of a tile.
+     * @param key The tile.
+     * @param tile The decoded pixels of the tile.
+     */
+    public void put(Key key, byte[] tile)
+    {
+        if (enabled) {
+            tiles.put(key, tile.clone());
+        }
+    }
+
+    /**
+     * Removes all the tiles of a pixels set, for instance because its pyramid
+     * has been (re-)written or the pixels set deleted.
+     * @param pixelsId The id of the pixels set.
+     */
+    public void invalidate(long pixelsId)
+    {
+        Iterator<Key> it = tiles.asMap().keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().pixelsId == pixelsId) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tiles in the cache.
+     * @return See above.
+     */
+    public long size()
+    {
+        return tiles.size();
+    }
+
+    /**
+     * Identifies a tile of a given resolution level of a pixels set.
+     */
+    public static final class Key
+    {
+        final long pixelsId;
+
+        final int resolutionLevel, z, c, t, x, y, w, h;
+
+        public Key(long pixelsId, int resolutionLevel, int z, int c, int t,
+                int x, int y, int w, int h)
+        {
+            this.pixelsId = pixelsId;
+            this.resolutionLevel = resolutionLevel;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return pixelsId == k.pixelsId
+                && resolutionLevel == k.resolutionLevel
+                && z == k.z && c == k.c && t == k.t
+                && x == k.x && y == k.y && w == k.w && h == k.h;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = (int) (pixelsId ^ (pixelsId >>> 32));
+            result = 31 * result + resolutionLevel;
+            result = 31 * result + z;
+            result = 31 * result + c;
+            result = 31 * result + t;
+            result = 31 * result + x;
+            result = 31 * result + y;
+            result = 31 * result + w;
+            result = 31 * result + h;
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Tile(%d, %d, z=%d, c=%d, t=%d, %d,%d %dx%d)",
+                    pixelsId, resolutionLevel, z, c, t, x, y, w, h);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * ome.io.nio.TilePipeline
+ *
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import ome.system.metrics.Timer;
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies every tile of a source {@link PixelBuffer} to a destination in two
+ * stages connected by a bounded queue. A dedicated thread reads the tiles from
+ * the source, in the order of {@link Utils#forEachTile}, while the calling
+ * thread hands them, in the very same order, to the {@link TileWriter}. Source
+ * decoding and destination encoding therefore overlap while the destination
+ * still sees exactly the sequence of calls a sequential loop would have made.
+ * <p>
+ * Neither the source nor the writer is accessed by more than one thread.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class TilePipeline {
+
+    /** The logger for this class. */
+    private final static Logger log = LoggerFactory.getLogger(TilePipeline.class);
+
+    /** Marks the end of the tiles in the queue. */
+    private static final Tile END = new Tile(null, 0, 0, 0, 0, 0, 0, 0, -1);
+
+    /** How long the reader waits before re-checking for cancellation. */
+    private static final long OFFER_WAIT = 100;
+
+    /** The buffer the tiles are read from. */
+    private final PixelBuffer source;
+
+    /** The width of the tiles. */
+    private final int tileWidth;
+
+    /** The height of the tiles. */
+    private final int tileHeight;
+
+    /** The maximum number of tiles read ahead of the writer. */
+    private final int queueSize;
+
+    /** Time spent reading each tile; may be <code>null</code>. */
+    private final Timer readTimes;
+
+    /** Time spent writing each tile; may be <code>null</code>. */
+    private final Timer writeTimes;
+
+    /**
+     * Time spent by the writer on each tile, from waiting for it to be read
+     * until it is written; may be <code>null</code>.
+     */
+    private final Timer tileTimes;
+
+    /** Set when either stage fails so that the other one stops early. */
+    private volatile boolean cancelled;
+
+    /**
+     * Receives the tiles, in order, on the thread which called
+     * {@link TilePipeline#run(TileWriter)}.
+     */
+    public interface TileWriter {
+
+        /**
+         * Writes a single tile.
+         * @param tile The pixel data of the tile. Disposed of once this
+         * method returns.
+         * @param z Z section counter of the loop.
+         * @param c Channel counter of the loop.
+         * @param t Timepoint counter of the loop.
+         * @param x X offset of the tile within the plane.
+         * @param y Y offset of the tile within the plane.
+         * @param w Width of the tile.
+         * @param h Height of the tile.
+         * @param tileCount Counter of the tile since the beginning of the
+         * loop.
+         * @throws IOException If the tile cannot be written.
+         */
+        void write(PixelData tile, int z, int c, int t, int x, int y,
+                int w, int h, int tileCount) throws IOException;
+    }
+
+    /**
+     * Creates a new pipeline.
+     * @param source The buffer the tiles are read from.
+     * @param tileWidth The width of the tiles.
+     * @param tileHeight The height of the tiles.
+     * @param queueSize The maximum number of tiles read ahead of the writer.
+     * Must be at least <code>1</code>.
+     * @param readTimes Timer recording each tile read, may be
+     * <code>null</code>.
+     * @param writeTimes Timer recording each tile write, may be
+     * <code>null</code>.
+     */
+    public TilePipeline(PixelBuffer source, int tileWidth, int tileHeight,
+            int queueSize, Timer readTimes, Timer writeTimes)
+    {
+        this(source, tileWidth, tileHeight, queueSize, readTimes, writeTimes,
+                null);
+    }
+
+    /**
+     * Creates a new pipeline.
+     * @param source The buffer the tiles are read from.
+     * @param tileWidth The width of the tiles.
+     * @param tileHeight The height of the tiles.
+     * @param queueSize The maximum number of tiles read ahead of the writer.
+     * Must be at least <code>1</code>.
+     * @param readTimes Timer recording each tile read, may be
+     * <code>null</code>.
+     * @param writeTimes Timer recording each tile write, may be
+     * <code>null</code>.
+     * @param tileTimes Timer recording the time the writer spends on each
+     * tile, including waiting for it to be read, as a sequential loop would
+     * spend reading and writing it; may be <code>null</code>.
+     */
+    public TilePipeline(PixelBuffer source, int tileWidth, int tileHeight,
+            int queueSize, Timer readTimes, Timer writeTimes, Timer tileTimes)
+    {
+        if (queueSize < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Queue size must be positive: " + queueSize);
+        }
+        this.source = source;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.queueSize = queueSize;
+        this.readTimes = readTimes;
+        this.writeTimes = writeTimes;
+        this.tileTimes = tileTimes;
+    }
+
+    /**
+     * Reads every tile of the source and passes it to <code>writer</code>.
+     * Returns once all tiles have been written or as soon as one of the two
+     * stages failed.
+     * @param writer The destination of the tiles.
+     * @return The number of tiles written.
+     * @throws IOException If a tile could not be read or written.
+     */
+    public int run(TileWriter writer) throws IOException
+    {
+        cancelled = false;
+        final BlockingQueue<Tile> queue = new ArrayBlockingQueue<Tile>(queueSize);
+        final Reader reader = new Reader(queue);
+        Thread thread = new Thread(reader, "TilePipeline-reader");
+        thread.setDaemon(true);
+        thread.start();
+        int written = 0;
+        try
+        {
+            while (true)
+            {
+                Timer.Context tileCtx =
+                    tileTimes == null ? null : tileTimes.time();
+                try
+                {
+                    final Tile tile = take(queue);
+                    if (tile == END)
+                    {
+                        tileCtx = null;  // Not a tile.
+                        break;
+                    }
+                    Timer.Context ctx =
+                        writeTimes == null ? null : writeTimes.time();
+                    try
+                    {
+                        writer.write(tile.data, tile.z, tile.c, tile.t,
+                                tile.x, tile.y, tile.w, tile.h,
+                                tile.tileCount);
+                        written++;
+                    }
+                    finally
+                    {
+                        tile.data.dispose();
+                        if (ctx != null)
+                        {
+                            ctx.stop();
+                        }
+                    }
+                }
+                finally
+                {
+                    if (tileCtx != null)
+                    {
+                        tileCtx.stop();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            cancelled = true;
+            dispose(queue);  // Unblock the reader if it is still running.
+            join(thread);
+            // The reader may have queued a last tile before stopping.
+            dispose(queue);
+        }
+        if (reader.failure instanceof IOException)
+        {
+            throw (IOException) reader.failure;
+        }
+        else if (reader.failure instanceof RuntimeException)
+        {
+            throw (RuntimeException) reader.failure;
+        }
+        else if (reader.failure != null)
+        {
+            throw new RuntimeException(reader.failure);
+        }
+        return written;
+    }
+
+    /**
+     * Takes the next tile from the queue, restoring the interrupted status
+     * of the thread and aborting if it is interrupted.
+     */
+    private Tile take(BlockingQueue<Tile> queue) throws IOException
+    {
+        try
+        {
+            return queue.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for tiles.");
+        }
+    }
+
+    /**
+     * Empties the queue, disposing of the tiles which were read but will
+     * not be written.
+     */
+    private void dispose(BlockingQueue<Tile> queue)
+    {
+        Tile tile;
+        while ((tile = queue.poll()) != null)
+        {
+            if (tile != END)
+            {
+                tile.data.dispose();
+            }
+        }
+    }
+
+    /**
+     * Waits for the reader thread to stop.
+     */
+    private void join(Thread thread)
+    {
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for the tile reader.");
+        }
+    }
+
+    /**
+     * Reads the tiles from the source and queues them.
+     */
+    private class Reader implements Runnable, TileLoopIteration
+    {
+
+        private final BlockingQueue<Tile> queue;
+
+        /** The error which stopped the reader, if any. */
+        volatile Throwable failure;
+
+        Reader(BlockingQueue<Tile> queue)
+        {
+            this.queue = queue;
+        }
+
+        public void run()
+        {
+            try
+            {
+                Utils.forEachTile(this, source, tileWidth, tileHeight);
+            }
+            catch (Cancelled e)
+            {
+                // Writer stopped, nothing left to do.
+            }
+            catch (TileReadException e)
+            {
+                failure = e.getCause();
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+            }
+            finally
+            {
+                put(END);
+            }
+        }
+
+        public void run(int z, int c, int t, int x, int y, int w, int h,
+                int tileCount)
+        {
+            if (cancelled)
+            {
+                throw new Cancelled();
+            }
+            PixelData data;
+            Timer.Context ctx = readTimes == null ? null : readTimes.time();
+            try
+            {
+                data = source.getTile(z, c, t, x, y, w, h);
+            }
+            catch (IOException e)
+            {
+                throw new TileReadException(e);
+            }
+            finally
+            {
+                if (ctx != null)
+                {
+                    ctx.stop();
+                }
+            }
+            if (!put(new Tile(data, z, c, t, x, y, w, h, tileCount)))
+            {
+                data.dispose();
+                throw new Cancelled();
+            }
+        }
+
+        /**
+         * Queues a tile, giving up if the writer has stopped.
+         * @return <code>true</code> if the tile was queued.
+         */
+        private boolean put(Tile tile)
+        {
+            try
+            {
+                while (!queue.offer(tile, OFFER_WAIT, TimeUnit.MILLISECONDS))
+                {
+                    if (cancelled)
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /** Unwinds {@link Utils#forEachTile} once the writer has stopped. */
+    private static class Cancelled extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Carries a read error out of {@link Utils#forEachTile}. */
+    private static class TileReadException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        TileReadException(IOException cause)
+        {
+            super(cause);
+        }
+    }
+
+    /** A tile in flight between the two stages. */
+    private static class Tile
+    {
+        final PixelData data;
+        final int z, c, t, x, y, w, h, tileCount;
+
+        Tile(PixelData data, int z, int c, int t, int x, int y, int w, int h,
+                int tileCount)
+        {
+            this.data = data;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.tileCount = tileCount;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.*;
+
+import ome.io.nio.PackedThumbnailStore;
+
+/**
+ * Tests the storage, replacement, removal and compaction of thumbnails by
+ * {@link PackedThumbnailStore}.
+ */
+public class PackedThumbnailStoreUnitTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private File directory;
+
+    private PackedThumbnailStore store;
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = new File(ROOT, "Packed");
+        FileUtils.deleteDirectory(directory);
+        store = new PackedThumbnailStore(directory, SEGMENT_SIZE);
+    }
+
+    private static byte[] blob(long id, int length) {
+        byte[] blob = new byte[length];
+        for (int i = 0; i < length; i++) {
+            blob[i] = (byte) (id * 31 + i);
+        }
+        return blob;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private void assertStored(PackedThumbnailStore store, long id, int length)
+            throws IOException {
+        ByteBuffer buffer = store.get(id);
+        assertNotNull("thumbnail " + id, buffer);
+        assertTrue(Arrays.equals(blob(id, length), bytes(buffer)));
+    }
+
+    @Test
+    public void testEmptyStore() throws IOException {
+        assertNull(store.get(1));
+        assertFalse(store.contains(1));
+        assertEquals(-1, store.length(1));
+        assertEquals(0, store.remove(Arrays.asList(1L)));
+        assertFalse(directory.exists());
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        for (long id = 1; id <= 50; id++) {
+            store.put(id, blob(id, (int) id * 7));
+        }
+        for (long id = 1; id <= 50; id++) {
+            assertStored(store, id, (int) id * 7);
+            assertEquals((int) id * 7, store.length(id));
+        }
+        assertTrue(new File(directory, "00000001.seg").exists());
+        // A second store reads what the first wrote.
+        PackedThumbnailStore reopened =
+                new PackedThumbnailStore(directory, SEGMENT_SIZE);
+        for (long id = 1; id <= 50; id++) {
+            assertStored(reopened, id, (int) id * 7);
+        }
+    }
+
+    @Test
+    public void testReplace() throws IOException {
+        store.put(5, blob(5, 100));
+        ByteBuffer old = store.get(5);
+        store.put(5, blob(6, 200));
+        assertTrue(Arrays.equals(blob(6, 200), bytes(store.get(5))));
+        // Blobs read before being replaced are unchanged.
+        assertTrue(Arrays.equals(blob(5, 100), bytes(old)));
+        assertEquals(1, store.ids().size());
+    }
+
+    @Test
+    public void testBatchGet() throws IOException {
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = 100; id > 0; id--) {
+            store.put(id, blob(id, 64));
+            ids.add(id);
+        }
+        ids.add(1000L);
+        Map<Long, ByteBuffer> blobs = store.get(ids);
+        assertEquals(100, blobs.size());
+        // Blobs are returned in the order in which they are stored.
+        long expected = 100;
+        for (Map.Entry<Long, ByteBuffer> entry : blobs.entrySet()) {
+            assertEquals(expected--, entry.getKey().longValue());
+            assertTrue(Arrays.equals(blob(entry.getKey(), 64),
+                    bytes(entry.getValue())));
+        }
+    }
+
+    @Test
+    public void testRemoveAndCompact() throws IOException {
+        // About 15 blobs of 256 bytes fit in a segment.
+        for (long id = 1; id <= 100; id++) {
+            store.put(id, blob(id, 256));
+        }
+        assertTrue(new File(directory, "00000000.seg").exists());
+        List<Long> removed = new ArrayList<Long>();
+        for (long id = 1; id <= 100; id++) {
+            if (id % 4 != 0) {
+                removed.add(id);
+            }
+        }
+        assertEquals(removed.size(), store.remove(removed));
+        // Segments that are mostly garbage are compacted away.
+        assertFalse(new File(directory, "00000000.seg").exists());
+        for (long id = 1; id <= 100; id++) {
+            if (id % 4 == 0) {
+                assertStored(store, id, 256);
+            } else {
+                assertNull(store.get(id));
+            }
+        }
+        assertEquals(25, store.ids().size());
+        PackedThumbnailStore reopened =
+                new PackedThumbnailStore(directory, SEGMENT_SIZE);
+        for (long id = 4; id <= 100; id += 4) {
+            assertStored(reopened, id, 256);
+        }
+    }
+
+    @Test
+    public void testRehash() throws IOException {
+        store = new PackedThumbnailStore(directory, 1024 * 1024);
+        int count = 40000;
+        for (long id = 1; id <= count; id++) {
+            store.put(id, blob(id, 8));
+        }
+        assertEquals(count, store.ids().size());
+        for (long id = 1; id <= count; id += 97) {
+            assertStored(store, id, 8);
+        }
+        assertFalse(new File(directory, "index.new").exists());
+    }
+
+    @Test
+    public void testCorruptRecordIsMiss() throws IOException {
+        store.put(1, blob(1, 100));
+        store.put(2, blob(2, 100));
+        // Damage the content of the first record, after the segment header
+        // and the record header.
+        RandomAccessFile segment = new RandomAccessFile(
+                new File(directory, "00000000.seg"), "rw");
+        try {
+            segment.seek(8 + 16 + 50);
+            int b = segment.read();
+            segment.seek(8 + 16 + 50);
+            segment.write(b ^ 0xff);
+        } finally {
+            segment.close();
+        }
+        assertNull(store.get(1));
+        assertFalse(store.contains(1));
+        assertStored(store, 2, 100);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTooLarge() throws IOException {
+        store.put(1, new byte[SEGMENT_SIZE]);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.model.core.Pixels;
+import ome.util.PixelData;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.perf4j.StopWatch;
+import org.perf4j.slf4j.Slf4JStopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Contention benchmark for {@link BfPyramidPixelBuffer}: several threads read
+ * random tiles of the same pyramid, first with all reads serialized and then
+ * with a pool of readers. Also checks that the tiles read concurrently are
+ * the ones read sequentially.
+ * @since 5.1
+ */
+@Test(groups = "manual")
+public class PyramidConcurrentReadUnitTest
+    extends AbstractPyramidPixelBufferUnitTest {
+
+    private final static Logger log =
+        LoggerFactory.getLogger(PyramidConcurrentReadUnitTest.class);
+
+    private static final int THREADS = 8;
+
+    private static final int READS_PER_THREAD = 200;
+
+    private List<String> hashDigests = new ArrayList<String>();
+
+    @BeforeClass
+    public void setup() throws IOException {
+        createService();
+        pixelBuffer = service._getPixelBuffer(pixels, true);
+        writeTiles(hashDigests);
+        pixelBuffer.close();
+        pixelBuffer = null;
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        deleteRoot();
+    }
+
+    private PixelBuffer open(int readers) {
+        PixelsService readService = new PixelsService(root) {
+            public boolean requiresPixelsPyramid(Pixels pixels) {
+                return true;
+            }
+        };
+        readService.setPyramidReaders(readers);
+        return readService._getPixelBuffer(pixels, false);
+    }
+
+    private String digest(PixelData tile) {
+        ChecksumProviderFactory cpf = new ChecksumProviderFactoryImpl();
+        return cpf.getProvider(ChecksumType.MD5).putBytes(tile.getData())
+                .checksumAsString();
+    }
+
+    /**
+     * Reads random full resolution tiles from <code>THREADS</code> threads
+     * and returns the number of tiles read per second.
+     */
+    private double readRandomTiles(final PixelBuffer buffer) throws Exception {
+        final int tilesX = (sizeX + tileWidth - 1) / tileWidth;
+        final int tilesY = (sizeY + tileHeight - 1) / tileHeight;
+        // Read every tile once, sequentially, as the reference.
+        final String[][][][] expected =
+            new String[sizeT][sizeC][sizeZ][tilesX * tilesY];
+        for (int t = 0; t < sizeT; t++) {
+            for (int c = 0; c < sizeC; c++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    for (int i = 0; i < tilesX * tilesY; i++) {
+                        expected[t][c][z][i] =
+                            digest(readTile(buffer, z, c, t, i, tilesX));
+                    }
+                }
+            }
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        StopWatch stopWatch = new Slf4JStopWatch(
+                "PyramidConcurrentReadUnitTest.readRandomTiles");
+        for (int n = 0; n < THREADS; n++) {
+            final Random random = new Random(n);
+            futures.add(threads.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int r = 0; r < READS_PER_THREAD; r++) {
+                        int z = random.nextInt(sizeZ);
+                        int c = random.nextInt(sizeC);
+                        int t = random.nextInt(sizeT);
+                        int i = random.nextInt(tilesX * tilesY);
+                        assertEquals(digest(readTile(buffer, z, c, t, i, tilesX)),
+                                expected[t][c][z][i]);
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            threads.shutdown();
+        }
+        stopWatch.stop();
+        return THREADS * READS_PER_THREAD * 1000.0
+            / Math.max(stopWatch.getElapsedTime(), 1);
+    }
+
+    private PixelData readTile(PixelBuffer buffer, int z, int c, int t,
+            int i, int tilesX) throws IOException {
+        int x = (i % tilesX) * tileWidth;
+        int y = (i / tilesX) * tileHeight;
+        int w = Math.min(tileWidth, sizeX - x);
+        int h = Math.min(tileHeight, sizeY - y);
+        return buffer.getTile(z, c, t, x, y, w, h);
+    }
+
+    @Test
+    public void testContention() throws Exception {
+        for (int readers : new int[] { 1, THREADS / 2, THREADS }) {
+            PixelBuffer buffer = open(readers);
+            try {
+                double rate = readRandomTiles(buffer);
+                log.info(String.format(
+                        "%d threads, %d reader(s): %.1f tiles/s",
+                        THREADS, readers, rate));
+            } finally {
+                buffer.close();
+            }
+        }
+    }
+}
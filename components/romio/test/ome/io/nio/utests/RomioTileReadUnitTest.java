@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.perf4j.StopWatch;
+import org.perf4j.slf4j.Slf4JStopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.*;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+/**
+ * Tests the tile, region and hypercube reads of {@link RomioPixelBuffer},
+ * which read the rows of a region straight from the file, against the
+ * pixels of the planes written. The <code>manual</code> group compares
+ * their throughput with copying tiles out of the whole plane.
+ */
+public class RomioTileReadUnitTest {
+
+    private final static Logger log =
+        LoggerFactory.getLogger(RomioTileReadUnitTest.class);
+
+    private static final int SIZE_X = 1024;
+
+    private static final int SIZE_Y = 768;
+
+    private static final int SIZE_Z = 2;
+
+    private static final int TILE = 256;
+
+    private static final int ITERATIONS = 200;
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private PixelBuffer pixelBuffer;
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z + 1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+
+        PixelsService service = new PixelsService(ROOT);
+        pixelBuffer = service._getPixelBuffer(pixels, true);
+        // The last plane is never written.
+        for (int z = 0; z < SIZE_Z; z++) {
+            ByteBuffer plane = ByteBuffer.allocate(SIZE_X * SIZE_Y * 2);
+            for (int i = 0; i < SIZE_X * SIZE_Y; i++) {
+                plane.putShort(value(z, i));
+            }
+            pixelBuffer.setPlane(plane.array(), z, 0, 0);
+        }
+    }
+
+    private static short value(int z, int offset) {
+        return (short) (z * 7919 + offset);
+    }
+
+    private void assertTile(ByteBuffer tile, int z, int x, int y, int w, int h,
+            int stepX, int stepY) {
+        int xStripes = (w + stepX - 1) / stepX;
+        int yStripes = (h + stepY - 1) / stepY;
+        assertEquals(xStripes * yStripes * 2, tile.remaining());
+        for (int i = 0; i < yStripes; i++) {
+            for (int j = 0; j < xStripes; j++) {
+                int offset = (y + i * stepY) * SIZE_X + x + j * stepX;
+                assertEquals(z < SIZE_Z ? value(z, offset) : 0,
+                        tile.getShort());
+            }
+        }
+    }
+
+    @Test
+    public void testGetTile() throws Exception {
+        PixelData tile = pixelBuffer.getTile(1, 0, 0, 100, 50, 30, 20);
+        assertTile(tile.getData(), 1, 100, 50, 30, 20, 1, 1);
+    }
+
+    @Test
+    public void testGetTileDirect() throws Exception {
+        byte[] buffer = new byte[30 * 20 * 2];
+        pixelBuffer.getTileDirect(0, 0, 0, 100, 50, 30, 20, buffer);
+        assertTile(ByteBuffer.wrap(buffer), 0, 100, 50, 30, 20, 1, 1);
+    }
+
+    @Test
+    public void testGetTileDirectWholeRows() throws Exception {
+        byte[] buffer = new byte[SIZE_X * 3 * 2];
+        pixelBuffer.getTileDirect(1, 0, 0, 0, SIZE_Y - 3, SIZE_X, 3, buffer);
+        assertTile(ByteBuffer.wrap(buffer), 1, 0, SIZE_Y - 3, SIZE_X, 3, 1, 1);
+    }
+
+    @Test
+    public void testGetTileOfUnwrittenPlane() throws Exception {
+        PixelData tile = pixelBuffer.getTile(SIZE_Z, 0, 0, 0, 0, 16, 16);
+        assertTile(tile.getData(), SIZE_Z, 0, 0, 16, 16, 1, 1);
+    }
+
+    @Test
+    public void testGetHypercubeWithSteps() throws Exception {
+        List<Integer> offset = Arrays.asList(3, 5, 0, 0, 0);
+        List<Integer> size = Arrays.asList(50, 41, SIZE_Z, 1, 1);
+        List<Integer> step = Arrays.asList(3, 2, 1, 1, 1);
+        ByteBuffer cube = pixelBuffer.getHypercube(offset, size, step).getData();
+        for (int z = 0; z < SIZE_Z; z++) {
+            ByteBuffer plane = cube.slice();
+            plane.limit(17 * 21 * 2);
+            assertTile(plane, z, 3, 5, 50, 41, 3, 2);
+            cube.position(cube.position() + 17 * 21 * 2);
+        }
+        assertFalse(cube.hasRemaining());
+    }
+
+    @Test
+    public void testGetPlaneRegionDirect() throws Exception {
+        byte[] buffer = new byte[2000 * 2];
+        pixelBuffer.getPlaneRegionDirect(1, 0, 0, 2000, 500, buffer);
+        ByteBuffer region = ByteBuffer.wrap(buffer);
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(value(1, 500 + i), region.getShort());
+        }
+    }
+
+    /**
+     * Copies a tile out of the whole plane pixel by pixel, as
+     * {@link PixelBuffer#getTile(Integer, Integer, Integer, Integer, Integer, Integer, Integer)}
+     * did before reading the rows of tiles from the file.
+     */
+    private PixelData getTileFromPlane(int z, int x, int y, int w, int h)
+            throws Exception {
+        PixelData plane = pixelBuffer.getPlane(z, 0, 0);
+        PixelData tile = new PixelData("uint16",
+                ByteBuffer.wrap(new byte[w * h * 2]));
+        for (int i = 0; i < h; i++) {
+            for (int j = 0; j < w; j++) {
+                tile.setPixelValue(i * w + j,
+                        plane.getPixelValue((i + y) * SIZE_X + x + j));
+            }
+        }
+        plane.dispose();
+        return tile;
+    }
+
+    @Test(groups = "manual")
+    public void testTileThroughput() throws Exception {
+        int tilesX = SIZE_X / TILE;
+        int tilesY = SIZE_Y / TILE;
+        StopWatch stopWatch = new Slf4JStopWatch(
+                "RomioTileReadUnitTest.getTileFromPlane");
+        for (int n = 0; n < ITERATIONS; n++) {
+            int i = n % (tilesX * tilesY);
+            getTileFromPlane(n % SIZE_Z, (i % tilesX) * TILE,
+                    (i / tilesX) * TILE, TILE, TILE);
+        }
+        stopWatch.stop();
+        long plane = Math.max(stopWatch.getElapsedTime(), 1);
+        stopWatch = new Slf4JStopWatch("RomioTileReadUnitTest.getTile");
+        for (int n = 0; n < ITERATIONS; n++) {
+            int i = n % (tilesX * tilesY);
+            pixelBuffer.getTile(n % SIZE_Z, 0, 0, (i % tilesX) * TILE,
+                    (i / tilesX) * TILE, TILE, TILE);
+        }
+        stopWatch.stop();
+        long rows = Math.max(stopWatch.getElapsedTime(), 1);
+        log.info(String.format(
+                "%dx%d tiles: %.1f tiles/s from the plane, %.1f tiles/s read "
+                + "by row", TILE, TILE, ITERATIONS * 1000.0 / plane,
+                ITERATIONS * 1000.0 / rows));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.*;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+/**
+ * Tests the sampling of every n-th pixel of a plane by
+ * {@link PixelBuffer#getPlaneRegion(Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer)}
+ * when the region is not a multiple of the stride.
+ */
+public class StridedPlaneRegionUnitTest {
+
+    private static final int SIZE_X = 11;
+
+    private static final int SIZE_Y = 9;
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private PixelBuffer pixelBuffer;
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+
+        PixelsService service = new PixelsService(ROOT);
+        pixelBuffer = service._getPixelBuffer(pixels, true);
+        ByteBuffer plane = ByteBuffer.allocate(SIZE_X * SIZE_Y * 2);
+        for (int i = 0; i < SIZE_X * SIZE_Y; i++) {
+            plane.putShort((short) (i + 1));
+        }
+        pixelBuffer.setPlane(plane.array(), 0, 0, 0);
+    }
+
+    private void assertSampled(int x, int y, int width, int height, int stride)
+            throws Exception {
+        PixelData region = pixelBuffer.getPlaneRegion(
+                x, y, width, height, 0, 0, 0, stride - 1);
+        int w = width / stride;
+        int h = height / stride;
+        assertEquals(w * h, region.size());
+        for (int i = 0; i < h; i++) {
+            for (int j = 0; j < w; j++) {
+                int offset = (y + i * stride) * SIZE_X + x + j * stride;
+                assertEquals((double) (offset + 1),
+                        region.getPixelValue(i * w + j), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testWholePlaneStride2() throws Exception {
+        assertSampled(0, 0, SIZE_X, SIZE_Y, 2);
+    }
+
+    @Test
+    public void testWholePlaneStride4() throws Exception {
+        assertSampled(0, 0, SIZE_X, SIZE_Y, 4);
+    }
+
+    @Test
+    public void testOffsetRegionStride3() throws Exception {
+        assertSampled(1, 2, 10, 7, 3);
+    }
+}
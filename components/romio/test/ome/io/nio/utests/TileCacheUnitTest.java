@@ -0,0 +1,90 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import ome.io.nio.TileCache;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the lookup, eviction and invalidation of {@link TileCache}.
+ * @since 5.1
+ */
+public class TileCacheUnitTest {
+
+    private static final int MB = 1024 * 1024;
+
+    private static TileCache.Key key(long pixelsId, int x) {
+        return new TileCache.Key(pixelsId, 0, 0, 0, 0, x, 0, 256, 256);
+    }
+
+    @Test
+    public void testMissThenHit() {
+        TileCache cache = new TileCache(1);
+        assertNull(cache.get(key(1L, 0)));
+        cache.put(key(1L, 0), new byte[] { 1, 2, 3 });
+        byte[] tile = cache.get(key(1L, 0));
+        assertNotNull(tile);
+        assertEquals(tile, new byte[] { 1, 2, 3 });
+        assertNull(cache.get(key(1L, 256)));
+        assertNull(cache.get(key(2L, 0)));
+    }
+
+    @Test
+    public void testTilesAreCopied() {
+        TileCache cache = new TileCache(1);
+        byte[] tile = new byte[] { 1, 2, 3 };
+        cache.put(key(1L, 0), tile);
+        tile[0] = 9;
+        byte[] cached = cache.get(key(1L, 0));
+        assertEquals(cached[0], 1);
+        cached[0] = 9;
+        assertEquals(cache.get(key(1L, 0))[0], 1);
+    }
+
+    @Test
+    public void testEvictionBySize() {
+        TileCache cache = new TileCache(1);
+        // a quarter of the cache, leaving room for the entry overhead
+        for (int x = 0; x < 16; x++) {
+            cache.put(key(1L, x), new byte[MB / 4 - 1024]);
+        }
+        assertTrue(cache.size() <= 4, "Too many tiles: " + cache.size());
+        assertNotNull(cache.get(key(1L, 15)));
+        assertNull(cache.get(key(1L, 0)));
+    }
+
+    @Test
+    public void testInvalidate() {
+        TileCache cache = new TileCache(1);
+        cache.put(key(1L, 0), new byte[1]);
+        cache.put(key(1L, 256), new byte[1]);
+        cache.put(key(2L, 0), new byte[1]);
+        cache.invalidate(1L);
+        assertNull(cache.get(key(1L, 0)));
+        assertNull(cache.get(key(1L, 256)));
+        assertNotNull(cache.get(key(2L, 0)));
+    }
+
+    @Test
+    public void testLimitedByHeap() {
+        TileCache cache = new TileCache(Long.MAX_VALUE);
+        cache.put(key(1L, 0), new byte[1]);
+        assertNotNull(cache.get(key(1L, 0)));
+    }
+
+    @Test
+    public void testDisabled() {
+        TileCache cache = new TileCache(0);
+        cache.put(key(1L, 0), new byte[1]);
+        assertNull(cache.get(key(1L, 0)));
+        assertEquals(cache.size(), 0);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.TilePipeline;
+import ome.io.nio.Utils;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link TilePipeline} hands every tile of the source, in order,
+ * to the writer, that failures of either stage are propagated and that no
+ * tile read is left undisposed.
+ * @since 5.1
+ */
+public class TilePipelineUnitTest {
+
+    private static final int sizeX = 100;
+
+    private static final int sizeY = 90;
+
+    private static final int sizeZ = 2;
+
+    private static final int sizeC = 3;
+
+    private static final int tileWidth = 32;
+
+    private static final int tileHeight = 32;
+
+    private String root;
+
+    private PixelBuffer source;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        root = PathUtil.getInstance().getTemporaryDataFilePath();
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(sizeZ);
+        pixels.setSizeC(sizeC);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels.setPixelsType(type);
+
+        source = new PixelsService(root).createPixelBuffer(pixels);
+        byte[] plane = new byte[sizeX * sizeY];
+        for (int c = 0; c < sizeC; c++) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int i = 0; i < plane.length; i++) {
+                    plane[i] = (byte) (i + z + c);
+                }
+                source.setPlane(plane, z, c, 0);
+            }
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        source.close();
+        FileUtils.deleteDirectory(new File(root));
+    }
+
+    /**
+     * Lists the tiles in the order of {@link Utils#forEachTile}.
+     */
+    private List<String> expectedTiles() {
+        final List<String> tiles = new ArrayList<String>();
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int w, int h,
+                    int tileCount) {
+                tiles.add(describe(z, c, t, x, y, w, h, tileCount));
+            }
+        }, source, tileWidth, tileHeight);
+        return tiles;
+    }
+
+    private static String describe(int z, int c, int t, int x, int y, int w,
+            int h, int tileCount) {
+        return String.format("%d:%d/%d/%d:%d,%d:%dx%d",
+                tileCount, z, c, t, x, y, w, h);
+    }
+
+    @Test
+    public void testTilesWrittenInOrder() throws IOException {
+        final List<String> tiles = new ArrayList<String>();
+        TilePipeline pipeline =
+            new TilePipeline(source, tileWidth, tileHeight, 2, null, null);
+        int written = pipeline.run(new TilePipeline.TileWriter() {
+            public void write(PixelData tile, int z, int c, int t, int x,
+                    int y, int w, int h, int tileCount) throws IOException {
+                assertEquals(tile.size(), w * h);
+                assertEquals((byte) tile.getPixelValue(0),
+                        (byte) (y * sizeX + x + z + c));
+                tiles.add(describe(z, c, t, x, y, w, h, tileCount));
+            }
+        });
+        List<String> expected = expectedTiles();
+        assertEquals(written, expected.size());
+        assertEquals(tiles, expected);
+    }
+
+    @Test
+    public void testWriterFailureStopsPipeline() {
+        final int[] count = new int[1];
+        TilePipeline pipeline =
+            new TilePipeline(source, tileWidth, tileHeight, 1, null, null);
+        try {
+            pipeline.run(new TilePipeline.TileWriter() {
+                public void write(PixelData tile, int z, int c, int t, int x,
+                        int y, int w, int h, int tileCount)
+                    throws IOException {
+                    if (++count[0] == 3) {
+                        throw new IOException("write failed");
+                    }
+                }
+            });
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "write failed");
+        }
+        assertEquals(count[0], 3);
+    }
+
+    /**
+     * Wraps the source so that the tiles it returns count their disposal.
+     */
+    private PixelBuffer countingSource(final AtomicInteger read,
+            final AtomicInteger disposed) {
+        return (PixelBuffer) Proxy.newProxyInstance(
+                PixelBuffer.class.getClassLoader(),
+                new Class<?>[] {PixelBuffer.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args)
+                    throws Throwable {
+                Object rv;
+                try {
+                    rv = method.invoke(source, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (!method.getName().equals("getTile")) {
+                    return rv;
+                }
+                read.incrementAndGet();
+                PixelData tile = (PixelData) rv;
+                return new PixelData("uint8", tile.getData()) {
+                    @Override
+                    public void dispose() {
+                        disposed.incrementAndGet();
+                        super.dispose();
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void testQueuedTilesDisposedOnFailure() {
+        final AtomicInteger read = new AtomicInteger();
+        final AtomicInteger disposed = new AtomicInteger();
+        TilePipeline pipeline = new TilePipeline(
+                countingSource(read, disposed), tileWidth, tileHeight, 4,
+                null, null);
+        try {
+            pipeline.run(new TilePipeline.TileWriter() {
+                public void write(PixelData tile, int z, int c, int t, int x,
+                        int y, int w, int h, int tileCount)
+                    throws IOException {
+                    if (tileCount == 2) {
+                        throw new IOException("write failed");
+                    }
+                }
+            });
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "write failed");
+        }
+        // Every tile read ahead of the failed write has been disposed of.
+        assertTrue(read.get() >= 3);
+        assertEquals(disposed.get(), read.get());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testQueueSizeMustBePositive() {
+        new TilePipeline(source, tileWidth, tileHeight, 0, null, null);
+    }
+}
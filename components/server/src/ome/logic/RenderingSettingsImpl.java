@@ -9,12 +9,22 @@ package ome.logic;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -91,6 +101,41 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 
     /** Reference to the service used to retrieve the pixels metadata. */
     protected transient IPixels pixelsMetadata;
+
+    /**
+     * Pool on which the location statistics of the Pixels sets of a set are
+     * computed. If <code>null</code>, they are computed in turn.
+     */
+    protected transient ExecutorService statsExecutor;
+
+    /**
+     * Maximum number of Pixels sets whose location statistics are being
+     * computed and whose settings have not yet been reset. Bounds the
+     * number of open pixel buffers.
+     */
+    private static final int MAX_PENDING_STATS = 32;
+
+    /** Maximum number of IDs bound to a single query. */
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
+    /**
+     * The input window and noise reduction flag of each channel of a Pixels
+     * set, determined by {@link StatsFactory} on the default plane.
+     */
+    private static class LocationStats {
+
+        final double[] inputStart;
+
+        final double[] inputEnd;
+
+        final boolean[] noiseReduction;
+
+        LocationStats(int sizeC) {
+            inputStart = new double[sizeC];
+            inputEnd = new double[sizeC];
+            noiseReduction = new boolean[sizeC];
+        }
+    }
  
     /**
      * Returns the min/max depending on the pixels type if the values
@@ -153,35 +198,43 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
     		                          Set<Long> nodeIds)
     {
     	// Pre-process our list of potential containers. This will resolve down
-    	// to a list of Pixels objects for us to work on.
+    	// to a list of Pixels objects for us to work on. The channels are
+    	// fetched so each Pixels set is listed once per channel.
+    	List<Pixels> found = new ArrayList<Pixels>();
     	if (Project.class.equals(klass))
     	{
-    		pixels.addAll(loadProjectPixels(nodeIds));
+    		found.addAll(loadProjectPixels(nodeIds));
     	}
     	else if (Dataset.class.equals(klass))
     	{
-    		pixels.addAll(loadDatasetPixels(nodeIds));
+    		found.addAll(loadDatasetPixels(nodeIds));
     	}
     	else if (Plate.class.equals(klass))
     	{
-    		pixels.addAll(loadPlatePixels(nodeIds));
+    		found.addAll(loadPlatePixels(nodeIds));
     	}
     	else if (PlateAcquisition.class.equals(klass))
     	{
-    		pixels.addAll(loadPlateAcquisitionPixels(nodeIds));
+    		found.addAll(loadPlateAcquisitionPixels(nodeIds));
     	}
     	else if (Screen.class.equals(klass))
     	{
-    		pixels.addAll(loadScreenPixels(nodeIds));
+    		found.addAll(loadScreenPixels(nodeIds));
     	}
     	else if (Image.class.equals(klass))
     	{
-    		pixels.addAll(loadPixelsByImage(nodeIds));
+    		found.addAll(loadPixelsByImage(nodeIds));
     	}
     	else if (Pixels.class.equals(klass))
     	{
-    		pixels.addAll(loadPixels(nodeIds));
+    		found.addAll(loadPixels(nodeIds));
+    	}
+    	Map<Long, Pixels> unique = new LinkedHashMap<Long, Pixels>();
+    	for (Pixels p : found)
+    	{
+    		unique.put(p.getId(), p);
     	}
+    	pixels.addAll(unique.values());
     }
     
     /**
@@ -200,6 +253,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 			"join fetch pix.pixelsType " +
 			"join fetch pix.channels as c " +
 			"join fetch c.logicalChannel " +
+			"left outer join fetch c.statsInfo " +
 			"where pix.id in (:ids)";
 		List<Pixels> pixels = iQuery.findAllByQuery(sql, p);
 		s1.stop();
@@ -222,6 +276,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 			"join fetch pix.pixelsType " +
 			"join fetch pix.channels as c " +
 			"join fetch c.logicalChannel " +
+			"left outer join fetch c.statsInfo " +
 			"where i.id in (:ids)";
 		List<Pixels> pixels = iQuery.findAllByQuery(sql, p);
 		s1.stop();
@@ -244,6 +299,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 			"join fetch pix.pixelsType " +
 			"join fetch pix.channels as c " +
 			"join fetch c.logicalChannel " +
+			"left outer join fetch c.statsInfo " +
 			"left outer join i.wellSamples as s " +
 			"left outer join s.well as w " +
 			"left outer join w.plate as p " +
@@ -269,6 +325,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 			"join fetch pix.pixelsType " +
 			"join fetch pix.channels as c " +
 			"join fetch c.logicalChannel " +
+			"left outer join fetch c.statsInfo " +
 			"left outer join i.wellSamples as s " +
 			"left outer join s.plateAcquisition as p " +
 			"where p.id in (:ids)";
@@ -293,6 +350,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 			"join fetch pix.pixelsType " +
 			"join fetch pix.channels as c " +
 			"join fetch c.logicalChannel " +
+			"left outer join fetch c.statsInfo " +
 			"left outer join i.wellSamples as s " +
 			"left outer join s.well as w " +
 			"left outer join w.plate as p " +
@@ -320,6 +378,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 			"join fetch pix.pixelsType " +
 			"join fetch pix.channels as c " +
 			"join fetch c.logicalChannel " +
+			"left outer join fetch c.statsInfo " +
 			"left outer join i.datasetLinks dil " +
 			"left outer join dil.parent d " +
 			"where d.id in (:ids)";
@@ -344,6 +403,7 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
 			"join fetch pix.pixelsType " +
 			"join fetch pix.channels as c " +
 			"join fetch c.logicalChannel " +
+			"left outer join fetch c.statsInfo " +
 			"left outer join i.datasetLinks dil " +
 			"left outer join dil.parent as d " +
 			"left outer join d.projectLinks as pdl " +
@@ -383,6 +443,58 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         return lc;
     }
 
+    /**
+     * Loads the logical channels needed to determine the color of the
+     * channels of the given Pixels sets which have no original color.
+     *
+     * @param pixels The Pixels sets.
+     * @return A map of &lt;LogicalChannel.Id,LogicalChannel&gt;.
+     */
+    private Map<Long, LogicalChannel> loadLogicalChannels(
+            Collection<Pixels> pixels)
+    {
+        StopWatch s1 = new Slf4JStopWatch("omero.loadLogicalChannels");
+        List<Long> ids = new ArrayList<Long>();
+        for (Pixels p : pixels)
+        {
+            for (Channel channel : p.<Channel>collectChannels(null))
+            {
+                LogicalChannel lc = channel.getLogicalChannel();
+                if (lc != null && hasOriginalColor(channel) == null)
+                {
+                    ids.add(lc.getId());
+                }
+            }
+        }
+        Map<Long, LogicalChannel> lcs = new HashMap<Long, LogicalChannel>();
+        String sql =
+            "select channel from LogicalChannel as channel " +
+            "left outer join fetch channel.filterSet as filter " +
+            "left outer join fetch channel.lightPath as lp " +
+            "left outer join fetch lp.emissionFilterLink as em_link " +
+            "left outer join fetch em_link.child as emFilter " +
+            "left outer join fetch emFilter.transmittanceRange " +
+            "left outer join fetch lp.excitationFilterLink as ex_link " +
+            "left outer join fetch ex_link.child as exFilter " +
+            "left outer join fetch exFilter.transmittanceRange " +
+            "left outer join fetch channel.lightSourceSettings as lss " +
+            "left outer join fetch lss.lightSource as ls " +
+            "where channel.id in (:ids)";
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY)
+        {
+            Parameters p = new Parameters();
+            p.addIds(new ArrayList<Long>(ids.subList(i,
+                    Math.min(i + MAX_IDS_PER_QUERY, ids.size()))));
+            List<LogicalChannel> loaded = iQuery.findAllByQuery(sql, p);
+            for (LogicalChannel lc : loaded)
+            {
+                lcs.put(lc.getId(), lc);
+            }
+        }
+        s1.stop();
+        return lcs;
+    }
+
     /**
      * Retrieves all rendering settings associated with a given set of Pixels.
      * @param pixels List of Pixels to retrieve settings for.
@@ -478,6 +590,40 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
                                        boolean save, boolean computeStats,
                                        List<Family> families, 
                                        List<RenderingModel> renderingModels)
+    {
+        LocationStats stats = null;
+        if (computeStats)
+        {
+            stats = computeLocationStats(pixels);
+        }
+        return resetDefaults(settings, pixels, save, stats,
+                new QuantumFactory(families), renderingModels,
+                loadLogicalChannels(Collections.singletonList(pixels)));
+    }
+
+    /**
+     * Resets a specific set of rendering settings back to those that are 
+     * specified by the rendering engine intelligent <i>pretty good image 
+     * (PG)</i> logic and a given pixels set, once its location statistics
+     * are known.
+     * 
+     * @param settings The rendering settings which are to be reset. If
+     *                 <code>null</code> these will be created on the fly.
+     * @param pixels The pixels object whose rendering settings are to be reset.
+     * @param save Whether or not the rendering settings should be saved.
+     * @param stats The location statistics determining the input interval
+     *              or <code>null</code> to use the channels' global
+     *              minimum and maximum.
+     * @param quantumFactory A populated quantum factory.
+     * @param renderingModels The valid rendering model enumerations.
+     * @param logicalChannels The logical channels loaded by
+     *                        {@link #loadLogicalChannels(Collection)}.
+     * @return See above.
+     */
+    private RenderingDef resetDefaults(RenderingDef settings, Pixels pixels,
+            boolean save, LocationStats stats, QuantumFactory quantumFactory,
+            List<RenderingModel> renderingModels,
+            Map<Long, LogicalChannel> logicalChannels)
     {
     	// Handle the case where we have no rendering settings so that we can
     	// reset "pretty good image" or "original" (channel minimum and
@@ -486,52 +632,197 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         {
         	settings = createNewRenderingDef(pixels);
         }
-        
-        QuantumFactory quantumFactory = new QuantumFactory(families);
-        try
+
+        resetDefaults(settings, pixels, quantumFactory, renderingModels,
+                stats, logicalChannels);
+
+        // Increment the version of the rendering settings so that we 
+        // can have some notification that either the RenderingDef 
+        // object itself or one of its children in the object graph has 
+        // been updated. FIXME: This should be implemented using 
+        // IUpdate.touch() or similar once that functionality exists.
+        settings.setVersion(settings.getVersion() + 1);
+
+        if (save)
         {
-        	PixelBuffer buffer = null;
-        	if (computeStats)
-        	{
-	        buffer = pixelsData.getPixelBuffer(pixels, false);
-        	}
+        	log.info("Saving settings: " + settings);
+            pixelsMetadata.saveRndSettings(settings);
+        }
+        return settings;
+    }
 
+    /**
+     * Computes the location statistics of each channel of a Pixels set on
+     * its default plane.
+     *
+     * @param pixels The pixels set.
+     * @return See above.
+     */
+    private LocationStats computeLocationStats(Pixels pixels)
+    {
+        return computeLocationStats(pixels,
+                pixelsData.getPixelBuffer(pixels, false));
+    }
+
+    /**
+     * Computes the location statistics of each channel of a Pixels set on
+     * its default plane from an open pixel buffer, which is then closed.
+     * Only reads the state of <code>pixels</code> that was loaded with it
+     * and the buffer, so may be called off the calling thread.
+     *
+     * @param pixels The pixels set.
+     * @param buffer The pixel buffer of <code>pixels</code>.
+     * @return See above.
+     */
+    private LocationStats computeLocationStats(Pixels pixels,
+            PixelBuffer buffer)
+    {
+        try
+        {
             try
             {
-                resetDefaults(settings, pixels, quantumFactory,
-                        renderingModels, buffer, computeStats);
-            }
-            finally
-            {
-                if (buffer != null) {
-                    buffer.close();
+                PlaneDef planeDef = getDefaultPlaneDef(pixels);
+                int sizeC = pixels.sizeOfChannels();
+                LocationStats stats = new LocationStats(sizeC);
+                StatsFactory sf = new StatsFactory();
+                for (int w = 0; w < sizeC; w++) {
+                    sf.computeLocationStats(pixels, buffer, planeDef, w);
+                    stats.inputStart[w] = sf.getInputStart();
+                    stats.inputEnd[w] = sf.getInputEnd();
+                    stats.noiseReduction[w] = sf.isNoiseReduction();
                 }
+                return stats;
             }
-            
-            // Increment the version of the rendering settings so that we 
-            // can have some notification that either the RenderingDef 
-            // object itself or one of its children in the object graph has 
-            // been updated. FIXME: This should be implemented using 
-            // IUpdate.touch() or similar once that functionality exists.
-            settings.setVersion(settings.getVersion() + 1);
-            
-            if (save)
+            finally
             {
-            	log.info("Saving settings: " + settings);
-                pixelsMetadata.saveRndSettings(settings);
+                buffer.close();
             }
-            return settings;
-        } 
+        }
         catch (IOException e)
         {
-            log.debug("An I/O error occurred while attempting to reset " +
-                      "rendering settings " + settings + " for pixels set " + 
-                      pixels, e);
+            log.debug("An I/O error occurred while attempting to compute " +
+                      "the location statistics of pixels set " + pixels, e);
             throw new ResourceError(
                     e.getMessage() + " Please check server log.");
         }
     }
-    
+
+    /**
+     * Waits for location statistics computed by
+     * {@link #submitLocationStats(Pixels)}.
+     *
+     * @param stats The pending statistics.
+     * @return See above.
+     * @throws Exception The exception thrown while computing the statistics.
+     */
+    private LocationStats getLocationStats(Future<LocationStats> stats)
+        throws Exception
+    {
+        try
+        {
+            return stats.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Computes the location statistics of a Pixels set on the
+     * {@link #statsExecutor}, or on the calling thread if there is none.
+     * The pixel buffer is opened on the calling thread, since resolving its
+     * path and series needs the caller's session and security context; only
+     * the reading of the open buffer is handed to the pool.
+     *
+     * @param pixels The pixels set.
+     * @return The pending statistics.
+     */
+    private Future<LocationStats> submitLocationStats(final Pixels pixels)
+    {
+        final PixelBuffer buffer;
+        try
+        {
+            buffer = pixelsData.getPixelBuffer(pixels, false);
+        }
+        catch (final RuntimeException e)
+        {
+            FutureTask<LocationStats> failed = new FutureTask<LocationStats>(
+                new Callable<LocationStats>() {
+                    public LocationStats call() {
+                        throw e;
+                    }
+                });
+            failed.run();
+            return failed;
+        }
+        LocationStatsTask task = new LocationStatsTask(pixels, buffer);
+        if (statsExecutor == null)
+        {
+            task.run();
+        }
+        else
+        {
+            statsExecutor.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Computes the location statistics of a Pixels set from its open pixel
+     * buffer. The buffer is closed once read, or when the task is cancelled
+     * before it starts. A task which is already running when cancelled
+     * closes the buffer itself once done with it.
+     */
+    private class LocationStatsTask extends FutureTask<LocationStats>
+    {
+
+        private final AtomicBoolean claimed;
+
+        private final PixelBuffer buffer;
+
+        LocationStatsTask(final Pixels pixels, final PixelBuffer buffer)
+        {
+            this(pixels, buffer, new AtomicBoolean());
+        }
+
+        private LocationStatsTask(final Pixels pixels,
+                final PixelBuffer buffer, final AtomicBoolean claimed)
+        {
+            super(new Callable<LocationStats>() {
+                public LocationStats call() {
+                    if (!claimed.compareAndSet(false, true)) {
+                        throw new CancellationException();
+                    }
+                    return computeLocationStats(pixels, buffer);
+                }
+            });
+            this.claimed = claimed;
+            this.buffer = buffer;
+        }
+
+        @Override
+        protected void done()
+        {
+            if (isCancelled() && claimed.compareAndSet(false, true))
+            {
+                try
+                {
+                    buffer.close();
+                }
+                catch (IOException e)
+                {
+                    log.debug("Failed to close pixel buffer", e);
+                }
+            }
+        }
+    }
+
     /**
      * Resets a rendering definition to its predefined defaults.
      * 
@@ -539,13 +830,14 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
      * @param pixels The pixels set to reset the definition based upon.
      * @param quantumFactory A populated quantum factory.
      * @param renderingModels An enumerated list of all rendering models.
-     * @param buffer A pixel buffer which maps to the <i>planeDef</i>.
-     * @param computeStats Pass <code>true</code> to compute the stats,
-     * 			           <code>false</code> otherwise
+     * @param stats The location statistics of the channels or
+     *              <code>null</code> to use their global minimum and maximum.
+     * @param logicalChannels The logical channels loaded by
+     *                        {@link #loadLogicalChannels(Collection)}.
      */
     private void resetDefaults(RenderingDef def, Pixels pixels,
             QuantumFactory quantumFactory, List<RenderingModel> renderingModels,
-            PixelBuffer buffer, boolean computeStats) {
+            LocationStats stats, Map<Long, LogicalChannel> logicalChannels) {
         // The default rendering definition settings
         def.setDefaultZ(pixels.getSizeZ() / 2);
         def.setDefaultT(0);
@@ -582,7 +874,8 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         def.setQuantization(quantumDef);
     
         // Reset the channel bindings
-        resetChannelBindings(def, pixels, quantumFactory, buffer, computeStats);
+        resetChannelBindings(def, pixels, quantumFactory, stats,
+                logicalChannels);
     }
     
     /**
@@ -613,32 +906,52 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         
     	List<RenderingDef> toSave = new ArrayList<RenderingDef>(pixels.size());
     	Map<Long, RenderingDef> settingsMap = loadRenderingSettings(pixels);
-    	RenderingDef settings;
-    	for (Pixels p : pixels)
-    	{
-    		settings = settingsMap.get(p.getId());
-    		if (settings == null)
+    	Map<Long, LogicalChannel> logicalChannels = loadLogicalChannels(pixels);
+    	QuantumFactory quantumFactory = new QuantumFactory(families);
+
+    	// The location statistics are computed on the statsExecutor, at
+    	// most MAX_PENDING_STATS ahead of the settings being reset in turn.
+    	List<Future<LocationStats>> stats =
+    		new ArrayList<Future<LocationStats>>(pixels.size());
+    	try {
+    		for (int i = 0; i < pixels.size(); i++)
     		{
-    			settings = createNewRenderingDef(p);
+    			while (computeStats && stats.size() < pixels.size()
+    					&& stats.size() - i < MAX_PENDING_STATS)
+    			{
+    				stats.add(submitLocationStats(pixels.get(stats.size())));
+    			}
+    			Pixels p = pixels.get(i);
+    			try {
+    				LocationStats pixelsStats = null;
+    				if (computeStats) {
+    					pixelsStats = getLocationStats(stats.set(i, null));
+    				}
+    				RenderingDef newSettings =
+    					resetDefaults(settingsMap.get(p.getId()), p, false,
+    							pixelsStats, quantumFactory, renderingModels,
+    							logicalChannels);
+    				if (newSettings != null) {
+    					toSave.add(newSettings);
+    				}
+    				imageIds.add(p.getImage().getId());
+    			} catch (ResourceError e) {
+    				//Exception has already been written to log file.
+    			} catch (ConcurrencyException e) {
+    				log.warn(e.getClass().getSimpleName() + ", " +
+    						"not resetting settings for Image:"
+    						+ p.getImage().getId());
+    			} catch (Exception e) {
+    				log.warn("Exception while resetting settings for Image:"
+    						+ p.getImage().getId(), e);
+    			}
     		}
-    		try {
-    			RenderingDef newSettings =
-    				resetDefaults(settings, p, false, computeStats,
-    						families, renderingModels);
-    			if (newSettings != null) {
-    				toSave.add(newSettings);
+    	} finally {
+    		for (Future<LocationStats> pending : stats) {
+    			if (pending != null) {
+    				pending.cancel(true);
     			}
-    			imageIds.add(p.getImage().getId());
-			} catch (ResourceError e) {
-				//Exception has already been written to log file.
-            } catch (ConcurrencyException e) {
-                log.warn(e.getClass().getSimpleName() + ", " +
-                		"not resetting settings for Image:"
-                         + p.getImage().getId());
-            } catch (Exception e) {
-                log.warn("Exception while resetting settings for Image:"
-                         + p.getImage().getId(), e);
-            }
+    		}
     	}
         StopWatch s2 = new Slf4JStopWatch(
 			"omero.resetDefaultsInSet.saveAndReturn");
@@ -732,22 +1045,20 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
      *            the pixels set to reset the bindings based upon.
      * @param quantumFactory
      *            a populated quantum factory.
-     * @param buffer
-     *            a pixel buffer which maps to the <i>planeDef</i>.
-     * @param computeStats 
-     * 			  Pass <code>true</code> to compute the stats,
-     * 			  <code>false</code> otherwise
+     * @param locationStats
+     *            the location statistics of the channels or
+     *            <code>null</code> to use their global minimum and maximum.
+     * @param logicalChannels
+     *            the logical channels loaded by
+     *            {@link #loadLogicalChannels(Collection)}.
      */
     private void resetChannelBindings(RenderingDef def, Pixels pixels,
-            QuantumFactory quantumFactory, PixelBuffer buffer, boolean
-            computeStats) {
+            QuantumFactory quantumFactory, LocationStats locationStats,
+            Map<Long, LogicalChannel> logicalChannels) {
         // The actual channel bindings we are returning
         List<ChannelBinding> 
         	channelBindings = def.<ChannelBinding>collectWaveRendering(null);
     
-        // Default plane definition for our rendering definition
-        PlaneDef planeDef = getDefaultPlaneDef(def);
-    
         int i = 0;
         ChannelBinding channelBinding;
         LogicalChannel lc;
@@ -775,7 +1086,10 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             defaultColor = hasOriginalColor(channel);
             if (defaultColor == null) {
             	lc = channel.getLogicalChannel();
-                if (lc != null) lc = loadLogicalChannel(lc.getId());
+                if (lc != null) {
+                    LogicalChannel loaded = logicalChannels.get(lc.getId());
+                    lc = loaded != null ? loaded : loadLogicalChannel(lc.getId());
+                }
                 
                 //Update the name of the channel if no name, to be moved.
                 /*
@@ -826,8 +1140,8 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         QuantumDef qDef = def.getQuantization();
         // Set the input start and input end for each channel binding based upon
         // the computation of the pixels set's location statistics.
-        if (computeStats)
-        	computeLocationStats(pixels, channelBindings, planeDef, buffer,
+        if (locationStats != null)
+        	applyLocationStats(pixels, channelBindings, locationStats,
         			quantumFactory, qDef);
         else {
         	StatsInfo stats;
@@ -870,22 +1184,18 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         }
     }
     /**
-     * Computes the location statistics for a set of rendering settings.
+     * Sets the input interval of the channel bindings of a set of rendering
+     * settings from location statistics.
      * 
      * @param pixels	The pixels set.
      * @param cbs		The collection of settings corresponding to channel.
-     * @param planeDef	The 2D-plane. Mustn't be <code>null</code>
-     * @param buf		The buffer.
+     * @param stats		The location statistics of the channels.
      * @param quantumFactory A populated quantum factory.
      * @param qDef		The object hosting information about how to map data.
      */
-    private void computeLocationStats(Pixels pixels,
-            List<ChannelBinding> cbs, PlaneDef planeDef, PixelBuffer buf,
+    private void applyLocationStats(Pixels pixels,
+            List<ChannelBinding> cbs, LocationStats stats,
             QuantumFactory quantumFactory, QuantumDef qDef) {
-        if (planeDef == null) {
-            throw new NullPointerException("No plane definition.");
-        }
-        StatsFactory sf = new StatsFactory();
         ChannelBinding cb;
         double min, max;
         QuantumStrategy qs;
@@ -896,10 +1206,9 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             // of the channels linked to the pixels set.
         	
             cb = cbs.get(w);
-            sf.computeLocationStats(pixels, buf, planeDef, w);
-            cb.setNoiseReduction(sf.isNoiseReduction());
-            min = sf.getInputStart();
-            max = sf.getInputEnd();
+            cb.setNoiseReduction(stats.noiseReduction[w]);
+            min = stats.inputStart[w];
+            max = stats.inputEnd[w];
         	if (Math.abs(min-max) < EPSILON) {
         		qs = quantumFactory.getStrategy(qDef, pixels);
         		min = qs.getPixelsTypeMin();
@@ -912,16 +1221,16 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
     
     /**
      * Creates the default plane definition to use for generation of the very
-     * first image displayed by <i>2D</i> viewers based upon a rendering
-     * definition.
+     * first image displayed by <i>2D</i> viewers, which the defaults set for
+     * a pixels set.
      * 
-     * @param renderingDef
-     *            the rendering definition to base the plane definition upon.
-     * @return The default <i>XY</i>-plane for the <i>renderingDef</i>.
+     * @param pixels
+     *            the pixels set to base the plane definition upon.
+     * @return The default <i>XY</i>-plane for the <i>pixels</i>.
      */
-    private PlaneDef getDefaultPlaneDef(RenderingDef renderingDef) {
-        PlaneDef pd = new PlaneDef(PlaneDef.XY, renderingDef.getDefaultT());
-        pd.setZ(renderingDef.getDefaultZ());
+    private PlaneDef getDefaultPlaneDef(Pixels pixels) {
+        PlaneDef pd = new PlaneDef(PlaneDef.XY, 0);
+        pd.setZ(pixels.getSizeZ() / 2);
         return pd;
     }
 
@@ -1097,6 +1406,17 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         pixelsData = dataService;
     }
 
+    /**
+     * Sets injector. For use during configuration. Can only be called once.
+     * 
+     * @param statsExecutor
+     *            The value to set.
+     */
+    public void setStatsExecutor(ExecutorService statsExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.statsExecutor, statsExecutor);
+        this.statsExecutor = statsExecutor;
+    }
+
     /**
      * Returns the interface this implementation is for.
      * @see AbstractLevel2Service#getServiceInterface()
@@ -1456,8 +1776,8 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         Map<Long, RenderingDef> mySettings =
             loadRenderingSettings(pixelsList);
         Set<IObject> toSave = new HashSet<IObject>();
-       
-        
+        Map<Long, LogicalChannel> logicalChannels = null;
+        QuantumFactory quantumFactory = new QuantumFactory(families);
 
         RenderingDef settings;
         ChannelBinding cb;
@@ -1471,8 +1791,12 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             {
                 try
                 {
-                    settings = resetDefaults(settings, pixels, false, false,
-                    		families, renderingModels);
+                    if (logicalChannels == null)
+                    {
+                        logicalChannels = loadLogicalChannels(pixelsList);
+                    }
+                    settings = resetDefaults(settings, pixels, false, null,
+                    		quantumFactory, renderingModels, logicalChannels);
                     if (settings != null) {
                     	toReturn.add(pixels.getId());
                     	toSave.add(settings);
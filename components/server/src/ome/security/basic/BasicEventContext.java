@@ -14,6 +14,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.Hibernate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +65,8 @@ public class BasicEventContext extends SimpleEventContext {
 
     private Event event;
 
+    private Runnable pendingEvent;
+
     private Experimenter owner;
 
     private ExperimenterGroup group;
@@ -94,6 +97,7 @@ public class BasicEventContext extends SimpleEventContext {
         owner = null;
         group = null;
         event = null;
+        pendingEvent = null;
     }
 
     /**
@@ -230,13 +234,22 @@ public class BasicEventContext extends SimpleEventContext {
     public void setEvent(Event event) {
         this.event = event;
         this.ceId = event.getId();
-        if (event.isLoaded()) {
+        // An uninitialized proxy is not loaded just for its type.
+        if (Hibernate.isInitialized(event) && event.isLoaded()) {
             if (event.getType().isLoaded()) {
                 this.ceType = event.getType().getValue();
             }
         }
     }
 
+    public Runnable getPendingEvent() {
+        return pendingEvent;
+    }
+
+    public void setPendingEvent(Runnable pendingEvent) {
+        this.pendingEvent = pendingEvent;
+    }
+
     public Experimenter getOwner() {
         return owner;
     }
@@ -322,6 +322,20 @@ public class BasicSecuritySystem implements SecuritySystem,
     }
 
     public void loadEventContext(boolean isReadOnly, boolean isClose) {
+        loadEventContext(isReadOnly, isClose, false);
+    }
+
+    /**
+     * Like {@link #loadEventContext(boolean, boolean)} but, if
+     * <code>deferEvent</code> is true, the {@link Event} of a call which is
+     * not read-only is not saved, leaving it to the caller to save it once
+     * the call first writes. See {@link EventHandler}.
+     * @param isReadOnly if the call is read-only
+     * @param isClose if the call closes a stateful service
+     * @param deferEvent if the {@link Event} should not be saved
+     */
+    public void loadEventContext(boolean isReadOnly, boolean isClose,
+            boolean deferEvent) {
 
         final LocalAdmin admin = (LocalAdmin) sf.getAdminService();
         final LocalUpdate update = (LocalUpdate) sf.getUpdateService();
@@ -414,13 +428,11 @@ public class BasicSecuritySystem implements SecuritySystem,
 
         }
 
+        // The session is known from the cached context so there is no need
+        // to load it; saving the event reloads an unloaded session as a proxy.
         long sessionId = ec.getCurrentSessionId().longValue();
-        ome.model.meta.Session sess = null;
-        if (isReadOnly) {
-            sess = new ome.model.meta.Session(sessionId, false);
-        } else {
-            sess = sf.getQueryService().get(ome.model.meta.Session.class, sessionId);
-        }
+        ome.model.meta.Session sess =
+                new ome.model.meta.Session(sessionId, false);
 
         tokenHolder.setToken(callGroup.getGraphHolder());
 
@@ -444,7 +456,9 @@ public class BasicSecuritySystem implements SecuritySystem,
             if (event.getExperimenterGroup().getId() < 0) {
                 event.setExperimenterGroup(eventGroup);
             }
-            cd.updateEvent(update.saveAndReturnObject(event)); // TODO use merge
+            if (!deferEvent) {
+                cd.updateEvent(update.saveAndReturnObject(event)); // TODO use merge
+            }
         }
     }
 
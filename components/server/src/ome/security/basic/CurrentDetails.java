@@ -371,6 +371,7 @@ public class CurrentDetails implements PrincipalHolder {
      * @see <a href="https://trac.openmicroscopy.org.uk/trac/omero/ticket:1434">ticket:1434</a>
      */
     public Details createDetails() {
+        savePendingEvent();
         final BasicEventContext c = current();
         final Details d = Details.create(new Object[]{c, c.getCallContext()});
         d.setCreationEvent(c.getEvent());
@@ -461,6 +462,33 @@ public class CurrentDetails implements PrincipalHolder {
         current().setEvent(event);
     }
 
+    /**
+     * Sets the action which saves the {@link Event} of the current call when
+     * {@link EventHandler} defers saving it until the call first writes.
+     */
+    void setPendingEvent(Runnable save) {
+        current().setPendingEvent(save);
+    }
+
+    /**
+     * Saves the {@link Event} of the current call if its saving was deferred,
+     * so that it exists before anything referring to it is written. Called
+     * whenever new {@link Details} are created and before Hibernate prepares
+     * any statement which is not a query.
+     */
+    public void savePendingEvent() {
+        final LinkedList<BasicEventContext> list = list();
+        if (list.isEmpty()) {
+            return;
+        }
+        final BasicEventContext c = list.getLast();
+        final Runnable save = c.getPendingEvent();
+        if (save != null) {
+            c.setPendingEvent(null);
+            save.run();
+        }
+    }
+
     // ~ Cleanups
     // =========================================================================
 
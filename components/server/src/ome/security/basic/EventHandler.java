@@ -41,6 +41,13 @@ import org.springframework.transaction.interceptor.TransactionAttributeSource;
  * invoked} various cleanup actions are performed and finally all credentials
  * all {@link BasicSecuritySystem#invalidateEventContext() cleared} from the
  * {@link Thread}.
+ *
+ * If {@link #setLazyEvents(boolean) lazy events} are enabled, the
+ * {@link Event} of a call which is not read-only is only saved, and the
+ * database session only prepared for the triggers, once the call first
+ * writes, so that calls which change nothing cost no more than read-only
+ * ones. The ids of these events are allocated from <code>seq_event</code>
+ * in blocks.
  * 
  * 
  * 
@@ -62,6 +69,16 @@ public class EventHandler implements MethodInterceptor, ApplicationListener<Cont
 
     protected final boolean readOnly;
 
+    private boolean lazyEvents = false;
+
+    private int eventIdBlock = 50;
+
+    /** The next id to give to an event, from the last block allocated. */
+    private long nextEventId = 1;
+
+    /** The last id of the last block allocated. */
+    private long lastEventId = 0;
+
     /**
      * only public constructor, used for dependency injection. Requires an
      * active {@link HibernateTemplate} and {@link BasicSecuritySystem}.
@@ -88,6 +105,26 @@ public class EventHandler implements MethodInterceptor, ApplicationListener<Cont
         this.readOnly = readOnly;
     }
 
+    /**
+     * @param lazyEvents if the {@link Event} of a call which is not read-only
+     * should only be saved once the call first writes
+     */
+    public void setLazyEvents(boolean lazyEvents) {
+        this.lazyEvents = lazyEvents;
+    }
+
+    /**
+     * @param eventIdBlock the number of event ids allocated at once from
+     * <code>seq_event</code> for {@link #setLazyEvents(boolean) lazy events}
+     */
+    public void setEventIdBlock(int eventIdBlock) {
+        if (eventIdBlock < 1) {
+            throw new ApiUsageException("Event id block must be positive: "
+                    + eventIdBlock);
+        }
+        this.eventIdBlock = eventIdBlock;
+    }
+
     /**
      * If a {@link ContextMessage} is received then we need to either add a
      * {@link ome.services.messages.ContextMessage.Push} login to the stack or
@@ -206,8 +243,9 @@ public class EventHandler implements MethodInterceptor, ApplicationListener<Cont
 
     public boolean doLogin(boolean readOnly, boolean isClose) {
 
+        final boolean deferEvent = lazyEvents && !readOnly;
         try {
-            secSys.loadEventContext(readOnly, isClose);
+            secSys.loadEventContext(readOnly, isClose, deferEvent);
         } catch (SessionTimeoutException ste) {
             // If this is a CloseOnNoSessionContext then we skip all handling
             // since almost any action by the close() method will try to load
@@ -223,8 +261,11 @@ public class EventHandler implements MethodInterceptor, ApplicationListener<Cont
         }
 
         // now the user can be considered to be logged in.
+        if (deferEvent) {
+            deferEventSave();
+        }
         EventContext ec = secSys.getEventContext();
-        if (!readOnly) {
+        if (!readOnly && !deferEvent) {
             sql.prepareSession(
                     ec.getCurrentEventId(),
                     ec.getCurrentUserId(),
@@ -252,6 +293,48 @@ public class EventHandler implements MethodInterceptor, ApplicationListener<Cont
         return true;
     }
 
+    /**
+     * Gives the unsaved {@link Event} of the current call an id and leaves it
+     * to {@link CurrentDetails#savePendingEvent()} to insert it and prepare
+     * the database session once the call first writes. The event is then
+     * replaced by a Hibernate proxy so that writes cascading to it find it
+     * persistent.
+     */
+    private void deferEventSave() {
+        final CurrentDetails cd = secSys.cd;
+        final Event event = cd.getEvent();
+        event.setId(nextEventId());
+        cd.updateEvent(event);
+        final EventContext ec = cd.getCurrentEventContext();
+        final long userId = ec.getCurrentUserId();
+        final long groupId = ec.getCurrentGroupId();
+        cd.setPendingEvent(new Runnable() {
+            public void run() {
+                if (sql.insertEvent(event) != 1) {
+                    throw new InternalException("Failed to save event of type "
+                            + event.getType().getValue());
+                }
+                sql.prepareSession(event.getId(), userId, groupId);
+                cd.updateEvent((Event) factory.getSession().load(
+                        Event.class, event.getId()));
+            }
+        });
+    }
+
+    /**
+     * Returns the next id from the block of event ids last allocated from
+     * <code>seq_event</code>, allocating a new block when it is used up.
+     * The sequence is not transactional so that the ids of a block are
+     * never given out twice even if the call allocating it rolls back.
+     */
+    private synchronized long nextEventId() {
+        if (nextEventId > lastEventId) {
+            lastEventId = sql.nextValue("seq_event", eventIdBlock);
+            nextEventId = lastEventId - eventIdBlock + 1;
+        }
+        return nextEventId++;
+    }
+
     /**
      * checks method (and as a fallback the class) for the Spring
      * {@link Transactional} annotation.
@@ -283,6 +366,9 @@ public class EventHandler implements MethodInterceptor, ApplicationListener<Cont
             return; // EARLY EXIT
         }
 
+        // The logs refer to the event of the call.
+        secSys.cd.savePendingEvent();
+
         if (readOnly) {
             // If we reach here, we have logs when we shouldn't.
             StringBuilder sb = new StringBuilder();
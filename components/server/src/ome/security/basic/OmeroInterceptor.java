@@ -330,6 +330,11 @@ public class OmeroInterceptor implements Interceptor {
     }
 
     public String onPrepareStatement(String sql) {
+        // Any write must find the event of the call saved, see EventHandler.
+        if (currentUser != null && !sql.regionMatches(true, 0, "select", 0, 6)) {
+            currentUser.savePendingEvent();
+        }
+
         // start
         if (!log.isDebugEnabled()) {
             return sql;
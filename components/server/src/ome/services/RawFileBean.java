@@ -41,7 +41,11 @@ import ome.io.nio.FileBuffer;
 import ome.io.nio.OriginalFilesService;
 import ome.model.core.OriginalFile;
 import ome.security.policy.BinaryAccessPolicy;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
 import ome.util.ShallowCopy;
+import ome.util.checksum.ChecksumProvider;
 import ome.util.checksum.ChecksumProviderFactory;
 import ome.util.checksum.ChecksumType;
 
@@ -115,6 +119,23 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     /** is file service checking for disk overflow */
     private transient boolean diskSpaceChecking;
 
+    /**
+     * Checksum of the bytes written so far, fed by {@link #write} while the
+     * writes are sequential from the start of the file. <code>null</code>
+     * once the writes can no longer be used to compute the file's checksum.
+     */
+    private transient ChecksumProvider streamingChecksum;
+
+    /** the checksum type of {@link #streamingChecksum} */
+    private transient ChecksumType streamingChecksumType;
+
+    /** the number of bytes passed to {@link #streamingChecksum} */
+    private transient long streamedBytes;
+
+    /** counts the bytes which did not have to be read again by {@link #save()} */
+    private transient Counter bytesNotReread =
+        new NullMetrics().counter(this, "checksumBytesNotReread");
+
     /**
      * default constructor
      */
@@ -168,6 +189,14 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         this.checksumProviderFactory = checksumProviderFactory;
     }
 
+    /**
+     * Metrics Bean injector
+     * @param metrics a <code>Metrics</code>
+     */
+    public final void setMetrics(Metrics metrics) {
+        this.bytesNotReread = metrics.counter(this, "checksumBytesNotReread");
+    }
+
     // See documentation on JobBean#passivate
     @RolesAllowed("user")
     @Transactional(readOnly = true)
@@ -230,14 +259,25 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             }
 
             try {
+                File f = new File(path);
+                long size = f.length();
+
                 if (file.getHasher() != null) {
                     final ChecksumType checksumType = checksumAlgorithms.get(file.getHasher().getValue());
-                    file.setHash(this.checksumProviderFactory
-                            .getProvider(checksumType).putFile(path).checksumAsString());
+                    if (streamingChecksum != null
+                            && streamingChecksumType == checksumType
+                            && streamedBytes == size) {
+                        // Every byte of the file came through write()
+                        file.setHash(streamingChecksum.checksumAsString());
+                        bytesNotReread.inc(size);
+                    } else {
+                        file.setHash(this.checksumProviderFactory
+                                .getProvider(checksumType).putFile(path).checksumAsString());
+                    }
                 }
+                // A provider cannot be reused once its checksum is taken.
+                stopStreamingChecksum();
 
-                File f = new File(path);
-                long size = f.length();
                 file.setSize(size);
                 file.setMtime(new java.sql.Timestamp(f.lastModified()));
 
@@ -340,6 +380,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             file = null;
             closeFileBuffer();
             this.buffer = null;
+            stopStreamingChecksum();
 
             modified = false;
             file = iQuery.get(OriginalFile.class, fileId);
@@ -433,6 +474,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         try {
             if (length < buffer.size()) {
                 buffer.truncate(length);
+                stopStreamingChecksum();
                 modified();
                 return true;
             }
@@ -472,11 +514,13 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             iRepositoryInfo.sanityCheckRepository();
         }
 
+        final long start = position;
         try {
             do {
                 position += buffer.write(nioBuffer, position);
             } while (nioBuffer.hasRemaining());
             // Write was successful, update state.
+            updateStreamingChecksum(buf, start, length);
             modified();
         } catch (NonWritableChannelException nwce) {
             throw new SecurityViolation("File not writeable!");
@@ -488,6 +532,42 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         }
     }
 
+    /**
+     * Feeds a successful write into {@link #streamingChecksum}. Hashing
+     * starts with a write at position 0 and stops for good as soon as a
+     * write is not contiguous with the previous one, in which case
+     * {@link #save()} will read the whole file again.
+     */
+    private void updateStreamingChecksum(byte[] buf, long position, int length) {
+        if (file == null || file.getHasher() == null) {
+            return;
+        }
+        if (position == 0 && streamedBytes == 0 && streamingChecksum == null) {
+            streamingChecksumType =
+                    checksumAlgorithms.get(file.getHasher().getValue());
+            if (streamingChecksumType != null) {
+                streamingChecksum =
+                        checksumProviderFactory.getProvider(streamingChecksumType);
+            }
+        }
+        if (streamingChecksum == null) {
+            return;
+        }
+        if (position != streamedBytes) {
+            stopStreamingChecksum();
+            streamedBytes = -1; // Prevent restarting for this file
+            return;
+        }
+        streamingChecksum.putBytes(buf, 0, length);
+        streamedBytes += length;
+    }
+
+    private void stopStreamingChecksum() {
+        streamingChecksum = null;
+        streamingChecksumType = null;
+        streamedBytes = 0;
+    }
+
     /**
      * getter disk overflow checking
      * @return See above.
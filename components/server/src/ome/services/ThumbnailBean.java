@@ -8,7 +8,6 @@ package ome.services;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
@@ -16,9 +15,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -50,6 +56,7 @@ import ome.system.EventContext;
 import ome.system.SimpleEventContext;
 import ome.util.ImageUtil;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.quantum.QuantizationException;
 import omeis.providers.re.quantum.QuantumFactory;
@@ -115,6 +122,15 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The rendering settings service. */
     private transient IRenderingSettings settingsService;
 
+    /** The pool used to render the regions of a plane concurrently. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /**
+     * The pool on which the thumbnails of a set are read or rendered, or
+     * <code>null</code> to handle the Pixels sets of a set in turn.
+     */
+    private transient ExecutorService thumbnailExecutor;
+
     /** The list of all families supported by the {@link Renderer}. */
     private transient List<Family> families;
 
@@ -163,6 +179,13 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The default MIME type. */
     public static final String DEFAULT_MIME_TYPE = "image/jpeg";
 
+    /**
+     * The maximum number of thumbnails of a set waiting to be read or
+     * rendered by {@link #thumbnailExecutor}. Each thumbnail waiting to be
+     * rendered holds an open pixel buffer.
+     */
+    private static final int MAX_PENDING_THUMBNAILS = 32;
+
     /**
      * read-write lock to prevent READ-calls during WRITE operations.
      *
@@ -341,7 +364,7 @@ public class ThumbnailBean extends AbstractLevel2Service
         // Loading last to try to ensure that the buffer will get closed.
         PixelBuffer buffer = pixelDataService.getPixelBuffer(pixels, false);
         renderer = new Renderer(quantumFactory, renderingModels, pixels,
-                settings, buffer);
+                settings, buffer, renderingExecutor);
         dirty = false;
     }
 
@@ -449,6 +472,31 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.settingsService = settingsService;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     *
+     * @param renderingExecutor
+     *            a <code>RenderingExecutor</code>.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.renderingExecutor,
+                renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Thumbnail executor Bean injector.
+     *
+     * @param thumbnailExecutor
+     *            the pool on which the thumbnails of a set are read or
+     *            rendered concurrently.
+     */
+    public void setThumbnailExecutor(ExecutorService thumbnailExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailExecutor,
+                thumbnailExecutor);
+        this.thumbnailExecutor = thumbnailExecutor;
+    }
+
     /**
      * Compresses a buffered image thumbnail to disk.
      *
@@ -466,7 +514,7 @@ public class ThumbnailBean extends AbstractLevel2Service
             iRepositoryInfo.sanityCheckRepository();
         }
 
-        FileOutputStream stream = ioService.getThumbnailOutputStream(thumb);
+        OutputStream stream = ioService.getThumbnailOutputStream(thumb);
         try {
             if (inProgress) {
                 compressInProgressImageToStream(thumb, stream);
@@ -568,6 +616,28 @@ public class ThumbnailBean extends AbstractLevel2Service
             return null;
         }
 
+        return createScaledImage(renderer, settings, thumbnailMetadata,
+                theZ, theT);
+    }
+
+    /**
+     * Creates a scaled buffered image of a plane with the given renderer.
+     * Only touches the state of the renderer, so may be called for
+     * different renderers concurrently.
+     *
+     * @param renderer the renderer of the Pixels set.
+     * @param settings the rendering settings of the renderer.
+     * @param thumbnailMetadata the metadata of the thumbnail to create.
+     * @param theZ the optical section (offset across the Z-axis) requested.
+     * <pre>null</pre> signifies the rendering engine default.
+     * @param theT the timepoint (offset across the T-axis) requested.
+     * <pre>null</pre> signifies the rendering engine default.
+     * @return a scaled buffered image.
+     */
+    private BufferedImage createScaledImage(Renderer renderer,
+            RenderingDef settings, Thumbnail thumbnailMetadata,
+            Integer theZ, Integer theT)
+    {
         // Retrieve our rendered data
         if (theZ == null)
             theZ = settings.getDefaultZ();
@@ -577,8 +647,9 @@ public class ThumbnailBean extends AbstractLevel2Service
         pd.setZ(theZ);
         // Use a resolution level that matches our requested size if we can
         PixelBuffer pixelBuffer = renderer.getPixels();
-        int originalSizeX = pixels.getSizeX();
-        int originalSizeY = pixels.getSizeY();
+        Pixels rendererPixels = renderer.getMetadata();
+        int originalSizeX = rendererPixels.getSizeX();
+        int originalSizeY = rendererPixels.getSizeY();
         int pixelBufferSizeX = pixelBuffer.getSizeX();
         int pixelBufferSizeY = pixelBuffer.getSizeY();
         if (pixelBuffer.getResolutionLevels() > 1)
@@ -601,8 +672,27 @@ public class ThumbnailBean extends AbstractLevel2Service
             renderer.setResolutionLevel(resolutionLevel);
         }
 
+        // Without a pyramid, only sample every stride-th pixel of rows and
+        // columns of the plane so that no more than is needed for the
+        // thumbnail is read, quantized and scaled. The sampled area is
+        // cropped to a multiple of the stride by at most stride - 1 pixels.
+        int stride = 1;
+        if (pixelBuffer.getResolutionLevels() <= 1)
+        {
+            stride = Math.max(1, Math.min(
+                    pixelBufferSizeX / thumbnailMetadata.getSizeX(),
+                    pixelBufferSizeY / thumbnailMetadata.getSizeY()));
+            if (stride > 1)
+            {
+                log.debug(String.format("Sampling every %d pixels of %dx%d",
+                        stride, pixelBufferSizeX, pixelBufferSizeY));
+                pixelBufferSizeX = pixelBufferSizeX / stride * stride;
+                pixelBufferSizeY = pixelBufferSizeY / stride * stride;
+                pd.setStride(stride - 1);
+            }
+        }
+
         // Render the planes and translate to a buffered image
-        Pixels rendererPixels = renderer.getMetadata();
         try
         {
             log.debug(String.format("Setting renderer Pixel sizeX:%d sizeY:%d",
@@ -610,14 +700,16 @@ public class ThumbnailBean extends AbstractLevel2Service
             rendererPixels.setSizeX(pixelBufferSizeX);
             rendererPixels.setSizeY(pixelBufferSizeY);
             int[] buf = renderer.renderAsPackedInt(pd, null);
+            int imageSizeX = pixelBufferSizeX / stride;
+            int imageSizeY = pixelBufferSizeY / stride;
             BufferedImage image = ImageUtil.createBufferedImage(
-                    buf, pixelBufferSizeX, pixelBufferSizeY);
+                    buf, imageSizeX, imageSizeY);
 
             // Finally, scale our image using scaling factors (percentage).
             float xScale = (float)
-                    thumbnailMetadata.getSizeX() / pixelBufferSizeX;
+                    thumbnailMetadata.getSizeX() / imageSizeX;
             float yScale = (float)
-                    thumbnailMetadata.getSizeY() / pixelBufferSizeY;
+                    thumbnailMetadata.getSizeY() / imageSizeY;
             log.debug(String.format("Using scaling factors x:%f y:%f",
                     xScale, yScale));
             return iScale.scaleBufferedImage(image, xScale, yScale);
@@ -654,7 +746,16 @@ public class ThumbnailBean extends AbstractLevel2Service
     private void newContext()
     {
         resetMetadata();
-        ctx = new ThumbnailCtx(
+        ctx = createContext();
+    }
+
+    /**
+     * Creates the thumbnail context used by {@link #newContext()}.
+     * @return A new thumbnail context for the current user.
+     */
+    protected ThumbnailCtx createContext()
+    {
+        return new ThumbnailCtx(
                 iQuery, iUpdate, iPixels, settingsService, ioService,
                 sec, sec.getEffectiveUID());
     }
@@ -800,6 +901,24 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** Actually does the work specified by {@link createThumbnail()}.*/
     private Thumbnail _createThumbnail() {
         StopWatch s1 = new Slf4JStopWatch("omero._createThumbnail");
+        prepareMetadataForCreation();
+        BufferedImage image = createScaledImage(null, null);
+        try {
+            compressThumbnailToDisk(thumbnailMetadata, image);
+            s1.stop();
+            return thumbnailMetadata;
+        } catch (IOException e) {
+            log.error("Thumbnail could not be compressed.", e);
+            throw new ResourceError(e.getMessage());
+        }
+    }
+
+    /**
+     * Updates the version of the current thumbnail metadata, or replaces it
+     * with new metadata for the owner of the rendering settings, before the
+     * thumbnail is created anew.
+     */
+    private void prepareMetadataForCreation() {
         if (thumbnailMetadata == null) {
             throw new ValidationException("Missing thumbnail metadata.");
         } else if (ctx.dirtyMetadata(pixels.getId())) {
@@ -830,16 +949,6 @@ public class ThumbnailBean extends AbstractLevel2Service
         // dirtyMetadata is left false here because we may be creating a
         // thumbnail for the first time and the Thumbnail object has just been
         // created upstream of us.
-
-        BufferedImage image = createScaledImage(null, null);
-        try {
-            compressThumbnailToDisk(thumbnailMetadata, image);
-            s1.stop();
-            return thumbnailMetadata;
-        } catch (IOException e) {
-            log.error("Thumbnail could not be compressed.", e);
-            throw new ResourceError(e.getMessage());
-        }
     }
 
     private static void _setMetadataVersion(Thumbnail tb, boolean inProgress) {
@@ -940,6 +1049,11 @@ public class ThumbnailBean extends AbstractLevel2Service
      */
     private Map<Long, byte[]> retrieveThumbnailSet(Set<Long> pixelsIds)
     {
+        if (thumbnailExecutor != null && pixelsIds.size() > 1)
+        {
+            return retrieveThumbnailSetConcurrently(pixelsIds);
+        }
+
         // Our return value HashMap
         Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
 
@@ -1013,6 +1127,272 @@ public class ThumbnailBean extends AbstractLevel2Service
         return toReturn;
     }
 
+    /**
+     * Performs the logic of retrieving a set of thumbnails as
+     * {@link #retrieveThumbnailSet(Set)} but with the thumbnails read from
+     * the cache, or rendered and compressed, on {@link #thumbnailExecutor}.
+     * The rendering settings, metadata and pixel buffers are still prepared
+     * in turn on the calling thread as they require its Hibernate session.
+     * Each thumbnail to be rendered is given its own {@link Renderer}, and
+     * the changed metadata are saved together once all are done.
+     * @param pixelsIds The Pixels IDs to retrieve thumbnails for.
+     * @return Map of Pixels ID vs. thumbnail bytes.
+     */
+    private Map<Long, byte[]> retrieveThumbnailSetConcurrently(
+            Set<Long> pixelsIds)
+    {
+        Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
+        List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+        // Thumbnails being read or rendered in the order they were submitted
+        // and the metadata to save for each once it is done.
+        Map<Long, Future<byte[]>> pending =
+                new LinkedHashMap<Long, Future<byte[]>>();
+        Map<Long, Thumbnail> pendingMetadata = new HashMap<Long, Thumbnail>();
+        // Metadata of the thumbnails that are cached, by Pixels ID.
+        Map<Long, Thumbnail> cached = new HashMap<Long, Thumbnail>();
+        for (Long id : pixelsIds)
+        {
+            // As in retrieveThumbnailSet(), see #2075.
+            resetMetadata();
+            try
+            {
+                if (!ctx.hasSettings(id))
+                {
+                    try
+                    {
+                        pixelDataService.getPixelBuffer(
+                                ctx.getPixels(id), false);
+                        continue;  // No exception, not an in progress image
+                    }
+                    catch (ConcurrencyException e)
+                    {
+                        log.debug("ConcurrencyException on " +
+                                 "retrieveThumbnailSet.ctx.hasSettings: " +
+                                 "pyramid in progress");
+                        inProgress = true;
+                    }
+                }
+                pixels = ctx.getPixels(id);
+                pixelsId = pixels.getId();
+                settings = ctx.getSettings(pixelsId);
+                thumbnailMetadata = ctx.getMetadata(pixelsId);
+                if (!PROGRESS_VERSION.equals(thumbnailMetadata.getVersion())) {
+                    thumbnailMetadata.setVersion(PROGRESS_VERSION);
+                    dirtyMetadata = true;
+                }
+                if (!inProgress && ctx.isThumbnailCached(pixelsId))
+                {
+                    // Cached thumbnails are read together below.
+                    cached.put(id, thumbnailMetadata);
+                    if (dirtyMetadata)
+                    {
+                        pendingMetadata.put(id, thumbnailMetadata);
+                    }
+                    continue;
+                }
+                Future<byte[]> thumbnail = submitThumbnail();
+                if (thumbnail == null)
+                {
+                    // In progress images are not worth handing off.
+                    toReturn.put(id, retrieveThumbnail(false));
+                    if (dirtyMetadata)
+                    {
+                        toSave.add(thumbnailMetadata);
+                    }
+                }
+                else
+                {
+                    pending.put(id, thumbnail);
+                    if (dirtyMetadata)
+                    {
+                        pendingMetadata.put(id, thumbnailMetadata);
+                    }
+                }
+            }
+            catch (Throwable t)
+            {
+                log.warn("Retrieving thumbnail in set for " +
+                        "Pixels ID " + id + " failed.", t);
+                toReturn.put(id, null);
+            }
+            finally
+            {
+                dirtyMetadata = false;
+            }
+            if (pending.size() >= MAX_PENDING_THUMBNAILS)
+            {
+                collectThumbnail(pending, pendingMetadata, toReturn, toSave);
+            }
+        }
+        while (!pending.isEmpty())
+        {
+            collectThumbnail(pending, pendingMetadata, toReturn, toSave);
+        }
+        readCachedThumbnails(cached, pendingMetadata, toReturn, toSave);
+        // As in retrieveThumbnailSet(), the metadata are saved in one batch.
+        iUpdate.saveArray(toSave.toArray(new Thumbnail[toSave.size()]));
+        iQuery.clear();
+        iUpdate.flush();
+        return toReturn;
+    }
+
+    /**
+     * Reads the cached thumbnails of a set in one batch from the
+     * {@link ThumbnailService}, which reads packed thumbnails in the order
+     * in which they are stored, and notes the results.
+     * @param cached The metadata of the cached thumbnails by Pixels ID.
+     * @param pendingMetadata The metadata to save for the thumbnails read.
+     * @param toReturn The thumbnails retrieved so far.
+     * @param toSave The metadata to save so far.
+     */
+    private void readCachedThumbnails(Map<Long, Thumbnail> cached,
+            Map<Long, Thumbnail> pendingMetadata, Map<Long, byte[]> toReturn,
+            List<Thumbnail> toSave)
+    {
+        if (cached.isEmpty())
+        {
+            return;
+        }
+        Map<Long, byte[]> thumbnails;
+        try
+        {
+            thumbnails = ioService.getThumbnails(cached.values());
+        }
+        catch (IOException e)
+        {
+            log.warn("Reading cached thumbnails in set failed.", e);
+            thumbnails = Collections.emptyMap();
+        }
+        for (Map.Entry<Long, Thumbnail> entry : cached.entrySet())
+        {
+            Long id = entry.getKey();
+            byte[] thumbnail = thumbnails.get(entry.getValue().getId());
+            if (thumbnail == null)
+            {
+                log.warn("Retrieving thumbnail in set for " +
+                        "Pixels ID " + id + " failed.");
+            }
+            else if (pendingMetadata.containsKey(id))
+            {
+                toSave.add(pendingMetadata.remove(id));
+            }
+            toReturn.put(id, thumbnail);
+        }
+    }
+
+    /**
+     * Submits the rendering of the thumbnail of the current Pixels set to
+     * {@link #thumbnailExecutor}. The thumbnail is rendered by the current
+     * renderer, which is handed off to the task and closed once it is done.
+     * @return The thumbnail bytes to come or <code>null</code> if the Pixels
+     * set is in progress, in which case the thumbnail must be retrieved in
+     * turn.
+     */
+    private Future<byte[]> submitThumbnail()
+    {
+        if (inProgress)
+        {
+            return null;
+        }
+        errorIfInvalidState();
+        if (inProgress)
+        {
+            return null;
+        }
+        prepareMetadataForCreation();
+        if (diskSpaceChecking) {
+            iRepositoryInfo.sanityCheckRepository();
+        }
+        final Renderer renderer = this.renderer;
+        final RenderingDef settings = this.settings;
+        final Thumbnail metadata = thumbnailMetadata;
+        this.renderer = null;
+        dirty = true;
+        // The renderer resizes its Pixels while rendering so they must not
+        // be flushed by this thread's session in the meantime.
+        iQuery.evict(renderer.getMetadata());
+        iQuery.evict(settings);
+        try
+        {
+            return thumbnailExecutor.submit(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    try {
+                        return renderThumbnail(renderer, settings, metadata);
+                    } finally {
+                        renderer.close();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            renderer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Renders, compresses and caches a thumbnail. Only touches the state of
+     * the given renderer, so may be called on any thread.
+     * @param renderer The renderer of the Pixels set.
+     * @param settings The rendering settings of the renderer.
+     * @param metadata The metadata of the thumbnail.
+     * @return The thumbnail bytes.
+     * @throws IOException If the thumbnail could not be compressed or cached.
+     */
+    private byte[] renderThumbnail(Renderer renderer, RenderingDef settings,
+            Thumbnail metadata) throws IOException
+    {
+        StopWatch s1 = new Slf4JStopWatch("omero.renderThumbnail");
+        BufferedImage image = createScaledImage(renderer, settings, metadata,
+                null, null);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        compressionService.compressToStream(image, byteStream);
+        byte[] thumbnail = byteStream.toByteArray();
+        ioService.createThumbnail(metadata, thumbnail);
+        s1.stop();
+        return thumbnail;
+    }
+
+    /**
+     * Waits for the oldest pending thumbnail of a set and notes its result.
+     * @param pending The thumbnails being retrieved, oldest first.
+     * @param pendingMetadata The metadata to save for the pending thumbnails.
+     * @param toReturn The thumbnails retrieved so far.
+     * @param toSave The metadata to save so far.
+     */
+    private void collectThumbnail(Map<Long, Future<byte[]>> pending,
+            Map<Long, Thumbnail> pendingMetadata, Map<Long, byte[]> toReturn,
+            List<Thumbnail> toSave)
+    {
+        Iterator<Map.Entry<Long, Future<byte[]>>> i =
+                pending.entrySet().iterator();
+        Map.Entry<Long, Future<byte[]>> entry = i.next();
+        i.remove();
+        Long id = entry.getKey();
+        Thumbnail metadata = pendingMetadata.remove(id);
+        try
+        {
+            toReturn.put(id, entry.getValue().get());
+            if (metadata != null)
+            {
+                toSave.add(metadata);
+            }
+        }
+        catch (ExecutionException e)
+        {
+            log.warn("Retrieving thumbnail in set for " +
+                    "Pixels ID " + id + " failed.", e.getCause());
+            toReturn.put(id, null);
+        }
+        catch (InterruptedException e)
+        {
+            log.warn("Interrupted retrieving thumbnail in set for " +
+                    "Pixels ID " + id, e);
+            toReturn.put(id, null);
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
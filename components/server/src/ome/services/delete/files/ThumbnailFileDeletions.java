@@ -18,9 +18,12 @@
 package ome.services.delete.files;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Set;
 
 import ome.io.nio.AbstractFileSystemService;
+import ome.io.nio.PackedThumbnailStore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,4 +46,25 @@ public class ThumbnailFileDeletions extends AbstractFileDeletions {
             addLocalFile(new File(filePath), id);
         }
     }
+
+    /**
+     * Also removes the deleted thumbnails from the
+     * {@link PackedThumbnailStore}, compacting it as necessary. A failure
+     * to do so fails each of the thumbnails.
+     */
+    @Override
+    public int deleteLocal() {
+        final File packed = new File(afs.getThumbnailPackPath());
+        try {
+            final int removed = PackedThumbnailStore.getInstance(packed)
+                    .remove(new ArrayList<Long>(deletedIds));
+            log.debug("Removed " + removed + " packed thumbnails");
+        } catch (IOException e) {
+            log.warn("Failed to remove packed thumbnails " + deletedIds, e);
+            for (Long id : deletedIds) {
+                fail(new File(packed, id.toString()), id, null);
+            }
+        }
+        return super.deleteLocal();
+    }
 }
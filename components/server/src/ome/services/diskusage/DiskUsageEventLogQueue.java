@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.diskusage;
+
+import ome.model.meta.EventLog;
+import ome.services.eventlogs.EventLogQueue;
+import ome.system.metrics.Metrics;
+
+/**
+ * {@link EventLogQueue} for the event logs of the objects whose disk usage
+ * is noted by {@link DiskUsageLedger}. When first run, the queue starts
+ * after the newest event log since the usage of existing objects is noted
+ * by {@link DiskUsageThread#reconcile()}.
+ *
+ * @since 5.2.0
+ */
+public class DiskUsageEventLogQueue extends EventLogQueue {
+
+    public DiskUsageEventLogQueue(Metrics metrics, int max) {
+        super(metrics, max, DiskUsageLedger.TYPES,
+                new String[] { "INSERT", "UPDATE", "DELETE" });
+    }
+
+    /**
+     * Reads the current id again once it has been initialized, so that the
+     * first lookup starts after the newest event log.
+     */
+    @Override
+    public long getCurrentId() {
+        final long id = super.getCurrentId();
+        return id < 0 ? sql.selectCurrentEventLog(key) : id;
+    }
+
+    @Override
+    public void initialize() {
+        final EventLog last = lastEventLog();
+        if (last != null) {
+            setCurrentId(last.getId());
+        }
+    }
+}
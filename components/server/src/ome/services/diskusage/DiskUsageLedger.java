@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.diskusage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.ThumbnailService;
+import ome.model.annotations.FileAnnotation;
+import ome.model.core.OriginalFile;
+import ome.model.core.Pixels;
+import ome.model.core.PixelsOriginalFileMap;
+import ome.model.display.Thumbnail;
+import ome.model.fs.FilesetEntry;
+import ome.model.jobs.JobOriginalFileLink;
+import ome.model.meta.EventLog;
+import ome.model.roi.Roi;
+import ome.services.eventlogs.EventLogLoader;
+import ome.services.util.Executor.SimpleWork;
+import ome.system.ServiceFactory;
+import ome.util.SqlAction;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Keeps the ledger of the disk space used by the {@link OriginalFile},
+ * {@link Pixels} and {@link Thumbnail} objects of each owner and group up to
+ * date from their {@link EventLog} instances, so that disk usage may be
+ * read from the totals which the database keeps for the ledger rather than
+ * by walking the model graph. The usage of each object is noted afresh from
+ * its current state whatever the action of its event logs, and noted as
+ * nothing once it is deleted. The types of usage of an original file are
+ * those of the objects which refer to it, as reported by the DiskUsage
+ * request, so the files referred to by new or changed links are also noted
+ * afresh.
+ *
+ * As the files of pyramids are created after their event logs and the
+ * links to deleted files are no longer found, the whole ledger is also
+ * periodically noted afresh by {@link #reconcile(Session, String, long, int)}.
+ *
+ * @since 5.2.0
+ */
+public class DiskUsageLedger extends SimpleWork {
+
+    private final static Logger log = LoggerFactory.getLogger(DiskUsageLedger.class);
+
+    /**
+     * Configuration key set once the whole ledger has been noted, from which
+     * point its totals may be used.
+     */
+    public final static String RECONCILED_KEY = "DiskUsageLedger.v1.reconciled";
+
+    /** Types of the objects whose disk usage is noted with their tables. */
+    public final static ImmutableMap<String, String> TABLES =
+            ImmutableMap.of(OriginalFile.class.getName(), "originalfile",
+                    Pixels.class.getName(), "pixels",
+                    Thumbnail.class.getName(), "thumbnail");
+
+    /**
+     * Queries for the original files of the given ids which are referred to
+     * by each type of object, these being the types of usage of the files.
+     * Files which are not referred to have the type OriginalFile.
+     */
+    private final static ImmutableMap<String, String> REFERER_QUERIES =
+            ImmutableMap.<String, String>builder()
+            .put("Annotation", "SELECT file.id FROM FileAnnotation " +
+                    "WHERE file.id IN (:ids)")
+            .put("FilesetEntry", "SELECT originalFile.id FROM FilesetEntry " +
+                    "WHERE originalFile.id IN (:ids)")
+            .put("Job", "SELECT child.id FROM JobOriginalFileLink " +
+                    "WHERE child.id IN (:ids)")
+            .put("Pixels", "SELECT parent.id FROM PixelsOriginalFileMap " +
+                    "WHERE parent.id IN (:ids)")
+            .put("Roi", "SELECT source.id FROM Roi WHERE source.id IN (:ids)")
+            .build();
+
+    /**
+     * Queries for the original files referred to by the objects of each
+     * type whose event logs change the types of usage of the files.
+     */
+    private final static ImmutableMap<String, String> FILE_QUERIES =
+            ImmutableMap.<String, String>builder()
+            .put(FileAnnotation.class.getName(), "SELECT file.id " +
+                    "FROM FileAnnotation WHERE id IN (:ids)")
+            .put(FilesetEntry.class.getName(), "SELECT originalFile.id " +
+                    "FROM FilesetEntry WHERE id IN (:ids)")
+            .put(JobOriginalFileLink.class.getName(), "SELECT child.id " +
+                    "FROM JobOriginalFileLink WHERE id IN (:ids)")
+            .put(PixelsOriginalFileMap.class.getName(), "SELECT parent.id " +
+                    "FROM PixelsOriginalFileMap WHERE id IN (:ids)")
+            .put(Roi.class.getName(), "SELECT source.id FROM Roi " +
+                    "WHERE id IN (:ids)")
+            .build();
+
+    /** Types of the {@link EventLog} instances handled by the ledger. */
+    public final static String[] TYPES = ImmutableList.<String>builder()
+            .addAll(TABLES.keySet()).addAll(FILE_QUERIES.keySet())
+            .build().toArray(new String[0]);
+
+    /** Number of ids in each query. */
+    private final static int QUERY_SIZE = 256;
+
+    final protected EventLogLoader loader;
+
+    final protected PixelsService pixelsService;
+
+    final protected ThumbnailService thumbnailService;
+
+    public DiskUsageLedger(EventLogLoader loader, PixelsService pixelsService,
+            ThumbnailService thumbnailService, SqlAction sql) {
+        super("DiskUsageLedger", "process");
+        this.loader = loader;
+        this.pixelsService = pixelsService;
+        this.thumbnailService = thumbnailService;
+        super.setSqlAction(sql);
+    }
+
+    /**
+     * Since these instances are used repeatedly, we need to check for
+     * already set SqlAction
+     */
+    @Override
+    public synchronized void setSqlAction(SqlAction sql) {
+        if (getSqlAction() == null) {
+            super.setSqlAction(sql);
+        }
+    }
+
+    /**
+     * Notes afresh the usage of the objects of a batch of {@link EventLog}
+     * instances from the {@link EventLogLoader}.
+     *
+     * @return the number of objects whose usage was noted
+     */
+    @Transactional(readOnly = false)
+    public Object doWork(Session session, ServiceFactory sf) {
+        final SetMultimap<String, Long> ids = HashMultimap.create();
+        while (loader.hasNext()) {
+            final EventLog eventLog = loader.next();
+            if (eventLog != null) {
+                ids.put(eventLog.getEntityType(), eventLog.getEntityId());
+            }
+        }
+        for (final String type : FILE_QUERIES.keySet()) {
+            if (ids.containsKey(type)) {
+                ids.putAll(OriginalFile.class.getName(),
+                        query(session, FILE_QUERIES.get(type), ids.get(type)));
+            }
+        }
+        int count = 0;
+        for (final String type : TABLES.keySet()) {
+            if (ids.containsKey(type)) {
+                count += note(session, type, ids.get(type));
+            }
+        }
+        if (count > 0) {
+            log.debug("Noted disk usage of {} objects", count);
+        }
+        return count;
+    }
+
+    /**
+     * Notes afresh the usage of the objects of the given type with ids
+     * greater than that given, in order of id.
+     *
+     * @param session the Hibernate session
+     * @param type one of the {@link #TABLES}
+     * @param fromId the id after which to start
+     * @param max the maximum number of objects
+     * @return the highest id noted, or -1 if there are no more objects
+     */
+    public long reconcile(Session session, String type, long fromId, int max) {
+        @SuppressWarnings("unchecked")
+        final List<Long> ids = session.createQuery("SELECT id FROM " +
+                type + " WHERE id > :id ORDER BY id")
+                .setParameter("id", fromId).setMaxResults(max).list();
+        if (ids.isEmpty()) {
+            getSqlAction().deleteStaleDiskUsage(type, TABLES.get(type));
+            return -1;
+        }
+        note(session, type, ids);
+        return ids.get(ids.size() - 1);
+    }
+
+    /**
+     * Notes the usage of the given objects as it is now, removing that of
+     * the objects which no longer exist or use no disk space.
+     *
+     * @return the number of objects whose usage was noted
+     */
+    protected int note(Session session, String type, Collection<Long> ids) {
+        final String name = type.substring(type.lastIndexOf('.') + 1);
+        final SqlAction sql = getSqlAction();
+        int count = 0;
+        for (final List<Long> batch : Lists.partition(
+                new ArrayList<Long>(ids), QUERY_SIZE)) {
+            final Set<Long> unused = new HashSet<Long>(batch);
+            final SetMultimap<Long, String> usageTypes = HashMultimap.create();
+            if (OriginalFile.class.getName().equals(type)) {
+                for (final String referer : REFERER_QUERIES.keySet()) {
+                    for (final Long fileId : query(session,
+                            REFERER_QUERIES.get(referer), batch)) {
+                        usageTypes.put(fileId, referer);
+                    }
+                }
+            }
+            final String hql = "SELECT id, details.owner.id, " +
+                    "details.group.id" +
+                    (OriginalFile.class.getName().equals(type) ? ", size" : "") +
+                    " FROM " + name + " WHERE id IN (:ids)";
+            @SuppressWarnings("unchecked")
+            final List<Object[]> rows = session.createQuery(hql)
+                    .setParameterList("ids", batch).list();
+            for (final Object[] row : rows) {
+                final long id = (Long) row[0];
+                int files = 0;
+                long bytes = 0;
+                if (OriginalFile.class.getName().equals(type)) {
+                    if (row[3] instanceof Long && (Long) row[3] > 0) {
+                        files = 1;
+                        bytes = (Long) row[3];
+                    }
+                } else if (Pixels.class.getName().equals(type)) {
+                    final String path = pixelsService.getPixelsPath(id);
+                    for (final String file : new String[] { path,
+                            path + PixelsService.PYRAMID_SUFFIX,
+                            path + PixelsService.PYRAMID_SUFFIX +
+                            BfPyramidPixelBuffer.PYR_LOCK_EXT }) {
+                        final long length = new File(file).length();
+                        if (length > 0) {
+                            files++;
+                            bytes += length;
+                        }
+                    }
+                } else {
+                    bytes = thumbnailService.getThumbnailLength(
+                            new Thumbnail(id, false));
+                    files = bytes > 0 ? 1 : 0;
+                }
+                if (files > 0) {
+                    final Set<String> types = usageTypes.get(id);
+                    sql.setDiskUsage(type, id, (Long) row[1], (Long) row[2],
+                            types.isEmpty() ? name : Joiner.on(',').join(
+                                    new TreeSet<String>(types)),
+                            files, bytes);
+                    unused.remove(id);
+                    count++;
+                }
+            }
+            sql.deleteDiskUsage(type, unused);
+        }
+        return count;
+    }
+
+    /**
+     * Runs a query for ids with the given ids as parameter, dropping nulls.
+     */
+    private static List<Long> query(Session session, String hql,
+            Collection<Long> ids) {
+        final List<Long> results = new ArrayList<Long>();
+        for (final List<Long> batch : Lists.partition(
+                new ArrayList<Long>(ids), QUERY_SIZE)) {
+            @SuppressWarnings("unchecked")
+            final List<Long> found = session.createQuery(hql)
+                    .setParameterList("ids", batch).list();
+            for (final Long id : found) {
+                if (id != null) {
+                    results.add(id);
+                }
+            }
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.diskusage;
+
+import java.sql.Timestamp;
+
+import ome.services.sessions.SessionManager;
+import ome.services.util.ExecutionThread;
+import ome.services.util.Executor;
+import ome.system.Principal;
+import ome.system.ServiceFactory;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Runs the {@link DiskUsageLedger} for the new event logs each time
+ * {@link #run()} is called, and notes the whole ledger afresh in batches
+ * each time {@link #reconcile()} is called. The two never run at once.
+ *
+ * @since 5.2.0
+ */
+public class DiskUsageThread extends ExecutionThread {
+
+    private final static Logger log = LoggerFactory.getLogger(DiskUsageThread.class);
+
+    private final static Principal DEFAULT_PRINCIPAL = new Principal("root",
+            "system", "Task");
+
+    /** Number of objects noted in each transaction of a reconciliation. */
+    private final int batchSize;
+
+    private volatile boolean stopped = false;
+
+    public DiskUsageThread(SessionManager manager, Executor executor,
+            DiskUsageLedger ledger, int batchSize) {
+        super(manager, executor, ledger, DEFAULT_PRINCIPAL);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Called by Spring on creation.
+     */
+    public void start() {
+        log.info("Initializing DiskUsageThread (batch={})", batchSize);
+    }
+
+    @Override
+    public synchronized void doRun() {
+        executor.execute(getPrincipal(), work);
+    }
+
+    /**
+     * Notes afresh the usage of all the objects of the ledger, removes that
+     * of the objects which no longer exist and, once done, marks the ledger
+     * as {@link DiskUsageLedger#RECONCILED_KEY reconciled}.
+     */
+    public synchronized void reconcile() {
+        sessionInit();
+        final DiskUsageLedger ledger = (DiskUsageLedger) work;
+        final long start = System.currentTimeMillis();
+        for (final String type : DiskUsageLedger.TABLES.keySet()) {
+            long last = -1;
+            do {
+                if (stopped) {
+                    return;
+                }
+                final long from = last;
+                last = (Long) executor.execute(getPrincipal(),
+                        new Executor.SimpleWork(this, "reconcile", type, from) {
+                    @Transactional(readOnly = false)
+                    public Object doWork(Session session, ServiceFactory sf) {
+                        return ledger.reconcile(session, type, from, batchSize);
+                    }
+                });
+            } while (last >= 0);
+        }
+        executor.execute(getPrincipal(),
+                new Executor.SimpleWork(this, "reconciled") {
+            @Transactional(readOnly = false)
+            public Object doWork(Session session, ServiceFactory sf) {
+                return getSqlAction().updateOrInsertConfigValue(
+                        DiskUsageLedger.RECONCILED_KEY,
+                        new Timestamp(System.currentTimeMillis()).toString());
+            }
+        });
+        log.info("Reconciled disk usage ledger in {} ms",
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Called by Spring on destruction.
+     */
+    public void stop() {
+        log.info("Shutting down DiskUsageThread");
+        stopped = true;
+        ((DiskUsageLedger) work).loader.setStop(true);
+    }
+}
@@ -64,6 +64,16 @@ public abstract class EventLogLoader implements Iterator<EventLog>,
         return this.batchSize;
     }
 
+    /**
+     * Called by a consumer which handles all the {@link EventLog} instances
+     * of a batch at once, once it has flushed them, i.e. once those returned
+     * since the previous call may be considered handled unless their failure
+     * has been reported. Does nothing by default.
+     */
+    public void flushed() {
+        // no-op
+    }
+
     /**
      * The number of objects which have been returned via {@link #next()}. If
      * {@link #count} is -1, then {@link #hasNext()} will temporarily return
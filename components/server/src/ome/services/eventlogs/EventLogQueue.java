@@ -19,13 +19,19 @@
 package ome.services.eventlogs;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
 
 import ome.model.IObject;
 import ome.model.containers.Dataset;
@@ -35,6 +41,7 @@ import ome.model.meta.EventLog;
 import ome.model.screen.Plate;
 import ome.model.screen.Screen;
 import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
 import ome.system.metrics.Metrics;
 import ome.system.metrics.NullMetrics;
 import ome.system.metrics.Timer;
@@ -126,14 +133,36 @@ public class EventLogQueue extends PersistentEventLogLoader {
          */
         int skipped;
 
+        /**
+         * Owner of the object for this {@link EventLog}, between whom
+         * regular entries are interleaved, or -1 if unknown.
+         */
+        final long owner;
+
+        /**
+         * Time in milliseconds at which this entry was queued.
+         */
+        final long queued = System.currentTimeMillis();
+
+        /**
+         * Whether this entry is in the priority queue.
+         */
+        boolean priority;
+
         State state = State.OPEN;
 
         Entry(long log, String type, long id, String action, int skipped) {
+            this(log, type, id, action, skipped, -1);
+        }
+
+        Entry(long log, String type, long id, String action, int skipped,
+                long owner) {
             this.eventLog = log;
             this.objType = type;
             this.objId = id;
             this.action = action;
             this.skipped = skipped;
+            this.owner = owner;
         }
 
         public void update(long eventLogId, String action, int skipped) {
@@ -195,10 +224,11 @@ public class EventLogQueue extends PersistentEventLogLoader {
     /**
      * Collection of collections which must be kept in sync during additions
      * and removals. Three queues are available from which {@link Entry}
-     * instances will be "popped": {@link #priorityQ}, {@link #regularQ},
+     * instances will be "popped": {@link #priorityQ}, {@link #regularQs},
      * and {@link #failureQ}. At the same time, an index is maintained per
      * each {@link EventLog#getEntityType() entityType} so that later log
-     * items are not repeated.
+     * items are not repeated, as is the set of {@link EventLog} ids which
+     * have been loaded but not yet handled.
      *
      * @since 5.0.3
      */
@@ -230,14 +260,22 @@ public class EventLogQueue extends PersistentEventLogLoader {
 
             private void addRegular(Entry entry) {
                 entries.put(entry.objId, entry);
-                regularQ.add(entry);
+                LinkedList<Entry> queue = regularQs.get(entry.owner);
+                if (queue == null) {
+                    queue = new LinkedList<Entry>();
+                    regularQs.put(entry.owner, queue);
+                }
+                queue.add(entry);
                 regularCount.inc();
+                open(entry.eventLog);
             }
 
             public void addPriority(Entry entry) {
                 entries.put(entry.objId, entry);
+                entry.priority = true;
                 priorityQ.add(entry);
                 priorityCount.inc();
+                open(entry.eventLog);
             }
         }
 
@@ -254,10 +292,25 @@ public class EventLogQueue extends PersistentEventLogLoader {
         final private LinkedList<Entry> priorityQ = new LinkedList<Entry>();
 
         /**
-         * Ordered list of {@link Entry} items which should be processed next if
-         * there is nothing in the priority queue.
+         * Ordered lists of {@link Entry} items per {@link Entry#owner} which
+         * should be processed next if there is nothing in the priority queue.
+         * The head of the first list is taken and that list moved to the end
+         * so that the owners take turns.
+         */
+        final private LinkedHashMap<Long, LinkedList<Entry>> regularQs =
+                new LinkedHashMap<Long, LinkedList<Entry>>();
+
+        /**
+         * Ids of the loaded {@link EventLog} instances which have not yet
+         * been handled. Entries may be handled out of order so only the ids
+         * below the lowest of these may be saved as handled.
+         */
+        final private TreeSet<Long> openIds = new TreeSet<Long>();
+
+        /**
+         * Highest {@link EventLog} id which has been loaded.
          */
-        final private LinkedList<Entry> regularQ = new LinkedList<Entry>();
+        private long maxId = -1;
 
         /**
          * List of failed items. They may be retried when no other processing is
@@ -272,11 +325,16 @@ public class EventLogQueue extends PersistentEventLogLoader {
 
         final transient private Counter priorityCount, regularCount, failureCount;
 
+        final transient private Histogram priorityWait, regularWait;
+
         public Data(Counter priority, Counter regular, Counter failure,
+                Histogram priorityWait, Histogram regularWait,
                 List<String> types) {
             this.priorityCount = priority;
             this.regularCount = regular;
             this.failureCount = failure;
+            this.priorityWait = priorityWait;
+            this.regularWait = regularWait;
             this.types = types;
             this.entriesArray = new Entries[types.size()];
             for (int i = 0; i < types.size(); i++) {
@@ -299,23 +357,29 @@ public class EventLogQueue extends PersistentEventLogLoader {
             if (!priorityQ.isEmpty()) {
                 return true;
             }
-            if (!regularQ.isEmpty()) {
+            if (!regularQs.isEmpty()) {
                 return true;
             }
             return false;
         }
 
         public Entry next() {
-            String which = null;
             Entry entry = null;
             if (!priorityQ.isEmpty()) {
                 entry = priorityQ.remove(0);
                 priorityCount.dec();
-                which = "priority";
-            } else if (!regularQ.isEmpty()) {
-                entry = regularQ.remove(0);
+                priorityWait.update(waited(entry));
+            } else if (!regularQs.isEmpty()) {
+                Iterator<Map.Entry<Long, LinkedList<Entry>>> it =
+                        regularQs.entrySet().iterator();
+                Map.Entry<Long, LinkedList<Entry>> first = it.next();
+                entry = first.getValue().remove(0);
+                it.remove();
+                if (!first.getValue().isEmpty()) {
+                    regularQs.put(first.getKey(), first.getValue());
+                }
                 regularCount.dec();
-                which = "regular";
+                regularWait.update(waited(entry));
             } else {
                 throw new NoSuchElementException();
             }
@@ -330,9 +394,62 @@ public class EventLogQueue extends PersistentEventLogLoader {
             failureQ.add(wrapped);
             wrapped.entry.fail();
             failureCount.inc();
+            close(wrapped.entry.eventLog);
             // Note: this will stay in the hash map to prevent future access.
         }
 
+        /**
+         * Points a queued {@link Entry} at a later {@link EventLog}.
+         */
+        public void update(Entry entry, long eventLogId, String action,
+                int skipped) {
+            openIds.remove(entry.eventLog);
+            entry.update(eventLogId, action, skipped);
+            open(eventLogId);
+        }
+
+        /**
+         * Moves a queued {@link Entry} from the regular queues to the end
+         * of the priority queue if it is not already there.
+         */
+        public void promote(Entry entry) {
+            if (entry.priority || entry.state != State.OPEN) {
+                return;
+            }
+            LinkedList<Entry> queue = regularQs.get(entry.owner);
+            if (queue == null || !queue.remove(entry)) {
+                return; // Already returned by next()
+            }
+            if (queue.isEmpty()) {
+                regularQs.remove(entry.owner);
+            }
+            regularCount.dec();
+            entry.priority = true;
+            priorityQ.add(entry);
+            priorityCount.inc();
+        }
+
+        /**
+         * Marks the {@link EventLog} of an {@link Entry} as handled.
+         * @return the highest id below which all loaded {@link EventLog}
+         * instances have been handled.
+         */
+        public long close(long eventLogId) {
+            openIds.remove(eventLogId);
+            return openIds.isEmpty() ? maxId : openIds.first() - 1;
+        }
+
+        private void open(long eventLogId) {
+            if (eventLogId >= 0) {
+                openIds.add(eventLogId);
+                maxId = Math.max(maxId, eventLogId);
+            }
+        }
+
+        private int waited(Entry entry) {
+            return (int) (System.currentTimeMillis() - entry.queued);
+        }
+
     }
 
     /**
@@ -379,8 +496,38 @@ public class EventLogQueue extends PersistentEventLogLoader {
 
     final private Counter nextCount;
 
+    /**
+     * Milliseconds that entries waited in the priority or regular queues.
+     */
+    final private Histogram priorityWait, regularWait;
+
     private int batchCount;
 
+    /**
+     * Actions whose {@link EventLog} instances are placed in the priority
+     * queue ahead of all regular entries, even if their object is already
+     * queued.
+     */
+    private Set<String> priorityActions = Collections.emptySet();
+
+    /**
+     * Milliseconds after which newer {@link EventLog} instances are looked
+     * up even if entries remain queued, so that ones with a priority action
+     * are not held up by a long queue. 0 to look up only once the queue is
+     * empty.
+     */
+    private long refreshInterval = 0;
+
+    /**
+     * Time of the last lookup.
+     */
+    private long lastLookup;
+
+    /**
+     * Highest {@link EventLog} id which has been saved as handled.
+     */
+    private long savedId = -1;
+
     /**
      * Last {@link Entry} which was returned by the {@link #next()} method. If a
      * {@link EventLogFailure} is received, then this should be marked as such.
@@ -389,6 +536,19 @@ public class EventLogQueue extends PersistentEventLogLoader {
      */
     private WrappedEventLog lastReturned;
 
+    /**
+     * If true, the entries returned by {@link #next()} are only handled once
+     * {@link #flushed()} is called.
+     */
+    private boolean batched = false;
+
+    /**
+     * Entries returned by {@link #next()} in {@link #batched} mode since the
+     * last call to {@link #flushed()}.
+     */
+    private final List<WrappedEventLog> unflushed =
+            new ArrayList<WrappedEventLog>();
+
     public EventLogQueue() {
         this(new NullMetrics(),
                 DEFAULT_MAX, new String[]{Project.class.getName(),
@@ -406,6 +566,8 @@ public class EventLogQueue extends PersistentEventLogLoader {
         this.priorityCount = metrics.counter(this, "priorityCount");
         this.regularCount = metrics.counter(this, "regularCount");
         this.failureCount = metrics.counter(this, "failureCount");
+        this.priorityWait = metrics.histogram(this, "priorityWait");
+        this.regularWait = metrics.histogram(this, "regularWait");
 
         // Rough testing shows each entry in the queue to take up about
         // 100 bytes of storage. If the max would use "too much memory",
@@ -423,19 +585,50 @@ public class EventLogQueue extends PersistentEventLogLoader {
         this.types = Arrays.asList(types);
         this.actions = Arrays.asList(actions);
         this.data = new Data(priorityCount, regularCount, failureCount,
-                this.types);
+                priorityWait, regularWait, this.types);
+    }
+
+    /**
+     * Spring injector. Sets the actions whose {@link EventLog} instances are
+     * handled ahead of all others.
+     */
+    public void setPriorityActions(String[] priorityActions) {
+        this.priorityActions = new HashSet<String>(
+                Arrays.asList(priorityActions));
+    }
+
+    /**
+     * Spring injector. If true, the entries returned are only marked as
+     * handled, and the current id only saved, once {@link #flushed()} is
+     * called by a consumer which indexes the whole batch at once, rather
+     * than when the next entry is requested.
+     */
+    public void setBatched(boolean batched) {
+        this.batched = batched;
+    }
+
+    /**
+     * Spring injector. Sets the milliseconds after which newer
+     * {@link EventLog} instances are looked up even if entries remain
+     * queued. 0, the default, looks them up only once the queue is empty.
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
     }
 
     //
     // HELPERS
     //
 
+    /**
+     * Loads the rows of up to {@link #max} {@link EventLog} instances newer
+     * than those already handled or queued.
+     */
     protected List<Object[]> lookup() {
         final Timer.Context ctx = lookupTime.time();
         try {
-            final long current = getCurrentId();
-            List<Object[]> rv = sql.getEventLogPartitions(types, actions,
-                    current, max);
+            final long current = Math.max(getCurrentId(), data.maxId);
+            List<Object[]> rv = partitions(types, actions, current, max);
             log.debug(String.format("objects found searching " +
                     "from %s (max: %s): %s",
                     current, max, rv.size()));
@@ -445,18 +638,31 @@ public class EventLogQueue extends PersistentEventLogLoader {
         }
     }
 
+    /**
+     * Queries the rows for {@link #lookup()}. Rows are as described by
+     * {@link SqlAction#getEventLogPartitions(java.util.Collection, java.util.Collection, long, long)},
+     * optionally with the owner of the object as a sixth element (Long).
+     */
+    protected List<Object[]> partitions(List<String> types,
+            List<String> actions, long offset, int max) {
+        return sql.getEventLogPartitions(types, actions, offset, max);
+    }
+
     protected int load(List<Object[]> rows) {
         int loaded = 0;
         for (Object[] row : rows) {
-            if (row == null || row.length != 5 || !(row[0] instanceof Long)
+            if (row == null || row.length < 5 || row.length > 6
+                    || !(row[0] instanceof Long)
                     || !(row[1] instanceof String) || !(row[2] instanceof Long)
                     || !(row[3] instanceof String)
-                    || !(row[4] instanceof Integer)) {
+                    || !(row[4] instanceof Integer)
+                    || (row.length == 6 && !(row[5] instanceof Long))) {
                 log.error("Invalid row data: " + Arrays.toString(row));
                 continue;
             }
+            final long owner = row.length == 6 ? (Long) row[5] : -1;
             if (load((Long) row[0], (String) row[1], (Long) row[2],
-                    (String) row[3], (Integer) row[4])) {
+                    (String) row[3], (Integer) row[4], owner)) {
                 loaded++;
             }
         }
@@ -470,15 +676,35 @@ public class EventLogQueue extends PersistentEventLogLoader {
     protected boolean load(Long eventLogId, String type,
             Long objId, String action,
             Integer skipped) {
+        return load(eventLogId, type, objId, action, skipped, -1);
+    }
+
+    /**
+     * Guarantees that the given arguments are available somewhere in the
+     * queue returning true if they were newly added. If the action is one
+     * of the {@link #priorityActions}, then the entry is placed in the
+     * priority queue.
+     */
+    protected boolean load(Long eventLogId, String type,
+            Long objId, String action,
+            Integer skipped, long owner) {
         boolean added = false;
+        final boolean priority = priorityActions.contains(action);
         final Data.Entries entries = data.entries(type);
         Entry entry = entries.get(objId);
         if (entry == null) {
-            entry = new Entry(eventLogId, type, objId, action, skipped);
-            entries.addRegular(entry);
+            entry = new Entry(eventLogId, type, objId, action, skipped, owner);
+            if (priority) {
+                entries.addPriority(entry);
+            } else {
+                entries.addRegular(entry);
+            }
             added = true;
         } else {
-            entry.update(eventLogId, action,  skipped);
+            data.update(entry, eventLogId, action,  skipped);
+            if (priority) {
+                data.promote(entry);
+            }
         }
         return added;
     }
@@ -488,11 +714,14 @@ public class EventLogQueue extends PersistentEventLogLoader {
         if (arg0 instanceof EventLogFailure) {
             EventLogFailure failure = (EventLogFailure) arg0;
             if (failure.wasSource(this)) {
-                if (lastReturned != failure.log) {
-                    log.error("lastReturned is not failure item!");
+                if (lastReturned == failure.log) {
+                    lastReturned.timer.stop(); // In case of fail
+                    lastReturned = null; // Prevent success later
+                } else {
+                    // A batched FullTextIndexer reports failures only once
+                    // the whole batch has been returned.
+                    log.debug("Failure of earlier item: " + failure.log);
                 }
-                lastReturned.timer.stop(); // In case of fail
-                lastReturned = null; // Prevent success later
                 data.fail(failure);
             }
         } else {
@@ -507,22 +736,70 @@ public class EventLogQueue extends PersistentEventLogLoader {
     private EventLog offer(Entry entry) {
         // First handle the previously returned
         if (this.lastReturned != null) {
-            this.lastReturned.timer.stop(); // In case of success
-            Entry last = this.lastReturned.entry;
-            last.pass();
-            if (last.eventLog >= 0) {
-                setCurrentId(last.eventLog);
-            }
-            log.debug(String.format("Successfully handled %s. Skipped: %s",
-                    last, last.skipped));
+            save(pass(this.lastReturned));
             this.lastReturned = null;
         }
 
         if (entry.state != State.OPEN) {
             return null;
         }
-        this.lastReturned = new WrappedEventLog(entry, processTime.time());
-        return this.lastReturned;
+        final WrappedEventLog wrapped =
+                new WrappedEventLog(entry, processTime.time());
+        if (batched) {
+            unflushed.add(wrapped);
+        } else {
+            this.lastReturned = wrapped;
+        }
+        return wrapped;
+    }
+
+    /**
+     * Marks a returned {@link Entry} as successfully handled.
+     * @return the highest {@link EventLog} id below which all that were
+     * loaded have been handled, or -1 if unchanged.
+     */
+    private long pass(WrappedEventLog wrapped) {
+        wrapped.timer.stop(); // In case of success
+        Entry last = wrapped.entry;
+        last.pass();
+        log.debug(String.format("Successfully handled %s. Skipped: %s",
+                last, last.skipped));
+        if (last.eventLog >= 0) {
+            // Entries may be handled out of order, so only save the id
+            // below which all that were loaded have been handled.
+            return data.close(last.eventLog);
+        }
+        return -1;
+    }
+
+    /**
+     * Saves the given id as the current one if higher than that saved.
+     */
+    private void save(long handled) {
+        if (handled > savedId) {
+            setCurrentId(handled);
+            savedId = handled;
+        }
+    }
+
+    /**
+     * In {@link #batched} mode, marks the entries returned since the last
+     * call as handled, except for those which failed, and then saves the
+     * current id once. Otherwise, does nothing since each entry is handled
+     * when the next one is requested.
+     */
+    @Override
+    public void flushed() {
+        long handled = -1;
+        for (WrappedEventLog wrapped : unflushed) {
+            if (wrapped.entry.state == State.OPEN) {
+                handled = Math.max(handled, pass(wrapped));
+            } else {
+                wrapped.timer.stop(); // In case of fail
+            }
+        }
+        unflushed.clear();
+        save(handled);
     }
 
     //
@@ -534,6 +811,8 @@ public class EventLogQueue extends PersistentEventLogLoader {
      * to load them if not. Conditions which will lead this to return false
      * include: "stop" being set, the batch size being met, the current
      * id in the database being equivalent to the newest event log.
+     * If a {@link #refreshInterval} is set and has passed, newer
+     * {@link EventLog} instances are loaded even if entries are available.
      */
     public boolean hasNext() {
 
@@ -547,9 +826,15 @@ public class EventLogQueue extends PersistentEventLogLoader {
             return false;
         }
 
+        final long now = System.currentTimeMillis();
         if (data.hasNext()) {
+            if (refreshInterval > 0 && now - lastLookup >= refreshInterval) {
+                lastLookup = now;
+                load(lookup());
+            }
             return true;
         }
+        lastLookup = now;
         return load(lookup()) > 0;
     }
 
@@ -19,6 +19,12 @@
 
 package ome.services.fulltext;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import ome.model.IAnnotated;
 import ome.model.IGlobal;
@@ -67,12 +73,26 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
      */
     public final static int DEFAULT_REPORTING_LOOPS = 100;
 
+    /**
+     * Maximum number of ids in the <code>in (:ids)</code> clause used by
+     * {@link #getAll(Session, Class, Collection)}.
+     */
+    public final static int MAX_IDS_PER_QUERY = 1000;
+
     abstract class Action {
         Class type;
         long id;
         IObject obj;
 
-        abstract void go(FullTextSession session);
+        /**
+         * Adds the work to the session without flushing it to the indexes.
+         */
+        abstract void queue(FullTextSession session);
+
+        void go(FullTextSession session) {
+            queue(session);
+            session.flushToIndexes();
+        }
 
         abstract void log(Logger log);
     }
@@ -84,9 +104,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         }
 
         @Override
-        void go(FullTextSession session) {
+        void queue(FullTextSession session) {
             session.purge(type, id);
-            session.flushToIndexes();
         }
 
         @Override
@@ -104,9 +123,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         }
 
         @Override
-        void go(FullTextSession session) {
+        void queue(FullTextSession session) {
             session.index(obj);
-            session.flushToIndexes();
         }
 
         @Override
@@ -125,6 +143,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     final protected Histogram completeSlow, completeFast;
 
+    final protected Histogram throughput;
+
     protected int reps = 5;
 
     protected long batch;
@@ -136,6 +156,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     protected boolean dryRun = false;
 
+    protected boolean batched = false;
+
     protected OmeroContext context = null;
 
     /**
@@ -154,6 +176,15 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         this.dryRun = dryRun;
     }
 
+    /**
+     * Spring injector. If true, each batch offered by the
+     * {@link EventLogLoader} is handled by
+     * {@link #doBatchIndexing(FullTextSession)}.
+     */
+    public void setBatched(boolean batched) {
+        this.batched = batched;
+    }
+
     public void setApplicationContext(ApplicationContext ctx) {
         this.context = (OmeroContext) ctx;
     }
@@ -172,6 +203,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
                 metrics.histogram(this, "percentCompleteSlow");
         this.completeFast =
                 metrics.histogram(this, "percentCompleteFast");
+        this.throughput =
+                metrics.histogram(this, "objectsPerSecond");
     }
 
     /**
@@ -193,6 +226,7 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
     public Object doWork(Session session, ServiceFactory sf) {
         int count = 1;
         int perbatch = 0;
+        int total = 0;
         long start = System.currentTimeMillis();
         Timer.Context timer = null;
         do {
@@ -215,6 +249,7 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
                     fullTextSession.setFlushMode(FlushMode.MANUAL);
                     fullTextSession.setCacheMode(CacheMode.IGNORE);
                     perbatch = doIndexingWithWorldRead(sf, fullTextSession);
+                    total += perbatch;
             } finally {
                 timer.stop();
                 count++;
@@ -225,6 +260,8 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             log.debug("No objects indexed");
         } else {
             final long elapsed = (System.currentTimeMillis() - start);
+            final int rate = (int) (1000L * total / Math.max(elapsed, 1L));
+            throughput.update(rate);
             if (loader instanceof PersistentEventLogLoader) {
                 long currId = ((PersistentEventLogLoader) loader).getCurrentId();
                 long lastId = loader.lastEventLog().getId();
@@ -241,12 +278,12 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
                 }
 
                 log.info(String.format("INDEXED %4s objects in batch#%-6s " +
-                    "[%7d ms.]  %s%2d%% done (%d of %d)",
-                    perbatch, batch, elapsed,
+                    "[%7d ms., %5d obj/s]  %s%2d%% done (%d of %d)",
+                    perbatch, batch, elapsed, rate,
                     which, ((int) perc), currId, lastId));
             } else {
                 log.info(String.format("INDEXED %4s objects in batch#%-6s " +
-                    "[%7d ms.]", perbatch, batch, elapsed));
+                    "[%7d ms., %5d obj/s]", perbatch, batch, elapsed, rate));
             }
         }
 
@@ -260,6 +297,10 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     public int doIndexing(FullTextSession session) {
 
+        if (batched) {
+            return doBatchIndexing(session);
+        }
+
         int count = 0;
 
         for (EventLog eventLog : loader) {
@@ -309,20 +350,138 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             }
 
             if (action != null) {
-                try {
-                    action.go(session);
-                } catch (Exception e) {
-                    try {
-                        this.context.publishMessage(new EventLogFailure(loader, eventLog, e));
-                    } catch (RuntimeException re) {
-                        throw re;
-                    } catch (Throwable e1) {
-                        throw new RuntimeException(e1);
+                go(session, action, eventLog);
+            }
+        }
+    }
+
+    /**
+     * Batched form of {@link #doIndexing(FullTextSession)}. The whole batch
+     * offered by the {@link #loader} is collected first, keeping only the
+     * last {@link EventLog} for each object. Objects are then loaded with one
+     * query per type (and per {@link #MAX_IDS_PER_QUERY} ids), all purges and
+     * indexing are queued, and the indexes and session are flushed once. If
+     * that flush fails, each action is retried on its own so that the
+     * failing {@link EventLog} can be reported as in
+     * {@link #handleEventLog(FullTextSession, EventLog)}. Only then is the
+     * loader told that the batch has been {@link EventLogLoader#flushed()}.
+     */
+    public int doBatchIndexing(FullTextSession session) {
+
+        int count = 0;
+        final Map<String, EventLog> latest = new LinkedHashMap<String, EventLog>();
+        for (EventLog eventLog : loader) {
+
+            if (dryRun) {
+                continue;
+            }
+
+            if (eventLog != null) {
+                count++;
+                String act = eventLog.getAction();
+                if ("DELETE".equals(act) || "REINDEX".equals(act)
+                        || "UPDATE".equals(act) || "INSERT".equals(act)) {
+                    String key = eventLog.getEntityType() + ":"
+                            + eventLog.getEntityId();
+                    latest.remove(key); // Move to the end
+                    latest.put(key, eventLog);
+                } else if (log.isDebugEnabled()) {
+                    // Likely CHGRP-VALIDATION, PIXELDATA or similar.
+                    log.debug("Unknown action type: " + act);
+                }
+            }
+        }
+
+        final List<Action> actions = new ArrayList<Action>();
+        final List<EventLog> eventLogs = new ArrayList<EventLog>();
+        final Map<Class, Map<Long, EventLog>> toIndex =
+                new LinkedHashMap<Class, Map<Long, EventLog>>();
+        for (EventLog eventLog : latest.values()) {
+            Class type = asClassOrNull(eventLog.getEntityType());
+            if (type == null) {
+                continue;
+            }
+            long id = eventLog.getEntityId();
+            if ("DELETE".equals(eventLog.getAction())) {
+                actions.add(new Purge(type, id));
+                eventLogs.add(eventLog);
+            } else {
+                Map<Long, EventLog> byId = toIndex.get(type);
+                if (byId == null) {
+                    byId = new LinkedHashMap<Long, EventLog>();
+                    toIndex.put(type, byId);
+                }
+                byId.put(id, eventLog);
+            }
+        }
+
+        for (Map.Entry<Class, Map<Long, EventLog>> entry : toIndex.entrySet()) {
+            final Class type = entry.getKey();
+            final Map<Long, EventLog> byId = entry.getValue();
+            final List<Long> ids = new ArrayList<Long>(byId.keySet());
+            for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+                final List<Long> chunk =
+                    ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY));
+                final Map<Long, IObject> found = new HashMap<Long, IObject>();
+                for (IObject obj : getAll(session, type, chunk)) {
+                    found.put(obj.getId(), obj);
+                }
+                for (Long id : chunk) {
+                    IObject obj = found.get(id);
+                    if (obj == null) {
+                        // See handleEventLog
+                        log.debug(String.format("Null returned! Purging "
+                                + "since cannot index %s:Id_%s for %s", type
+                                .getName(), id, byId.get(id)));
+                        actions.add(new Purge(type, id));
+                    } else {
+                        actions.add(new Index(obj));
                     }
+                    eventLogs.add(byId.get(id));
+                }
+            }
+        }
+
+        if (!actions.isEmpty()) {
+            try {
+                for (Action action : actions) {
+                    action.queue(session);
+                }
+                session.flushToIndexes();
+                for (Action action : actions) {
+                    action.log(log);
+                }
+            } catch (Exception e) {
+                log.warn(String.format("Failed to index batch of %s objects; "
+                        + "retrying one at a time", actions.size()), e);
+                for (int i = 0; i < actions.size(); i++) {
+                    go(session, actions.get(i), eventLogs.get(i));
                 }
-                action.log(log);
             }
         }
+        session.flush();
+        parserSession.closeParsedFiles();
+        loader.flushed();
+        return count;
+    }
+
+    /**
+     * Performs a single {@link Action}, publishing an {@link EventLogFailure}
+     * for the given {@link EventLog} on error.
+     */
+    private void go(FullTextSession session, Action action, EventLog eventLog) {
+        try {
+            action.go(session);
+        } catch (Exception e) {
+            try {
+                this.context.publishMessage(new EventLogFailure(loader, eventLog, e));
+            } catch (RuntimeException re) {
+                throw re;
+            } catch (Throwable e1) {
+                throw new RuntimeException(e1);
+            }
+        }
+        action.log(log);
     }
 
     /**
@@ -356,7 +515,33 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     protected IObject get(Session session, Class type, long id) {
         QueryBuilder qb = new QueryBuilder();
-        qb.select("this").from(type.getName(), "this");
+        qb.select("this");
+        join(qb, type);
+        qb.where().and("this.id = :id");
+        qb.param("id", id);
+
+        return (IObject) qb.query(session).uniqueResult();
+    }
+
+    /**
+     * Loads all the objects of the given type and ids, with the same
+     * graph as {@link #get(Session, Class, long)}, in a single query.
+     * Objects which no longer exist are missing from the returned list.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<IObject> getAll(Session session, Class type,
+            Collection<Long> ids) {
+        QueryBuilder qb = new QueryBuilder();
+        qb.select("distinct this");
+        join(qb, type);
+        qb.where().and("this.id in (:ids)");
+        qb.paramList("ids", ids);
+
+        return (List<IObject>) qb.query(session).list();
+    }
+
+    private void join(QueryBuilder qb, Class type) {
+        qb.from(type.getName(), "this");
         if (IAnnotated.class.isAssignableFrom(type)) {
             qb.join("this.annotationLinks", "l1", true, true);
             qb.join("l1.child", "a1", true, true);
@@ -371,9 +556,5 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             qb.join("this.details.owner", "owner", false, true);
             qb.join("this.details.group", "group", false, true);
         }
-        qb.where().and("this.id = :id");
-        qb.param("id", id);
-
-        return (IObject) qb.query(session).uniqueResult();
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.pixeldata;
+
+import java.util.List;
+
+import ome.model.core.Pixels;
+import ome.services.eventlogs.EventLogQueue;
+import ome.system.metrics.Metrics;
+import ome.util.SqlAction;
+
+/**
+ * {@link EventLogQueue} for the PIXELDATA event logs which also loads the
+ * owner of each {@link Pixels} via
+ * {@link SqlAction#getPixelsEventLogPartitions(java.util.Collection, long, long)}
+ * so that the pyramids of the images imported by different users are
+ * generated in turn. Event logs with the
+ * {@link PixelDataThread#REQUESTED_ACTION}, created when a user tries to
+ * view an image whose pyramid is missing, are handled first.
+ *
+ * @since 5.1
+ */
+public class PixelDataEventLogQueue extends EventLogQueue {
+
+    public PixelDataEventLogQueue(Metrics metrics, int max) {
+        super(metrics, max, new String[] { Pixels.class.getName() },
+                new String[] { PixelDataThread.ACTION,
+                        PixelDataThread.REQUESTED_ACTION });
+        setPriorityActions(new String[] { PixelDataThread.REQUESTED_ACTION });
+    }
+
+    @Override
+    protected List<Object[]> partitions(List<String> types,
+            List<String> actions, long offset, int max) {
+        return sql.getPixelsEventLogPartitions(actions, offset, max);
+    }
+}
@@ -58,6 +58,27 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
     private final static int DEFAULT_THREADS = 1;
 
+    /**
+     * Action of the {@link EventLog} instances created for pixels whose
+     * pyramid is missing.
+     */
+    public final static String ACTION = "PIXELDATA";
+
+    /**
+     * Action of the {@link EventLog} instances created for pixels whose
+     * pyramid is missing when a user is waiting to view them. These are
+     * handled ahead of the others by {@link PixelDataEventLogQueue}.
+     */
+    public final static String REQUESTED_ACTION = "PIXELDATA_REQUESTED";
+
+    /**
+     * Call context key set by the importer on the calls which lead to
+     * pyramids being requested for newly imported images. Their
+     * {@link EventLog} instances are created with {@link #ACTION}, all
+     * others with {@link #REQUESTED_ACTION}.
+     */
+    public final static String IMPORT_CONTEXT_KEY = "omero.pixeldata.import";
+
     /** Server session UUID */
     private final String uuid;
 
@@ -279,7 +300,10 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
     /**
      * Called in the main server (Blitz-0) in order to create a PIXELDATA
-     * {@link EventLog} which will get processed by PixelData-0.
+     * {@link EventLog} which will get processed by PixelData-0. Unless the
+     * call stems from an import, as marked by {@link #IMPORT_CONTEXT_KEY},
+     * a user is waiting for the pyramid and the {@link #REQUESTED_ACTION}
+     * is used.
      */
     public void onApplicationEvent(final MissingPyramidMessage mpm) {
 
@@ -296,16 +320,21 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
             throw new InternalException("No user! Must be wrapped by call to Executor?");
         }
 
-        Future<EventLog> future = this.executor.submit(cd.getContext(),
+        final Map<String, String> context = cd.getContext();
+        final String action = context != null
+                && Boolean.valueOf(context.get(IMPORT_CONTEXT_KEY))
+                ? ACTION : REQUESTED_ACTION;
+        Future<EventLog> future = this.executor.submit(context,
                 new Callable<EventLog>(){
             public EventLog call() throws Exception {
-                return makeEvent(ec, mpm);
+                return makeEvent(ec, mpm, action);
             }});
         this.executor.get(future);
     }
 
     private EventLog makeEvent(final EventContext ec,
-                               final MissingPyramidMessage mpm) {
+                               final MissingPyramidMessage mpm,
+                               final String action) {
 
         final Principal p = new Principal(uuid);
         final Map<String, String> callContext = new HashMap<String, String>();
@@ -330,7 +359,7 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
                 new Executor.SimpleWork(this, "createEvent") {
         @Transactional(readOnly = false)
         public Object doWork(Session session, ServiceFactory sf) {
-            log.info("Creating PIXELDATA event for pixels id:"
+            log.info("Creating " + action + " event for pixels id:"
                     + mpm.pixelsID);
 
                 // Load objects
@@ -345,7 +374,7 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
                         ec.getCurrentSessionId(), false));
                 e.setTime(new Timestamp(new Date().getTime()));
                 e.setType(type);
-                el.setAction("PIXELDATA");
+                el.setAction(action);
                 el.setEntityId(mpm.pixelsID);
                 el.setEntityType(Pixels.class.getName());
                 el.setEvent(e);
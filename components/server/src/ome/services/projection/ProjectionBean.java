@@ -9,7 +9,14 @@ package ome.services.projection;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +26,7 @@ import ome.annotations.RolesAllowed;
 import ome.api.IPixels;
 import ome.api.IProjection;
 import ome.api.ServiceInterface;
+import ome.conditions.InternalException;
 import ome.conditions.ResourceError;
 import ome.conditions.ValidationException;
 import ome.io.nio.DimensionsOutOfBoundsException;
@@ -51,6 +59,18 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     
     /** Reference to the service used to retrieve the pixels data. */
     protected transient PixelsService pixelsService;
+
+    /**
+     * Pool the stacks are projected on. If <code>null</code>, stacks are
+     * projected by the calling thread.
+     */
+    protected transient ExecutorService executor;
+
+    /**
+     * Maximum number of stacks submitted to {@link #executor} and not yet
+     * written, bounding the number of projected planes held in memory.
+     */
+    private static final int MAX_PENDING_STACKS = 16;
     
     /**
      * Returns the interface this implementation is for.
@@ -81,6 +101,16 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         this.pixelsService = pixelsService;
     }
     
+    /**
+     * Executor injector. For use during configuration. Can only be called
+     * once.
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        getBeanHelper().throwIfAlreadySet(this.executor, executor);
+        this.executor = executor;
+    }
+
     /* (non-Javadoc)
      * @see ome.api.IProjection#projectStack(long, ome.model.enums.PixelsType, int, int, int, int, int, int)
      */
@@ -89,18 +119,17 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                                int algorithm, int timepoint, int channelIndex, 
                                int stepping, int start, int end)
     {
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
         PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
-        zIntervalBoundsCheck(start, end, ctx.pixels.getSizeZ());
+                pixels, false);
+        zIntervalBoundsCheck(start, end, pixels.getSizeZ());
         outOfBoundsStepping(stepping);
         outOfBoundsCheck(channelIndex, "channel");
         outOfBoundsCheck(timepoint, "timepoint");
-        Integer v = ctx.pixels.getSizeT();
+        Integer v = pixels.getSizeT();
         if (timepoint >= v)
             throw new ValidationException("timepoint must be <"+v);
-        v = ctx.pixels.getSizeC();
+        v = pixels.getSizeC();
         if (channelIndex >= v)
             throw new ValidationException("channel index must be <"+v);
         try
@@ -108,44 +137,21 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
 
             if (pixelsType == null)
             {
-                pixelsType = ctx.pixels.getPixelsType();
+                pixelsType = pixels.getPixelsType();
             }
             else
             {
                 pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
             }
 
-            ctx.planeSizeInPixels = 
-                ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
+            int planeSizeInPixels = pixels.getSizeX() * pixels.getSizeY();
             int planeSize = 
-                ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
+                planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
             byte[] buf = new byte[planeSize];
-            ctx.from = pixelBuffer.getStack(channelIndex, timepoint);
-            ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-
-            switch (algorithm)
-            {
-                case IProjection.MAXIMUM_INTENSITY:
-                {
-                    projectStackMax(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.MEAN_INTENSITY:
-                {
-                    projectStackMean(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.SUM_INTENSITY:
-                {
-                    projectStackSum(ctx, stepping, start, end, false);
-                    break;
-                }
-                default:
-                {
-                    throw new IllegalArgumentException(
-                            "Unknown algorithm: " + algorithm);
-                }
-            }
+            StackProjector projector = new StackProjector(
+                    algorithm, stepping, start, end, planeSizeInPixels);
+            projector.project(pixelBuffer, channelIndex, timepoint,
+                    new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf)));
             return buf;
         }
         catch (IOException e)
@@ -160,7 +166,7 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         {
             String error = String.format(
                     "C=%d or T=%d out of range for Pixels Id %d: %s",
-                    channelIndex, timepoint, ctx.pixels.getId(), e.getMessage());
+                    channelIndex, timepoint, pixels.getId(), e.getMessage());
             log.error(error, e);
             throw new ValidationException(error);
         }
@@ -176,9 +182,6 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                 throw new ResourceError(
                         e.getMessage() + " Please check server log.");
             }
-            if (ctx.from != null) {
-                ctx.from.dispose();
-            }
         }
     }
 
@@ -193,13 +196,12 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                               int zStart, int zEnd, String name)
     {
         // First, copy and resize our image with sizeZ = 1.
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        Image image = ctx.pixels.getImage();
+        final Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        Image image = pixels.getImage();
         name = name == null? image.getName() + " Projection" : name;
         //size of the new buffer.
         //Add control for z
-        zIntervalBoundsCheck(zStart, zEnd, ctx.pixels.getSizeZ());
+        zIntervalBoundsCheck(zStart, zEnd, pixels.getSizeZ());
         outOfBoundsStepping(stepping);
 
         Integer sizeT = tEnd-tStart+1;
@@ -215,7 +217,7 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         Pixels newPixels = newImage.getPixels(0);
         if (pixelsType == null)
         {
-            pixelsType = ctx.pixels.getPixelsType();
+            pixelsType = pixels.getPixelsType();
         }
         else
         {
@@ -225,84 +227,70 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         
         // Project each stack for each channel and each timepoint in the
         // entire image, copying into the pixel buffer the projected pixels.
-        PixelBuffer sourceBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
+        final PixelBuffer sourceBuffer = pixelsService.getPixelBuffer(
+                pixels, false);
         try {
             PixelBuffer destinationBuffer = pixelsService.getPixelBuffer(
                     newPixels, true);
             try
             {
-                ctx.planeSizeInPixels = ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-                int planeSize =
-                    ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
-                byte[] buf = new byte[planeSize];
-                ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-                int newC = 0;
-                for (Integer c : channels)
+                int planeSizeInPixels = pixels.getSizeX() * pixels.getSizeY();
+                final int planeSize =
+                    planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
+                final String type = pixelsType.getValue();
+                final StackProjector projector = new StackProjector(
+                        algorithm, stepping, zStart, zEnd, planeSizeInPixels);
+                double[][] minMax = new double[channels.size()][];
+                int stackCount = channels.size() * Math.max(tEnd - tStart + 1, 0);
+                int projected = 0;
+                // Stacks are projected on the pool while the planes already
+                // projected are written, in order, by this thread.
+                Deque<Future<ProjectedPlane>> pending =
+                    new ArrayDeque<Future<ProjectedPlane>>();
+                try
                 {
-                    ctx.minimum = Double.MAX_VALUE;
-                    ctx.maximum = Double.MIN_VALUE;
-                    for (int t = tStart; t <= tEnd; t++)
+                    int newC = 0;
+                    for (final Integer c : channels)
                     {
-                        try
+                        minMax[newC] = new double[] {
+                                Double.MAX_VALUE, Double.MIN_VALUE };
+                        for (int t = tStart; t <= tEnd; t++)
                         {
-                            ctx.from = sourceBuffer.getStack(c, t);
-                            switch (algorithm)
+                            pending.add(submit(new ProjectionTask(projector,
+                                    sourceBuffer, pixels.getId(), type,
+                                    planeSize, c, newC, t)));
+                            if (pending.size() >= MAX_PENDING_STACKS)
                             {
-                                case IProjection.MAXIMUM_INTENSITY:
-                                {
-                                    projectStackMax(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.MEAN_INTENSITY:
-                                {
-                                    projectStackMean(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.SUM_INTENSITY:
-                                {
-                                    projectStackSum(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                default:
-                                {
-                                    throw new IllegalArgumentException(
-                                            "Unknown algorithm: " + algorithm);
-                                }
-                            }
-                            destinationBuffer.setPlane(buf, 0, newC, t);
-                        }
-                        catch (IOException e)
-                        {
-                            String error = String.format(
-                                    "I/O error retrieving stack C=%d T=%d: %s",
-                                    c, t, e.getMessage());
-                            log.error(error, e);
-                            throw new ResourceError(error);
-                        }
-                        catch (DimensionsOutOfBoundsException e)
-                        {
-                            String error = String.format(
-                                    "C=%d or T=%d out of range for Pixels Id %d: %s",
-                                    c, t, ctx.pixels.getId(), e.getMessage());
-                            log.error(error, e);
-                            throw new ValidationException(error);
-                        } finally {
-                            if (ctx.from != null) {
-                                ctx.from.dispose();
+                                write(pending.poll(), destinationBuffer, minMax);
+                                logProgress(++projected, stackCount, pixelsId);
                             }
                         }
+                        newC++;
+                    }
+                    while (!pending.isEmpty())
+                    {
+                        write(pending.poll(), destinationBuffer, minMax);
+                        logProgress(++projected, stackCount, pixelsId);
+                    }
+                }
+                finally
+                {
+                    for (Future<ProjectedPlane> future : pending)
+                    {
+                        future.cancel(true);
                     }
+                }
+                for (int newC = 0; newC < minMax.length; newC++)
+                {
                     // Handle the change of minimum and maximum for this channel.
                     Channel channel = newPixels.getChannel(newC);
                     StatsInfo si = new StatsInfo();
-                    si.setGlobalMin(ctx.minimum);
-                    si.setGlobalMax(ctx.maximum);
+                    si.setGlobalMin(minMax[newC][0]);
+                    si.setGlobalMax(minMax[newC][1]);
                     channel.setStatsInfo(si);
                     // Set our methodology
                     newPixels.setMethodology(
                             IProjection.METHODOLOGY_STRINGS[algorithm]);
-                    newC++;
                 }
             }
             finally
@@ -379,176 +367,175 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     }
     
     /**
-     * Projects a stack based on the maximum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Runs a projection task on the executor, or on the calling thread if
+     * there is none.
+     * @param task The task to run.
+     * @return The result of the task.
      */
-    private void projectStackMax(ProjectionContext ctx, int stepping,
-                                 int start, int end, boolean doMinMax)
+    private Future<ProjectedPlane> submit(ProjectionTask task)
     {
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        if (executor == null)
         {
-            projectedValue = 0;
-            for (int z = start; z <= end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                if (stackValue > projectedValue)
-                {
-                    projectedValue = stackValue;
-                }
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
+            FutureTask<ProjectedPlane> future =
+                new FutureTask<ProjectedPlane>(task);
+            future.run();
+            return future;
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
+        return executor.submit(task);
     }
-    
+
     /**
-     * Projects a stack based on the mean intensity at each XY coordinate.
-     * @param from The raw pixel data from the stack to project from.
-     * @param ctx The context of our projection.
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Waits for a projected plane and writes it to the destination buffer,
+     * updating the minimum and maximum of its channel.
+     * @param future The pending projection.
+     * @param destination The buffer of the projected Pixels set.
+     * @param minMax The minimum and maximum of each destination channel.
      */
-    private void projectStackMean(ProjectionContext ctx, int stepping, 
-                                  int start, int end, boolean doMinMax)
+    private void write(Future<ProjectedPlane> future, PixelBuffer destination,
+                       double[][] minMax)
     {
-        projectStackMeanOrSum(ctx, stepping, start, end, true, doMinMax);
+        ProjectedPlane plane;
+        try
+        {
+            plane = future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted during projection.");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new InternalException(
+                    "Error during projection: " + cause);
+        }
+        try
+        {
+            destination.setPlane(plane.data, 0, plane.newC, plane.t);
+        }
+        catch (IOException e)
+        {
+            String error = String.format(
+                    "I/O error writing projected plane C=%d T=%d: %s",
+                    plane.newC, plane.t, e.getMessage());
+            log.error(error, e);
+            throw new ResourceError(error);
+        }
+        catch (DimensionsOutOfBoundsException e)
+        {
+            String error = String.format(
+                    "C=%d or T=%d out of range for projected plane: %s",
+                    plane.newC, plane.t, e.getMessage());
+            log.error(error, e);
+            throw new ValidationException(error);
+        }
+        double[] channel = minMax[plane.newC];
+        channel[0] = plane.minimum < channel[0]? plane.minimum : channel[0];
+        channel[1] = plane.maximum > channel[1]? plane.maximum : channel[1];
     }
-    
+
     /**
-     * Projects a stack based on the sum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Logs the progress of a projection every tenth of the stacks.
+     * @param projected The number of stacks written so far.
+     * @param total The total number of stacks.
+     * @param pixelsId The source Pixels set.
      */
-    private void projectStackSum(ProjectionContext ctx, int stepping, 
-                                 int start, int end, boolean doMinMax)
+    private void logProgress(int projected, int total, long pixelsId)
     {
-        projectStackMeanOrSum(ctx, stepping, start, end, false, doMinMax);
+        int step = Math.max(total / 10, 1);
+        if (projected % step == 0 || projected == total)
+        {
+            log.info(String.format("Projected %d/%d stacks of Pixels:%d",
+                    projected, total, pixelsId));
+        }
     }
-    
+
     /**
-     * Projects a stack based on the sum intensity at each XY coordinate with
-     * the option to also average the sum intensity.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param mean Whether or not we're performing an average post sum
-     * intensity projection.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Projects a single stack into a new plane.
+     * 
+     * Class is static to prevent any instances from holding onto
+     * {@link ProjectionBean} instances.
      */
-    private void projectStackMeanOrSum(ProjectionContext ctx, int stepping,
-                                       int start, int end, 
-                                       boolean mean, boolean doMinMax)
+    private static class ProjectionTask implements Callable<ProjectedPlane>
     {
-        double planeMaximum = ctx.to.getMaximum();
+        private final StackProjector projector;
+
+        private final PixelBuffer source;
+
+        private final long pixelsId;
 
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        private final String pixelsType;
+
+        private final int planeSize;
+
+        private final int c, newC, t;
+
+        ProjectionTask(StackProjector projector, PixelBuffer source,
+                       long pixelsId, String pixelsType, int planeSize,
+                       int c, int newC, int t)
         {
-            projectedValue = 0;
-            int projectedPlaneCount = 0;
-            for (int z = start; z < end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                projectedValue += stackValue;
-                projectedPlaneCount++;
-            }
-            if (mean)
+            this.projector = projector;
+            this.source = source;
+            this.pixelsId = pixelsId;
+            this.pixelsType = pixelsType;
+            this.planeSize = planeSize;
+            this.c = c;
+            this.newC = newC;
+            this.t = t;
+        }
+
+        public ProjectedPlane call()
+        {
+            byte[] buf = new byte[planeSize];
+            try
             {
-                projectedValue = projectedValue / projectedPlaneCount;
+                double[] minMax = projector.project(source, c, t,
+                        new PixelData(pixelsType, ByteBuffer.wrap(buf)));
+                return new ProjectedPlane(buf, newC, t, minMax[0], minMax[1]);
             }
-            if (projectedValue > planeMaximum)
+            catch (IOException e)
             {
-                projectedValue = planeMaximum;
+                String error = String.format(
+                        "I/O error retrieving stack C=%d T=%d: %s",
+                        c, t, e.getMessage());
+                log.error(error, e);
+                throw new ResourceError(error);
             }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
+            catch (DimensionsOutOfBoundsException e)
             {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
+                String error = String.format(
+                        "C=%d or T=%d out of range for Pixels Id %d: %s",
+                        c, t, pixelsId, e.getMessage());
+                log.error(error, e);
+                throw new ValidationException(error);
             }
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
     }
-    
+
     /**
-     * Stores the context of a projection operation.
-     * 
-     * Class is static to prevent any instances from holding onto
-     * {@link ProjectionBean} instances.
-     *
-     * @author Chris Allan &nbsp;&nbsp;&nbsp;&nbsp; <a
-     *         href="mailto:callan@blackcat.ca">callan@blackcat.ca</a>
-     * @since OMERO-Beta3.1
+     * A projected plane waiting to be written.
      */
-    private static class ProjectionContext
+    private static class ProjectedPlane
     {
-        /** The Pixels set we're currently working on. */
-        public Pixels pixels;
-        
-        /** Count of the number of pixels per plane for <code>pixels</code>. */
-        public int planeSizeInPixels;
-        
-        /** Current minimum for the projected pixel data. */
-        public double minimum = Double.MAX_VALUE;
-        
-        /** Current maximum for the projected pixel data. */
-        public double maximum = Double.MIN_VALUE;
-        
-        /** The raw pixel data from the stack to project from. */
-        public PixelData from;
-        
-        /** The raw pixel data buffer to project into. */
-        public PixelData to;
+        final byte[] data;
+
+        final int newC, t;
+
+        final double minimum, maximum;
+
+        ProjectedPlane(byte[] data, int newC, int t, double minimum,
+                       double maximum)
+        {
+            this.data = data;
+            this.newC = newC;
+            this.t = t;
+            this.minimum = minimum;
+            this.maximum = maximum;
+        }
     }
 }
@@ -0,0 +1,343 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import ome.api.IProjection;
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+
+/**
+ * Projects a single stack of a Pixels set, plane by plane, into a
+ * destination plane. Each optical section is read on its own through
+ * {@link PixelBuffer#getPlane(Integer, Integer, Integer)} and folded into a
+ * primitive accumulator by a kernel specific to its pixels type, so that the
+ * stack is never held in memory as a whole.
+ * <p>
+ * Instances are immutable and may be shared by several threads, each
+ * projecting a different stack.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class StackProjector
+{
+    /** One of the algorithms of {@link IProjection}. */
+    private final int algorithm;
+
+    /** Stepping value to use while calculating the projection. */
+    private final int stepping;
+
+    /** Optical section to start projecting from. */
+    private final int start;
+
+    /** Optical section to finish projecting. */
+    private final int end;
+
+    /** Count of the number of pixels per plane. */
+    private final int planeSizeInPixels;
+
+    /**
+     * Creates a new instance.
+     * @param algorithm One of {@link IProjection#MAXIMUM_INTENSITY},
+     * {@link IProjection#MEAN_INTENSITY} or
+     * {@link IProjection#SUM_INTENSITY}.
+     * @param stepping Stepping value to use while calculating the projection.
+     * For example, <code>stepping=1</code> will use every optical section from
+     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
+     * use every other section from <code>start</code> to <code>end</code> to
+     * perform the projection.
+     * @param start Optical section to start projecting from.
+     * @param end Optical section to finish projecting.
+     * @param planeSizeInPixels Count of the number of pixels per plane.
+     */
+    public StackProjector(int algorithm, int stepping, int start, int end,
+                          int planeSizeInPixels)
+    {
+        switch (algorithm)
+        {
+            case IProjection.MAXIMUM_INTENSITY:
+            case IProjection.MEAN_INTENSITY:
+            case IProjection.SUM_INTENSITY:
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown algorithm: " + algorithm);
+        }
+        this.algorithm = algorithm;
+        this.stepping = stepping;
+        this.start = start;
+        this.end = end;
+        this.planeSizeInPixels = planeSizeInPixels;
+    }
+
+    /**
+     * Projects a stack. Reads are made while holding the monitor of
+     * <code>source</code> so that it may be shared by several threads.
+     * @param source The buffer to read the optical sections from.
+     * @param c The channel of the stack.
+     * @param t The timepoint of the stack.
+     * @param to The destination plane.
+     * @return The minimum and maximum of the projected values.
+     * @throws IOException If a plane could not be read.
+     * @throws DimensionsOutOfBoundsException If <code>c</code> or
+     * <code>t</code> are out of range.
+     */
+    public double[] project(PixelBuffer source, int c, int t, PixelData to)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        boolean max = algorithm == IProjection.MAXIMUM_INTENSITY;
+        // The sum and mean projections have always excluded the last
+        // optical section of the interval.
+        int last = max? end : end - 1;
+        double[] projected = new double[planeSizeInPixels];
+        int planeCount = 0;
+        for (int z = start; z <= last; z += stepping)
+        {
+            PixelData plane;
+            synchronized (source)
+            {
+                plane = source.getPlane(z, c, t);
+            }
+            try
+            {
+                accumulate(plane, projected, max);
+            }
+            finally
+            {
+                plane.dispose();
+            }
+            planeCount++;
+        }
+        if (algorithm == IProjection.MEAN_INTENSITY)
+        {
+            for (int i = 0; i < projected.length; i++)
+            {
+                projected[i] = projected[i] / planeCount;
+            }
+        }
+        if (!max)
+        {
+            double planeMaximum = to.getMaximum();
+            for (int i = 0; i < projected.length; i++)
+            {
+                if (projected[i] > planeMaximum)
+                {
+                    projected[i] = planeMaximum;
+                }
+            }
+        }
+        return store(projected, to);
+    }
+
+    /**
+     * Folds an optical section into the projected values, either keeping the
+     * maximum of each pixel or adding it. Values start at <code>0</code>.
+     * @param plane The optical section.
+     * @param projected The projected values.
+     * @param max Whether to keep the maximum rather than sum.
+     */
+    static void accumulate(PixelData plane, double[] projected, boolean max)
+    {
+        ByteBuffer data = plane.getData().duplicate();
+        data.order(plane.getOrder());
+        data.clear();
+        int n = projected.length;
+        boolean signed = plane.isSigned();
+        switch (plane.javaType())
+        {
+            case PixelData.BYTE:
+            {
+                if (max)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        double v = signed? data.get(i) : data.get(i) & 0xFF;
+                        if (v > projected[i]) projected[i] = v;
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        projected[i] += signed? data.get(i) : data.get(i) & 0xFF;
+                    }
+                }
+                break;
+            }
+            case PixelData.SHORT:
+            {
+                ShortBuffer s = data.asShortBuffer();
+                if (max)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        double v = signed? s.get(i) : s.get(i) & 0xFFFF;
+                        if (v > projected[i]) projected[i] = v;
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        projected[i] += signed? s.get(i) : s.get(i) & 0xFFFF;
+                    }
+                }
+                break;
+            }
+            case PixelData.INT:
+            {
+                IntBuffer s = data.asIntBuffer();
+                if (max)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        double v = signed? s.get(i) : s.get(i) & 0xFFFFFFFFL;
+                        if (v > projected[i]) projected[i] = v;
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        projected[i] +=
+                            signed? s.get(i) : s.get(i) & 0xFFFFFFFFL;
+                    }
+                }
+                break;
+            }
+            case PixelData.FLOAT:
+            {
+                FloatBuffer s = data.asFloatBuffer();
+                if (max)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        double v = s.get(i);
+                        if (v > projected[i]) projected[i] = v;
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        projected[i] += s.get(i);
+                    }
+                }
+                break;
+            }
+            case PixelData.DOUBLE:
+            {
+                DoubleBuffer s = data.asDoubleBuffer();
+                if (max)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        double v = s.get(i);
+                        if (v > projected[i]) projected[i] = v;
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        projected[i] += s.get(i);
+                    }
+                }
+                break;
+            }
+            default:
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    double v = plane.getPixelValue(i);
+                    if (!max)
+                    {
+                        projected[i] += v;
+                    }
+                    else if (v > projected[i])
+                    {
+                        projected[i] = v;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the projected values into the destination plane.
+     * @param projected The projected values.
+     * @param to The destination plane.
+     * @return The minimum and maximum of the projected values.
+     */
+    static double[] store(double[] projected, PixelData to)
+    {
+        ByteBuffer data = to.getData().duplicate();
+        data.order(to.getOrder());
+        data.clear();
+        double minimum = Double.MAX_VALUE;
+        double maximum = Double.MIN_VALUE;
+        int n = projected.length;
+        for (int i = 0; i < n; i++)
+        {
+            double v = projected[i];
+            minimum = v < minimum? v : minimum;
+            maximum = v > maximum? v : maximum;
+        }
+        switch (to.javaType())
+        {
+            case PixelData.BYTE:
+                for (int i = 0; i < n; i++)
+                {
+                    data.put(i, (byte) projected[i]);
+                }
+                break;
+            case PixelData.SHORT:
+            {
+                ShortBuffer s = data.asShortBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    s.put(i, (short) projected[i]);
+                }
+                break;
+            }
+            case PixelData.INT:
+            {
+                IntBuffer s = data.asIntBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    s.put(i, (int) projected[i]);
+                }
+                break;
+            }
+            case PixelData.FLOAT:
+            {
+                FloatBuffer s = data.asFloatBuffer();
+                for (int i = 0; i < n; i++)
+                {
+                    s.put(i, (float) projected[i]);
+                }
+                break;
+            }
+            case PixelData.DOUBLE:
+                data.asDoubleBuffer().put(projected, 0, n);
+                break;
+            default:
+                for (int i = 0; i < n; i++)
+                {
+                    to.setPixelValue(i, projected[i]);
+                }
+        }
+        return new double[] { minimum, maximum };
+    }
+}
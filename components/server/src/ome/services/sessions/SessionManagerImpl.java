@@ -10,8 +10,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
@@ -70,6 +72,7 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.UncategorizedSQLException;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.MapMaker;
 
 /**
@@ -87,7 +90,7 @@ import com.google.common.collect.MapMaker;
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta3
  */
-public class SessionManagerImpl implements SessionManager, SessionCache.StaleCacheListener,
+public class SessionManagerImpl implements SessionManager, SessionCache.BatchStaleCacheListener,
         ApplicationContextAware, ApplicationListener<ApplicationEvent> {
 
     public final static String GROUP_SUDO_NS = "openmicroscopy.org/security/group-sudo";
@@ -1022,6 +1025,38 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         return createSessionContext(list, ctx);
     }
 
+    /**
+     * Batched form of {@link #reload(SessionContext)}, called by
+     * {@link SessionCache} during synchronization. The names, memberships and
+     * roles of all the users and groups of the given sessions are fetched in
+     * a few set-based queries and compared with the state of each session,
+     * as are the closed time and timeouts of the sessions themselves. Closed
+     * sessions are removed. Only the other sessions which differ are looked
+     * up again, sharing the lookup of each user and group between all the
+     * sessions which use them.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes" })
+    public Map<String, SessionContext> reloadAll(
+            final Collection<SessionContext> contexts) {
+        Map<String, List<Object>> lists = (Map) executor.execute(asroot,
+                new Executor.SimpleWork(this, "reloadAll", contexts.size()) {
+            @Transactional(readOnly = true)
+            public Object doWork(org.hibernate.Session session,
+                    ServiceFactory sf) {
+                return executeSessionContextLookups(sf, contexts);
+            }
+        });
+        Map<String, SessionContext> rv = new HashMap<String, SessionContext>();
+        for (SessionContext ctx : contexts) {
+            String uuid = ctx.getSession().getUuid();
+            if (lists.containsKey(uuid)) {
+                List<Object> list = lists.get(uuid);
+                rv.put(uuid, list == null ? null : createSessionContext(list, ctx));
+            }
+        }
+        return rv;
+    }
+
     // Executor methods
     // =========================================================================
 
@@ -1390,34 +1425,183 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
     private List<Object> executeSessionContextLookup(ServiceFactory sf,
             Principal principal, Session session) {
         try {
-            List<Object> list = new ArrayList<Object>();
-            LocalAdmin admin = (LocalAdmin) sf.getAdminService();
-            final Experimenter exp = admin.userProxy(principal.getName());
-            final ExperimenterGroup grp = admin
-                    .groupProxy(principal.getGroup());
-            final List<Long> memberOfGroupsIds = admin.getMemberOfGroupIds(exp);
-            final List<Long> leaderOfGroupsIds = admin.getLeaderOfGroupIds(exp);
-            final List<String> userRoles = admin.getUserRoles(exp);
             final Session reloaded = (Session)
                     sf.getQueryService().findByQuery(
                             "select s from Session s "
                             + "left outer join fetch s.annotationLinks l "
                             + "left outer join fetch l.child a where s.id = :id",
                             new Parameters().addId(session.getId()));
-            list.add(exp);
-            list.add(grp);
-            list.add(memberOfGroupsIds);
-            list.add(leaderOfGroupsIds);
-            list.add(userRoles);
-            list.add(principal);
-            list.add(reloaded);
-            return list;
+            return executeSessionContextLookup(sf, principal, reloaded,
+                    new HashMap<String, List<Object>>());
         } catch (Exception e) {
             log.info("No info for " + principal.getName(), e);
             return null;
         }
     }
 
+    /**
+     * As {@link #executeSessionContextLookup(ServiceFactory, Principal, Session)}
+     * for an already reloaded {@link Session}, reusing the user and group
+     * state found in <code>principals</code> for the same user and group.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> executeSessionContextLookup(ServiceFactory sf,
+            Principal principal, Session reloaded,
+            Map<String, List<Object>> principals) {
+        final String key = principal.getName() + "/" + principal.getGroup();
+        List<Object> state = principals.get(key);
+        if (state == null) {
+            LocalAdmin admin = (LocalAdmin) sf.getAdminService();
+            final Experimenter exp = admin.userProxy(principal.getName());
+            final ExperimenterGroup grp = admin
+                    .groupProxy(principal.getGroup());
+            state = new ArrayList<Object>();
+            state.add(exp);
+            state.add(grp);
+            state.add(admin.getMemberOfGroupIds(exp));
+            state.add(admin.getLeaderOfGroupIds(exp));
+            state.add(admin.getUserRoles(exp));
+            principals.put(key, state);
+        }
+        List<Object> list = new ArrayList<Object>();
+        list.add(state.get(0));
+        list.add(state.get(1));
+        list.add(new ArrayList<Long>((List<Long>) state.get(2)));
+        list.add(new ArrayList<Long>((List<Long>) state.get(3)));
+        list.add(new ArrayList<String>((List<String>) state.get(4)));
+        list.add(principal);
+        list.add(reloaded);
+        return list;
+    }
+
+    /**
+     * Returns the lists of state, as from
+     * {@link #executeSessionContextLookup(ServiceFactory, Principal, Session)},
+     * of those sessions whose timeouts, user or group have changed, keyed by
+     * uuid. A <code>null</code> value means the session has been closed or
+     * could not be looked up. Sessions which have not changed are absent
+     * from the returned map.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, List<Object>> executeSessionContextLookups(
+            ServiceFactory sf, Collection<SessionContext> contexts) {
+
+        final Set<Long> userIds = new HashSet<Long>();
+        final Set<Long> groupIds = new HashSet<Long>();
+        for (SessionContext ctx : contexts) {
+            userIds.add(ctx.getCurrentUserId());
+            groupIds.add(ctx.getCurrentGroupId());
+        }
+
+        // Current state of every user and group of the batch
+        final Map<Long, String> userNames = new HashMap<Long, String>();
+        final Map<Long, List<Long>> memberOf = new HashMap<Long, List<Long>>();
+        final Map<Long, Set<Long>> leaderOf = new HashMap<Long, Set<Long>>();
+        final Map<Long, List<String>> userRoles = new HashMap<Long, List<String>>();
+        for (Object[] row : sf.getQueryService().projection(
+                "select e.id, e.omeName from Experimenter e where e.id in (:ids)",
+                new Parameters().addIds(userIds))) {
+            final Long id = (Long) row[0];
+            userNames.put(id, (String) row[1]);
+            memberOf.put(id, new ArrayList<Long>());
+            leaderOf.put(id, new HashSet<Long>());
+            userRoles.put(id, new ArrayList<String>());
+        }
+        // Same order as LocalAdmin.getMemberOfGroupIds and getUserRoles
+        for (Object[] row : sf.getQueryService().projection(
+                "select e.id, m.parent.id, m.parent.name, m.owner "
+                + "from Experimenter e join e.groupExperimenterMap m "
+                + "where e.id in (:ids) order by e.id, index(m)",
+                new Parameters().addIds(userIds))) {
+            final Long id = (Long) row[0];
+            memberOf.get(id).add((Long) row[1]);
+            userRoles.get(id).add((String) row[2]);
+            if (Boolean.TRUE.equals(row[3])) {
+                leaderOf.get(id).add((Long) row[1]);
+            }
+        }
+        final Map<Long, Object[]> groups = new HashMap<Long, Object[]>();
+        for (Object[] row : sf.getQueryService().projection(
+                "select g.id, g.name, g.details.permissions "
+                + "from ExperimenterGroup g where g.id in (:ids)",
+                new Parameters().addIds(groupIds))) {
+            groups.put((Long) row[0], row);
+        }
+
+        // Current row of every session of the batch
+        final Set<Long> sessionIds = new HashSet<Long>();
+        for (SessionContext ctx : contexts) {
+            sessionIds.add(ctx.getSession().getId());
+        }
+        final Map<Long, Object[]> rows = new HashMap<Long, Object[]>();
+        for (Object[] row : sf.getQueryService().projection(
+                "select s.id, s.closed, s.timeToIdle, s.timeToLive "
+                + "from Session s where s.id in (:ids)",
+                new Parameters().addIds(sessionIds))) {
+            rows.put((Long) row[0], row);
+        }
+
+        final Map<String, List<Object>> rv = new HashMap<String, List<Object>>();
+
+        // Sessions which were closed, or whose timeouts or whose user or
+        // group no longer match
+        final Map<Long, SessionContext> changed = new HashMap<Long, SessionContext>();
+        for (SessionContext ctx : contexts) {
+            final Session current = ctx.getSession();
+            final Object[] row = rows.get(current.getId());
+            if (row == null || row[1] != null) {
+                rv.put(current.getUuid(), null);
+                continue;
+            }
+            final Long userId = ctx.getCurrentUserId();
+            final Object[] group = groups.get(ctx.getCurrentGroupId());
+            if (!Objects.equal(current.getTimeToIdle(), row[2])
+                    || !Objects.equal(current.getTimeToLive(), row[3])
+                    || !ctx.getCurrentUserName().equals(userNames.get(userId))
+                    || !ctx.getMemberOfGroupsList().equals(memberOf.get(userId))
+                    || !new HashSet<Long>(ctx.getLeaderOfGroupsList()).equals(
+                            leaderOf.get(userId))
+                    || !ctx.getUserRoles().equals(userRoles.get(userId))
+                    || group == null
+                    || !ctx.getCurrentGroupName().equals(group[1])
+                    || !ctx.getCurrentGroupPermissions().sameRights(
+                            (Permissions) group[2])) {
+                changed.put(ctx.getSession().getId(), ctx);
+            }
+        }
+
+        if (changed.isEmpty()) {
+            return rv;
+        }
+
+        final Map<Long, Session> reloaded = new HashMap<Long, Session>();
+        for (Session s : (List<Session>) sf.getQueryService().findAllByQuery(
+                "select distinct s from Session s "
+                + "left outer join fetch s.annotationLinks l "
+                + "left outer join fetch l.child a where s.id in (:ids)",
+                new Parameters().addIds(changed.keySet()))) {
+            reloaded.put(s.getId(), s);
+        }
+
+        final Map<String, List<Object>> principals = new HashMap<String, List<Object>>();
+        for (Map.Entry<Long, SessionContext> entry : changed.entrySet()) {
+            final SessionContext ctx = entry.getValue();
+            final Principal p = new Principal(ctx.getCurrentUserName(), ctx
+                    .getCurrentGroupName(), ctx.getCurrentEventType());
+            final Session session = reloaded.get(entry.getKey());
+            List<Object> list = null;
+            if (session != null) {
+                try {
+                    list = executeSessionContextLookup(sf, p, session, principals);
+                } catch (Exception e) {
+                    log.info("No info for " + p.getName(), e);
+                }
+            }
+            rv.put(ctx.getSession().getUuid(), list);
+        }
+        return rv;
+    }
+
     private Share newShare() {
         Share share = new Share();
         share.putAt("#2733", "ALLOW");
@@ -5,7 +5,11 @@
 package ome.services.sessions.state;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -25,6 +29,10 @@ import ome.services.sessions.SessionManager;
 import ome.services.sessions.SessionManagerImpl;
 import ome.services.sessions.events.UserGroupUpdateEvent;
 import ome.system.OmeroContext;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
 
 import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
@@ -70,6 +78,27 @@ public class SessionCache implements ApplicationContextAware {
         SessionContext reload(SessionContext context);
     }
 
+    /**
+     * {@link StaleCacheListener} which can reload many sessions at once, and
+     * which only replaces those whose state has actually changed. Used by
+     * {@link SessionCache#doUpdate()} when a batch size has been set.
+     */
+    public interface BatchStaleCacheListener extends StaleCacheListener {
+
+        /**
+         * Method called with a batch of the active sessions in the cache.
+         * The returned map contains an entry for every session which must be
+         * replaced, keyed by uuid. A <code>null</code> value signals that the
+         * session should be removed. Sessions without an entry are left as
+         * they are.
+         *
+         * Any runtime exception can be thrown to show that an update is not
+         * possible, in which case the sessions of the batch will be reloaded
+         * one at a time.
+         */
+        Map<String, SessionContext> reloadAll(Collection<SessionContext> contexts);
+    }
+
     /**
      * Container which can be put in a single {@link AtomicReference} instance.
      * Contains all the data for a single session immutably. Therefore any
@@ -253,7 +282,22 @@ public class SessionCache implements ApplicationContextAware {
      */
     private OmeroContext context;
 
+    /**
+     * Number of sessions passed at once to a {@link BatchStaleCacheListener}.
+     * If not positive, each session is reloaded on its own.
+     */
+    private int batchSize = 0;
+
+    private Timer syncTimer;
+
+    private Counter reloadedCount;
+
+    private Counter unchangedCount;
+
+    private Counter removedCount;
+
     public SessionCache() {
+        setMetrics(new NullMetrics());
         final MapMaker mapMaker = new MapMaker();
         sessions = mapMaker.makeMap();
         sessionCallbackMap = mapMaker.makeMap();
@@ -281,6 +325,26 @@ public class SessionCache implements ApplicationContextAware {
         this.forceUpdateInterval = milliseconds;
     }
 
+    /**
+     * Inject the number of sessions which should be reloaded together by a
+     * {@link BatchStaleCacheListener}.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Inject the {@link Metrics} used to report the duration of each
+     * synchronization and the number of sessions it reloaded, left unchanged
+     * or removed.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.syncTimer = metrics.timer(this, "syncTimes");
+        this.reloadedCount = metrics.counter(this, "reloadedSessions");
+        this.unchangedCount = metrics.counter(this, "unchangedSessions");
+        this.removedCount = metrics.counter(this, "removedSessions");
+    }
+
     // Accessors
     // ========================================================================
 
@@ -624,8 +688,18 @@ public class SessionCache implements ApplicationContextAware {
             final Set<String> ids = sessions.keySet();
             log.info("Synchronizing session cache. Count = " + ids.size());
             final StopWatch sw = new Slf4JStopWatch();
-            for (String id : ids) {
-                reload(id);
+            final Timer.Context ctx = syncTimer.time();
+            try {
+                final StaleCacheListener listener = staleCacheListener.get();
+                if (batchSize > 0 && listener instanceof BatchStaleCacheListener) {
+                    reloadAll((BatchStaleCacheListener) listener, ids);
+                } else {
+                    for (String id : ids) {
+                        reload(id);
+                    }
+                }
+            } finally {
+                ctx.stop();
             }
 
             sw.stop("omero.sessions.synchronization");
@@ -640,6 +714,83 @@ public class SessionCache implements ApplicationContextAware {
 
     }
 
+    /**
+     * Reloads the given sessions in batches of {@link #batchSize}. Timed out
+     * sessions are removed before being passed to the listener, and only the
+     * sessions for which the listener returns a replacement are refreshed.
+     * If a batch fails as a whole, its sessions are reloaded one by one so
+     * that errors are counted per session as in {@link #reload(String)}.
+     */
+    private void reloadAll(BatchStaleCacheListener listener, Set<String> ids) {
+        final List<String> batch = new ArrayList<String>(batchSize);
+        for (String id : ids) {
+            batch.add(id);
+            if (batch.size() == batchSize) {
+                reloadBatch(listener, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            reloadBatch(listener, batch);
+        }
+    }
+
+    private void reloadBatch(BatchStaleCacheListener listener, List<String> ids) {
+
+        final Map<String, Data> current = new LinkedHashMap<String, Data>();
+        final List<SessionContext> contexts = new ArrayList<SessionContext>();
+        for (String id : ids) {
+            Data data = null;
+            try {
+                data = getDataNullOrThrowOnTimeout(id, false);
+            } catch (Exception e) {
+                // As in reload(String), no DB calls are made here.
+                log.warn("Removing session on get error of " + id, e);
+            }
+            if (data == null) {
+                internalRemove(id, "Timeout");
+                removedCount.inc();
+                continue;
+            }
+            current.put(id, data);
+            contexts.add(data.sessionContext);
+        }
+
+        if (contexts.isEmpty()) {
+            return;
+        }
+
+        final Map<String, SessionContext> replacements;
+        try {
+            replacements = listener.reloadAll(contexts);
+        } catch (Exception e) {
+            log.warn("Batch reload failed; reloading " + contexts.size()
+                    + " session(s) individually", e);
+            for (String id : current.keySet()) {
+                reload(id);
+            }
+            return;
+        }
+
+        for (Map.Entry<String, Data> entry : current.entrySet()) {
+            final String id = entry.getKey();
+            if (!replacements.containsKey(id)) {
+                unchangedCount.inc();
+                continue;
+            }
+            final SessionContext replacement = replacements.get(id);
+            if (replacement == null) {
+                internalRemove(id, "Replacement null");
+                removedCount.inc();
+            } else {
+                refresh(id, entry.getValue(), replacement);
+                reloadedCount.inc();
+            }
+        }
+        log.debug(String.format("Reloaded %s of %s session(s)",
+                replacements.size(), contexts.size()));
+    }
+
     /**
      * Provides the reloading logic of the {@link SessionCache} for the
      * {@link SessionManagerImpl} to use.
@@ -660,6 +811,7 @@ public class SessionCache implements ApplicationContextAware {
             data = getDataNullOrThrowOnTimeout(id, false);
             if (data == null) {
                 internalRemove(id, "Timeout");
+                removedCount.inc();
                 return;
             }
         } catch (Exception e) {
@@ -676,8 +828,10 @@ public class SessionCache implements ApplicationContextAware {
             SessionContext replacement = listener.reload(ctx);
             if (replacement == null) {
                 internalRemove(id, "Replacement null");
+                removedCount.inc();
             } else {
                 refresh(id, data, replacement);
+                reloadedCount.inc();
             }
         } catch (Exception e) {
             // If an exception occurs it MAY be transient, therefore
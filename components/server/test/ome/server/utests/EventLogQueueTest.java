@@ -25,8 +25,11 @@ import java.util.Map;
 
 import ome.model.containers.Dataset;
 import ome.model.containers.Project;
+import ome.model.core.Pixels;
 import ome.model.meta.EventLog;
+import ome.services.eventlogs.EventLogFailure;
 import ome.services.eventlogs.EventLogQueue;
+import ome.system.metrics.NullMetrics;
 import ome.util.SqlAction;
 
 import org.jmock.Mock;
@@ -172,6 +175,138 @@ public class EventLogQueueTest extends MockObjectTestCase {
         assertFalse(q.hasNext());
     }
 
+    Object[] pixels(long id, String action, long owner) {
+        Object[] rv = Arrays.copyOf(
+                eventlog(Pixels.class.getName(), id, action, 0), 6);
+        rv[5] = owner;
+        return rv;
+    }
+
+    EventLogQueue pixelsQueue() {
+        q = new EventLogQueue(new NullMetrics(), EventLogQueue.DEFAULT_MAX,
+                new String[]{Pixels.class.getName()},
+                new String[]{"PIXELDATA", "PIXELDATA_REQUESTED"}) {
+            @Override
+            protected List<Object[]> lookup() {
+               List<Object[]> copy = new ArrayList<Object[]>(results);
+               results.clear();
+               return copy;
+            }
+        };
+        q.setSqlAction(sql);
+        q.setPriorityActions(new String[]{"PIXELDATA_REQUESTED"});
+        return q;
+    }
+
+    @Test
+    public void testOwnersTakeTurns() {
+        pixelsQueue();
+        results.add(pixels(1, "PIXELDATA", 10));
+        results.add(pixels(2, "PIXELDATA", 10));
+        results.add(pixels(3, "PIXELDATA", 10));
+        results.add(pixels(4, "PIXELDATA", 20));
+        results.add(pixels(5, "PIXELDATA", 20));
+        long[] expected = new long[] {1, 4, 2, 5, 3};
+        for (long id : expected) {
+            assertTrue(q.hasNext());
+            assertEquals(id, q.next().getEntityId().longValue());
+        }
+        assertFalse(q.hasNext());
+    }
+
+    @Test
+    public void testRequestedFirst() {
+        pixelsQueue();
+        results.add(pixels(1, "PIXELDATA", 10));
+        results.add(pixels(2, "PIXELDATA", 10));
+        results.add(pixels(3, "PIXELDATA_REQUESTED", 20));
+        assertTrue(q.hasNext());
+        match(fields("objId", 3L, "action", "PIXELDATA_REQUESTED"));
+        assertTrue(q.hasNext());
+        match(fields("objId", 1L));
+        assertTrue(q.hasNext());
+        match(fields("objId", 2L));
+        assertFalse(q.hasNext());
+    }
+
+    @Test
+    public void testRequestedPromotesQueued() {
+        pixelsQueue();
+        q.setRefreshInterval(1);
+        results.add(pixels(1, "PIXELDATA", 10));
+        results.add(pixels(2, "PIXELDATA", 10));
+        results.add(pixels(3, "PIXELDATA", 10));
+        assertTrue(q.hasNext());
+        match(fields("objId", 1L));
+        // A viewer asks for the last image while the queue is not empty.
+        results.add(pixels(3, "PIXELDATA_REQUESTED", 10));
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException ie) {
+            // Refreshes later.
+        }
+        assertTrue(q.hasNext());
+        match(fields("objId", 3L, "action", "PIXELDATA_REQUESTED"));
+        assertTrue(q.hasNext());
+        match(fields("objId", 2L));
+        assertFalse(q.hasNext());
+    }
+
+    List<Long> saved = new ArrayList<Long>();
+
+    EventLogQueue batchedQueue() {
+        q = new EventLogQueue() {
+            @Override
+            protected List<Object[]> lookup() {
+               List<Object[]> copy = new ArrayList<Object[]>(results);
+               results.clear();
+               return copy;
+            }
+            @Override
+            public void setCurrentId(long id) {
+                saved.add(id);
+            }
+        };
+        q.setSqlAction(sql);
+        q.setBatched(true);
+        return q;
+    }
+
+    @Test
+    public void testBatchedSavesIdOnlyOnceFlushed() {
+        batchedQueue();
+        results.add(project(1, "INSERT", 0));
+        results.add(project(2, "INSERT", 0));
+        results.add(project(3, "INSERT", 0));
+        List<EventLog> returned = new ArrayList<EventLog>();
+        while (q.hasNext()) {
+            returned.add(q.next());
+        }
+        assertEquals(3, returned.size());
+        assertTrue(saved.isEmpty());
+        q.flushed();
+        assertEquals(Arrays.asList(returned.get(2).getId()), saved);
+    }
+
+    @Test
+    public void testBatchedFailureBeforeFlush() {
+        batchedQueue();
+        results.add(project(1, "INSERT", 0));
+        results.add(project(2, "INSERT", 0));
+        List<EventLog> returned = new ArrayList<EventLog>();
+        while (q.hasNext()) {
+            returned.add(q.next());
+        }
+        q.onApplicationEvent(new EventLogFailure(q, returned.get(0),
+                new Exception("index failed")));
+        assertTrue(saved.isEmpty());
+        q.flushed();
+        assertEquals(Arrays.asList(returned.get(1).getId()), saved);
+        // Nothing more to save until more are returned.
+        q.flushed();
+        assertEquals(1, saved.size());
+    }
+
     @Test
     public void testStopSet() {
         q.addEventLog(Project.class, 1L);
@@ -20,7 +20,6 @@ import ome.model.internal.Permissions;
 import ome.model.meta.Event;
 import ome.model.meta.Experimenter;
 import ome.model.meta.ExperimenterGroup;
-import ome.model.meta.Session;
 import ome.security.SecurityFilter;
 import ome.security.SystemTypes;
 import ome.security.basic.BasicACLVoter;
@@ -222,9 +221,6 @@ public abstract class AbstractBasicSecuritySystemTest extends
         sf.mockAdmin.expects(once()).method("groupProxy").will(
                 returnValue(group));
         if (!readOnly) {
-            sf.mockQuery.expects(once()).method("get")
-                    .with(eq(Session.class), eq(1L))
-                    .will(returnValue(new Session()));
             sf.mockAdmin.expects(once()).method("userProxy").will(
                     returnValue(user));
             sf.mockUpdate.expects(once()).method("saveAndReturnObject").will(
@@ -0,0 +1,146 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests.sec;
+
+import java.util.HashMap;
+
+import ome.model.meta.Event;
+import ome.security.SystemTypes;
+import ome.security.basic.EventHandler;
+import ome.security.basic.OmeroInterceptor;
+import ome.security.basic.TokenHolder;
+import ome.services.sessions.stats.NullSessionStats;
+import ome.system.Roles;
+import ome.tools.hibernate.ExtendedMetadata;
+import ome.tools.hibernate.SessionFactory;
+import ome.util.SqlAction;
+
+import org.hibernate.Session;
+import org.jmock.Mock;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that with lazy events the {@link EventHandler} saves the event of a
+ * call which is not read-only only once the call first writes, and gives
+ * the events ids from blocks allocated from <code>seq_event</code>.
+ *
+ * @since 5.1.0
+ */
+@Test
+public class LazyEventsTest extends AbstractBasicSecuritySystemTest {
+
+    Mock sqlMock, sessionMock;
+
+    EventHandler handler;
+
+    OmeroInterceptor interceptor;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        sqlMock = mock(SqlAction.class);
+        sessionMock = mock(Session.class);
+        final Session session = (Session) sessionMock.proxy();
+        Mock sfMock = mock(org.hibernate.SessionFactory.class);
+        sfMock.expects(once()).method("getAllClassMetadata").will(
+                returnValue(new HashMap<String, Object>()));
+        handler = new EventHandler((SqlAction) sqlMock.proxy(), sec,
+                new SessionFactory(
+                        (org.hibernate.SessionFactory) sfMock.proxy(), null) {
+                    @Override
+                    public Session getSession() {
+                        return session;
+                    }
+                }, null);
+        handler.setLazyEvents(true);
+        handler.setEventIdBlock(3);
+        interceptor = new OmeroInterceptor(new Roles(), new SystemTypes(),
+                new ExtendedMetadata.Impl(), cd, new TokenHolder(),
+                new NullSessionStats());
+    }
+
+    /**
+     * Allows any number of logins, none of which may save the event through
+     * the update service.
+     */
+    @Override
+    protected void doReadOnly(boolean readOnly) {
+        sf.mockAdmin.stubs().method("groupProxy").will(returnValue(group));
+        sf.mockAdmin.stubs().method("userProxy").will(returnValue(user));
+    }
+
+    /**
+     * Expects the allocation of blocks of 3 event ids, the first ending at 12.
+     */
+    private void expectBlocks(int blocks) {
+        sqlMock.expects(exactly(blocks)).method("nextValue")
+                .with(eq("seq_event"), eq(3))
+                .will(new CustomStub("allocates a block") {
+                    long last = 9;
+                    public Object invoke(Invocation invocation) {
+                        last += 3;
+                        return last;
+                    }
+                });
+    }
+
+    public void testEventSavedOnceBeforeFirstWrite() {
+        prepareMocksWithUserDetails(false);
+        expectBlocks(1);
+        assertTrue(handler.doLogin(false, false));
+        assertEquals(Long.valueOf(10L), cd.getEvent().getId());
+
+        // Queries do not need the event.
+        interceptor.onPrepareStatement("select p from Project p");
+        interceptor.onPrepareStatement("SELECT nextval('seq_project')");
+
+        sqlMock.expects(once()).method("insertEvent").will(returnValue(1));
+        sqlMock.expects(once()).method("prepareSession")
+                .with(eq(10L), eq(1L), ANYTHING);
+        sessionMock.expects(once()).method("load")
+                .with(eq(Event.class), eq(10L))
+                .will(returnValue(new Event(10L, false)));
+        interceptor.onPrepareStatement("insert into project (id) values (?)");
+        assertEquals(Long.valueOf(10L), cd.getEvent().getId());
+
+        // Only saved once.
+        interceptor.onPrepareStatement("update project set name=? where id=?");
+        cd.savePendingEvent();
+    }
+
+    public void testEventNotSavedWithoutWrite() {
+        prepareMocksWithUserDetails(false);
+        expectBlocks(1);
+        assertTrue(handler.doLogin(false, false));
+        interceptor.onPrepareStatement("select p from Project p");
+        sec.invalidateEventContext();
+        // No insertEvent or prepareSession expected.
+    }
+
+    public void testReadOnlyCallAllocatesNoId() {
+        prepareMocksWithUserDetails(true);
+        assertTrue(handler.doLogin(true, false));
+        interceptor.onPrepareStatement("select p from Project p");
+        // No nextValue, insertEvent or prepareSession expected.
+    }
+
+    public void testEventIdsAllocatedInBlocks() {
+        prepareMocksWithUserDetails(false);
+        expectBlocks(2);
+        for (long id = 10; id < 15; id++) {
+            if (id > 10) {
+                sec.login(p);
+            }
+            assertTrue(handler.doLogin(false, false));
+            assertEquals(Long.valueOf(id), cd.getEvent().getId());
+            sec.invalidateEventContext();
+        }
+    }
+
+}
@@ -190,6 +190,22 @@ public class SecuritySystemTest extends AbstractBasicSecuritySystemTest {
         sec.invalidateEventContext();
     }
 
+    /*
+     * Test method for
+     * 'ome.security.basic.BasicSecuritySystem.loadEventContext(boolean, boolean, boolean)'
+     */
+    public void testDeferredEventIsNotSaved() {
+        prepareMocksWithUserDetails(true);
+        sf.mockAdmin.expects(once()).method("userProxy").will(
+                returnValue(user));
+        sec.loadEventContext(false, false, true);
+        assertNotSame(cd.getEvent(), event);
+        assertNull(cd.getEvent().getId());
+        assertEquals(user.getId(), cd.getEvent().getExperimenter().getId());
+        cd.savePendingEvent(); // nothing pending
+        sec.invalidateEventContext();
+    }
+
     /*
      * Test method for 'ome.security.SecuritySystem.clearCurrentDetails()'
      */
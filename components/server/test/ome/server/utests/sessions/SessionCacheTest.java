@@ -7,8 +7,11 @@ package ome.server.utests.sessions;
 
 import java.sql.Timestamp;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CyclicBarrier;
 
@@ -29,6 +32,7 @@ import ome.services.sessions.SessionCallback;
 import ome.services.sessions.SessionContext;
 import ome.services.sessions.SessionContextImpl;
 import ome.services.sessions.events.UserGroupUpdateEvent;
+import ome.services.sessions.state.SessionCache.BatchStaleCacheListener;
 import ome.services.sessions.state.SessionCache.StaleCacheListener;
 import ome.services.sessions.state.SessionCache;
 import ome.services.sessions.stats.NullSessionStats;
@@ -378,6 +382,61 @@ public class SessionCacheTest extends TestCase {
         assertTrue(internal.isKeyInCache(s.getUuid()));
     }
 
+    public void testBatchReloadOnlyReplacesReturnedSessions() throws Exception {
+        initCache();
+        cache.setBatchSize(2);
+        final Session kept = sess(), replaced = sess(), removed = sess();
+        final SessionContext keptCtx = sc(kept);
+        cache.putSession(kept.getUuid(), keptCtx);
+        cache.putSession(replaced.getUuid(), sc(replaced));
+        cache.putSession(removed.getUuid(), sc(removed));
+        final SessionContext replacement = sc(replaced);
+        BatchListener listener = new BatchListener() {
+            public Map<String, SessionContext> reloadAll(
+                    Collection<SessionContext> contexts) {
+                batches++;
+                Map<String, SessionContext> rv = new HashMap<String, SessionContext>();
+                for (SessionContext ctx : contexts) {
+                    String uuid = ctx.getSession().getUuid();
+                    if (uuid.equals(replaced.getUuid())) {
+                        rv.put(uuid, replacement);
+                    } else if (uuid.equals(removed.getUuid())) {
+                        rv.put(uuid, null);
+                    }
+                }
+                return rv;
+            }
+        };
+        cache.setStaleCacheListener(listener);
+        cache.updateEvent(new UserGroupUpdateEvent(this));
+        cache.doUpdate();
+        assertEquals(2, listener.batches);
+        assertEquals(0, listener.single);
+        assertSame(keptCtx, cache.getSessionContext(kept.getUuid()));
+        assertSame(replacement, cache.getSessionContext(replaced.getUuid()));
+        throwsRemovedSession(removed.getUuid());
+    }
+
+    public void testFailedBatchFallsBackToSingleReloads() throws Exception {
+        initCache();
+        cache.setBatchSize(10);
+        Session s = sess();
+        cache.putSession(s.getUuid(), sc(s));
+        BatchListener listener = new BatchListener() {
+            public Map<String, SessionContext> reloadAll(
+                    Collection<SessionContext> contexts) {
+                batches++;
+                throw new RuntimeException();
+            }
+        };
+        cache.setStaleCacheListener(listener);
+        cache.updateEvent(new UserGroupUpdateEvent(this));
+        cache.doUpdate();
+        assertEquals(1, listener.batches);
+        assertEquals(1, listener.single);
+        assertNotNull(cache.getSessionContext(s.getUuid()));
+    }
+
     // Helpers
     // ====================
 
@@ -451,6 +510,18 @@ public class SessionCacheTest extends TestCase {
         }
     }
 
+    private abstract class BatchListener implements BatchStaleCacheListener {
+
+        int batches = 0;
+
+        int single = 0;
+
+        public SessionContext reload(SessionContext context) {
+            single++;
+            return context;
+        }
+    }
+
     private final class ThrowsStaleCacheListener implements StaleCacheListener {
         public void prepareReload() {
             // noop.
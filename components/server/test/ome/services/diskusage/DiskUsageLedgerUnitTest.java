@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.diskusage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.ThumbnailService;
+import ome.model.annotations.FileAnnotation;
+import ome.model.core.OriginalFile;
+import ome.model.core.Pixels;
+import ome.model.display.Thumbnail;
+import ome.model.fs.FilesetEntry;
+import ome.model.meta.EventLog;
+import ome.services.eventlogs.EventLogLoader;
+import ome.util.SqlAction;
+
+import org.apache.commons.io.FileUtils;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Constraint;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests how {@link DiskUsageLedger} notes the usage of files, pixels and
+ * thumbnails, and of the files whose links change, in the ledger.
+ *
+ * @since 5.2.0
+ */
+@Test(groups = "unit")
+public class DiskUsageLedgerUnitTest extends MockObjectTestCase {
+
+    private final static String FILE = OriginalFile.class.getName();
+
+    private final static String PIXELS = Pixels.class.getName();
+
+    private final static String THUMBNAIL = Thumbnail.class.getName();
+
+    private final static long OWNER = 2;
+
+    private final static long GROUP = 3;
+
+    /** The queries for the objects which refer to original files. */
+    private final static String[] REFERER_QUERIES = new String[] {
+        "SELECT file.id FROM FileAnnotation WHERE file.id IN (:ids)",
+        "SELECT originalFile.id FROM FilesetEntry " +
+                "WHERE originalFile.id IN (:ids)",
+        "SELECT child.id FROM JobOriginalFileLink WHERE child.id IN (:ids)",
+        "SELECT parent.id FROM PixelsOriginalFileMap " +
+                "WHERE parent.id IN (:ids)",
+        "SELECT source.id FROM Roi WHERE source.id IN (:ids)" };
+
+    private File root;
+
+    private PixelsService pixelsService;
+
+    private ThumbnailService thumbnailService;
+
+    private ListLogLoader loader;
+
+    private Mock sessionMock;
+
+    private Mock sqlMock;
+
+    private DiskUsageLedger ledger;
+
+    @BeforeClass
+    public void createRoot() throws IOException {
+        root = Files.createTempDirectory("DiskUsageLedgerUnitTest").toFile();
+        pixelsService = new PixelsService(root.getPath());
+        thumbnailService = new ThumbnailService(root.getPath());
+    }
+
+    @AfterClass
+    public void deleteRoot() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @BeforeMethod
+    public void setUpLedger() {
+        loader = new ListLogLoader();
+        sessionMock = mock(Session.class);
+        sqlMock = mock(SqlAction.class);
+        ledger = new DiskUsageLedger(loader, pixelsService, thumbnailService,
+                (SqlAction) sqlMock.proxy());
+    }
+
+    @AfterMethod
+    public void verifyMocks() {
+        verify();
+    }
+
+    /**
+     * Stubs the session to answer the given query with the given results.
+     */
+    private void query(String hql, List<?> results) {
+        final Mock queryMock = mock(Query.class);
+        queryMock.stubs().method("setParameterList")
+                .will(returnValue(queryMock.proxy()));
+        queryMock.stubs().method("list").will(returnValue(results));
+        sessionMock.stubs().method("createQuery").with(eq(hql))
+                .will(returnValue(queryMock.proxy()));
+    }
+
+    /**
+     * Stubs the session to find no object referring to any original file.
+     */
+    private void noReferers() {
+        for (final String referer : REFERER_QUERIES) {
+            query(referer, Collections.<Long>emptyList());
+        }
+    }
+
+    private List<Object[]> rows(Object[]... rows) {
+        return Arrays.asList(rows);
+    }
+
+    private void expectSet(String type, long id, String usageTypes,
+            int files, long bytes) {
+        sqlMock.expects(once()).method("setDiskUsage").with(new Constraint[] {
+                eq(type), eq(id), eq(OWNER), eq(GROUP), eq(usageTypes),
+                eq(files), eq(bytes) }).will(returnValue(1));
+    }
+
+    private void expectDelete(String type, Long... ids) {
+        sqlMock.expects(once()).method("deleteDiskUsage")
+                .with(eq(type), eq(new HashSet<Long>(Arrays.asList(ids))))
+                .will(returnValue(ids.length));
+    }
+
+    private int note(String type, Long... ids) {
+        return ledger.note((Session) sessionMock.proxy(), type,
+                Arrays.asList(ids));
+    }
+
+    private void write(String path, int length) throws IOException {
+        final File file = new File(path);
+        file.getParentFile().mkdirs();
+        FileUtils.writeByteArrayToFile(file, new byte[length]);
+    }
+
+    /**
+     * Files are noted under the types of the objects which refer to them,
+     * or as OriginalFile if none does, and empty files are not noted.
+     */
+    public void testFiles() {
+        query(REFERER_QUERIES[0], Arrays.asList(11L));
+        query(REFERER_QUERIES[1], Arrays.asList(10L, 11L));
+        query(REFERER_QUERIES[2], Collections.<Long>emptyList());
+        query(REFERER_QUERIES[3], Arrays.asList(10L));
+        query(REFERER_QUERIES[4], Collections.<Long>emptyList());
+        query("SELECT id, details.owner.id, details.group.id, size " +
+                "FROM OriginalFile WHERE id IN (:ids)", rows(
+                new Object[] { 10L, OWNER, GROUP, 500L },
+                new Object[] { 11L, OWNER, GROUP, 20L },
+                new Object[] { 12L, OWNER, GROUP, 0L },
+                new Object[] { 13L, OWNER, GROUP, 7L }));
+        expectSet(FILE, 10, "FilesetEntry,Pixels", 1, 500);
+        expectSet(FILE, 11, "Annotation,FilesetEntry", 1, 20);
+        expectSet(FILE, 13, "OriginalFile", 1, 7);
+        expectDelete(FILE, 12L);
+        assertEquals(3, note(FILE, 10L, 11L, 12L, 13L));
+    }
+
+    /**
+     * Pixels are noted with their pixels file and pyramid, if any.
+     */
+    public void testPixels() throws IOException {
+        final String path = pixelsService.getPixelsPath(20L);
+        write(path, 1000);
+        write(path + PixelsService.PYRAMID_SUFFIX, 300);
+        write(pixelsService.getPixelsPath(21L) + PixelsService.PYRAMID_SUFFIX
+                + BfPyramidPixelBuffer.PYR_LOCK_EXT, 0);
+        query("SELECT id, details.owner.id, details.group.id " +
+                "FROM Pixels WHERE id IN (:ids)", rows(
+                new Object[] { 20L, OWNER, GROUP },
+                new Object[] { 21L, OWNER, GROUP }));
+        expectSet(PIXELS, 20, "Pixels", 2, 1300);
+        expectDelete(PIXELS, 21L);
+        assertEquals(1, note(PIXELS, 20L, 21L));
+    }
+
+    /**
+     * Thumbnails are noted whether packed or in a file of their own.
+     */
+    public void testThumbnails() throws IOException {
+        thumbnailService.createThumbnail(new Thumbnail(30L, false),
+                new byte[123]);
+        write(thumbnailService.getThumbnailPath(31L), 45);
+        query("SELECT id, details.owner.id, details.group.id " +
+                "FROM Thumbnail WHERE id IN (:ids)", rows(
+                new Object[] { 30L, OWNER, GROUP },
+                new Object[] { 31L, OWNER, GROUP },
+                new Object[] { 32L, OWNER, GROUP }));
+        expectSet(THUMBNAIL, 30, "Thumbnail", 1, 123);
+        expectSet(THUMBNAIL, 31, "Thumbnail", 1, 45);
+        expectDelete(THUMBNAIL, 32L);
+        assertEquals(2, note(THUMBNAIL, 30L, 31L, 32L));
+    }
+
+    /**
+     * Objects which no longer exist are removed from the ledger.
+     */
+    public void testDeletes() {
+        noReferers();
+        query("SELECT id, details.owner.id, details.group.id, size " +
+                "FROM OriginalFile WHERE id IN (:ids)",
+                Collections.<Object[]>emptyList());
+        expectDelete(FILE, 40L, 41L);
+        assertEquals(0, note(FILE, 40L, 41L));
+    }
+
+    /**
+     * The event logs of new or changed links note afresh the files they
+     * refer to, together with the objects of the other event logs.
+     */
+    public void testLinkChanges() {
+        loader.add(FilesetEntry.class.getName(), 50L);
+        loader.add(FileAnnotation.class.getName(), 51L);
+        loader.add(FILE, 60L);
+        query("SELECT originalFile.id FROM FilesetEntry WHERE id IN (:ids)",
+                Arrays.asList(10L));
+        query("SELECT file.id FROM FileAnnotation WHERE id IN (:ids)",
+                Arrays.asList(11L));
+        query(REFERER_QUERIES[0], Arrays.asList(11L));
+        query(REFERER_QUERIES[1], Arrays.asList(10L));
+        query(REFERER_QUERIES[2], Collections.<Long>emptyList());
+        query(REFERER_QUERIES[3], Collections.<Long>emptyList());
+        query(REFERER_QUERIES[4], Collections.<Long>emptyList());
+        query("SELECT id, details.owner.id, details.group.id, size " +
+                "FROM OriginalFile WHERE id IN (:ids)", rows(
+                new Object[] { 10L, OWNER, GROUP, 500L },
+                new Object[] { 11L, OWNER, GROUP, 20L },
+                new Object[] { 60L, OWNER, GROUP, 9L }));
+        expectSet(FILE, 10, "FilesetEntry", 1, 500);
+        expectSet(FILE, 11, "Annotation", 1, 20);
+        expectSet(FILE, 60, "OriginalFile", 1, 9);
+        expectDelete(FILE);
+        assertEquals(3, ledger.doWork((Session) sessionMock.proxy(), null));
+    }
+
+    /**
+     * Supplies the event logs added to it.
+     */
+    private static class ListLogLoader extends EventLogLoader {
+
+        private final List<EventLog> logs = new ArrayList<EventLog>();
+
+        void add(String type, long id) {
+            final EventLog log = new EventLog();
+            log.setEntityType(type);
+            log.setEntityId(id);
+            logs.add(log);
+        }
+
+        @Override
+        protected EventLog query() {
+            return logs.isEmpty() ? null : logs.remove(0);
+        }
+
+        @Override
+        public long more() {
+            return 0;
+        }
+    }
+}
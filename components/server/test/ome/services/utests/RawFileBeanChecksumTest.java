@@ -0,0 +1,165 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import ome.api.IAdmin;
+import ome.api.local.LocalQuery;
+import ome.api.local.LocalUpdate;
+import ome.io.nio.FileBuffer;
+import ome.model.core.OriginalFile;
+import ome.model.enums.ChecksumAlgorithm;
+import ome.services.RawFileBean;
+import ome.system.metrics.DefaultMetrics;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the checksum which {@link RawFileBean} calculates from the
+ * bytes as they are written matches the checksum of the whole file, and
+ * that the file is read again whenever the writes were not contiguous.
+ *
+ * @since 5.1.0
+ */
+@Test(groups = "unit")
+public class RawFileBeanChecksumTest extends MockObjectTestCase {
+
+    private final ChecksumProviderFactory cpf =
+        new ChecksumProviderFactoryImpl();
+
+    private final Random random = new Random(1);
+
+    private File path;
+
+    private FileBuffer buffer;
+
+    private DefaultMetrics metrics;
+
+    private RawFileBean bean;
+
+    @BeforeMethod
+    public void setUpBean() throws IOException {
+        path = File.createTempFile("RawFileBeanChecksumTest", ".bin");
+        buffer = new FileBuffer(path.getAbsolutePath(), "rw");
+        final OriginalFile file = new OriginalFile(1L, true);
+        file.setHasher(new ChecksumAlgorithm("SHA1-160"));
+        final Mock queryMock = mock(LocalQuery.class);
+        queryMock.expects(once()).method("get")
+                .with(eq(OriginalFile.class), eq(1L))
+                .will(returnValue(file));
+        final Mock adminMock = mock(IAdmin.class);
+        adminMock.expects(once()).method("canUpdate").with(same(file))
+                .will(returnValue(true));
+        final Mock updateMock = mock(LocalUpdate.class);
+        updateMock.stubs().method("flush");
+        metrics = new DefaultMetrics();
+        bean = new RawFileBean(false);
+        bean.setQueryService((LocalQuery) queryMock.proxy());
+        bean.setUpdateService((LocalUpdate) updateMock.proxy());
+        bean.setAdminService((IAdmin) adminMock.proxy());
+        bean.setChecksumProviderFactory(cpf);
+        bean.setMetrics(metrics);
+        bean.setFileIdWithBuffer(1L, buffer);
+    }
+
+    @AfterMethod
+    public void tearDownBean() throws IOException {
+        verify();
+        buffer.close();
+        path.delete();
+    }
+
+    private byte[] bytes(int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Saves the file and checks that its hash is that of the whole file.
+     * @return the number of bytes that were hashed without reading the file
+     */
+    private long assertSavedHash() {
+        final OriginalFile saved = bean.save();
+        assertEquals(path.length(), (long) saved.getSize());
+        assertEquals(cpf.getProvider(ChecksumType.SHA1)
+                .putFile(path.getAbsolutePath()).checksumAsString(),
+                saved.getHash());
+        return metrics.counter(bean, "checksumBytesNotReread").getCount();
+    }
+
+    /**
+     * Contiguous writes from the start of the file are hashed as they are
+     * written, including writes of only part of the given array.
+     */
+    public void testSequentialWrites() {
+        long position = 0;
+        for (final int length : new int[] { 1, 1000, 64 * 1024, 7, 3000 }) {
+            final byte[] buf = bytes(length + 10);
+            bean.write(buf, position, length);
+            position += length;
+        }
+        assertEquals(position, assertSavedHash());
+    }
+
+    /**
+     * Writes not starting at the start of the file are not hashed.
+     */
+    public void testWritesNotFromStart() {
+        bean.write(bytes(500), 500, 500);
+        bean.write(bytes(500), 0, 500);
+        assertEquals(0, assertSavedHash());
+    }
+
+    /**
+     * Overwriting earlier bytes stops the hashing for the file.
+     */
+    public void testOverlappingWrites() {
+        bean.write(bytes(1000), 0, 1000);
+        bean.write(bytes(300), 700, 300);
+        bean.write(bytes(1000), 1000, 1000);
+        assertEquals(0, assertSavedHash());
+    }
+
+    /**
+     * A gap between writes stops the hashing for the file.
+     */
+    public void testGapBetweenWrites() {
+        bean.write(bytes(1000), 0, 1000);
+        bean.write(bytes(1000), 1500, 1000);
+        assertEquals(0, assertSavedHash());
+    }
+
+    /**
+     * Truncating stops the hashing of the bytes written so far.
+     */
+    public void testTruncate() {
+        bean.write(bytes(1000), 0, 1000);
+        assertTrue(bean.truncate(600));
+        bean.write(bytes(400), 600, 400);
+        assertEquals(0, assertSavedHash());
+    }
+
+    /**
+     * After saving, further writes do not reuse the spent checksum.
+     */
+    public void testWritesAfterSave() {
+        bean.write(bytes(1000), 0, 1000);
+        assertEquals(1000, assertSavedHash());
+        bean.write(bytes(1000), 1000, 1000);
+        assertEquals(1000, assertSavedHash());
+    }
+}
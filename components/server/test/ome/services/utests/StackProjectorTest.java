@@ -0,0 +1,158 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import ome.api.IProjection;
+import ome.io.nio.InMemoryPlanarPixelBuffer;
+import ome.io.nio.PixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.services.projection.StackProjector;
+import ome.util.PixelData;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link StackProjector} produces the planes of the original
+ * per-voxel projection of a whole stack.
+ */
+public class StackProjectorTest
+{
+    private static final int SIZE_X = 17;
+
+    private static final int SIZE_Y = 5;
+
+    private static final int SIZE_Z = 6;
+
+    @DataProvider(name = "projections")
+    public Object[][] projections()
+    {
+        String[] types = { "uint8", "int8", "uint16", "int16", "uint32",
+                "int32", "float", "double" };
+        int[] algorithms = { IProjection.MAXIMUM_INTENSITY,
+                IProjection.MEAN_INTENSITY, IProjection.SUM_INTENSITY };
+        Object[][] data = new Object[types.length * algorithms.length][];
+        int i = 0;
+        for (String type : types)
+        {
+            for (int algorithm : algorithms)
+            {
+                data[i++] = new Object[] { type, algorithm };
+            }
+        }
+        return data;
+    }
+
+    private byte[][][][] planes(String type)
+    {
+        Random random = new Random(type.hashCode());
+        byte[][][][] planes = new byte[SIZE_Z][1][1][];
+        for (int z = 0; z < SIZE_Z; z++)
+        {
+            PixelData plane = pixelData(type, SIZE_X * SIZE_Y);
+            for (int i = 0; i < SIZE_X * SIZE_Y; i++)
+            {
+                double range = plane.getMaximum() - plane.getMinimum();
+                plane.setPixelValue(i, plane.getMinimum()
+                        + Math.floor(random.nextDouble() * range));
+            }
+            planes[z][0][0] = plane.getData().array();
+        }
+        return planes;
+    }
+
+    private PixelData pixelData(String type, int size)
+    {
+        PixelData plane = new PixelData(type, ByteBuffer.wrap(new byte[0]));
+        return new PixelData(type,
+                ByteBuffer.wrap(new byte[size * plane.bytesPerPixel()]));
+    }
+
+    private PixelBuffer buffer(String type, byte[][][][] planes)
+    {
+        Pixels pixels = new Pixels();
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        pixels.setPixelsType(pixelsType);
+        return new InMemoryPlanarPixelBuffer(pixels, planes);
+    }
+
+    /**
+     * The projection as originally implemented, voxel by voxel.
+     */
+    private PixelData expected(String type, byte[][][][] planes,
+            int algorithm, int stepping, int start, int end)
+    {
+        int n = SIZE_X * SIZE_Y;
+        PixelData to = pixelData(type, n);
+        double planeMaximum = to.getMaximum();
+        for (int i = 0; i < n; i++)
+        {
+            double projected = 0;
+            int count = 0;
+            int last = algorithm == IProjection.MAXIMUM_INTENSITY? end : end - 1;
+            for (int z = start; z <= last; z += stepping)
+            {
+                double value = new PixelData(type,
+                        ByteBuffer.wrap(planes[z][0][0])).getPixelValue(i);
+                if (algorithm == IProjection.MAXIMUM_INTENSITY)
+                {
+                    projected = value > projected? value : projected;
+                }
+                else
+                {
+                    projected += value;
+                }
+                count++;
+            }
+            if (algorithm == IProjection.MEAN_INTENSITY)
+            {
+                projected = projected / count;
+            }
+            if (algorithm != IProjection.MAXIMUM_INTENSITY
+                    && projected > planeMaximum)
+            {
+                projected = planeMaximum;
+            }
+            to.setPixelValue(i, projected);
+        }
+        return to;
+    }
+
+    @Test(dataProvider = "projections")
+    public void testProjectionMatchesVoxelByVoxel(String type, int algorithm)
+        throws Exception
+    {
+        byte[][][][] planes = planes(type);
+        PixelBuffer buffer = buffer(type, planes);
+        for (int stepping = 1; stepping <= 2; stepping++)
+        {
+            StackProjector projector = new StackProjector(
+                    algorithm, stepping, 1, SIZE_Z - 1, SIZE_X * SIZE_Y);
+            PixelData to = pixelData(type, SIZE_X * SIZE_Y);
+            projector.project(buffer, 0, 0, to);
+            Assert.assertEquals(to.getData().array(), expected(type, planes,
+                    algorithm, stepping, 1, SIZE_Z - 1).getData().array(),
+                    type + " stepping=" + stepping);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownAlgorithm()
+    {
+        new StackProjector(-1, 1, 0, 1, 1);
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ome.api.local.LocalQuery;
+import ome.api.local.LocalUpdate;
+import ome.conditions.ResourceError;
+import ome.io.nio.InMemoryPlanarPixelBuffer;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.ThumbnailService;
+import ome.logic.AWTScaleService;
+import ome.logic.CompressImpl;
+import ome.logic.RenderingSettingsImpl;
+import ome.model.IObject;
+import ome.model.core.Channel;
+import ome.model.core.Pixels;
+import ome.model.display.RenderingDef;
+import ome.model.display.Thumbnail;
+import ome.model.enums.PixelsType;
+import ome.model.stats.StatsInfo;
+import ome.services.ThumbnailBean;
+import ome.services.ThumbnailCtx;
+import omeis.providers.re.utests.TestPixelsMetadataService;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link ThumbnailBean#getThumbnailSet(Integer, Integer, Set)}
+ * retrieves the same thumbnails for the same Pixels sets, and saves the same
+ * metadata, whether the thumbnails are rendered concurrently on a thumbnail
+ * executor or in turn, including for cached thumbnails, Pixels sets without
+ * rendering settings and Pixels sets whose pixels cannot be read.
+ *
+ * @since 5.1.0
+ */
+@Test(groups = "unit")
+public class ThumbnailSetConcurrencyTest extends MockObjectTestCase {
+
+    /** More Pixels sets than are rendered concurrently at once. */
+    private static final int PIXELS_COUNT = 40;
+
+    private static final int SIZE = 40;
+
+    private static final int THUMBNAIL_SIZE = 32;
+
+    private static final long THUMBNAIL_ID_OFFSET = 1000;
+
+    private static final long CACHED = 2;
+
+    private static final long UNREADABLE = 4;
+
+    private static final long NO_SETTINGS = 6;
+
+    private static final byte[] CACHED_THUMBNAIL = new byte[] { 1, 2, 3 };
+
+    private final Map<Long, byte[][][][]> planes =
+        new HashMap<Long, byte[][][][]>();
+
+    private final Map<Long, RenderingDef> settings =
+        new HashMap<Long, RenderingDef>();
+
+    /** The Pixels sets whose pixel buffers cannot be opened. */
+    private final Set<Long> unreadable = new HashSet<Long>();
+
+    private final Set<Long> pixelsIds = new LinkedHashSet<Long>();
+
+    private File root;
+
+    private PixelsService pixelsService;
+
+    private ExecutorService thumbnailExecutor;
+
+    @BeforeClass
+    public void setUpPixels() throws IOException {
+        root = Files.createTempDirectory("ThumbnailSetConcurrencyTest")
+                .toFile();
+        pixelsService = new PixelsService(root.getPath()) {
+            @Override
+            public PixelBuffer getPixelBuffer(Pixels pixels, boolean write) {
+                if (unreadable.contains(pixels.getId())) {
+                    throw new ResourceError(
+                            "Cannot read Pixels set " + pixels.getId());
+                }
+                return new InMemoryPlanarPixelBuffer(pixels,
+                        planes.get(pixels.getId()));
+            }
+        };
+        final RenderingSettingsImpl settingsService =
+            new RenderingSettingsImpl();
+        settingsService.setPixelsMetadata(new TestPixelsMetadataService());
+        settingsService.setPixelsData(pixelsService);
+        for (long id = 1; id <= PIXELS_COUNT; id++) {
+            final Random random = new Random(id);
+            final byte[][][][] pixelsPlanes = new byte[1][2][1][SIZE * SIZE];
+            for (final byte[][][] zPlanes : pixelsPlanes) {
+                for (final byte[][] cPlanes : zPlanes) {
+                    random.nextBytes(cPlanes[0]);
+                }
+            }
+            planes.put(id, pixelsPlanes);
+            if (id != NO_SETTINGS) {
+                final Pixels pixels = pixels(id);
+                final RenderingDef def =
+                    settingsService.createNewRenderingDef(pixels);
+                settingsService.resetDefaultsNoSave(def, pixels);
+                def.setId(id);
+                settings.put(id, def);
+            }
+            pixelsIds.add(id);
+        }
+        unreadable.add(UNREADABLE);
+        thumbnailExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public void tearDownPixels() throws IOException {
+        thumbnailExecutor.shutdownNow();
+        FileUtils.deleteDirectory(root);
+    }
+
+    /**
+     * Creates the Pixels set of the given ID afresh, as loaded from the
+     * database.
+     */
+    private static Pixels pixels(long id) {
+        final Pixels pixels = new Pixels(id, true);
+        pixels.setSizeX(SIZE);
+        pixels.setSizeY(SIZE);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(2);
+        pixels.setSizeT(1);
+        final PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue("uint8");
+        pixelsType.setBitSize(8);
+        pixels.setPixelsType(pixelsType);
+        for (int c = 0; c < pixels.getSizeC(); c++) {
+            final StatsInfo statsInfo = new StatsInfo();
+            statsInfo.setGlobalMin(0.0);
+            statsInfo.setGlobalMax(255.0);
+            final Channel channel = new Channel();
+            channel.setStatsInfo(statsInfo);
+            pixels.addChannel(channel);
+        }
+        return pixels;
+    }
+
+    /**
+     * Thumbnail context holding the rendering settings prepared above and
+     * new thumbnail metadata for every Pixels set, as though none of the
+     * metadata were up to date.
+     */
+    private class TestThumbnailCtx extends ThumbnailCtx {
+
+        private final ThumbnailService thumbnailService;
+
+        private final Map<Long, Thumbnail> metadata =
+            new HashMap<Long, Thumbnail>();
+
+        TestThumbnailCtx(ThumbnailService thumbnailService) {
+            super(null, null, null, null, thumbnailService, null, 0);
+            this.thumbnailService = thumbnailService;
+        }
+
+        @Override
+        public void loadAndPrepareRenderingSettings(Set<Long> pixelsIds) {
+        }
+
+        @Override
+        public void createAndPrepareMissingRenderingSettings(
+                Set<Long> pixelsIds) {
+        }
+
+        @Override
+        public void loadAndPrepareMetadata(Set<Long> pixelsIds,
+                Dimension dimensions) {
+            for (final Long id : pixelsIds) {
+                final Thumbnail thumbnail =
+                    new Thumbnail(THUMBNAIL_ID_OFFSET + id, true);
+                thumbnail.setPixels(new Pixels(id, false));
+                thumbnail.setMimeType(DEFAULT_MIME_TYPE);
+                thumbnail.setSizeX((int) dimensions.getWidth());
+                thumbnail.setSizeY((int) dimensions.getHeight());
+                thumbnail.setVersion(0);
+                metadata.put(id, thumbnail);
+            }
+        }
+
+        @Override
+        public boolean hasSettings(long pixelsId) {
+            return settings.containsKey(pixelsId);
+        }
+
+        @Override
+        public Pixels getPixels(long pixelsId) {
+            return pixels(pixelsId);
+        }
+
+        @Override
+        public RenderingDef getSettings(long pixelsId) {
+            return settings.get(pixelsId);
+        }
+
+        @Override
+        public Thumbnail getMetadata(long pixelsId) {
+            return metadata.get(pixelsId);
+        }
+
+        @Override
+        public boolean dirtyMetadata(long pixelsId) {
+            return false;
+        }
+
+        @Override
+        public boolean isThumbnailCached(long pixelsId) {
+            try {
+                return thumbnailService.getThumbnailExists(
+                        metadata.get(pixelsId));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Creates a thumbnail service whose thumbnail cache is empty but for the
+     * thumbnail of {@link #CACHED}.
+     */
+    private ThumbnailService thumbnailService(String name)
+            throws IOException {
+        final File dir = new File(root, name);
+        dir.mkdirs();
+        final ThumbnailService thumbnailService =
+            new ThumbnailService(dir.getPath());
+        thumbnailService.createThumbnail(
+                new Thumbnail(THUMBNAIL_ID_OFFSET + CACHED, false),
+                CACHED_THUMBNAIL);
+        return thumbnailService;
+    }
+
+    /**
+     * Creates a thumbnail bean which renders concurrently if given a
+     * thumbnail executor.
+     * @param saved the IDs of the thumbnail metadata that the bean saves
+     */
+    private ThumbnailBean bean(String name, ExecutorService executor,
+            final Set<Long> saved) throws IOException {
+        final ThumbnailService thumbnailService = thumbnailService(name);
+        final ThumbnailBean bean = new ThumbnailBean(false) {
+            @Override
+            protected ThumbnailCtx createContext() {
+                return new TestThumbnailCtx(thumbnailService);
+            }
+        };
+        final Mock queryMock = mock(LocalQuery.class);
+        queryMock.stubs().method("evict");
+        queryMock.stubs().method("clear");
+        final Mock updateMock = mock(LocalUpdate.class);
+        updateMock.stubs().method("saveArray").will(
+                new CustomStub("notes the saved metadata") {
+                    public Object invoke(Invocation invocation) {
+                        for (final IObject thumbnail : (IObject[])
+                                invocation.parameterValues.get(0)) {
+                            assertTrue(saved.add(thumbnail.getId()));
+                        }
+                        return null;
+                    }
+                });
+        updateMock.stubs().method("flush");
+        bean.setQueryService((LocalQuery) queryMock.proxy());
+        bean.setUpdateService((LocalUpdate) updateMock.proxy());
+        bean.setIPixels(new TestPixelsMetadataService() {
+            @Override
+            public Pixels retrievePixDescription(long id) {
+                return pixels(id);
+            }
+
+            @Override
+            public RenderingDef loadRndSettings(long id) {
+                return settings.get(id);
+            }
+        });
+        bean.setPixelDataService(pixelsService);
+        bean.setIoService(thumbnailService);
+        bean.setCompressionService(new CompressImpl());
+        bean.setScaleService(new AWTScaleService());
+        if (executor != null) {
+            bean.setThumbnailExecutor(executor);
+        }
+        return bean;
+    }
+
+    public void testConcurrentSetMatchesSerial() throws IOException {
+        final Set<Long> savedSerially = new HashSet<Long>();
+        final Map<Long, byte[]> serial = bean("serial", null, savedSerially)
+                .getThumbnailSet(THUMBNAIL_SIZE, THUMBNAIL_SIZE, pixelsIds);
+        final Set<Long> savedConcurrently = new HashSet<Long>();
+        final Map<Long, byte[]> concurrent =
+            bean("concurrent", thumbnailExecutor, savedConcurrently)
+                .getThumbnailSet(THUMBNAIL_SIZE, THUMBNAIL_SIZE, pixelsIds);
+
+        assertEquals(new ArrayList<Long>(serial.keySet()),
+                new ArrayList<Long>(concurrent.keySet()));
+        final List<Long> rendered = new ArrayList<Long>();
+        for (final Map.Entry<Long, byte[]> entry : serial.entrySet()) {
+            final Long id = entry.getKey();
+            assertTrue("Pixels set " + id,
+                    Arrays.equals(entry.getValue(), concurrent.get(id)));
+            if (id != CACHED && id != UNREADABLE) {
+                rendered.add(id);
+            }
+        }
+        // Each thumbnail is that of its own Pixels set.
+        for (int i = 1; i < rendered.size(); i++) {
+            assertFalse(Arrays.equals(serial.get(rendered.get(i - 1)),
+                    serial.get(rendered.get(i))));
+        }
+
+        assertEquals(PIXELS_COUNT - 1, concurrent.size());
+        assertFalse(concurrent.containsKey(NO_SETTINGS));
+        assertTrue(concurrent.containsKey(UNREADABLE));
+        assertNull(concurrent.get(UNREADABLE));
+        assertTrue(Arrays.equals(CACHED_THUMBNAIL, concurrent.get(CACHED)));
+
+        assertEquals(savedSerially, savedConcurrently);
+        assertEquals(PIXELS_COUNT - 2, savedConcurrently.size());
+        assertFalse(savedConcurrently.contains(
+                THUMBNAIL_ID_OFFSET + UNREADABLE));
+        assertTrue(savedConcurrently.contains(THUMBNAIL_ID_OFFSET + CACHED));
+    }
+
+    public void testSingleFailingPixelsSet() throws IOException {
+        final Set<Long> ids = new LinkedHashSet<Long>(
+                Arrays.asList(UNREADABLE, 1L));
+        final Set<Long> saved = new HashSet<Long>();
+        final Map<Long, byte[]> concurrent =
+            bean("failing", thumbnailExecutor, saved)
+                .getThumbnailSet(THUMBNAIL_SIZE, THUMBNAIL_SIZE, ids);
+        assertEquals(2, concurrent.size());
+        assertNull(concurrent.get(UNREADABLE));
+        assertNotNull(concurrent.get(1L));
+        assertEquals(Collections.singleton(THUMBNAIL_ID_OFFSET + 1), saved);
+    }
+}
@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.Random;
 
 import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
 
 import ome.api.IPixels;
 import ome.io.nio.PixelBuffer;
@@ -24,6 +25,7 @@ import ome.model.enums.RenderingModel;
 import ome.model.stats.StatsInfo;
 import omeis.providers.re.Renderer;
 import omeis.providers.re.quantum.QuantumFactory;
+import omeis.providers.re.quantum.QuantumStrategy;
 
 import junit.framework.TestCase;
 
@@ -80,6 +82,20 @@ public class BaseRenderingTest extends TestCase
 				                pixels, settings, pixelBuffer);
 	}
 	
+	@Test
+	public void testBatchQuantizeMatchesScalar() throws Exception
+	{
+		QuantumStrategy qs = quantumFactory.getStrategy(
+				settings.getQuantization(), pixels);
+		int n = data.size();
+		byte[] out = new byte[n];
+		qs.quantize(data, 0, n, out);
+		for (int i = 0; i < n; i++)
+		{
+			assertEquals(qs.quantize(data.getPixelValue(i)), out[i] & 0xFF);
+		}
+	}
+
 	protected QuantumFactory createQuantumFactory()
 	{
 		return new TestQuantumFactory();
@@ -0,0 +1,203 @@
+/*
+ *   Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import java.nio.ByteBuffer;
+
+import ome.model.enums.PixelsType;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.quantum.Quantization_32_bit;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.Quantization_float;
+import omeis.providers.re.quantum.QuantumFactory;
+
+import org.perf4j.LoggingStopWatch;
+import org.perf4j.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Measures the rendering throughput, in megapixels per second, for each of
+ * the main pixels types and several channel counts so that regressions in
+ * the rendering loop are visible. Not part of the unit suite; run the
+ * <i>manual</i> group explicitly.
+ */
+@Test(groups = "manual")
+public class TestRenderingThroughput extends BaseRenderingTest
+{
+
+	private static final Logger log =
+		LoggerFactory.getLogger(TestRenderingThroughput.class);
+
+	/** The pixels types measured: value, bit size and bytes per pixel. */
+	private static final Object[][] TYPES = new Object[][] {
+		{ "uint8", 8, 1 },
+		{ "uint16", 16, 2 },
+		{ "int32", 32, 4 },
+		{ "float", 32, 4 } };
+
+	/** The channel counts measured. */
+	private static final int[] CHANNELS = new int[] { 1, 3, 5 };
+
+	/** The number of planes rendered for each measure. */
+	private static final int PLANES = 20;
+
+	private String type = "uint16";
+
+	private int bitSize = 16;
+
+	private int bytesPerPixel = 2;
+
+	private int sizeC = 1;
+
+	@Override
+	protected QuantumFactory createQuantumFactory()
+	{
+		TestQuantumFactory qf = new TestQuantumFactory();
+		if ("float".equals(type))
+		{
+			qf.setStrategy(new Quantization_float(
+					settings.getQuantization(), pixels));
+		}
+		else if ("int32".equals(type))
+		{
+			qf.setStrategy(new Quantization_32_bit(
+					settings.getQuantization(), pixels));
+		}
+		else
+		{
+			qf.setStrategy(new Quantization_8_16_bit(
+					settings.getQuantization(), pixels));
+		}
+		return qf;
+	}
+
+	@Override
+	protected int getSizeC()
+	{
+		return sizeC;
+	}
+
+	@Override
+	protected int getBytesPerPixel()
+	{
+		return bytesPerPixel;
+	}
+
+	@Override
+	protected PixelsType getPixelsType()
+	{
+		PixelsType pixelsType = new PixelsType();
+		pixelsType.setValue(type);
+		pixelsType.setBitSize(bitSize);
+		return pixelsType;
+	}
+
+	@Override
+	protected byte[] getPlane()
+	{
+		int n = getSizeX() * getSizeY();
+		ByteBuffer buffer = ByteBuffer.allocate(n * getBytesPerPixel());
+		for (int i = 0; i < n; i++)
+		{
+			if ("float".equals(type))
+			{
+				buffer.putFloat(random.nextFloat() * 65535);
+			}
+			else if ("int32".equals(type))
+			{
+				buffer.putInt(random.nextInt(1 << 20));
+			}
+			else if (bytesPerPixel == 2)
+			{
+				buffer.putShort((short) random.nextInt(1 << 16));
+			}
+			else
+			{
+				buffer.put((byte) random.nextInt(1 << 8));
+			}
+		}
+		return buffer.array();
+	}
+
+	public void testPackedIntThroughput() throws Exception
+	{
+		for (Object[] t : TYPES)
+		{
+			for (int c : CHANNELS)
+			{
+				configure(t, c);
+				measure("packedInt", true);
+			}
+		}
+	}
+
+	public void testBandedThroughput() throws Exception
+	{
+		for (Object[] t : TYPES)
+		{
+			for (int c : CHANNELS)
+			{
+				configure(t, c);
+				measure("banded", false);
+			}
+		}
+	}
+
+	/**
+	 * Sets up a renderer for the passed pixels type and number of channels,
+	 * all of them active.
+	 */
+	private void configure(Object[] t, int channels)
+	{
+		type = (String) t[0];
+		bitSize = (Integer) t[1];
+		bytesPerPixel = (Integer) t[2];
+		sizeC = channels;
+		super.setUp();
+		for (int c = 0; c < sizeC; c++)
+		{
+			renderer.setActive(c, true);
+		}
+	}
+
+	/**
+	 * Renders {@link #PLANES} planes into the given output format and logs
+	 * the throughput.
+	 */
+	private void measure(String format, boolean packed) throws Exception
+	{
+		PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+		// Warm up.
+		render(def, packed);
+		StopWatch stopWatch = new LoggingStopWatch(
+				"testRenderingThroughput." + format + "." + type + "." + sizeC);
+		for (int i = 0; i < PLANES; i++)
+		{
+			render(def, packed);
+		}
+		stopWatch.stop();
+		double megapixels =
+			(double) PLANES * getSizeX() * getSizeY() / (1024 * 1024);
+		double seconds = Math.max(stopWatch.getElapsedTime(), 1) / 1000.0;
+		log.info(String.format("%s %s %d channel(s): %.1f megapixels/s",
+				format, type, sizeC, megapixels / seconds));
+	}
+
+	private void render(PlaneDef def, boolean packed) throws Exception
+	{
+		if (packed)
+		{
+			renderer.renderAsPackedInt(def, pixelBuffer);
+		}
+		else
+		{
+			renderer.render(def);
+		}
+	}
+}
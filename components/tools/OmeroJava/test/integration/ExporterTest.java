@@ -38,6 +38,8 @@ import javax.xml.transform.stream.StreamSource;
 import loci.common.Constants;
 import loci.common.RandomAccessInputStream;
 import loci.common.RandomAccessOutputStream;
+import loci.formats.in.OMETiffReader;
+import loci.formats.tiff.IFD;
 import loci.formats.tiff.TiffParser;
 import loci.formats.tiff.TiffSaver;
 import ome.services.blitz.util.CurrentPlatform;
@@ -46,6 +48,7 @@ import ome.specification.XMLMockObjects;
 import ome.specification.XMLWriter;
 import omero.api.ExporterPrx;
 import omero.api.RawFileStorePrx;
+import omero.api.RawPixelsStorePrx;
 import omero.model.FileAnnotation;
 import omero.model.FileAnnotationI;
 import omero.model.IObject;
@@ -470,6 +473,88 @@ public class ExporterTest extends AbstractServerTest {
         exporter.close();
     }
 
+    /**
+     * Tests to export as OME-TIFF an image with several planes larger than
+     * a TIFF tile, so that each plane is written in tiles, including
+     * partial tiles at the right and bottom edges.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testExportAsOMETIFFInTiles() throws Exception {
+        final int sizeX = 600;
+        final int sizeY = 530;
+        final int sizeZ = 2;
+        Image image = mmFactory.createImage(sizeX, sizeY, sizeZ, 1, 1);
+        image = (Image) iUpdate.saveAndReturnObject(image);
+        Pixels pixels = image.getPrimaryPixels();
+        List<byte[]> planes = new ArrayList<byte[]>();
+        RawPixelsStorePrx svc = factory.createRawPixelsStore();
+        try {
+            svc.setPixelsId(pixels.getId().getValue(), false);
+            int planeSize = (int) svc.getPlaneSize();
+            for (int z = 0; z < sizeZ; z++) {
+                byte[] plane = new byte[planeSize];
+                for (int i = 0; i < planeSize; i++) {
+                    plane[i] = (byte) (i * 31 + z * 7);
+                }
+                svc.setPlane(plane, z, 0, 0);
+                planes.add(plane);
+            }
+        } finally {
+            svc.close();
+        }
+
+        File f = File.createTempFile(RandomStringUtils.random(100, false, true),
+                "." + OME_TIFF);
+        ExporterPrx exporter = factory.createExporter();
+        FileOutputStream stream = new FileOutputStream(f);
+        try {
+            exporter.addImage(image.getId().getValue());
+            long size = exporter.generateTiff();
+            for (long offset = 0; offset < size; offset += INC) {
+                stream.write(exporter.read(offset,
+                        (int) Math.min(INC, size - offset)));
+            }
+        } finally {
+            stream.close();
+            exporter.close();
+        }
+
+        TiffParser parser = new TiffParser(f.getAbsolutePath());
+        try {
+            IFD ifd = parser.getFirstIFD();
+            assertEquals(512, ifd.getTileWidth());
+            assertEquals(512, ifd.getTileLength());
+        } finally {
+            parser.getStream().close();
+        }
+
+        OMETiffReader reader = new OMETiffReader();
+        try {
+            reader.setId(f.getAbsolutePath());
+            assertEquals(sizeX, reader.getSizeX());
+            assertEquals(sizeY, reader.getSizeY());
+            assertEquals(sizeZ, reader.getImageCount());
+            for (int z = 0; z < sizeZ; z++) {
+                byte[] expected = planes.get(z);
+                byte[] actual = reader.openBytes(reader.getIndex(z, 0, 0));
+                assertEquals(expected.length, actual.length);
+                for (int i = 0; i < expected.length; i += 2) {
+                    // Pixels are stored big-endian uint16.
+                    int j = reader.isLittleEndian() ? i + 1 : i;
+                    int k = reader.isLittleEndian() ? i : i + 1;
+                    assertEquals(expected[i], actual[j]);
+                    assertEquals(expected[i + 1], actual[k]);
+                }
+            }
+        } finally {
+            reader.close();
+            f.delete();
+        }
+    }
+
     /**
      * Generates an <code>OME-XML</code> file.
      * 
@@ -12,6 +12,7 @@ import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 
 import java.awt.Point;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -19,6 +20,8 @@ import java.util.List;
 import java.util.Map;
 
 import omero.api.IRenderingSettingsPrx;
+import omero.cmd.ResetRenderingSettings;
+import omero.cmd.ResetRenderingSettingsResponse;
 import omero.model.Channel;
 import omero.model.ChannelBinding;
 import omero.model.Dataset;
@@ -41,6 +44,7 @@ import omero.model.Well;
 import omero.model.WellSample;
 import omero.sys.EventContext;
 import omero.sys.ParametersI;
+import omero.util.TempFileManager;
 
 import org.testng.annotations.Test;
 
@@ -187,6 +191,96 @@ public class RenderingSettingsServiceTest extends AbstractServerTest {
         assertEquals(values.size(), 1);
     }
 
+    /**
+     * Tests to reset the rendering settings of a dataset through the
+     * {@link ResetRenderingSettings} request.
+     *
+     * @throws Exception
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testResetRenderingSettingsRequestForDataset() throws Exception {
+        Dataset d = (Dataset) iUpdate.saveAndReturnObject(mmFactory
+                .simpleDatasetData().asIObject());
+        List<Long> imageIds = new ArrayList<Long>();
+        List<Long> pixelsIds = new ArrayList<Long>();
+        for (int i = 0; i < 3; i++) {
+            Image image = createBinaryImage();
+            imageIds.add(image.getId().getValue());
+            pixelsIds.add(image.getPrimaryPixels().getId().getValue());
+            DatasetImageLink l = new DatasetImageLinkI();
+            l.setChild(image);
+            l.setParent(d);
+            iUpdate.saveAndReturnObject(l);
+        }
+
+        ResetRenderingSettings req = new ResetRenderingSettings();
+        req.targetType = "Dataset";
+        req.targetIds = Arrays.asList(d.getId().getValue());
+        ResetRenderingSettingsResponse rsp =
+                (ResetRenderingSettingsResponse) doChange(req);
+        assertEquals(rsp.imageIds.size(), imageIds.size());
+        assertTrue(rsp.imageIds.containsAll(imageIds));
+
+        ParametersI param = new ParametersI();
+        param.addIds(pixelsIds);
+        String sql = "select rdef from RenderingDef as rdef "
+                + "where rdef.pixels.id in (:ids)";
+        List<IObject> values = iQuery.findAllByQuery(sql, param);
+        assertEquals(values.size(), pixelsIds.size());
+    }
+
+    /**
+     * Tests to set the default rendering settings for the images of a
+     * multi-series fileset. The pixel buffers of the set are opened together
+     * and read concurrently, so each image must still be given the settings
+     * computed from its own series, as when it is reset on its own.
+     *
+     * @throws Throwable
+     *             Thrown if an error occurred.
+     */
+    @Test
+    public void testResetDefaultInSetForMultiSeriesFileset() throws Throwable {
+        int seriesCount = 3;
+        File fake = TempFileManager.create_path("resetDefaultsMIF",
+                String.format("&series=%d&sizeC=2.fake", seriesCount));
+        List<Pixels> pixels = importFile(importer, fake, null, false, null);
+        assertEquals(pixels.size(), seriesCount);
+        List<Long> imageIds = new ArrayList<Long>();
+        for (Pixels p : pixels) {
+            imageIds.add(p.getImage().getId().getValue());
+        }
+
+        IRenderingSettingsPrx prx = factory.getRenderingSettingsService();
+        List<Long> v = prx.resetDefaultsInSet(Image.class.getName(), imageIds);
+        assertNotNull(v);
+        assertEquals(v.size(), seriesCount);
+        List<RenderingDef> inSet = new ArrayList<RenderingDef>();
+        for (Pixels p : pixels) {
+            inSet.add(factory.getPixelsService().retrieveRndSettings(
+                    p.getId().getValue()));
+        }
+
+        for (int i = 0; i < seriesCount; i++) {
+            prx.resetDefaultsInImage(imageIds.get(i));
+            RenderingDef alone = factory.getPixelsService()
+                    .retrieveRndSettings(pixels.get(i).getId().getValue());
+            RenderingDef def = inSet.get(i);
+            assertEquals(def.sizeOfWaveRendering(),
+                    alone.sizeOfWaveRendering());
+            for (int c = 0; c < def.sizeOfWaveRendering(); c++) {
+                ChannelBinding cb = def.getChannelBinding(c);
+                ChannelBinding expected = alone.getChannelBinding(c);
+                assertEquals(cb.getInputStart().getValue(), expected
+                        .getInputStart().getValue());
+                assertEquals(cb.getInputEnd().getValue(), expected
+                        .getInputEnd().getValue());
+                assertEquals(cb.getNoiseReduction().getValue(), expected
+                        .getNoiseReduction().getValue());
+            }
+        }
+    }
+
     /**
      * Tests to set the default rendering settings for a project.
      *
@@ -14,5 +14,7 @@ TRANSFERS = {
     "ome.formats.importer.transfers.MoveFileTransfer": "ln_rm",
     "ome.formats.importer.transfers.SymlinkFileTransfer": "ln_s",
     "ome.formats.importer.transfers.UploadRmFileTransfer": "upload_rm",
+    "ome.formats.importer.transfers.PipelinedUploadFileTransfer":
+    "upload_pipelined",
     "ome.formats.importer.transfers.UploadFileTransfer": "",
     }
@@ -28,6 +28,7 @@ IceImport.load("omero_cmd_Basic_ice")
 IceImport.load("omero_cmd_FS_ice")
 IceImport.load("omero_cmd_Graphs_ice")
 IceImport.load("omero_cmd_Mail_ice")
+IceImport.load("omero_cmd_Rendering_ice")
 
 # Previous ServiceFactory API
 IceImport.load("omero_API_ice")
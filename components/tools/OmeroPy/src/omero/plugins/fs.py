@@ -308,6 +308,11 @@ class FsControl(CmdControl):
         usage.add_argument(
             "--groups",  action="store_true",
             help="Print size for all current user's groups")
+        usage.add_argument(
+            "--ledger", action="store_true",
+            help=("For whole users or groups, read the usage from the "
+                  "server's disk usage ledger if available, which is "
+                  "faster but counts files differently"))
         usage.add_argument(
             "obj", nargs="*",
             help=("Objects to be queried in the form "
@@ -768,6 +773,7 @@ Examples:
                     "ExperimenterGroup:%s" % ",".join(map(str, gids)))
 
         req.objects, req.classes = self._usage_obj(args.obj)
+        req.useLedger = args.ledger
         cb = None
         try:
             rsp, status, cb = self.response(client, req, wait=args.wait)
@@ -192,6 +192,9 @@ class ImportControl(BaseControl):
         parser.add_argument(
             "--depth", default=4, type=int,
             help="Number of directories to scan down for files")
+        parser.add_argument(
+            "--scan-threads", default=1, type=int,
+            help="Number of threads parsing the files found while scanning")
         parser.add_argument(
             "--skip", type=str, choices=SKIP_CHOICES, action='append',
             help="Optional step to skip during import")
@@ -296,6 +299,7 @@ class ImportControl(BaseControl):
         self.set_skip_arguments(args)
         self.set_java_arguments(args)
         xargs.append("-Domero.import.depth=%s" % args.depth)
+        xargs.append("-Domero.import.scan.threads=%s" % args.scan_threads)
         import_command = self.COMMAND + self.command_args + args.path
 
         try:
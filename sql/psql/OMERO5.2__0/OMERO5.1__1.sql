@@ -139,6 +139,65 @@ CREATE OR REPLACE FUNCTION annotation_updates_note_reindex() RETURNS void AS $$
 $$ LANGUAGE plpgsql;
 
 
+-- Ledger of the usage of disk space, see DiskUsageLedger
+
+create table _disk_usage (
+    entity_type varchar(255) not null,
+    entity_id bigint not null,
+    owner_id bigint not null,
+    group_id bigint not null,
+    usage_types varchar(255) not null,
+    file_count integer not null,
+    bytes bigint not null,
+    primary key (entity_type, entity_id));
+
+create table _disk_usage_totals (
+    owner_id bigint not null,
+    group_id bigint not null,
+    usage_type varchar(255) not null,
+    file_count bigint not null,
+    bytes bigint not null,
+    primary key (owner_id, group_id, usage_type));
+
+create index _disk_usage_totals_group on _disk_usage_totals(group_id);
+
+create or replace function _disk_usage_add(owner bigint, grp bigint, utype varchar, files bigint, size bigint) returns void AS $_disk_usage_add$
+    begin
+        UPDATE _disk_usage_totals SET file_count = file_count + files, bytes = bytes + size
+            WHERE owner_id = owner AND group_id = grp AND usage_type = utype;
+        if not found then
+            INSERT INTO _disk_usage_totals (owner_id, group_id, usage_type, file_count, bytes)
+                VALUES (owner, grp, utype, files, size);
+        end if;
+    END;
+$_disk_usage_add$ LANGUAGE plpgsql;
+
+create or replace function _disk_usage_note() returns trigger AS $_disk_usage_note$
+    declare
+        utype varchar;
+    begin
+        if TG_OP <> 'INSERT' then
+            PERFORM _disk_usage_add(OLD.owner_id, OLD.group_id, '', -OLD.file_count, -OLD.bytes);
+            for utype in SELECT regexp_split_to_table(OLD.usage_types, ',') loop
+                PERFORM _disk_usage_add(OLD.owner_id, OLD.group_id, utype, -OLD.file_count, -OLD.bytes);
+            end loop;
+        end if;
+        if TG_OP <> 'DELETE' then
+            PERFORM _disk_usage_add(NEW.owner_id, NEW.group_id, '', NEW.file_count, NEW.bytes);
+            for utype in SELECT regexp_split_to_table(NEW.usage_types, ',') loop
+                PERFORM _disk_usage_add(NEW.owner_id, NEW.group_id, utype, NEW.file_count, NEW.bytes);
+            end loop;
+            return NEW;
+        end if;
+        return OLD;
+    END;
+$_disk_usage_note$ LANGUAGE plpgsql;
+
+create trigger _disk_usage_note
+after insert or update or delete on _disk_usage
+    for each row execute procedure _disk_usage_note();
+
+
 --
 -- FINISHED
 --